@@ -0,0 +1,149 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.qmedic.data.converter.gt3x.AccelPair;
+import com.qmedic.data.converter.gt3x.enums.GT3XParserOutputDataType;
+import com.qmedic.data.converter.gt3x.io.AccelCsvEncoder;
+import com.qmedic.data.converter.gt3x.model.AccelSampleBlock;
+import com.qmedic.data.converter.gt3x.utils.ActivityUnpacker;
+import com.qmedic.data.converter.gt3x.utils.MHealthUtils;
+import com.qmedic.data.converter.gt3x.utils.TimestampFormatter;
+
+/*
+ * Decoding and writing of V1 activity pairs, for every combination of the output options.
+ * One operation is one pair (two samples).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class AccelPairBenchmark {
+
+	private static final int PAIRS = 4096;
+	private static final double ACCELERATION_SCALE = 341d;
+	private static final int SAMPLING_RATE = 30;
+	private static final long START_TS = 1451606400000L; // 2016-01-01 00:00:00 UTC
+	
+	@Param({"true", "false"})
+	public boolean inG;
+	
+	@Param({"true", "false"})
+	public boolean withTimestamps;
+	
+	@Param({"MHEALTH", "ACTIGRAPH"})
+	public GT3XParserOutputDataType outputDataType;
+	
+	private byte[] _bytes;
+	private AccelSampleBlock _block;
+	private AccelPair _pair;
+	private BufferedWriter _writer;
+	private SimpleDateFormat _sdf;
+	private AccelCsvEncoder _encoder;
+	private double _timestamp;
+	private int _index;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		// Random 12-bit samples, like a subject moving around a lot
+		_bytes = new byte[PAIRS * ActivityUnpacker.PAIR_SIZE];
+		new Random(42).nextBytes(_bytes);
+		_block = new AccelSampleBlock(PAIRS * 2);
+		ActivityUnpacker.unpack(_bytes, 0, _bytes.length, _block);
+		
+		_pair = new AccelPair(inG, withTimestamps, SAMPLING_RATE, outputDataType);
+		_writer = new BufferedWriter(new DiscardingWriter());
+		_sdf = new SimpleDateFormat(outputDataType == GT3XParserOutputDataType.ACTIGRAPH 
+				? MHealthUtils.ACTIGRAPH_TIMESTAMP_DATA_FORMAT : MHealthUtils.MHEALTH_TIMESTAMP_DATA_FORMAT);
+		_sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+		_encoder = new AccelCsvEncoder(inG, withTimestamps, ACCELERATION_SCALE, outputDataType, 
+				TimestampFormatter.forOutputDataType(outputDataType).copy());
+		_encoder.open(DiscardingWriter.outputStream());
+		_timestamp = START_TS;
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		_encoder.close();
+	}
+	
+	private int nextIndex() {
+		int index = _index;
+		_index = (index + 1) % PAIRS;
+		return index;
+	}
+	
+	@Benchmark
+	public void setAccelPair(Blackhole bh) {
+		_pair.setAccelPair(_bytes, nextIndex() * ActivityUnpacker.PAIR_SIZE, ACCELERATION_SCALE);
+		bh.consume(_pair);
+	}
+	
+	/*
+	 * The row writer used for summaries and by the converter before AccelCsvEncoder
+	 */
+	@Benchmark
+	public Object writeToFile() throws IOException {
+		_pair.setAccelPair(_bytes, nextIndex() * ActivityUnpacker.PAIR_SIZE, ACCELERATION_SCALE);
+		Object data = _pair.writeToFile(_writer, _timestamp, _sdf);
+		_timestamp += _pair.advanceTimestampHelper();
+		_timestamp += _pair.advanceTimestampHelper();
+		return data;
+	}
+	
+	@Benchmark
+	public double writePairToEncoder() throws IOException {
+		_timestamp = _pair.writePairToFile(_encoder, _timestamp, _block, nextIndex() * 2);
+		return _timestamp;
+	}
+}
@@ -0,0 +1,98 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.qmedic.data.converter.gt3x.ActivityCountSummaryCreator;
+import com.qmedic.data.converter.gt3x.model.AccelSampleBlock;
+import com.qmedic.data.converter.gt3x.utils.MHealthUtils;
+
+/*
+ * Activity count summary, one operation is one sample at 30Hz (a row every 1800 samples)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ActivityCountBenchmark {
+
+	private static final int SAMPLES = 4096;
+	private static final double ACCELERATION_SCALE = 341d;
+	private static final long START_TS = 1451606400000L; // 2016-01-01 00:00:00 UTC
+	
+	private final AccelSampleBlock _block = new AccelSampleBlock(SAMPLES);
+	private final ActivityCountSummaryCreator _creator = new ActivityCountSummaryCreator();
+	private BufferedWriter _writer;
+	private SimpleDateFormat _sdf;
+	private int _index;
+	private long _timestamp;
+	
+	@Setup(Level.Trial)
+	public void setUp() {
+		Random random = new Random(42);
+		for(int i = 0; i < SAMPLES; i++) {
+			_block.x()[i] = (short)(random.nextInt(4096) - 2048);
+			_block.y()[i] = (short)(random.nextInt(4096) - 2048);
+			_block.z()[i] = (short)(random.nextInt(4096) - 2048);
+		}
+		_block.setSize(SAMPLES);
+		_writer = new BufferedWriter(new DiscardingWriter());
+		_sdf = new SimpleDateFormat(MHealthUtils.MHEALTH_TIMESTAMP_DATA_FORMAT);
+		_sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+		_timestamp = START_TS;
+	}
+	
+	@Benchmark
+	public void processNewAccelData() throws IOException {
+		int index = _index;
+		_index = (index + 1) & (SAMPLES - 1);
+		_timestamp += 33;
+		_creator.processNewAccelData(_writer, _timestamp, _block, index, ACCELERATION_SCALE, _sdf);
+	}
+}
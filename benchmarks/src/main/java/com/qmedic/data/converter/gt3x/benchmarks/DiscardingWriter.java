@@ -0,0 +1,60 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.benchmarks;
+
+import java.io.OutputStream;
+import java.io.Writer;
+
+/*
+ * Writer that drops everything, so the benchmarks measure formatting and not the disk
+ */
+class DiscardingWriter extends Writer {
+
+	@Override
+	public void write(char[] cbuf, int off, int len) {}
+
+	@Override
+	public void write(String str, int off, int len) {}
+
+	@Override
+	public void flush() {}
+
+	@Override
+	public void close() {}
+	
+	static OutputStream outputStream() {
+		return new OutputStream() {
+			@Override
+			public void write(int b) {}
+			
+			@Override
+			public void write(byte[] b, int off, int len) {}
+		};
+	}
+}
@@ -0,0 +1,115 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.qmedic.data.converter.gt3x.EpochAggregator;
+import com.qmedic.data.converter.gt3x.enums.EpochMetric;
+import com.qmedic.data.converter.gt3x.model.AccelSampleBlock;
+import com.qmedic.data.converter.gt3x.utils.TimestampFormatter;
+
+/*
+ * Epoch files with all metrics but the counts, and with all of them, one operation is one pair of samples at 30Hz
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EpochAggregatorBenchmark {
+
+	private static final int SAMPLES = 4096;
+	private static final double ACCELERATION_SCALE = 341d;
+	private static final int SAMPLE_RATE = 30;
+	private static final long START_TS = 1451606400000L; // 2016-01-01 00:00:00 UTC
+	
+	@Param({"60", "1,5,10,60"})
+	public String epochs;
+	
+	@Param({"ENMO,MAD,MEAN,SD,MINMAX", "ENMO,MAD,MEAN,SD,MINMAX,COUNTS"})
+	public String metrics;
+	
+	private final AccelSampleBlock _block = new AccelSampleBlock(SAMPLES);
+	private EpochAggregator _aggregator;
+	private int _index;
+	private long _timestamp;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		Random random = new Random(42);
+		for(int i = 0; i < SAMPLES; i++) {
+			_block.x()[i] = (short)(random.nextInt(4096) - 2048);
+			_block.y()[i] = (short)(random.nextInt(4096) - 2048);
+			_block.z()[i] = (short)(random.nextInt(4096) - 2048);
+		}
+		_block.setSize(SAMPLES);
+		String[] lengths = epochs.split(",");
+		int[] seconds = new int[lengths.length];
+		OutputStream[] outs = new OutputStream[lengths.length];
+		for(int i = 0; i < lengths.length; i++) {
+			seconds[i] = Integer.parseInt(lengths[i]);
+			outs[i] = DiscardingWriter.outputStream();
+		}
+		EnumSet<EpochMetric> epochMetrics = EnumSet.noneOf(EpochMetric.class);
+		for(String metric : metrics.split(",")) {
+			epochMetrics.add(EpochMetric.valueOf(metric));
+		}
+		_aggregator = new EpochAggregator(seconds, epochMetrics, ACCELERATION_SCALE, SAMPLE_RATE, TimestampFormatter.MHEALTH);
+		_aggregator.open(outs);
+		_timestamp = START_TS;
+	}
+	
+	@Benchmark
+	public void addPair() throws IOException {
+		int index = _index;
+		_index = (index + 2) & (SAMPLES - 1);
+		double t0 = _timestamp;
+		_timestamp += 67;
+		_aggregator.addPair(t0, t0 + 33, _block, index);
+	}
+}
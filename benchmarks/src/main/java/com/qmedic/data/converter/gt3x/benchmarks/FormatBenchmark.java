@@ -0,0 +1,139 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.qmedic.data.converter.gt3x.base.OutFileWriter;
+import com.qmedic.data.converter.gt3x.enums.GT3XParserOutputDataType;
+import com.qmedic.data.converter.gt3x.utils.MHealthUtils;
+import com.qmedic.data.converter.gt3x.utils.TimestampFormatter;
+
+/*
+ * Number and timestamp formatting of the CSV rows. One operation is one value or one timestamp.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FormatBenchmark {
+
+	private static final int VALUES = 4096;
+	private static final double ACCELERATION_SCALE = 341d;
+	private static final long START_TS = 1451606400000L; // 2016-01-01 00:00:00 UTC
+	
+	/*
+	 * Gives access to the protected formatting methods
+	 */
+	static final class ValueFormatter extends OutFileWriter {
+		String format(final double d) {
+			return formatTo3Decimals(d);
+		}
+		
+		void append(final BufferedWriter writer, final double d) throws IOException {
+			appendTo3Decimals(writer, d);
+		}
+	}
+	
+	@Param({"MHEALTH", "ACTIGRAPH"})
+	public GT3XParserOutputDataType outputDataType;
+	
+	private final double[] _values = new double[VALUES];
+	private final ValueFormatter _formatter = new ValueFormatter();
+	private final byte[] _timestampBuffer = new byte[TimestampFormatter.MAX_LENGTH];
+	private BufferedWriter _writer;
+	private SimpleDateFormat _sdf;
+	private TimestampFormatter _timestampFormatter;
+	private int _index;
+	private long _timestamp;
+	
+	@Setup(Level.Trial)
+	public void setUp() {
+		// Every 12-bit ADC value in g
+		for(int i = 0; i < VALUES; i++) {
+			_values[i] = (i - 2048) / ACCELERATION_SCALE;
+		}
+		_writer = new BufferedWriter(new DiscardingWriter());
+		_sdf = new SimpleDateFormat(outputDataType == GT3XParserOutputDataType.ACTIGRAPH 
+				? MHealthUtils.ACTIGRAPH_TIMESTAMP_DATA_FORMAT : MHealthUtils.MHEALTH_TIMESTAMP_DATA_FORMAT);
+		_sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+		_timestampFormatter = TimestampFormatter.forOutputDataType(outputDataType).copy();
+		_timestamp = START_TS;
+	}
+	
+	private double nextValue() {
+		int index = _index;
+		_index = (index + 1) & (VALUES - 1);
+		return _values[index];
+	}
+	
+	private long nextTimestamp() {
+		_timestamp += 33; // 30Hz
+		return _timestamp;
+	}
+	
+	@Benchmark
+	public String formatTo3Decimals() {
+		return _formatter.format(nextValue());
+	}
+	
+	@Benchmark
+	public void appendTo3Decimals() throws IOException {
+		_formatter.append(_writer, nextValue());
+	}
+	
+	@Benchmark
+	public String simpleDateFormat() {
+		return _sdf.format(nextTimestamp());
+	}
+	
+	@Benchmark
+	public int timestampFormatter() {
+		return _timestampFormatter.format(nextTimestamp(), _timestampBuffer, 0);
+	}
+}
@@ -0,0 +1,116 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.qmedic.data.converter.gt3x.enums.LogRecordType;
+import com.qmedic.data.converter.gt3x.model.AccelSampleBlock;
+import com.qmedic.data.converter.gt3x.model.LogRecord;
+import com.qmedic.data.converter.gt3x.utils.ActivityUnpacker;
+import com.qmedic.data.converter.gt3x.utils.GT3XUtils;
+import com.qmedic.data.converter.gt3x.utils.TimestampHelper;
+
+/*
+ * Per record and per sample work of the V2 (log.bin) loop
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class LogRecordBenchmark {
+
+	/*
+	 * Samples per second of the activity records (the payload holds 4.5 bytes per sample, 6 for ACTIVITY2)
+	 */
+	@Param({"30", "80", "100"})
+	public int samplingRate;
+	
+	@Param({"ACTIVITY", "ACTIVITY2"})
+	public LogRecordType recordType;
+	
+	private LogRecord _record;
+	private AccelSampleBlock _samples;
+	private TimestampHelper _tsHelper;
+	
+	@Setup(Level.Trial)
+	public void setUp() {
+		int pairSize = ActivityUnpacker.pairSize(recordType.getId());
+		byte[] payload = new byte[samplingRate / 2 * pairSize];
+		new Random(42).nextBytes(payload);
+		_record = new LogRecord();
+		_record.setSeparator((byte)0x1E);
+		_record.setType(recordType.getId());
+		_record.setTimestamp(1451606400L);
+		_record.setPayloadSize(payload.length);
+		_record.setPayload(payload);
+		_samples = new AccelSampleBlock(samplingRate);
+		_tsHelper = new TimestampHelper(1000, samplingRate);
+	}
+	
+	/*
+	 * One activity record
+	 */
+	@Benchmark
+	public byte calculateCheckSum() {
+		return GT3XUtils.CalculateCheckSum(_record, (byte)0x1E);
+	}
+	
+	/*
+	 * The samples of one activity record (samplingRate of them), as LogActivityProcessor decodes them
+	 */
+	@Benchmark
+	public int unpack() {
+		return ActivityUnpacker.unpack(_record.getType(), _record.getPayloadBuffer(), _record.getPayloadOffset(), _record.getPayloadSize(), _samples);
+	}
+	
+	/*
+	 * One sample
+	 */
+	@Benchmark
+	public int timestampHelperNext() {
+		return _tsHelper.Next();
+	}
+}
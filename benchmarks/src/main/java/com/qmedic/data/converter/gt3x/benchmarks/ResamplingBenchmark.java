@@ -0,0 +1,108 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.benchmarks;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.qmedic.data.converter.gt3x.enums.GT3XParserOutputDataType;
+import com.qmedic.data.converter.gt3x.iface.AccelEncoder;
+import com.qmedic.data.converter.gt3x.io.AccelCsvEncoder;
+import com.qmedic.data.converter.gt3x.io.ResamplingAccelEncoder;
+import com.qmedic.data.converter.gt3x.utils.TimestampFormatter;
+
+/*
+ * mHealth accel rows (in g) of 80Hz samples, written as they are (outputRate 0) or resampled.
+ * One operation is one input sample.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ResamplingBenchmark {
+
+	private static final int SAMPLES = 4096;
+	private static final double ACCELERATION_SCALE = 256d;
+	private static final int SAMPLE_RATE = 80;
+	private static final long START_TS = 1451606400000L; // 2016-01-01 00:00:00 UTC
+	
+	@Param({"0", "30", "100"})
+	public int outputRate;
+	
+	private final short[] _x = new short[SAMPLES];
+	private final short[] _y = new short[SAMPLES];
+	private final short[] _z = new short[SAMPLES];
+	private AccelEncoder _encoder;
+	private long _sample;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		Random random = new Random(42);
+		for(int i = 0; i < SAMPLES; i++) {
+			_x[i] = (short)(random.nextInt(4096) - 2048);
+			_y[i] = (short)(random.nextInt(4096) - 2048);
+			_z[i] = (short)(random.nextInt(4096) - 2048);
+		}
+		_encoder = new AccelCsvEncoder(true, true, ACCELERATION_SCALE, GT3XParserOutputDataType.MHEALTH, TimestampFormatter.MHEALTH.copy());
+		if(outputRate > 0) {
+			_encoder = new ResamplingAccelEncoder(_encoder, SAMPLE_RATE, outputRate);
+		}
+		_encoder.open(DiscardingWriter.outputStream());
+		_sample = 0;
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		_encoder.close();
+	}
+	
+	@Benchmark
+	public void writeSample() throws IOException {
+		int index = (int)(_sample & (SAMPLES - 1));
+		_encoder.writeSample(START_TS + _sample * 1000d / SAMPLE_RATE, _x[index], _y[index], _z[index]);
+		_sample++;
+	}
+}
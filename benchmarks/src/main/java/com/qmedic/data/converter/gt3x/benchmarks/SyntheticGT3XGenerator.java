@@ -0,0 +1,692 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.SplittableRandom;
+import java.util.TimeZone;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.qmedic.data.converter.gt3x.enums.DeviceVersion;
+import com.qmedic.data.converter.gt3x.enums.LogRecordType;
+import com.qmedic.data.converter.gt3x.model.LogRecord;
+import com.qmedic.data.converter.gt3x.utils.ActivityUnpacker;
+import com.qmedic.data.converter.gt3x.utils.GT3XUtils;
+
+/*
+ * Writes synthetic gt3x files of any size for benchmarking and soak testing the converter, without
+ * participant data. V1 files hold info.txt, activity.bin and lux.bin, V2 files info.txt and log.bin
+ * with one ACTIVITY (ACTIVITY2 for GT9X Link, TAS serial numbers) record per second (and optionally BATTERY, LUX, CAPSENSE, METADATA and PARAMETERS
+ * records). The samples are a moving 3-axis signal around 1g, the same seed gives the same file.
+ * 
+ * Command line:
+ *   SyntheticGT3XGenerator [OUTPUT GT3X FILE] [V1/V2] [OPTIONS...]
+ * Options:
+ *   HOURS=N, DAYS=N              duration (default 1 hour)
+ *   RATE=N                       sample rate in Hz (default 30)
+ *   SERIAL=NEO/MOS/CLE/TAS/...   serial number or its prefix (default NEO for V1, MOS for V2)
+ *   START=yyyy-MM-dd HH:mm:ss    first sample, local time of the device (default 2016-01-01 00:00:00)
+ *   GAPS=NONE/PERIODIC/NIGHTLY/RANDOM
+ *                                idle sleep pattern, V2 only (seconds without ACTIVITY records):
+ *                                PERIODIC is GAP_LENGTH seconds every GAP_EVERY seconds, RANDOM starts a
+ *                                gap of up to GAP_LENGTH seconds every GAP_EVERY seconds on average,
+ *                                NIGHTLY sleeps from midnight to 6am with 30 seconds of movement every 45 minutes
+ *   GAP_EVERY=N, GAP_LENGTH=N    seconds (default 3600 and 600)
+ *   CORRUPT=P                    fraction of the ACTIVITY records with a bad checksum, V2 only (default 0)
+ *   EXTRA_RECORDS_ON             adds the other record types, V2 only
+ *   STORED_ON                    stores the entries uncompressed (e.g. for MMAP_ON)
+ *   SEED=N                       random seed (default 1)
+ */
+public class SyntheticGT3XGenerator {
+
+	private static final long TICKS_AT_EPOCH = 621355968000000000L;
+	private static final long TICKS_PER_MILLISECOND = 10000;
+	private static final byte SEPARATOR = 0x1E;
+	private static final int CHUNK_SIZE = 1024 * 1024; // bytes buffered before they are handed to the zip stream
+	private static final double ACCELERATION_SCALE_NEO_CLE = 341.0;
+	private static final double ACCELERATION_SCALE_MOS = 256.0;
+	private static final int SINE_TABLE_SIZE = 1024;
+	private static final double[] SINE = new double[SINE_TABLE_SIZE];
+	
+	static {
+		for(int i = 0; i < SINE_TABLE_SIZE; i++) {
+			SINE[i] = Math.sin(2 * Math.PI * i / SINE_TABLE_SIZE);
+		}
+	}
+	
+	private enum GapPattern { NONE, PERIODIC, NIGHTLY, RANDOM }
+	
+	private final File _outputFile;
+	private final DeviceVersion _version;
+	private long _durationSeconds = 3600;
+	private int _sampleRate = 30;
+	private String _serialNumber;
+	private String _firmware;
+	private double _accelerationScale;
+	private long _startMillis;
+	private GapPattern _gapPattern = GapPattern.NONE;
+	private long _gapEvery = 3600;
+	private long _gapLength = 600;
+	private double _corruptFraction = 0;
+	private boolean _extraRecords = false;
+	private boolean _stored = false;
+	private long _seed = 1;
+	
+	// Statistics of the last file generated
+	private long _samples = 0;
+	private long _records = 0;
+	private long _corruptRecords = 0;
+	private long _gapSeconds = 0;
+	
+	public SyntheticGT3XGenerator(final String[] args) {
+		if(args.length < 2) {
+			throw new IllegalArgumentException("The output file and the version (V1/V2) are required");
+		}
+		this._outputFile = new File(args[0]);
+		if(args[1].equals("V1")) {
+			this._version = DeviceVersion.V1;
+		} else if(args[1].equals("V2")) {
+			this._version = DeviceVersion.V2;
+		} else {
+			throw new IllegalArgumentException("Unknown version "+args[1]+", expected V1 or V2");
+		}
+		this._startMillis = parseStart("2016-01-01 00:00:00");
+		String serial = (_version == DeviceVersion.V1) ? "NEO" : "MOS";
+		
+		for(int i = 2; i < args.length; i++) {
+			String arg = args[i];
+			if(arg.equals("EXTRA_RECORDS_ON")) {
+				this._extraRecords = true;
+			} else if(arg.equals("STORED_ON")) {
+				this._stored = true;
+			} else if(arg.startsWith("HOURS=")) {
+				this._durationSeconds = Long.parseLong(value(arg)) * 3600;
+			} else if(arg.startsWith("DAYS=")) {
+				this._durationSeconds = Long.parseLong(value(arg)) * 86400;
+			} else if(arg.startsWith("RATE=")) {
+				this._sampleRate = Integer.parseInt(value(arg));
+			} else if(arg.startsWith("SERIAL=")) {
+				serial = value(arg);
+			} else if(arg.startsWith("START=")) {
+				this._startMillis = parseStart(value(arg));
+			} else if(arg.startsWith("GAPS=")) {
+				this._gapPattern = GapPattern.valueOf(value(arg));
+			} else if(arg.startsWith("GAP_EVERY=")) {
+				this._gapEvery = Long.parseLong(value(arg));
+			} else if(arg.startsWith("GAP_LENGTH=")) {
+				this._gapLength = Long.parseLong(value(arg));
+			} else if(arg.startsWith("CORRUPT=")) {
+				this._corruptFraction = Double.parseDouble(value(arg));
+			} else if(arg.startsWith("SEED=")) {
+				this._seed = Long.parseLong(value(arg));
+			} else {
+				throw new IllegalArgumentException("Unknown option "+arg);
+			}
+		}
+		if(_durationSeconds <= 0 || _sampleRate <= 0 || _gapEvery <= 0 || _gapLength < 0) {
+			throw new IllegalArgumentException("The duration, sample rate and gap options must be positive");
+		}
+		// Activity records hold 4.5 bytes per sample (6 for ACTIVITY2) and their payload size is 16 bits
+		if(_version == DeviceVersion.V2 && _sampleRate * 6 > 0xFFFF) {
+			throw new IllegalArgumentException("Sample rate "+_sampleRate+" is too high for a log.bin ACTIVITY record");
+		}
+		initDevice(serial);
+	}
+	
+	private static String value(final String arg) {
+		return arg.substring(arg.indexOf('=') + 1);
+	}
+	
+	private static long parseStart(final String start) {
+		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		sdf.setTimeZone(TimeZone.getTimeZone("UTC")); // the converter reads info.txt dates as UTC
+		try {
+			return sdf.parse(start).getTime();
+		} catch (ParseException e) {
+			throw new IllegalArgumentException("Invalid start date "+start+", expected yyyy-MM-dd HH:mm:ss");
+		}
+	}
+	
+	/*
+	 * Completes a serial number prefix and picks a firmware the converter classifies as the
+	 * requested version
+	 */
+	private void initDevice(final String serial) {
+		String serialNumber = serial;
+		if(serialNumber.equals("MOS") || serialNumber.equals("CLE")) {
+			serialNumber += "2";
+		} else if(serialNumber.equals("NEO") || serialNumber.equals("MRA") || serialNumber.equals("TAS")) {
+			serialNumber += "1";
+		}
+		if(serialNumber.length() < 13) {
+			String digits = String.format("%08d", Math.abs(_seed % 100000000L));
+			serialNumber = (serialNumber + "A" + digits).substring(0, 13);
+		}
+		this._serialNumber = serialNumber;
+		
+		boolean neo = serialNumber.startsWith("NEO") || serialNumber.startsWith("MRA");
+		if(_version == DeviceVersion.V1) {
+			this._firmware = "2.5.0";
+		} else {
+			this._firmware = neo ? "3.2.1" : "1.7.2";
+		}
+		if(GT3XUtils.GetDeviceVersion(_serialNumber, _firmware) != _version) {
+			throw new IllegalArgumentException("Serial number "+_serialNumber+" can not be a "+_version+" device");
+		}
+		this._accelerationScale = (serialNumber.startsWith("MOS") || isActivity2()) ? ACCELERATION_SCALE_MOS : ACCELERATION_SCALE_NEO_CLE;
+	}
+	
+	/*
+	 * GT9X Link devices write 16-bit ACTIVITY2 records
+	 */
+	private boolean isActivity2() {
+		return _serialNumber.startsWith("TAS");
+	}
+	
+	public void generate() throws IOException {
+		_samples = 0;
+		_records = 0;
+		_corruptRecords = 0;
+		_gapSeconds = 0;
+		
+		ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(_outputFile), CHUNK_SIZE));
+		zip.setLevel(Deflater.BEST_SPEED);
+		try {
+			writeEntry(zip, "info.txt", new ContentWriter() {
+				public void write(OutputStream out) throws IOException {
+					out.write(infoText().getBytes(StandardCharsets.US_ASCII));
+				}
+			});
+			if(_version == DeviceVersion.V1) {
+				writeEntry(zip, "activity.bin", new ContentWriter() {
+					public void write(OutputStream out) throws IOException {
+						writeActivityBin(out);
+					}
+				});
+				writeEntry(zip, "lux.bin", new ContentWriter() {
+					public void write(OutputStream out) throws IOException {
+						writeLuxBin(out);
+					}
+				});
+			} else {
+				writeEntry(zip, "log.bin", new ContentWriter() {
+					public void write(OutputStream out) throws IOException {
+						writeLogBin(out);
+					}
+				});
+			}
+		} finally {
+			zip.close();
+		}
+	}
+	
+	/*
+	 * Content of a zip entry, STORED entries are written to a temporary file first for their size and CRC
+	 */
+	private interface ContentWriter {
+		void write(OutputStream out) throws IOException;
+	}
+	
+	private void writeEntry(final ZipOutputStream zip, final String name, final ContentWriter content) throws IOException {
+		ZipEntry entry = new ZipEntry(name);
+		entry.setTime(_startMillis);
+		if(!_stored) {
+			zip.putNextEntry(entry);
+			content.write(zip);
+			zip.closeEntry();
+			return;
+		}
+		
+		File temp = File.createTempFile("gt3x-"+name, ".tmp", _outputFile.getAbsoluteFile().getParentFile());
+		try {
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), CHUNK_SIZE);
+			try {
+				content.write(out);
+			} finally {
+				out.close();
+			}
+			byte[] buffer = new byte[CHUNK_SIZE];
+			CRC32 crc = new CRC32();
+			InputStream in = new FileInputStream(temp);
+			try {
+				int read;
+				while((read = in.read(buffer)) > 0) {
+					crc.update(buffer, 0, read);
+				}
+			} finally {
+				in.close();
+			}
+			entry.setMethod(ZipEntry.STORED);
+			entry.setSize(temp.length());
+			entry.setCompressedSize(temp.length());
+			entry.setCrc(crc.getValue());
+			zip.putNextEntry(entry);
+			in = new FileInputStream(temp);
+			try {
+				int read;
+				while((read = in.read(buffer)) > 0) {
+					zip.write(buffer, 0, read);
+				}
+			} finally {
+				in.close();
+			}
+			zip.closeEntry();
+		} finally {
+			temp.delete();
+		}
+	}
+	
+	private static long toTicks(final long millis) {
+		return millis * TICKS_PER_MILLISECOND + TICKS_AT_EPOCH;
+	}
+	
+	private String infoText() {
+		long endMillis = _startMillis + _durationSeconds * 1000;
+		StringBuilder sb = new StringBuilder();
+		sb.append("Serial Number: ").append(_serialNumber).append("\r\n");
+		if(_version == DeviceVersion.V2) {
+			sb.append("Device Type: ").append(deviceTypeName()).append("\r\n");
+		}
+		sb.append("Firmware: ").append(_firmware).append("\r\n");
+		sb.append("Battery Voltage: 4.19\r\n");
+		sb.append("Sample Rate: ").append(_sampleRate).append("\r\n");
+		sb.append("Start Date: ").append(toTicks(_startMillis)).append("\r\n");
+		sb.append("Stop Date: 0\r\n");
+		if(_version == DeviceVersion.V2) {
+			sb.append("Last Sample Time: ").append(toTicks(endMillis)).append("\r\n");
+			sb.append("TimeZone: 00:00:00\r\n");
+		}
+		sb.append("Download Date: ").append(toTicks(endMillis)).append("\r\n");
+		sb.append("Board Revision: 1\r\n");
+		if(_version == DeviceVersion.V2) {
+			sb.append("Unexpected Resets: 0\r\n");
+			sb.append("Acceleration Scale: ").append(_accelerationScale).append("\r\n");
+			sb.append("Acceleration Min: ").append(isActivity2() ? "-16.0" : "-8.0").append("\r\n");
+			sb.append("Acceleration Max: ").append(isActivity2() ? "16.0" : "8.0").append("\r\n");
+		}
+		sb.append("Subject Name: Synthetic ").append(_seed).append("\r\n");
+		return sb.toString();
+	}
+	
+	private String deviceTypeName() {
+		if(_serialNumber.startsWith("CLE")) {
+			return "wGT3XPlus";
+		} else if(_serialNumber.startsWith("MOS")) {
+			return "wGT3XBT";
+		} else if(isActivity2()) {
+			return "GT9X";
+		}
+		return "GT3XPlus";
+	}
+	
+	/*
+	 * Whether the device is in idle sleep (no ACTIVITY record) during the given second since the start
+	 */
+	private boolean isIdle(final long second, final long secondOfDay, final SplittableRandom random, final long[] gapEnd) {
+		switch(_gapPattern) {
+		case PERIODIC:
+			return second % _gapEvery >= _gapEvery - _gapLength;
+		case NIGHTLY:
+			return secondOfDay < 6 * 3600 && secondOfDay % 2700 >= 30;
+		case RANDOM:
+			if(second < gapEnd[0]) {
+				return true;
+			}
+			if(random.nextLong(_gapEvery) == 0) {
+				gapEnd[0] = second + 1 + random.nextLong(Math.max(_gapLength, 1));
+				return true;
+			}
+			return false;
+		default:
+			return false;
+		}
+	}
+	
+	/*
+	 * log.bin: an ACTIVITY record per second that is not idle, plus the extra record types
+	 */
+	private void writeLogBin(final OutputStream out) throws IOException {
+		SplittableRandom random = new SplittableRandom(_seed);
+		SplittableRandom gapRandom = new SplittableRandom(_seed ^ 0x5DEECE66DL);
+		Signal signal = new Signal(new SplittableRandom(_seed * 31 + 7), _sampleRate, _accelerationScale);
+		short[] x = new short[_sampleRate];
+		short[] y = new short[_sampleRate];
+		short[] z = new short[_sampleRate];
+		byte[] payload = new byte[_sampleRate * 6];
+		short activityType = isActivity2() ? LogRecordType.ACTIVITY2.getId() : LogRecordType.ACTIVITY.getId();
+		RecordWriter records = new RecordWriter(out);
+		long[] gapEnd = new long[1];
+		long startSecond = _startMillis / 1000;
+		
+		if(_extraRecords) {
+			byte[] metadata = ("{\"MetadataType\":\"Synthetic\",\"Seed\":"+_seed+"}").getBytes(StandardCharsets.US_ASCII);
+			records.write(LogRecordType.METADATA.getId(), startSecond, metadata, metadata.length, false);
+			// A few (address space, identifier, value) parameters
+			byte[] parameters = new byte[4 * 8];
+			for(int i = 0; i < 4; i++) {
+				parameters[i*8+2] = (byte)(i + 1);
+			}
+			records.write(LogRecordType.PARAMETERS.getId(), startSecond, parameters, parameters.length, false);
+		}
+		
+		byte[] extra = new byte[6];
+		for(long second = 0; second < _durationSeconds; second++) {
+			long timestamp = startSecond + second;
+			long secondOfDay = Math.floorMod(timestamp, 86400L);
+			signal.nextSecond(second);
+			if(isIdle(second, secondOfDay, gapRandom, gapEnd)) {
+				_gapSeconds++;
+			} else {
+				signal.fill(x, y, z, _sampleRate);
+				int size = isActivity2() ? packActivity2(x, y, z, _sampleRate, payload, 0) : pack(x, y, z, _sampleRate, payload, 0);
+				boolean corrupt = _corruptFraction > 0 && random.nextDouble() < _corruptFraction;
+				records.write(activityType, timestamp, payload, size, corrupt);
+				_samples += _sampleRate;
+			}
+			
+			if(_extraRecords) {
+				int lux = luxValue(secondOfDay);
+				extra[0] = (byte)lux;
+				extra[1] = (byte)(lux >>> 8);
+				records.write(LogRecordType.LUX.getId(), timestamp, extra, 2, false);
+				if(second % 60 == 0) {
+					int millivolts = (int)(4200 - 600 * second / _durationSeconds);
+					extra[0] = (byte)millivolts;
+					extra[1] = (byte)(millivolts >>> 8);
+					records.write(LogRecordType.BATTERY.getId(), timestamp, extra, 2, false);
+					
+					// Signal, reference, state (worn) and bursts
+					int capSignal = 300 + random.nextInt(50);
+					extra[0] = (byte)capSignal;
+					extra[1] = (byte)(capSignal >>> 8);
+					extra[2] = (byte)0x90;
+					extra[3] = (byte)0x01;
+					extra[4] = 1;
+					extra[5] = 16;
+					records.write(LogRecordType.CAPSENSE.getId(), timestamp, extra, 6, false);
+				}
+			}
+		}
+		records.flush();
+	}
+	
+	/*
+	 * Buffers records and computes their checksum with GT3XUtils.CalculateCheckSum
+	 */
+	private final class RecordWriter {
+		private final OutputStream _out;
+		private final byte[] _chunk = new byte[CHUNK_SIZE];
+		private final LogRecord _record = new LogRecord();
+		private int _position = 0;
+		
+		RecordWriter(final OutputStream out) {
+			this._out = out;
+		}
+		
+		void write(final short type, final long timestamp, final byte[] payload, final int size, final boolean corrupt) throws IOException {
+			if(_chunk.length - _position < LogRecord.HEADER_SIZE + size + 1) {
+				flush();
+			}
+			byte[] b = _chunk;
+			int p = _position;
+			b[p] = SEPARATOR;
+			b[p+1] = (byte)type;
+			b[p+2] = (byte)timestamp;
+			b[p+3] = (byte)(timestamp >>> 8);
+			b[p+4] = (byte)(timestamp >>> 16);
+			b[p+5] = (byte)(timestamp >>> 24);
+			b[p+6] = (byte)size;
+			b[p+7] = (byte)(size >>> 8);
+			System.arraycopy(payload, 0, b, p + LogRecord.HEADER_SIZE, size);
+			
+			_record.setSeparator(SEPARATOR);
+			_record.setType(type);
+			_record.setTimestamp(timestamp & 0xFFFFFFFFL);
+			_record.setPayloadSize(size);
+			_record.setPayload(b, p + LogRecord.HEADER_SIZE);
+			// The converter accepts a record if CalculateCheckSum(record, checksum) is the separator
+			byte checksum = GT3XUtils.CalculateCheckSum(_record, SEPARATOR);
+			if(corrupt) {
+				checksum ^= 0x5A;
+				_corruptRecords++;
+			}
+			b[p + LogRecord.HEADER_SIZE + size] = checksum;
+			_position = p + LogRecord.HEADER_SIZE + size + 1;
+			_records++;
+		}
+		
+		void flush() throws IOException {
+			_out.write(_chunk, 0, _position);
+			_position = 0;
+		}
+	}
+	
+	/*
+	 * activity.bin: all the samples back to back, V1 has no idle sleep
+	 */
+	private void writeActivityBin(final OutputStream out) throws IOException {
+		Signal signal = new Signal(new SplittableRandom(_seed * 31 + 7), _sampleRate, _accelerationScale);
+		// One spare sample carries an odd one over to the next second
+		short[] x = new short[_sampleRate + 1];
+		short[] y = new short[_sampleRate + 1];
+		short[] z = new short[_sampleRate + 1];
+		byte[] chunk = new byte[CHUNK_SIZE];
+		int position = 0;
+		int carried = 0;
+		for(long second = 0; second < _durationSeconds; second++) {
+			signal.nextSecond(second);
+			signal.fill(x, y, z, carried, _sampleRate);
+			int count = carried + _sampleRate;
+			int pairs = count / 2;
+			if(chunk.length - position < pairs * ActivityUnpacker.PAIR_SIZE) {
+				out.write(chunk, 0, position);
+				position = 0;
+			}
+			position = pack(x, y, z, pairs * 2, chunk, position);
+			carried = count - pairs * 2;
+			if(carried == 1) {
+				x[0] = x[count-1];
+				y[0] = y[count-1];
+				z[0] = z[count-1];
+			}
+			_samples += _sampleRate;
+		}
+		if(carried == 1) {
+			position = pack(x, y, z, 1, chunk, position);
+		}
+		out.write(chunk, 0, position);
+	}
+	
+	/*
+	 * lux.bin: one little-endian 16-bit value per second
+	 */
+	private void writeLuxBin(final OutputStream out) throws IOException {
+		byte[] chunk = new byte[CHUNK_SIZE];
+		int position = 0;
+		long startSecond = _startMillis / 1000;
+		for(long second = 0; second < _durationSeconds; second++) {
+			if(position == chunk.length) {
+				out.write(chunk, 0, position);
+				position = 0;
+			}
+			int lux = luxValue(Math.floorMod(startSecond + second, 86400L));
+			chunk[position++] = (byte)lux;
+			chunk[position++] = (byte)(lux >>> 8);
+		}
+		out.write(chunk, 0, position);
+	}
+	
+	/*
+	 * Raw light level, dark at night and peaking at noon
+	 */
+	private static int luxValue(final long secondOfDay) {
+		double daylight = Math.sin(Math.PI * (secondOfDay - 6 * 3600) / (12 * 3600));
+		return daylight > 0 ? (int)(1600 * daylight) : 0;
+	}
+	
+	/*
+	 * Packs 12-bit samples in the YXZ layout decoded by ActivityUnpacker: 9 bytes per pair, an odd
+	 * last sample takes 5 bytes (its last 4 bits are padding). Returns the offset following them.
+	 */
+	static int pack(final short[] x, final short[] y, final short[] z, final int count, final byte[] dest, int offset) {
+		int s = 0;
+		for(; s + 1 < count; s += 2, offset += ActivityUnpacker.PAIR_SIZE) {
+			int y1 = y[s] & 0xFFF, x1 = x[s] & 0xFFF, z1 = z[s] & 0xFFF;
+			int y2 = y[s+1] & 0xFFF, x2 = x[s+1] & 0xFFF, z2 = z[s+1] & 0xFFF;
+			dest[offset] = (byte)(y1 >>> 4);
+			dest[offset+1] = (byte)((y1 << 4) | (x1 >>> 8));
+			dest[offset+2] = (byte)x1;
+			dest[offset+3] = (byte)(z1 >>> 4);
+			dest[offset+4] = (byte)((z1 << 4) | (y2 >>> 8));
+			dest[offset+5] = (byte)y2;
+			dest[offset+6] = (byte)(x2 >>> 4);
+			dest[offset+7] = (byte)((x2 << 4) | (z2 >>> 8));
+			dest[offset+8] = (byte)z2;
+		}
+		if(s < count) {
+			int y1 = y[s] & 0xFFF, x1 = x[s] & 0xFFF, z1 = z[s] & 0xFFF;
+			dest[offset] = (byte)(y1 >>> 4);
+			dest[offset+1] = (byte)((y1 << 4) | (x1 >>> 8));
+			dest[offset+2] = (byte)x1;
+			dest[offset+3] = (byte)(z1 >>> 4);
+			dest[offset+4] = (byte)(z1 << 4);
+			offset += 5;
+		}
+		return offset;
+	}
+	
+	/*
+	 * Writes samples in the ACTIVITY2 layout decoded by ActivityUnpacker.unpackActivity2(): 16-bit
+	 * little-endian XYZ values, 6 bytes per sample. Returns the offset following them.
+	 */
+	static int packActivity2(final short[] x, final short[] y, final short[] z, final int count, final byte[] dest, int offset) {
+		for(int s = 0; s < count; s++, offset += 6) {
+			dest[offset] = (byte)x[s];
+			dest[offset+1] = (byte)(x[s] >>> 8);
+			dest[offset+2] = (byte)y[s];
+			dest[offset+3] = (byte)(y[s] >>> 8);
+			dest[offset+4] = (byte)z[s];
+			dest[offset+5] = (byte)(z[s] >>> 8);
+		}
+		return offset;
+	}
+	
+	/*
+	 * Gravity on a posture that changes every few minutes, a periodic movement whose intensity
+	 * changes every minute (from still to running) and some noise, in ADC counts
+	 */
+	private static final class Signal {
+		private final SplittableRandom _random;
+		private final double _scale;
+		private final double _phaseStep;
+		private double _phase = 0;
+		private double _amplitude = 0;
+		private double _gx = 0, _gy = 0, _gz = 1;
+		
+		Signal(final SplittableRandom random, final int sampleRate, final double scale) {
+			this._random = random;
+			this._scale = scale;
+			this._phaseStep = SINE_TABLE_SIZE * 1.8 / sampleRate; // ~1.8 Hz, a walking cadence
+		}
+		
+		void nextSecond(final long second) {
+			if(second % 60 == 0) {
+				double level = _random.nextDouble();
+				_amplitude = level * level * 1.5; // mostly light activity
+			}
+			if(second % 300 == 0) {
+				double theta = _random.nextDouble() * Math.PI;
+				double phi = _random.nextDouble() * 2 * Math.PI;
+				_gx = Math.sin(theta) * Math.cos(phi);
+				_gy = Math.sin(theta) * Math.sin(phi);
+				_gz = Math.cos(theta);
+			}
+		}
+		
+		void fill(final short[] x, final short[] y, final short[] z, final int count) {
+			fill(x, y, z, 0, count);
+		}
+		
+		void fill(final short[] x, final short[] y, final short[] z, final int from, final int count) {
+			for(int i = from; i < from + count; i++) {
+				double motion = _amplitude * SINE[(int)_phase];
+				double sway = _amplitude * 0.5 * SINE[((int)_phase + SINE_TABLE_SIZE/4) & (SINE_TABLE_SIZE-1)];
+				_phase += _phaseStep;
+				if(_phase >= SINE_TABLE_SIZE) {
+					_phase -= SINE_TABLE_SIZE;
+				}
+				x[i] = toAdc(_gx + sway);
+				y[i] = toAdc(_gy + motion);
+				z[i] = toAdc(_gz + motion * 0.3);
+			}
+		}
+		
+		private short toAdc(final double g) {
+			int v = (int)Math.round(g * _scale) + _random.nextInt(7) - 3;
+			return (short)Math.max(-2048, Math.min(2047, v));
+		}
+	}
+	
+	public String getSummary() {
+		return _outputFile.getPath()+": "+_version+" "+_serialNumber+" at "+_sampleRate+"Hz, "+_durationSeconds+" seconds, "
+				+_samples+" samples, "+(_version == DeviceVersion.V2 ? _records+" records ("+_corruptRecords+" corrupt), "+_gapSeconds+" seconds idle, " : "")
+				+_outputFile.length()+" bytes";
+	}
+	
+	public static void main(String[] args) {
+		if(args.length < 2) {
+			System.out.println("java -cp benchmarks.jar com.qmedic.data.converter.gt3x.benchmarks.SyntheticGT3XGenerator [OUTPUT GT3X FILE] [V1/V2] [HOURS=N/DAYS=N] [RATE=N] [SERIAL=NEO/MOS/CLE/TAS/...] [START=yyyy-MM-dd HH:mm:ss] [GAPS=NONE/PERIODIC/NIGHTLY/RANDOM] [GAP_EVERY=N] [GAP_LENGTH=N] [CORRUPT=P] [EXTRA_RECORDS_ON] [STORED_ON] [SEED=N]");
+			return;
+		}
+		try {
+			long startedTs = System.currentTimeMillis();
+			SyntheticGT3XGenerator generator = new SyntheticGT3XGenerator(args);
+			generator.generate();
+			System.out.println(generator.getSummary()+", "+(System.currentTimeMillis()-startedTs)+" ms");
+		} catch (IllegalArgumentException e) {
+			System.out.println("Error: "+e.getMessage());
+			System.exit(1);
+		} catch (IOException e) {
+			System.out.println("Error: Could not write the gt3x file. "+e.getMessage());
+			System.exit(1);
+		}
+	}
+}
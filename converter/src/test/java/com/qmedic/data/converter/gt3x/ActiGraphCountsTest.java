@@ -0,0 +1,308 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ActiGraphCountsTest {
+
+	private static final int SECONDS = 120;
+	
+	/*
+	 * Band-pass filter of ActiLife at 30Hz (Brond et al., 2017) and counts per g of its output
+	 */
+	private static final double[] B = {
+		-0.009341062898525, -0.025470289659360, -0.004235264826105, 0.044152415456420, 0.036493718347760,
+		-0.011893961934740, -0.022917390623150, -0.006788163862310, 0.000000000000000 };
+	private static final double[] A = {
+		1.00000000000000000, -3.63367395910957000, 5.03689812757486000, -3.09612247819666000, 0.50620507633883000,
+		0.32421701566682000, -0.15685485875559000, 0.01949130205890000, 0.00000000000000000 };
+	private static final double GAIN = (3d / 4096d) / (2.6d / 256d) * 237.5d;
+	
+	@Test
+	public void aConstantSignalHasNoCounts() {
+		ActiGraphCounts counts = new ActiGraphCounts(30);
+		long[] sums = new long[3];
+		for(int i = 0; i < 30 * SECONDS; i++) {
+			counts.add(0.1, -0.98, 0.2);
+			sums[0] += counts.countX();
+			sums[1] += counts.countY();
+			sums[2] += counts.countZ();
+		}
+		assertArrayEquals(new long[3], sums);
+	}
+	
+	@Test
+	public void completesA10HzValueEvery3SamplesAt30Hz() {
+		ActiGraphCounts counts = new ActiGraphCounts(30);
+		int values = 0;
+		for(int i = 0; i < 30 * SECONDS; i++) {
+			counts.add(walk(i, 30), 0d, 0d);
+			if(i % 3 != 2) {
+				assertEquals(0, counts.countX());
+			} else if(counts.countX() > 0) {
+				assertTrue(counts.countX() <= 128);
+				values++;
+			}
+		}
+		assertTrue(values > 5 * SECONDS);
+	}
+	
+	@Test
+	public void otherRatesAreResampledTo30Hz() {
+		// A 1Hz movement has about the same counts at 30, 80 and 100Hz
+		long at30 = sum(new ActiGraphCounts(30), 30, 0, 30 * SECONDS)[0];
+		assertTrue(at30 > 1000);
+		for(int rate : new int[] { 40, 60, 80, 90, 100 }) {
+			long sum = sum(new ActiGraphCounts(rate), rate, 0, rate * SECONDS)[0];
+			assertEquals("rate "+rate, at30, sum, at30 * 0.02);
+		}
+	}
+	
+	@Test
+	public void matchesTheReferenceAt100Hz() {
+		assertMatchesTheReference(100);
+	}
+	
+	@Test
+	public void matchesTheReferenceAt80Hz() {
+		assertMatchesTheReference(80);
+	}
+	
+	@Test
+	public void filtersOutWhatWouldAliasAt30Hz() {
+		// 29Hz at 100Hz is 1Hz at 30Hz, if only decimated
+		double[] tone = new double[100 * SECONDS];
+		for(int i = 0; i < tone.length; i++) {
+			tone[i] = 0.5 * Math.sin(2 * Math.PI * 29 * i / 100d);
+		}
+		assertEquals(0, sum(counts(100, tone)));
+		assertTrue(sum(reference(100, tone, false)) > 1000);
+		assertEquals(0, sum(reference(100, tone, true)));
+	}
+	
+	@Test
+	public void carriesOnFromItsState() {
+		for(int rate : new int[] { 30, 80 }) {
+			int samples = rate * SECONDS;
+			long[] expected = sum(new ActiGraphCounts(rate), rate, 0, samples);
+			for(int split : new int[] { 1, 2, 3, 7, rate * 60 + 1 }) {
+				ActiGraphCounts first = new ActiGraphCounts(rate);
+				long[] sums = sum(first, rate, 0, split);
+				ActiGraphCounts second = new ActiGraphCounts(rate);
+				second.setState(first.getState());
+				long[] rest = sum(second, rate, split, samples);
+				for(int i = 0; i < 3; i++) {
+					sums[i] += rest[i];
+				}
+				assertArrayEquals("rate "+rate+", split at "+split, expected, sums);
+			}
+		}
+	}
+	
+	@Test
+	public void startsOverWithoutAState() {
+		ActiGraphCounts counts = new ActiGraphCounts(30);
+		sum(counts, 30, 0, 30 * 10 + 1);
+		counts.setState(null);
+		assertArrayEquals(sum(new ActiGraphCounts(30), 30, 0, 30 * SECONDS), sum(counts, 30, 0, 30 * SECONDS));
+	}
+	
+	@Test
+	public void rejectsOtherStates() {
+		ActiGraphCounts counts = new ActiGraphCounts(30);
+		sum(counts, 30, 0, 100);
+		String state = counts.getState();
+		for(String other : new String[] { "", state.substring(state.indexOf(',')), "yes" + state.substring(state.indexOf(',')),
+				state.replaceFirst(",[^,]*$", ",0x1"), state + ",0" }) {
+			try {
+				new ActiGraphCounts(30).setState(other);
+				fail(other);
+			} catch(IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+	
+	/*
+	 * The 10Hz values of a noisy movement with a 29Hz tone at "rate" are the ones of the reference, which
+	 * resamples the whole signal at once
+	 */
+	private static void assertMatchesTheReference(final int rate) {
+		double[] input = new double[rate * SECONDS];
+		for(int i = 0; i < input.length; i++) {
+			double t = i / (double)rate;
+			input[i] = Math.sin(2 * Math.PI * t) + 0.5 * Math.sin(2 * Math.PI * 29 * t) + walk(i, rate);
+		}
+		long[] expected = reference(rate, input, true);
+		assertTrue(sum(expected) > 1000);
+		assertArrayEquals(expected, counts(rate, input));
+	}
+	
+	/*
+	 * 10Hz values of the x axis "input" at "rate", one by one
+	 */
+	private static long[] counts(final int rate, final double[] input) {
+		ActiGraphCounts counts = new ActiGraphCounts(rate);
+		long[] values = new long[input.length * 10 / rate];
+		int n = 0;
+		for(int i = 0; i < input.length; i++) {
+			counts.add(input[i], 0d, 0d);
+			if(counts.countX() > 0 || (n < values.length && isLast(i, rate, n))) {
+				values[n++] = counts.countX();
+			}
+		}
+		assertEquals(values.length, n);
+		return values;
+	}
+	
+	/*
+	 * Whether sample "i" at "rate" completes the 10Hz value "n"
+	 */
+	private static boolean isLast(final int i, final int rate, final int n) {
+		int up = 30 / gcd(rate, 30);
+		int down = rate * up / 30;
+		// the 30Hz sample 3n+2 is upsampled sample (3n+2)*down, from input sample ceil(that / up)
+		long upsampled = (3L * n + 2) * down;
+		return i == (upsampled + up - 1) / up;
+	}
+	
+	/*
+	 * 10Hz values of the x axis "input" at "rate", resampled to 30Hz over the whole signal at once: linear
+	 * interpolation to the common multiple of the rates, the 4th order Butterworth low-pass filter at 12Hz
+	 * ("antiAliasing") and decimation, then the filter of ActiLife
+	 */
+	private static long[] reference(final int rate, final double[] input, final boolean antiAliasing) {
+		int up = 30 / gcd(rate, 30);
+		int down = rate * up / 30;
+		double[] upsampled = new double[(input.length - 1) * up + 1];
+		upsampled[0] = input[0];
+		for(int i = 1; i < input.length; i++) {
+			for(int j = 1; j <= up; j++) {
+				upsampled[(i - 1) * up + j] = j == up ? input[i] : input[i-1] + (input[i] - input[i-1]) * (j / (double)up);
+			}
+		}
+		if(antiAliasing && down > 1) {
+			double k = Math.tan(Math.PI * 12d / (rate * up));
+			for(double q : new double[] { 1d / (2d * Math.cos(Math.PI / 8)), 1d / (2d * Math.cos(3 * Math.PI / 8)) }) {
+				double norm = 1d / (1d + k / q + k * k);
+				double b0 = k * k * norm;
+				upsampled = iir(new double[] { b0, 2d * b0, b0 },
+						new double[] { 1d, 2d * (k * k - 1d) * norm, (1d - k / q + k * k) * norm }, upsampled);
+			}
+		}
+		double[] decimated = new double[(upsampled.length + down - 1) / down];
+		for(int i = 0; i < decimated.length; i++) {
+			decimated[i] = upsampled[i * down];
+		}
+		double[] filtered = iir(B, A, decimated);
+		long[] values = new long[input.length * 10 / rate];
+		for(int i = 0; i < values.length; i++) {
+			long total = 0;
+			for(int j = 0; j < 3; j++) {
+				double value = Math.min(Math.abs(filtered[3 * i + j] * GAIN), 128d);
+				total += value < 4d ? 0 : (long)value;
+			}
+			values[i] = total / 3;
+		}
+		return values;
+	}
+	
+	/*
+	 * Filters "input" with the normalized coefficients "b" and "a", starting in the steady state of
+	 * its first value
+	 */
+	private static double[] iir(final double[] b, final double[] a, final double[] input) {
+		int order = b.length - 1;
+		double sumB = 0d;
+		double sumA = 0d;
+		for(int i = 0; i <= order; i++) {
+			sumB += b[i];
+			sumA += a[i];
+		}
+		double[] state = new double[order];
+		double start = input[0] * sumB / sumA;
+		double next = 0d;
+		for(int i = order; i >= 1; i--) {
+			next += b[i] * input[0] - a[i] * start;
+			state[i-1] = next;
+		}
+		double[] output = new double[input.length];
+		for(int n = 0; n < input.length; n++) {
+			double y = b[0] * input[n] + state[0];
+			for(int i = 1; i < order; i++) {
+				state[i-1] = b[i] * input[n] - a[i] * y + state[i];
+			}
+			state[order-1] = b[order] * input[n] - a[order] * y;
+			output[n] = y;
+		}
+		return output;
+	}
+	
+	private static long sum(final long[] values) {
+		long sum = 0;
+		for(long value : values) {
+			sum += value;
+		}
+		return sum;
+	}
+	
+	private static int gcd(final int a, final int b) {
+		return b == 0 ? a : gcd(b, a % b);
+	}
+	
+	/*
+	 * Counts of samples "from" (included) to "to" (excluded) of the movement at "rate"
+	 */
+	private static long[] sum(final ActiGraphCounts counts, final int rate, final int from, final int to) {
+		long[] sums = new long[3];
+		for(int i = from; i < to; i++) {
+			double t = i / (double)rate;
+			counts.add(Math.sin(2 * Math.PI * t), 0.5 * Math.cos(2 * Math.PI * t) - 1, walk(i, rate));
+			sums[0] += counts.countX();
+			sums[1] += counts.countY();
+			sums[2] += counts.countZ();
+		}
+		return sums;
+	}
+	
+	/*
+	 * Noisy signal in g, the same for every sample "i" at "rate"
+	 */
+	private static double walk(final int i, final int rate) {
+		return new Random(i * 31L + rate).nextGaussian() * 0.5;
+	}
+}
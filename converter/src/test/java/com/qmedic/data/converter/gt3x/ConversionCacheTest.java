@@ -0,0 +1,282 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ConversionCacheTest {
+
+	private static final String OPTIONS = "G,TIMESTAMP_ON,SPLIT_ON,MHEALTH,SUMMARY_ON";
+	private static final long MODIFIED = 1451606400000L;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+	
+	private String _directory;
+	private List<File> _input;
+	private File _first;
+	private File _second;
+	
+	@Before
+	public void setUp() throws Exception {
+		_directory = new File(_folder.getRoot(), "cache").getPath();
+		_input = Arrays.asList(write("log.bin", 5000), write("info.txt", 300));
+		_first = write("first.csv", 1000);
+		_second = write("second.csv", 1200);
+	}
+	
+	@Test
+	public void findsWhatWasSaved() throws Exception {
+		cache().save(outputFiles(), 123456);
+		ConversionCache cache = cache();
+		assertTrue(cache.lookup(false));
+		assertEquals(123456, cache.getTotalBytes());
+		assertEquals(2, cache.getFiles().size());
+		assertEquals(_first.getPath(), cache.getFiles().get(0).path);
+		assertEquals(1000, cache.getFiles().get(0).bytesRead);
+		assertEquals(MODIFIED, cache.getFiles().get(0).calendarMillis);
+		assertEquals(_second.getPath(), cache.getFiles().get(1).path);
+		assertTrue(cache().lookup(true));
+	}
+	
+	@Test
+	public void keysTheInputAndTheOptions() throws Exception {
+		String key = cache().getKey();
+		assertEquals(key, cache().getKey());
+		assertNotEquals(key, new ConversionCache(_directory, _input, OPTIONS + ",EPOCHS").getKey());
+		assertNotEquals(key, new ConversionCache(_directory, Arrays.asList(_input.get(1), _input.get(0)), OPTIONS).getKey());
+		overwrite(_input.get(0), 17);
+		assertNotEquals(key, cache().getKey());
+	}
+	
+	@Test
+	public void missesWithoutAManifest() throws Exception {
+		assertFalse(cache().lookup(false));
+		assertFalse(cache().lookup(true));
+	}
+	
+	@Test
+	public void missesAMissingOrResizedFile() throws Exception {
+		cache().save(outputFiles(), 123456);
+		write("second.csv", 1201);
+		_second.setLastModified(MODIFIED);
+		assertFalse(cache().lookup(false));
+		assertTrue(_second.delete());
+		assertFalse(cache().lookup(false));
+	}
+	
+	@Test
+	public void missesATouchedFile() throws Exception {
+		cache().save(outputFiles(), 123456);
+		assertTrue(_first.setLastModified(MODIFIED + 1000));
+		assertFalse(cache().lookup(false));
+		assertFalse(cache().lookup(true));
+	}
+	
+	@Test
+	public void onlyTheCrcTellsOfOtherContentOfTheSameSizeAndTime() throws Exception {
+		cache().save(outputFiles(), 123456);
+		overwrite(_second, 600);
+		assertEquals(1200, _second.length());
+		assertFalse("modified since", cache().lookup(false));
+		assertTrue(_second.setLastModified(MODIFIED));
+		assertTrue("same size and modification time", cache().lookup(false));
+		assertFalse(cache().lookup(true));
+	}
+	
+	@Test
+	public void missesACorruptedManifest() throws Exception {
+		cache().save(outputFiles(), 123456);
+		File manifest = manifest();
+		String saved = new String(Files.readAllBytes(manifest.toPath()), UTF8);
+		String[] corrupted = {
+			"",
+			saved.substring(0, saved.indexOf("totalBytes=")),
+			saved.substring(0, saved.length() / 2 + 7), // cut in a line
+			saved.replace("totalBytes=123456", "totalBytes=12x456"),
+			saved.replace("totalBytes=123456", "totalBytes=-1"),
+			saved.replaceFirst("\n[0-9a-f]+ 1000 ", "\nzz 1000 "),
+			saved.replaceFirst(" 1000 " + MODIFIED, " 1000 " + MODIFIED + "0"),
+			saved.replaceFirst(" 1200 ", " 1.2e3 "),
+			saved.substring(0, saved.indexOf(_first.getPath())) + "\n",
+			"\u0000\u00ff\u0012 garbage 1 2 3 4 5\n\u0001",
+		};
+		for(String content : corrupted) {
+			writeManifest(manifest, content);
+			ConversionCache cache = cache();
+			assertFalse(content, cache.lookup(false));
+			assertTrue(cache.getFiles().isEmpty());
+		}
+		writeManifest(manifest, saved);
+		assertTrue(cache().lookup(true));
+	}
+	
+	@Test
+	public void keepsAWholeManifestOfTwoWorkersSavingAtOnce() throws Exception {
+		final int saves = 200;
+		final CyclicBarrier start = new CyclicBarrier(3);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final AtomicBoolean done = new AtomicBoolean(false);
+		List<Thread> workers = new ArrayList<Thread>();
+		for(int w = 0; w < 2; w++) {
+			final long totalBytes = 1000 + w;
+			workers.add(new Thread() {
+				public void run() {
+					try {
+						ConversionCache cache = cache();
+						start.await();
+						for(int i = 0; i < saves; i++) {
+							cache.save(outputFiles(), totalBytes);
+						}
+					} catch(Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+		}
+		Thread reader = new Thread() {
+			public void run() {
+				try {
+					start.await();
+					while(!done.get()) {
+						ConversionCache cache = cache();
+						if(manifest().isFile()) {
+							assertTrue("whole manifest", cache.lookup(true));
+							assertEquals(2, cache.getFiles().size());
+						}
+					}
+				} catch(Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			}
+		};
+		reader.start();
+		for(Thread worker : workers) {
+			worker.start();
+		}
+		for(Thread worker : workers) {
+			worker.join();
+		}
+		done.set(true);
+		reader.join();
+		if(failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+		ConversionCache cache = cache();
+		assertTrue(cache.lookup(true));
+		assertTrue(cache.getTotalBytes() == 1000 || cache.getTotalBytes() == 1001);
+		assertEquals(2, cache.getFiles().size());
+		assertEquals("no temporary files left", 1, new File(_directory).list().length);
+	}
+	
+	private ConversionCache cache() throws IOException {
+		return new ConversionCache(_directory, _input, OPTIONS);
+	}
+	
+	private File manifest() throws IOException {
+		return new File(_directory, cache().getKey() + ".manifest");
+	}
+	
+	/*
+	 * The output files as GT3XFile saves them
+	 */
+	private List<ConversionCache.OutputFile> outputFiles() throws IOException {
+		List<ConversionCache.OutputFile> files = new ArrayList<ConversionCache.OutputFile>();
+		long bytesRead = 0;
+		for(File file : new File[] { _first, _second }) {
+			bytesRead += 1000;
+			ConversionCache.OutputFile outputFile = new ConversionCache.OutputFile(file.getPath(), bytesRead, MODIFIED);
+			outputFile.size = file.length();
+			outputFile.modified = file.lastModified();
+			outputFile.crc = ConversionCache.crc(file);
+			files.add(outputFile);
+		}
+		return files;
+	}
+	
+	private File write(final String name, final int size) throws IOException {
+		File file = new File(_folder.getRoot(), name);
+		byte[] content = new byte[size];
+		for(int i = 0; i < size; i++) {
+			content[i] = (byte)('a' + i % 26);
+		}
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+		file.setLastModified(MODIFIED);
+		return file;
+	}
+	
+	/*
+	 * Changes a byte of "file" in place, its size stays the same
+	 */
+	private static void overwrite(final File file, final long position) throws IOException {
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			out.seek(position);
+			out.write('#');
+		} finally {
+			out.close();
+		}
+	}
+	
+	private static void writeManifest(final File manifest, final String content) throws IOException {
+		FileOutputStream out = new FileOutputStream(manifest);
+		try {
+			out.write(content.getBytes(UTF8));
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,229 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.qmedic.data.converter.gt3x.enums.GT3XParserOutputDataType;
+import com.qmedic.data.converter.gt3x.enums.LogRecordType;
+import com.qmedic.data.converter.gt3x.iface.GT3XFileProcessingListener;
+import com.qmedic.data.converter.gt3x.io.TestLogData;
+
+public class LogRecordStreamsTest {
+
+	private static final long START = TestLogData.FIRST_TIMESTAMP - 2; // seconds, 2 before the hour
+	private static final int SAMPLE_RATE = 30;
+	private static final long TICKS_AT_EPOCH = 621355968000000000L;
+	private static final String FIRST_HOUR = "2015-12-31-23-59-58"; // the first file is named after the start
+	private static final String SECOND_HOUR = "2016-01-01-00-00-00";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+	
+	private File _input;
+	private File _output;
+	
+	/*
+	 * An extracted gt3x of 4 seconds at 30Hz across midnight: ACTIVITY2 records and, in between, the
+	 * records of the other types
+	 */
+	@Before
+	public void setUp() throws Exception {
+		_input = _folder.newFolder("input");
+		_output = _folder.newFolder("output");
+		TestLogData log = new TestLogData(7);
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+		for(long second = START; second < START + 4; second++) {
+			log.setTimestamp(second);
+			records.write(log.records(1, SAMPLE_RATE * 6, 256));
+			if(second == START) {
+				records.write(TestLogData.record(LogRecordType.BATTERY, second, uint16(4187)));
+				records.write(TestLogData.record(LogRecordType.LUX, second, uint16(1000)));
+				records.write(TestLogData.record(LogRecordType.CAPSENSE, second, new byte[] { 44, 1, (byte)250, 0, 1, 7 }));
+				records.write(TestLogData.record(LogRecordType.HHEART_RATE_BPM, second, new byte[] { 72 }));
+				records.write(TestLogData.record(LogRecordType.METADATA, second, "{\"MetadataType\":\"Bout\"}".getBytes(UTF8)));
+			} else if(second == START + 1) {
+				records.write(TestLogData.record(LogRecordType.LUX, second, uint16(2100))); // capped
+				byte[] corrupted = TestLogData.record(LogRecordType.BATTERY, second, uint16(3000));
+				corrupted[corrupted.length - 1] ^= 1;
+				records.write(corrupted);
+				records.write(TestLogData.record(LogRecordType.HHEART_RATE_BPM, second, new byte[] { (byte)181 }));
+			} else if(second == START + 2) {
+				records.write(TestLogData.record(LogRecordType.BATTERY, second, uint16(4010)));
+				records.write(TestLogData.record(LogRecordType.HHEART_RATE_BPM, second, new byte[] { 75 }));
+				records.write(TestLogData.record(LogRecordType.TAG, second, new byte[] { 1, 2 })); // without a stream
+				records.write(TestLogData.record(LogRecordType.BATTERY, second, new byte[] { 1 })); // too short
+			}
+		}
+		log.deflate(records.toByteArray(), Deflater.DEFAULT_COMPRESSION, true);
+		write(new File(_input, "log.bin"), log.getData());
+		write(new File(_input, "info.txt"), ("Serial Number: MOS2A45130451\n"
+				+ "Device Type: wGT3XBT\n"
+				+ "Firmware: 1.5.0\n"
+				+ "Battery Voltage: 4.19\n"
+				+ "Sample Rate: " + SAMPLE_RATE + "\n"
+				+ "Start Date: " + ticks(START) + "\n"
+				+ "Stop Date: " + ticks(START + 4) + "\n"
+				+ "Last Sample Time: " + ticks(START + 4) + "\n"
+				+ "TimeZone: -05:00:00\n"
+				+ "Download Date: " + ticks(START + 4) + "\n"
+				+ "Board Revision: 1\n"
+				+ "Acceleration Scale: 256.0\n"
+				+ "Acceleration Min: -8.0\n"
+				+ "Acceleration Max: 8.0\n").getBytes(UTF8));
+	}
+	
+	@Test
+	public void writesTheRecordsOfEachTypeToTheFileOfTheirHour() throws Exception {
+		List<String> created = convert(LogRecordStreams.SUPPORTED_TYPES);
+		assertEquals(Arrays.asList(
+				accelFile(FIRST_HOUR),
+				streamFile("Battery", FIRST_HOUR),
+				streamFile("HeartRate", FIRST_HOUR),
+				streamFile("Lux", FIRST_HOUR),
+				streamFile("Metadata", FIRST_HOUR),
+				streamFile("CapSense", FIRST_HOUR),
+				accelFile(SECOND_HOUR),
+				streamFile("Battery", SECOND_HOUR),
+				streamFile("HeartRate", SECOND_HOUR)), names(created));
+		// Neither the corrupted battery record nor the short one, nor the TAG record
+		assertContent("HEADER_TIMESTAMP,BATTERY_VOLTAGE\n"
+				+ "2015-12-31 23:59:58.000,4.187\n", streamFile("Battery", FIRST_HOUR));
+		assertContent("HEADER_TIMESTAMP,BATTERY_VOLTAGE\n"
+				+ "2016-01-01 00:00:00.000,4.010\n", streamFile("Battery", SECOND_HOUR));
+		assertContent("HEADER_TIMESTAMP,LUX\n"
+				+ "2015-12-31 23:59:58.000,1250\n"
+				+ "2015-12-31 23:59:59.000,2500\n", streamFile("Lux", FIRST_HOUR));
+		assertContent("HEADER_TIMESTAMP,SIGNAL,REFERENCE,WORN,BURSTS\n"
+				+ "2015-12-31 23:59:58.000,300,250,1,7\n", streamFile("CapSense", FIRST_HOUR));
+		assertContent("HEADER_TIMESTAMP,METADATA\n"
+				+ "2015-12-31 23:59:58.000,\"{\"\"MetadataType\"\":\"\"Bout\"\"}\"\n", streamFile("Metadata", FIRST_HOUR));
+		assertContent("HEADER_TIMESTAMP,HEART_RATE\n"
+				+ "2015-12-31 23:59:58.000,72\n"
+				+ "2015-12-31 23:59:59.000,181\n", streamFile("HeartRate", FIRST_HOUR));
+		assertContent("HEADER_TIMESTAMP,HEART_RATE\n"
+				+ "2016-01-01 00:00:00.000,75\n", streamFile("HeartRate", SECOND_HOUR));
+	}
+	
+	@Test
+	public void writesOnlyTheTypesAsked() throws Exception {
+		List<String> created = convert(EnumSet.of(LogRecordType.valueOf("HHEART_RATE_BPM"), LogRecordType.CAPSENSE));
+		assertEquals(Arrays.asList(
+				accelFile(FIRST_HOUR),
+				streamFile("HeartRate", FIRST_HOUR),
+				streamFile("CapSense", FIRST_HOUR),
+				accelFile(SECOND_HOUR),
+				streamFile("HeartRate", SECOND_HOUR)), names(created));
+		assertContent("HEADER_TIMESTAMP,HEART_RATE\n"
+				+ "2016-01-01 00:00:00.000,75\n", streamFile("HeartRate", SECOND_HOUR));
+	}
+	
+	/*
+	 * Converts the input with SPLIT and the streams of "types". Returns the files created, in order.
+	 */
+	private List<String> convert(final EnumSet<LogRecordType> types) throws IOException {
+		GT3XFile file = new GT3XFile(_input.getPath(), _output.getPath(), GT3XParserOutputDataType.MHEALTH);
+		assertTrue(file.init(new String[] { "G_VALUE", "WITH_TIMESTAMP", "SPLIT" }, null));
+		file.setRecordStreamsOn(types);
+		final List<String> created = new ArrayList<String>();
+		final List<String> finished = new ArrayList<String>();
+		assertTrue(file.convertToMHealth(new GT3XFileProcessingListener() {
+			public void onProcessingStarted(final String inputFileFullPath, final String message, final long bytesOfUncompressedContent, final Map<String,Object> callbackMetadata) {
+			}
+			
+			public void onHourlyFileCreated(final String createdFilePath, final String message, final long bytesRead, final Map<String,Object> callbackMetadata, final Calendar calendar) {
+				created.add(createdFilePath);
+			}
+			
+			public void onProcessingFinished(final String inputFileFullPath, final String message, final long bytesReadTotal, final Map<String,Object> callbackMetadata) {
+				finished.add(message);
+			}
+		}));
+		assertEquals(1, finished.size());
+		return created;
+	}
+	
+	private static String accelFile(final String hour) {
+		return "WGT3XBT-AccelerationCalibrated-1x5x0.MOS2A45130451." + hour + "-000-M0500.sensor.csv";
+	}
+	
+	private static String streamFile(final String dataType, final String hour) {
+		return "WGT3XBT-" + dataType + "-1x5x0.MOS2A45130451-" + dataType + "." + hour + "-000-M0500.sensor.csv";
+	}
+	
+	private static List<String> names(final List<String> paths) {
+		List<String> names = new ArrayList<String>();
+		for(String path : paths) {
+			names.add(new File(path).getName());
+		}
+		return names;
+	}
+	
+	private void assertContent(final String expected, final String name) throws IOException {
+		assertEquals(name, expected, new String(Files.readAllBytes(new File(_output, name).toPath()), UTF8));
+	}
+	
+	private static long ticks(final long seconds) {
+		return TICKS_AT_EPOCH + seconds * 1000 * 10000;
+	}
+	
+	private static byte[] uint16(final int value) {
+		return new byte[] { (byte)value, (byte)(value >>> 8) };
+	}
+	
+	private static void write(final File file, final byte[] content) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,234 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.qmedic.data.converter.gt3x.io.ResamplingAccelEncoder;
+
+public class ResumeCheckpointTest {
+
+	private static final String INPUT = "/data/MOS2A45130448.gt3x 2048 1451606400000";
+	private static final String OPTIONS = "G,TIMESTAMP_ON,SPLIT_ON,MHEALTH,SUMMARY_ON";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+	
+	private String _path;
+	private File _first;
+	private File _second;
+	
+	@Before
+	public void setUp() throws Exception {
+		_path = new File(_folder.getRoot(), "MOS2A45130448.gt3x" + ResumeCheckpoint.SUFFIX).getPath();
+		_first = write("first.csv", 1000);
+		_second = write("second.csv", 1200);
+	}
+	
+	@Test
+	public void loadsWhatWasSaved() throws Exception {
+		ResumeCheckpoint saved = checkpoint();
+		saved.save(_path);
+		assertFalse(new File(_path + ".tmp").exists());
+		
+		ResumeCheckpoint loaded = ResumeCheckpoint.load(_path, INPUT, OPTIONS);
+		assertNotNull(loaded);
+		assertEquals(saved.offset, loaded.offset);
+		assertEquals(saved.streamOffset, loaded.streamOffset);
+		assertEquals(saved.hourTs, loaded.hourTs);
+		assertEquals(saved.timestamp, loaded.timestamp, 0d);
+		assertEquals(saved.inGap, loaded.inGap);
+		assertEquals(saved.j, loaded.j);
+		assertEquals(saved.timestampPhase, loaded.timestampPhase);
+		assertEquals(saved.lastRecordedTs, loaded.lastRecordedTs);
+		assertEquals(saved.lastRecordedXYZ, loaded.lastRecordedXYZ);
+		assertArrayEquals(saved.lastPair, loaded.lastPair);
+		assertEquals(saved.totalBytes, loaded.totalBytes);
+		assertEquals(saved.summaryMinuteTs, loaded.summaryMinuteTs);
+		assertEquals(saved.summaryTotal, loaded.summaryTotal, 0d);
+		assertEquals(saved.countsState, loaded.countsState);
+		assertEquals(saved.resamplingState, loaded.resamplingState);
+		assertEquals(2, loaded.files.size());
+		for(int i = 0; i < 2; i++) {
+			ConversionCache.OutputFile expected = saved.files.get(i);
+			ConversionCache.OutputFile file = loaded.files.get(i);
+			assertEquals(expected.path, file.path);
+			assertEquals(new File(expected.path).length(), file.size);
+			assertEquals(expected.bytesRead, file.bytesRead);
+			assertEquals(expected.calendarMillis, file.calendarMillis);
+		}
+	}
+	
+	@Test
+	public void carriesThePositionOfALogConversion() throws Exception {
+		ResumeCheckpoint saved = checkpoint();
+		LogActivityProcessor.Position position = saved.getPosition(30);
+		ResumeCheckpoint restored = new ResumeCheckpoint(INPUT, OPTIONS);
+		restored.setPosition(position, saved.totalBytes);
+		assertEquals(saved.offset, restored.offset);
+		assertEquals(saved.hourTs, restored.hourTs);
+		assertEquals(saved.timestamp, restored.timestamp, 0d);
+		assertEquals(saved.inGap, restored.inGap);
+		assertEquals(saved.j, restored.j);
+		assertEquals(saved.timestampPhase, restored.timestampPhase);
+		assertEquals(saved.lastRecordedTs, restored.lastRecordedTs);
+		assertEquals(saved.lastRecordedXYZ, restored.lastRecordedXYZ);
+		assertArrayEquals(saved.lastPair, restored.lastPair);
+		assertEquals(saved.countsState, restored.countsState);
+		assertEquals(saved.resamplingState, restored.resamplingState);
+	}
+	
+	@Test
+	public void rejectsAnotherInputOrOtherOptions() throws Exception {
+		checkpoint().save(_path);
+		assertNull(ResumeCheckpoint.load(_path, INPUT + "1", OPTIONS));
+		assertNull(ResumeCheckpoint.load(_path, INPUT, OPTIONS + ",GZIP_ON"));
+		assertNull(ResumeCheckpoint.load(_path + ".missing", INPUT, OPTIONS));
+	}
+	
+	@Test
+	public void rejectsChangedOrMissingFiles() throws Exception {
+		checkpoint().save(_path);
+		Files.write(_second.toPath(), new byte[1201]);
+		assertNull(ResumeCheckpoint.load(_path, INPUT, OPTIONS));
+		
+		checkpoint().save(_path);
+		assertTrue(_first.delete());
+		assertNull(ResumeCheckpoint.load(_path, INPUT, OPTIONS));
+	}
+	
+	@Test
+	public void checksTheLastSizeOfAFileWrittenAgain() throws Exception {
+		ResumeCheckpoint checkpoint = checkpoint();
+		checkpoint.save(_path); // both files as they are now
+		Files.write(_first.toPath(), new byte[1500]); // written again after the clock went back
+		List<String> lines = new ArrayList<String>(Files.readAllLines(new File(_path).toPath(), UTF8));
+		lines.add("file=1500 3000 1451610000000 "+_first.getPath());
+		Files.write(new File(_path).toPath(), lines, UTF8);
+		assertNotNull(ResumeCheckpoint.load(_path, INPUT, OPTIONS));
+	}
+	
+	@Test
+	public void rejectsMissingOrMalformedValues() throws Exception {
+		checkpoint().save(_path);
+		List<String> lines = Files.readAllLines(new File(_path).toPath(), UTF8);
+		assertNull(load(replace(lines, "offset=", null)));
+		assertNull(load(replace(lines, "offset=", "offset=12x")));
+		assertNull(load(replace(lines, "lastPair=", "lastPair=1,2,3")));
+		assertNull(load(replace(lines, "file=", "file=1000 "+_first.getPath())));
+		assertNull(load(replace(lines, "countsState=", "countsState=true,1,2")));
+		assertNotNull(load(lines));
+		assertNull(load(replace(lines, "countsState=", null)).countsState); // the counts are off
+	}
+	
+	private ResumeCheckpoint checkpoint() throws IOException {
+		ResumeCheckpoint checkpoint = new ResumeCheckpoint(INPUT, OPTIONS);
+		checkpoint.offset = 123456789L;
+		checkpoint.streamOffset = 123450000L;
+		checkpoint.hourTs = 1451610000000L;
+		checkpoint.timestamp = 1451610000033.3333;
+		checkpoint.inGap = true;
+		checkpoint.j = 17;
+		checkpoint.timestampPhase = 2;
+		checkpoint.lastRecordedTs = 1451609999966L;
+		checkpoint.lastRecordedXYZ = "0.012,-0.988,0.105";
+		checkpoint.lastPair = new short[] {12, -988, 105, -2048, 2047, 0};
+		checkpoint.totalBytes = 123456790L;
+		checkpoint.summaryMinuteTs = 1451609940000L;
+		checkpoint.summaryTotal = 1234.5678;
+		ActiGraphCounts counts = new ActiGraphCounts(80);
+		for(int i = 0; i < 1000; i++) {
+			counts.add(Math.sin(i * 0.1), 0.5, -1d + i * 0.001);
+		}
+		checkpoint.countsState = counts.getState();
+		ResamplingAccelEncoder resampling = new ResamplingAccelEncoder(null, 80, 30);
+		for(int i = 0; i < 1000; i++) {
+			resampling.writeSample(1451609999000d + i * 12.5, (short)i, (short)-i, (short)341);
+		}
+		checkpoint.resamplingState = resampling.getState();
+		checkpoint.files.add(new ConversionCache.OutputFile(_first.getPath(), 1000, 1451606400000L));
+		checkpoint.files.add(new ConversionCache.OutputFile(_second.getPath(), 2000, 1451606400000L));
+		return checkpoint;
+	}
+	
+	private File write(final String name, final int size) throws IOException {
+		File file = _folder.newFile(name);
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(new byte[size]);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+	
+	private ResumeCheckpoint load(final List<String> lines) throws IOException {
+		Files.write(new File(_path).toPath(), lines, UTF8);
+		return ResumeCheckpoint.load(_path, INPUT, OPTIONS);
+	}
+	
+	/*
+	 * The lines with the first one starting with "prefix" replaced by "line" (or dropped if it is null)
+	 */
+	private static List<String> replace(final List<String> lines, final String prefix, final String line) {
+		List<String> replaced = new ArrayList<String>();
+		boolean done = false;
+		for(String l : lines) {
+			if(!done && l.startsWith(prefix)) {
+				done = true;
+				if(line != null) {
+					replaced.add(line);
+				}
+			} else {
+				replaced.add(l);
+			}
+		}
+		assertTrue(done);
+		return replaced;
+	}
+}
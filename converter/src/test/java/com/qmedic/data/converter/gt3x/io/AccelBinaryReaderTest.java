@@ -0,0 +1,178 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.qmedic.data.converter.gt3x.model.AccelSampleBlock;
+
+public class AccelBinaryReaderTest {
+
+	private static final double SCALE = 341.0;
+	private static final int SAMPLE_RATE = 30;
+	private static final long START = 1451606400000L;
+	private static final String SERIAL = "MOS2A45130448";
+	
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+	
+	/*
+	 * The samples written: timestamps of the 30Hz clock, a data gap filled in, then a jump that
+	 * starts a new frame, over more than a frame
+	 */
+	private static final class Samples {
+		final int count = AccelBinaryEncoder.FRAME_CAPACITY * 2 + 500;
+		final int gapStart = 5000;
+		final int gapEnd = 5300; // filled in until here
+		final int jump = 7000; // the clock moves on by an hour here
+		final long[] timestamps = new long[count];
+		final short[] x = new short[count];
+		final short[] y = new short[count];
+		final short[] z = new short[count];
+		
+		Samples() {
+			Random random = new Random(5);
+			for(int i = 0; i < count; i++) {
+				timestamps[i] = START + (i >= jump ? 3600000L : 0) + (long)Math.floor(i * 1000d / SAMPLE_RATE);
+				boolean gap = i >= gapStart && i < gapEnd;
+				x[i] = gap ? x[gapStart-1] : (short)(random.nextInt(4096) - 2048);
+				y[i] = gap ? y[gapStart-1] : (short)(random.nextInt(4096) - 2048);
+				z[i] = gap ? z[gapStart-1] : (short)(random.nextInt(4096) - 2048);
+			}
+		}
+		
+		boolean isGapFill(final int i) {
+			return i >= gapStart && i < gapEnd;
+		}
+	}
+	
+	@Test
+	public void readsTheAdcValuesWritten() throws Exception {
+		assertRoundTrip(false);
+	}
+	
+	@Test
+	public void readsTheGValuesWritten() throws Exception {
+		assertRoundTrip(true);
+	}
+	
+	@Test
+	public void readsFramesAtOnce() throws Exception {
+		Samples samples = new Samples();
+		AccelBinaryReader reader = AccelBinaryReader.open(write(samples, false).getPath());
+		try {
+			AccelSampleBlock block = new AccelSampleBlock(AccelBinaryEncoder.FRAME_CAPACITY);
+			long[] timestamps = new long[AccelBinaryEncoder.FRAME_CAPACITY];
+			int i = 0;
+			for(int frame = 0; frame < reader.getFrameCount(); frame++) {
+				int n = reader.readFrame(frame, block, timestamps);
+				for(int k = 0; k < n; k++, i++) {
+					assertEquals(samples.timestamps[i], timestamps[k]);
+					assertEquals(samples.x[i], block.x()[k]);
+					assertEquals(samples.y[i], block.y()[k]);
+					assertEquals(samples.z[i], block.z()[k]);
+				}
+			}
+			assertEquals(samples.count, i);
+		} finally {
+			reader.close();
+		}
+	}
+	
+	@Test
+	public void rejectsAnotherFile() throws Exception {
+		File file = _folder.newFile("other.csv");
+		Files.write(file.toPath(), new byte[AccelBinaryEncoder.HEADER_SIZE]);
+		try {
+			AccelBinaryReader.open(file.getPath()).close();
+			fail("opened a file that is not a binary accel file");
+		} catch(IOException e) {
+			assertEquals("Not a binary accelerometer file.", e.getMessage());
+		}
+	}
+	
+	private void assertRoundTrip(final boolean gValues) throws Exception {
+		Samples samples = new Samples();
+		AccelBinaryReader reader = AccelBinaryReader.open(write(samples, gValues).getPath());
+		try {
+			assertEquals(gValues, reader.gValues());
+			assertEquals(SAMPLE_RATE, reader.getSampleRate());
+			assertEquals(SCALE, reader.getAccelerationScale(), 0d);
+			assertEquals(SERIAL, reader.getSerialNumber());
+			assertEquals(3, reader.getFrameCount()); // a full frame, then the jump ends the second one
+			for(int i = 0; i < samples.count; i++) {
+				assertTrue(reader.next());
+				assertEquals("sample "+i, samples.timestamps[i], reader.timestampMillis());
+				assertEquals(samples.x[i], reader.rawX());
+				assertEquals(samples.y[i], reader.rawY());
+				assertEquals(samples.z[i], reader.rawZ());
+				assertEquals(samples.x[i] / SCALE, reader.x(), 1e-6);
+				assertEquals(samples.y[i] / SCALE, reader.y(), 1e-6);
+				assertEquals(samples.z[i] / SCALE, reader.z(), 1e-6);
+				assertEquals(samples.isGapFill(i), reader.isGapFill());
+			}
+			assertFalse(reader.next());
+		} finally {
+			reader.close();
+		}
+	}
+	
+	private File write(final Samples samples, final boolean gValues) throws IOException {
+		File file = _folder.newFile("accel" + (gValues ? "-g" : "") + ".sensor.bin");
+		AccelBinaryEncoder encoder = new AccelBinaryEncoder(gValues, SCALE, SAMPLE_RATE, SERIAL);
+		encoder.open(new FileOutputStream(file));
+		long[] gap = new long[samples.gapEnd - samples.gapStart];
+		for(int i = 0; i < samples.count; i++) {
+			if(i == samples.gapStart) {
+				for(int k = 0; k < gap.length; k++) {
+					gap[k] = samples.timestamps[i + k];
+				}
+				encoder.writeGapSamples(gap, gap.length, samples.x[i], samples.y[i], samples.z[i], null);
+				i = samples.gapEnd - 1;
+			} else {
+				encoder.writeSample(samples.timestamps[i], samples.x[i], samples.y[i], samples.z[i]);
+			}
+		}
+		encoder.close();
+		return file;
+	}
+}
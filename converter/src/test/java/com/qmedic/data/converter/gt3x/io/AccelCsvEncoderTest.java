@@ -0,0 +1,208 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+import com.qmedic.data.converter.gt3x.base.OutFileWriter;
+import com.qmedic.data.converter.gt3x.enums.GT3XParserOutputDataType;
+import com.qmedic.data.converter.gt3x.utils.MHealthUtils;
+import com.qmedic.data.converter.gt3x.utils.TimestampFormatter;
+
+public class AccelCsvEncoderTest {
+
+	private static final long START = 1451606400000L;
+	
+	/*
+	 * The rows as the converter wrote them before the encoder: SimpleDateFormat and formatTo3Decimals()
+	 */
+	private static final class Baseline extends OutFileWriter {
+		private final boolean _inGAcceleration;
+		private final double _accelerationScale;
+		private final boolean _withTimestamps;
+		private final GT3XParserOutputDataType _outputDataType;
+		private final SimpleDateFormat _sdf;
+		
+		Baseline(final boolean inGAcceleration, final boolean withTimestamps, final double accelerationScale, final GT3XParserOutputDataType outputDataType) {
+			this._inGAcceleration = inGAcceleration;
+			this._accelerationScale = accelerationScale;
+			this._withTimestamps = withTimestamps;
+			this._outputDataType = outputDataType;
+			this._sdf = new SimpleDateFormat(outputDataType == GT3XParserOutputDataType.ACTIGRAPH ? MHealthUtils.ACTIGRAPH_TIMESTAMP_DATA_FORMAT : MHealthUtils.MHEALTH_TIMESTAMP_DATA_FORMAT);
+			_sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+		}
+		
+		String value(final short value) {
+			return _inGAcceleration ? formatTo3Decimals(value/_accelerationScale) : formatTo3Decimals(value);
+		}
+		
+		String row(final long timestamp, final String values) {
+			return (_withTimestamps ? _sdf.format(timestamp) + "," : "") + values + (_outputDataType == GT3XParserOutputDataType.ACTIGRAPH ? "\r\n" : "\n");
+		}
+		
+		String row(final long timestamp, final short x, final short y, final short z) {
+			return row(timestamp, value(x) + "," + value(y) + "," + value(z));
+		}
+		
+		String header() {
+			return _withTimestamps ? "HEADER_TIMESTAMP,X,Y,Z\n" : "X,Y,Z\n";
+		}
+	}
+	
+	@Test
+	public void writesEvery12BitValueLikeTheBaseline() throws IOException {
+		for(GT3XParserOutputDataType type : new GT3XParserOutputDataType[] { GT3XParserOutputDataType.MHEALTH, GT3XParserOutputDataType.ACTIGRAPH }) {
+			for(double scale : new double[] { 256d, 341d }) {
+				assertSameRows(true, true, scale, type);
+			}
+			assertSameRows(false, true, 341d, type);
+			assertSameRows(true, false, 341d, type);
+		}
+	}
+	
+	@Test
+	public void roundsLikeStringFormat() throws IOException {
+		// 1/256 g steps are exact, so formatTo3Decimals() and %.3f round them the same way (half away from zero)
+		Baseline baseline = new Baseline(true, false, 256d, GT3XParserOutputDataType.MHEALTH);
+		String[] rows = encode(true, false, 256d, GT3XParserOutputDataType.MHEALTH, -2048, 2048).split("\n");
+		for(int v = -2048; v < 2048; v++) {
+			String expected = String.format(Locale.US, "%.3f", v / 256d);
+			String value = rows[v + 2048 + 1].split(",")[0];
+			assertEquals(String.valueOf(v), Double.parseDouble(expected), Double.parseDouble(value), 0d);
+			assertEquals(baseline.value((short)v), value);
+		}
+	}
+	
+	@Test
+	public void formatsValuesOutOfTheTableAsTheyCome() throws IOException {
+		// 16-bit ACTIVITY2 samples, around the table and at the extremes
+		short[] values = { -2049, 2048, -2050, 2049, 4096, -4096, 12345, -12345, Short.MAX_VALUE, Short.MIN_VALUE, -1, 0, 1 };
+		for(boolean inG : new boolean[] { true, false }) {
+			Baseline baseline = new Baseline(inG, true, 256d, GT3XParserOutputDataType.MHEALTH);
+			AccelCsvEncoder encoder = new AccelCsvEncoder(inG, true, 256d, GT3XParserOutputDataType.MHEALTH, TimestampFormatter.MHEALTH);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			StringBuilder expected = new StringBuilder(baseline.header());
+			encoder.open(out);
+			// Enough rows to go over the buffer, with the values out of the table at its end
+			for(int i = 0; i < 20000; i++) {
+				short x = values[i % values.length];
+				short y = values[(i + 1) % values.length];
+				short z = values[(i + 2) % values.length];
+				encoder.writeSample(START + i, x, y, z);
+				expected.append(baseline.row(START + i, x, y, z));
+			}
+			encoder.close();
+			assertEquals(expected.toString(), out.toString("US-ASCII"));
+		}
+	}
+	
+	@Test
+	public void writesGapRowsFromTheirTemplate() throws IOException {
+		for(GT3XParserOutputDataType type : new GT3XParserOutputDataType[] { GT3XParserOutputDataType.MHEALTH, GT3XParserOutputDataType.ACTIGRAPH }) {
+			for(boolean withTimestamps : new boolean[] { true, false }) {
+				Baseline baseline = new Baseline(true, withTimestamps, 341d, type);
+				AccelCsvEncoder encoder = new AccelCsvEncoder(true, withTimestamps, 341d, type, TimestampFormatter.forOutputDataType(type));
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				StringBuilder expected = new StringBuilder(baseline.header());
+				encoder.open(out);
+				long[] timestamps = new long[5000];
+				long t = START;
+				// The template changes with the values, and the batches go over the buffer
+				for(String values : new String[] { "0.023,-0.98,0.1", "0.023,-0.98,0.1", "-5.997,0,1", "0,0,0" }) {
+					for(int i = 0; i < timestamps.length; i++, t += 33) {
+						timestamps[i] = t;
+						expected.append(baseline.row(t, values));
+					}
+					encoder.writeGapSamples(timestamps, timestamps.length, (short)0, (short)0, (short)0, values);
+					encoder.writeGapSample(t, (short)0, (short)0, (short)0, values);
+					expected.append(baseline.row(t, values));
+					encoder.writeSample(t, (short)-2048, (short)2047, (short)0);
+					expected.append(baseline.row(t, (short)-2048, (short)2047, (short)0));
+				}
+				encoder.close();
+				assertEquals(expected.toString(), out.toString("US-ASCII"));
+			}
+		}
+	}
+	
+	@Test
+	public void sharesTheTablesOfItsPrototype() throws IOException {
+		AccelCsvEncoder prototype = new AccelCsvEncoder(true, true, 341d, GT3XParserOutputDataType.MHEALTH, TimestampFormatter.MHEALTH);
+		ByteArrayOutputStream first = new ByteArrayOutputStream();
+		ByteArrayOutputStream second = new ByteArrayOutputStream();
+		AccelCsvEncoder copy = (AccelCsvEncoder)prototype.copy();
+		prototype.open(first);
+		copy.open(second);
+		for(int v = -2048; v < 2048; v++) {
+			prototype.writeSample(START + v * 10L, (short)v, (short)-v, (short)(v / 2));
+			copy.writeSample(START + v * 10L, (short)v, (short)-v, (short)(v / 2));
+		}
+		prototype.close();
+		copy.close();
+		assertEquals(first.toString("US-ASCII"), second.toString("US-ASCII"));
+	}
+	
+	/*
+	 * The rows of every 12-bit value as X (and shifted as Y and Z) are those of the baseline
+	 */
+	private static void assertSameRows(final boolean inG, final boolean withTimestamps, final double scale, final GT3XParserOutputDataType type) throws IOException {
+		Baseline baseline = new Baseline(inG, withTimestamps, scale, type);
+		StringBuilder expected = new StringBuilder(baseline.header());
+		for(int v = -2048; v < 2048; v++) {
+			expected.append(baseline.row(START + v * 37L, (short)v, shifted(v, 1000), shifted(v, 2500)));
+		}
+		assertEquals("scale "+scale+", "+type, expected.toString(), encode(inG, withTimestamps, scale, type, -2048, 2048));
+	}
+	
+	private static String encode(final boolean inG, final boolean withTimestamps, final double scale, final GT3XParserOutputDataType type, final int from, final int to) throws IOException {
+		AccelCsvEncoder encoder = new AccelCsvEncoder(inG, withTimestamps, scale, type, TimestampFormatter.forOutputDataType(type));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		encoder.open(out);
+		for(int v = from; v < to; v++) {
+			encoder.writeSample(START + v * 37L, (short)v, shifted(v, 1000), shifted(v, 2500));
+		}
+		encoder.close();
+		return out.toString("US-ASCII");
+	}
+	
+	/*
+	 * Another 12-bit value, "by" further
+	 */
+	private static short shifted(final int v, final int by) {
+		return (short)((v + 2048 + by) % 4096 - 2048);
+	}
+}
@@ -0,0 +1,166 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.qmedic.data.converter.gt3x.model.LogRecord;
+
+public class IndexingInflaterInputStreamTest {
+
+	private static final int PAYLOAD_SIZE = 60;
+	private static final int RECORD_SIZE = LogRecord.HEADER_SIZE + PAYLOAD_SIZE + 1;
+	
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+	
+	@Test
+	public void inflatesStoredFixedAndDynamicBlocks() throws Exception {
+		TestLogData log = new TestLogData(1);
+		// More than the 256 KB output buffer of stored blocks, then a short fixed block, then dynamic
+		// blocks of small alphabet payloads, mostly back-references, over several refills of the buffer
+		int stored = log.deflate(log.records(6000, PAYLOAD_SIZE, 256), Deflater.NO_COMPRESSION, false);
+		int fixed = log.deflate(log.records(1, PAYLOAD_SIZE, 1), Deflater.DEFAULT_COMPRESSION, false);
+		int dynamic = log.deflate(log.records(40000, PAYLOAD_SIZE, 8), Deflater.DEFAULT_COMPRESSION, true);
+		assertEquals(0, log.blockType(stored));
+		assertEquals(1, log.blockType(fixed));
+		assertEquals(2, log.blockType(dynamic));
+		
+		byte[] expected = log.inflate();
+		assertArrayEquals(log.getData(), expected);
+		File file = _folder.newFile("log.deflated");
+		log.write(file);
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		InflateIndex built = log.index(file, 64 * 1024, data);
+		assertArrayEquals(expected, data.toByteArray());
+		InflateIndex index = saveAndLoad(log, built);
+		assertResumes(index, file, index.getCheckpoints(), expected);
+	}
+	
+	@Test
+	public void resumesFromCheckpointsAtEveryBitOffset() throws Exception {
+		TestLogData log = new TestLogData(2);
+		log.deflate(log.records(60000, PAYLOAD_SIZE, 16), Deflater.DEFAULT_COMPRESSION, true);
+		byte[] expected = log.inflate();
+		File file = _folder.newFile("log.deflated");
+		log.write(file);
+		// A checkpoint at every block boundary, then through the sidecar as a conversion would
+		InflateIndex index = saveAndLoad(log, log.index(file, 1, null));
+		
+		InflateIndex.Checkpoint[] byShift = new InflateIndex.Checkpoint[8];
+		for(InflateIndex.Checkpoint checkpoint : index.getCheckpoints()) {
+			int shift = (int)(checkpoint.getBitOffset() & 7);
+			if(byShift[shift] == null) {
+				byShift[shift] = checkpoint;
+			}
+		}
+		for(int shift = 0; shift < 8; shift++) {
+			assertNotNull("no block boundary at bit "+shift, byShift[shift]);
+		}
+		assertResumes(index, file, Arrays.asList(byShift), expected);
+	}
+	
+	@Test
+	public void rejectsAChangedEntry() throws Exception {
+		TestLogData log = new TestLogData(3);
+		log.deflate(log.records(1000, PAYLOAD_SIZE, 16), Deflater.DEFAULT_COMPRESSION, true);
+		File file = _folder.newFile("log.deflated");
+		log.write(file);
+		ZipEntry crc = log.getEntry();
+		crc.setCrc(crc.getCrc() ^ 1);
+		assertInflateFails(file, crc, "invalid entry CRC");
+		ZipEntry size = log.getEntry();
+		size.setSize(size.getSize() + 1);
+		assertInflateFails(file, size, "invalid entry size");
+	}
+	
+	/*
+	 * The index as a conversion finds it, with the checkpoint windows read from the sidecar
+	 */
+	private InflateIndex saveAndLoad(final TestLogData log, final InflateIndex built) throws Exception {
+		assertNotNull(built);
+		String sidecar = new File(_folder.getRoot(), "log.idx").getPath();
+		built.save(sidecar);
+		InflateIndex index = InflateIndex.load(sidecar, log.getEntry());
+		assertNotNull(index);
+		assertEquals(built.getCheckpoints().size(), index.getCheckpoints().size());
+		return index;
+	}
+	
+	/*
+	 * Inflates from every checkpoint and compares the records from the checkpoint's one on with
+	 * java.util.zip's
+	 */
+	private static void assertResumes(final InflateIndex index, final File file, final List<InflateIndex.Checkpoint> checkpoints, final byte[] expected) throws Exception {
+		assertTrue(checkpoints.size() > 1);
+		for(InflateIndex.Checkpoint checkpoint : checkpoints) {
+			long recordOffset = checkpoint.getRecordOffset();
+			assertTrue(recordOffset >= checkpoint.getUncompressedOffset());
+			assertEquals(0, recordOffset % RECORD_SIZE);
+			assertEquals(TestLogData.FIRST_TIMESTAMP + recordOffset / RECORD_SIZE, checkpoint.getRecordTimestamp());
+			InputStream in = index.open(TestLogData.open(file), TestLogData.DATA_OFFSET, checkpoint);
+			try {
+				assertArrayEquals("from bit "+checkpoint.getBitOffset(), Arrays.copyOfRange(expected, (int)recordOffset, expected.length), TestLogData.readAll(in));
+			} finally {
+				in.close();
+			}
+		}
+	}
+	
+	private static void assertInflateFails(final File file, final ZipEntry entry, final String message) throws Exception {
+		IndexingInflaterInputStream in = new IndexingInflaterInputStream(TestLogData.open(file), TestLogData.DATA_OFFSET, entry, 1);
+		try {
+			TestLogData.readAll(in);
+			fail("read with a wrong entry");
+		} catch(ZipException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+		} finally {
+			in.close();
+		}
+		assertNull(in.getIndex());
+	}
+}
@@ -0,0 +1,113 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class InflateIndexTest {
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+	
+	private TestLogData _log;
+	private String _sidecar;
+	
+	@Before
+	public void setUp() throws Exception {
+		_log = new TestLogData(4);
+		_log.deflate(_log.records(20000, 60, 16), Deflater.DEFAULT_COMPRESSION, true);
+		File file = _folder.newFile("log.deflated");
+		_log.write(file);
+		_sidecar = InflateIndex.sidecarPath(file.getPath());
+		_log.index(file, 128 * 1024, null).save(_sidecar);
+	}
+	
+	@Test
+	public void loadsTheIndexOfTheSameEntry() {
+		InflateIndex index = InflateIndex.load(_sidecar, _log.getEntry());
+		assertNotNull(index);
+		assertTrue(index.getCheckpoints().size() > 2);
+		assertEquals(128 * 1024, index.getSpan());
+	}
+	
+	@Test
+	public void rejectsTheIndexOfAChangedEntry() {
+		ZipEntry crc = _log.getEntry();
+		crc.setCrc(crc.getCrc() ^ 1);
+		assertNull(InflateIndex.load(_sidecar, crc));
+		ZipEntry size = _log.getEntry();
+		size.setSize(size.getSize() + 1);
+		assertNull(InflateIndex.load(_sidecar, size));
+		ZipEntry compressedSize = _log.getEntry();
+		compressedSize.setCompressedSize(compressedSize.getCompressedSize() - 1);
+		assertNull(InflateIndex.load(_sidecar, compressedSize));
+		ZipEntry stored = _log.getEntry();
+		stored.setMethod(ZipEntry.STORED);
+		assertNull(InflateIndex.load(_sidecar, stored));
+	}
+	
+	@Test
+	public void rejectsATruncatedIndex() throws Exception {
+		RandomAccessFile file = new RandomAccessFile(_sidecar, "rw");
+		try {
+			file.setLength(file.length() - 1);
+		} finally {
+			file.close();
+		}
+		assertNull(InflateIndex.load(_sidecar, _log.getEntry()));
+		assertNull(InflateIndex.load(_sidecar + ".missing", _log.getEntry()));
+	}
+	
+	@Test
+	public void findsTheLastCheckpointNotAfterATime() {
+		InflateIndex index = InflateIndex.load(_sidecar, _log.getEntry());
+		List<InflateIndex.Checkpoint> checkpoints = index.getCheckpoints();
+		InflateIndex.Checkpoint second = checkpoints.get(1);
+		assertNull(index.find(checkpoints.get(0).getRecordTimestamp()*1000 - 1));
+		assertSame(second, index.find(second.getRecordTimestamp()*1000));
+		assertSame(second, index.find(checkpoints.get(2).getRecordTimestamp()*1000 - 1));
+		assertSame(second, index.findRecord(second.getRecordOffset()));
+		assertSame(checkpoints.get(checkpoints.size()-1), index.find(Long.MAX_VALUE / 2));
+	}
+}
@@ -0,0 +1,190 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+public class ParallelGzipOutputStreamTest {
+
+	private static final int BLOCK_SIZE = 32 * 1024; // the smallest one
+	
+	/*
+	 * Only keeps the size and the last 8 bytes (the gzip trailer) of what is written
+	 */
+	private static final class Tail extends OutputStream {
+		final byte[] last = new byte[8];
+		long size = 0;
+		
+		@Override
+		public void write(final int b) {
+			last[(int)(size++ % 8)] = (byte)b;
+		}
+		
+		@Override
+		public void write(final byte[] b, final int off, final int len) {
+			for(int i = Math.max(off, off + len - 8); i < off + len; i++) {
+				last[(int)((size + i - off) % 8)] = b[i];
+			}
+			size += len;
+		}
+		
+		long trailer(final int offset) {
+			long value = 0;
+			for(int i = 3; i >= 0; i--) {
+				value = (value << 8) | (last[(int)((size - 8 + offset + i) % 8)] & 0xff);
+			}
+			return value;
+		}
+	}
+	
+	@Test
+	public void compressesNothing() throws IOException {
+		assertRoundTrip(new byte[0], BLOCK_SIZE);
+	}
+	
+	@Test
+	public void compressesLessThanABlock() throws IOException {
+		assertRoundTrip(data(1000), BLOCK_SIZE);
+		assertRoundTrip(data(1), BLOCK_SIZE);
+	}
+	
+	@Test
+	public void compressesExactlyABlock() throws IOException {
+		assertRoundTrip(data(BLOCK_SIZE), BLOCK_SIZE);
+		assertRoundTrip(data(ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE), ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE);
+	}
+	
+	@Test
+	public void compressesManyBlocks() throws IOException {
+		assertRoundTrip(data(BLOCK_SIZE * 40 + 123), BLOCK_SIZE);
+		assertRoundTrip(data(BLOCK_SIZE * 8), BLOCK_SIZE);
+		assertRoundTrip(data(ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE * 5 + 7), ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE);
+	}
+	
+	@Test
+	public void compressesByteByByte() throws IOException {
+		byte[] data = data(BLOCK_SIZE * 3 + 5);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		ParallelGzipOutputStream out = new ParallelGzipOutputStream(compressed, Deflater.DEFAULT_COMPRESSION, BLOCK_SIZE);
+		for(byte b : data) {
+			out.write(b);
+		}
+		out.close();
+		assertArrayEquals(data, gunzip(compressed.toByteArray()));
+	}
+	
+	@Test
+	public void endsWithTheCrcAndTheSizeModulo2To32() throws IOException {
+		// More than 4 GiB of (quickly compressed) input
+		byte[] buffer = new byte[1024 * 1024];
+		new Random(1).nextBytes(buffer);
+		for(int i = 1024; i < buffer.length; i++) {
+			buffer[i] = buffer[i % 1024];
+		}
+		long size = (1L << 32) + buffer.length + 3;
+		Tail tail = new Tail();
+		ParallelGzipOutputStream out = new ParallelGzipOutputStream(tail, Deflater.BEST_SPEED, ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE);
+		CRC32 crc = new CRC32();
+		for(long written = 0; written < size; ) {
+			int n = (int)Math.min(buffer.length, size - written);
+			out.write(buffer, 0, n);
+			crc.update(buffer, 0, n);
+			written += n;
+		}
+		out.close();
+		assertEquals(crc.getValue(), tail.trailer(0));
+		assertEquals(size & 0xffffffffL, tail.trailer(4));
+		assertEquals(buffer.length + 3, tail.trailer(4));
+		
+		byte[] data = data(BLOCK_SIZE * 3 + 11);
+		byte[] compressed = gzip(data, BLOCK_SIZE);
+		crc.reset();
+		crc.update(data);
+		tail = new Tail();
+		tail.write(compressed, 0, compressed.length);
+		assertEquals(crc.getValue(), tail.trailer(0));
+		assertEquals(data.length, tail.trailer(4));
+	}
+	
+	private static void assertRoundTrip(final byte[] data, final int blockSize) throws IOException {
+		assertArrayEquals(data, gunzip(gzip(data, blockSize)));
+	}
+	
+	private static byte[] gzip(final byte[] data, final int blockSize) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		ParallelGzipOutputStream out = new ParallelGzipOutputStream(compressed, Deflater.DEFAULT_COMPRESSION, blockSize);
+		// In uneven writes, some of them across blocks
+		for(int off = 0, n = 1; off < data.length; off += n, n = n * 3 + 1) {
+			out.write(data, off, Math.min(n, data.length - off));
+		}
+		out.close();
+		return compressed.toByteArray();
+	}
+	
+	private static byte[] gunzip(final byte[] compressed) throws IOException {
+		InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed));
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while((n = in.read(buffer)) > 0) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+	
+	/*
+	 * Text like rows, compressible across the blocks, with some noise
+	 */
+	private static byte[] data(final int length) {
+		Random random = new Random(length);
+		byte[] data = new byte[length];
+		String row = "2016-01-01 00:00:00.000,0.123,-0.981,0.045\n";
+		for(int i = 0; i < length; i++) {
+			data[i] = (random.nextInt(8) == 0) ? (byte)random.nextInt(256) : (byte)row.charAt(i % row.length());
+		}
+		return data;
+	}
+}
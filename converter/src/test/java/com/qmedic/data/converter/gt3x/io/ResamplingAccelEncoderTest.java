@@ -0,0 +1,284 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.qmedic.data.converter.gt3x.iface.AccelEncoder;
+import com.qmedic.data.converter.gt3x.utils.GT3XUtils;
+
+public class ResamplingAccelEncoderTest {
+
+	private static final long START = 1451606400000L;
+	private static final int SAMPLES = 4000;
+	
+	/*
+	 * Keeps the samples written, one row per sample: timestamp, X, Y, Z
+	 */
+	private static final class Recorder implements AccelEncoder {
+		final List<List<long[]>> files = new ArrayList<List<long[]>>();
+		
+		public void open(final OutputStream out) {
+			files.add(new ArrayList<long[]>());
+		}
+		
+		public void writeSample(final double timestamp, final short x, final short y, final short z) {
+			files.get(files.size() - 1).add(new long[] { (long)timestamp, x, y, z });
+			assertEquals("rounded to the millisecond", Math.rint(timestamp), timestamp, 0d);
+		}
+		
+		public void writeGapSample(final double timestamp, final short x, final short y, final short z, final String values) {
+			fail("resampled gap samples are samples");
+		}
+		
+		public void writeGapSamples(final long[] timestamps, final int count, final short x, final short y, final short z, final String values) {
+			fail("resampled gap samples are samples");
+		}
+		
+		public void end() {
+		}
+		
+		public AccelEncoder copy() {
+			return new Recorder();
+		}
+		
+		public void close() {
+		}
+		
+		List<long[]> all() {
+			List<long[]> all = new ArrayList<long[]>();
+			for(List<long[]> file : files) {
+				all.addAll(file);
+			}
+			return all;
+		}
+	}
+	
+	@Test
+	public void writesTheSamplesOfAnExactClockRoundedToTheMillisecond() throws IOException {
+		Recorder recorder = new Recorder();
+		ResamplingAccelEncoder encoder = new ResamplingAccelEncoder(recorder, 80, 30);
+		encoder.open(null);
+		write(encoder, 80, 0, SAMPLES);
+		encoder.end();
+		List<long[]> samples = recorder.all();
+		assertEquals(SAMPLES * 30 / 80, samples.size());
+		long[] expected = { 0, 33, 67, 100, 133, 167, 200 };
+		for(int i = 0; i < expected.length; i++) {
+			assertEquals(START + expected[i], samples.get(i)[0]);
+		}
+		assertEquals(START + Math.round(1000d * (samples.size() - 1) / 30), samples.get(samples.size() - 1)[0]);
+	}
+	
+	@Test
+	public void keepsAConstantSignal() throws IOException {
+		for(int[] rates : new int[][] { { 80, 30 }, { 30, 100 }, { 100, 80 } }) {
+			Recorder recorder = new Recorder();
+			ResamplingAccelEncoder encoder = new ResamplingAccelEncoder(recorder, rates[0], rates[1]);
+			encoder.open(null);
+			for(int i = 0; i < rates[0] * 10; i++) {
+				encoder.writeSample(START + i * 1000d / rates[0], (short)12, (short)-341, (short)2047);
+			}
+			encoder.end();
+			assertEquals(rates[1] * 10, recorder.all().size());
+			for(long[] sample : recorder.all()) {
+				assertEquals(12, sample[1]);
+				assertEquals(-341, sample[2]);
+				assertEquals(2047, sample[3]);
+			}
+		}
+	}
+	
+	@Test
+	public void goesOnAcrossTheFiles() throws IOException {
+		long start = START - 12500; // the hour ends with sample 1000 at 80Hz
+		Recorder single = new Recorder();
+		ResamplingAccelEncoder encoder = new ResamplingAccelEncoder(single, 80, 30);
+		encoder.open(null);
+		write(encoder, start, 80, 0, SAMPLES);
+		encoder.end();
+		encoder.close();
+		
+		Recorder split = new Recorder();
+		encoder = new ResamplingAccelEncoder(split, 80, 30);
+		encoder.open(null);
+		write(encoder, start, 80, 0, 1000);
+		encoder.close();
+		encoder.open(null);
+		write(encoder, start, 80, 1000, SAMPLES);
+		encoder.end();
+		encoder.close();
+		assertEquals(2, split.files.size());
+		// The samples waiting for the second half of the filter at the end of the hour are in its file,
+		// only they differ from those of a single file
+		assertEquals(START - 33, last(split.files.get(0))[0]);
+		assertEquals(START, split.files.get(1).get(0)[0]);
+		List<long[]> expected = single.all();
+		List<long[]> samples = split.all();
+		assertEquals(expected.size(), samples.size());
+		for(int i = 0; i < expected.size(); i++) {
+			if(expected.get(i)[0] < START - 300 || expected.get(i)[0] >= START) {
+				assertTrue("sample "+i, Arrays.equals(expected.get(i), samples.get(i)));
+			}
+		}
+	}
+	
+	@Test
+	public void writesTheSamplesOfAnHourToItsFile() throws IOException {
+		for(int[] rates : new int[][] { { 80, 30 }, { 30, 100 }, { 100, 80 }, { 30, 80 } }) {
+			Recorder recorder = new Recorder();
+			ResamplingAccelEncoder encoder = new ResamplingAccelEncoder(recorder, rates[0], rates[1]);
+			List<Long> hours = new ArrayList<Long>();
+			long start = START - 10000;
+			int samples = rates[0] * 3620;
+			for(int i = 0; i < samples; i++) {
+				long hour = GT3XUtils.GetCurrentHourTimestamp(start + i * 1000d / rates[0]);
+				if(hours.isEmpty() || hour != hours.get(hours.size() - 1)) {
+					if(!hours.isEmpty()) {
+						encoder.close();
+					}
+					encoder.open(null);
+					hours.add(hour);
+				}
+				write(encoder, start, rates[0], i, i + 1);
+			}
+			encoder.end();
+			encoder.close();
+			assertEquals(3, recorder.files.size());
+			for(int i = 0; i < hours.size(); i++) {
+				for(long[] sample : recorder.files.get(i)) {
+					assertEquals("rates "+rates[0]+"/"+rates[1]+", file "+i, (long)hours.get(i), GT3XUtils.GetCurrentHourTimestamp(sample[0]));
+				}
+			}
+			assertEquals(rates[1] * 3620, recorder.all().size());
+		}
+	}
+	
+	@Test
+	public void carriesOnFromItsState() throws IOException {
+		for(int[] rates : new int[][] { { 80, 30 }, { 30, 100 } }) {
+			Recorder single = new Recorder();
+			ResamplingAccelEncoder encoder = new ResamplingAccelEncoder(single, rates[0], rates[1]);
+			encoder.open(null);
+			write(encoder, rates[0], 0, SAMPLES);
+			encoder.end();
+			for(int split : new int[] { 1, 7, 100, 1001 }) {
+				Recorder recorder = new Recorder();
+				ResamplingAccelEncoder first = new ResamplingAccelEncoder(recorder, rates[0], rates[1]);
+				first.open(null);
+				write(first, rates[0], 0, split);
+				ResamplingAccelEncoder follower = first.follower();
+				write(follower, rates[0], 0, split);
+				assertEquals(first.getState(), follower.getState());
+				
+				ResamplingAccelEncoder second = new ResamplingAccelEncoder(recorder, rates[0], rates[1]); // to the same file
+				second.setState(follower.getState());
+				write(second, rates[0], split, SAMPLES);
+				second.end();
+				assertSameSamples(single.all(), recorder.all());
+			}
+		}
+	}
+	
+	@Test
+	public void startsAnotherStreamAfterAJump() throws IOException {
+		Recorder recorder = new Recorder();
+		ResamplingAccelEncoder encoder = new ResamplingAccelEncoder(recorder, 80, 30);
+		encoder.open(null);
+		write(encoder, 80, 0, 800);
+		write(encoder, 80, 1600, 2400); // 10 seconds left out
+		encoder.end();
+		List<long[]> samples = recorder.all();
+		assertEquals(600, samples.size());
+		assertEquals(START + 9967, samples.get(299)[0]);
+		assertEquals(START + 20000, samples.get(300)[0]);
+	}
+	
+	@Test
+	public void rejectsOtherStates() throws IOException {
+		ResamplingAccelEncoder encoder = new ResamplingAccelEncoder(new Recorder(), 80, 30).follower();
+		write(encoder, 80, 0, 100);
+		String state = encoder.getState();
+		ResamplingAccelEncoder other = new ResamplingAccelEncoder(new Recorder(), 80, 30);
+		other.setState(state);
+		assertEquals(state, other.getState());
+		for(String malformed : new String[] { "", "yes" + state.substring(state.indexOf(',')), state + ",0", state.replaceFirst(",[^,]*$", ",x") }) {
+			try {
+				other.setState(malformed);
+				fail(malformed);
+			} catch(IllegalArgumentException e) {
+				// expected
+			}
+		}
+		try {
+			new ResamplingAccelEncoder(new Recorder(), 30, 100).setState(state);
+			fail("another ratio");
+		} catch(IllegalArgumentException e) {
+			// expected
+		}
+	}
+	
+	/*
+	 * Samples "from" (included) to "to" (excluded) of noise at "rate"
+	 */
+	private static void write(final AccelEncoder encoder, final int rate, final int from, final int to) throws IOException {
+		write(encoder, START, rate, from, to);
+	}
+	
+	private static void write(final AccelEncoder encoder, final long start, final int rate, final int from, final int to) throws IOException {
+		for(int i = from; i < to; i++) {
+			Random random = new Random(i);
+			encoder.writeSample(start + i * 1000d / rate, (short)random.nextInt(4096), (short)(random.nextInt(4096) - 2048), (short)-random.nextInt(4096));
+		}
+	}
+	
+	private static long[] last(final List<long[]> samples) {
+		return samples.get(samples.size() - 1);
+	}
+	
+	private static void assertSameSamples(final List<long[]> expected, final List<long[]> samples) {
+		assertEquals(expected.size(), samples.size());
+		for(int i = 0; i < expected.size(); i++) {
+			for(int j = 0; j < 4; j++) {
+				assertEquals("sample "+i, expected.get(i)[j], samples.get(i)[j]);
+			}
+		}
+	}
+}
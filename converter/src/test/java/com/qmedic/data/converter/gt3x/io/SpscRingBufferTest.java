@@ -0,0 +1,195 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class SpscRingBufferTest {
+
+	private static final int ITEMS = 4000000;
+	
+	/*
+	 * A thread running "task", failing the test with what it threw
+	 */
+	private static final class Side extends Thread {
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		
+		Side(final Runnable task) {
+			super(task);
+			setDaemon(true);
+		}
+		
+		@Override
+		public void run() {
+			try {
+				super.run();
+			} catch(Throwable t) {
+				failure.set(t);
+			}
+		}
+		
+		void finish() throws Throwable {
+			join(30000);
+			assertFalse("still running", isAlive());
+			if(failure.get() != null) {
+				throw failure.get();
+			}
+		}
+	}
+	
+	@Test(timeout = 120000)
+	public void passesMillionsOfItemsInOrder() throws Throwable {
+		final SpscRingBuffer<Integer> queue = new SpscRingBuffer<Integer>(64);
+		Side producer = new Side(new Runnable() {
+			public void run() {
+				for(int i = 0; i < ITEMS; i++) {
+					assertTrue(queue.put(i));
+				}
+				queue.close();
+			}
+		});
+		final long[] taken = new long[1];
+		Side consumer = new Side(new Runnable() {
+			public void run() {
+				Integer item;
+				while((item = queue.take()) != null) {
+					assertEquals(taken[0], item.longValue());
+					taken[0]++;
+				}
+			}
+		});
+		producer.start();
+		consumer.start();
+		producer.finish();
+		consumer.finish();
+		assertEquals(ITEMS, taken[0]);
+	}
+	
+	@Test
+	public void roundsTheCapacityUpToAPowerOfTwo() {
+		assertEquals(2, new SpscRingBuffer<Object>(0).capacity());
+		assertEquals(8, new SpscRingBuffer<Object>(8).capacity());
+		assertEquals(16, new SpscRingBuffer<Object>(9).capacity());
+	}
+	
+	@Test(timeout = 60000)
+	public void waitsForRoomWhenFull() throws Throwable {
+		final SpscRingBuffer<Integer> queue = new SpscRingBuffer<Integer>(4);
+		for(int i = 0; i < 4; i++) {
+			assertTrue(queue.offer(i));
+		}
+		assertFalse(queue.offer(4));
+		Side producer = new Side(new Runnable() {
+			public void run() {
+				assertTrue(queue.put(4));
+			}
+		});
+		producer.start();
+		waitUntilParked(producer);
+		assertEquals(0, queue.poll().intValue()); // unparks it
+		producer.finish();
+		for(int i = 1; i <= 4; i++) {
+			assertEquals(i, queue.poll().intValue());
+		}
+		assertNull(queue.poll());
+	}
+	
+	@Test(timeout = 60000)
+	public void waitsForAnItemWhenEmpty() throws Throwable {
+		final SpscRingBuffer<Integer> queue = new SpscRingBuffer<Integer>(4);
+		final AtomicReference<Integer> taken = new AtomicReference<Integer>();
+		Side consumer = new Side(new Runnable() {
+			public void run() {
+				taken.set(queue.take());
+			}
+		});
+		consumer.start();
+		waitUntilParked(consumer);
+		assertTrue(queue.offer(7)); // unparks it
+		consumer.finish();
+		assertEquals(7, taken.get().intValue());
+	}
+	
+	@Test(timeout = 60000)
+	public void closingWakesUpAWaitingProducer() throws Throwable {
+		final SpscRingBuffer<Integer> queue = new SpscRingBuffer<Integer>(2);
+		assertTrue(queue.put(0));
+		assertTrue(queue.put(1));
+		Side producer = new Side(new Runnable() {
+			public void run() {
+				assertFalse(queue.put(2)); // the consumer gave up
+			}
+		});
+		producer.start();
+		waitUntilParked(producer);
+		queue.close();
+		producer.finish();
+		assertFalse(queue.put(3));
+	}
+	
+	@Test(timeout = 60000)
+	public void closingWakesUpAWaitingConsumerOnceEmpty() throws Throwable {
+		final SpscRingBuffer<Integer> queue = new SpscRingBuffer<Integer>(4);
+		queue.put(0);
+		queue.put(1);
+		queue.close();
+		// What was added before still comes out
+		assertEquals(0, queue.take().intValue());
+		assertEquals(1, queue.take().intValue());
+		assertNull(queue.take());
+		
+		final SpscRingBuffer<Integer> empty = new SpscRingBuffer<Integer>(4);
+		Side consumer = new Side(new Runnable() {
+			public void run() {
+				assertNull(empty.take()); // the producer gave up
+			}
+		});
+		consumer.start();
+		waitUntilParked(consumer);
+		empty.close();
+		consumer.finish();
+	}
+	
+	/*
+	 * Waits until "thread" is parked in the queue, past its spins
+	 */
+	private static void waitUntilParked(final Thread thread) throws InterruptedException {
+		while(thread.getState() != Thread.State.WAITING) {
+			assertTrue("not parked", thread.isAlive());
+			Thread.sleep(1);
+		}
+	}
+}
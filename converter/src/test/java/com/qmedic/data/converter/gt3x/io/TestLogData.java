@@ -0,0 +1,252 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+import com.qmedic.data.converter.gt3x.enums.LogRecordType;
+import com.qmedic.data.converter.gt3x.model.LogRecord;
+import com.qmedic.data.converter.gt3x.utils.GT3XUtils;
+
+/*
+ * log.bin content for the inflate tests: ACTIVITY2 records with consecutive timestamps, deflated in
+ * segments of a chosen level (a Deflater per segment, primed with the data before it, so that the
+ * segments can refer back to each other and the block types are known). Public for the fixtures of
+ * the other packages' tests, which add records of other types with record().
+ */
+public final class TestLogData {
+
+	public static final long FIRST_TIMESTAMP = 1451606400L; // 2016-01-01, seconds
+	static final int DATA_OFFSET = 100; // bytes before the compressed data in the file, as a zip local header
+	
+	private final ByteArrayOutputStream _data = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream _compressed = new ByteArrayOutputStream();
+	private final Random _random;
+	private long _timestamp = FIRST_TIMESTAMP;
+	
+	public TestLogData(final long seed) {
+		this._random = new Random(seed);
+	}
+	
+	/*
+	 * Moves the timestamp of the next records() to "timestamp" (seconds)
+	 */
+	public void setTimestamp(final long timestamp) {
+		this._timestamp = timestamp;
+	}
+	
+	/*
+	 * "count" records of "payloadSize" bytes, the payload bytes drawn from "alphabet" values (256 is
+	 * incompressible). Returns the records, which are appended to the data but not deflated yet.
+	 */
+	public byte[] records(final int count, final int payloadSize, final int alphabet) {
+		byte[] records = new byte[count * (LogRecord.HEADER_SIZE + payloadSize + 1)];
+		byte[] payload = new byte[payloadSize];
+		int p = 0;
+		for(int i = 0; i < count; i++, _timestamp++) {
+			for(int b = 0; b < payloadSize; b++) {
+				payload[b] = (byte)_random.nextInt(alphabet);
+			}
+			p = put(records, p, LogRecordType.ACTIVITY2.getId(), _timestamp, payload);
+		}
+		return records;
+	}
+	
+	/*
+	 * A record of "type" at "timestamp" (seconds), with a valid checksum
+	 */
+	public static byte[] record(final LogRecordType type, final long timestamp, final byte[] payload) {
+		byte[] record = new byte[LogRecord.HEADER_SIZE + payload.length + 1];
+		put(record, 0, type.getId(), timestamp, payload);
+		return record;
+	}
+	
+	/*
+	 * Writes a record at "p" of "records", returns the offset after it
+	 */
+	private static int put(final byte[] records, final int p, final short type, final long timestamp, final byte[] payload) {
+		records[p] = 0x1E;
+		records[p+1] = (byte)type;
+		for(int b = 0; b < 4; b++) {
+			records[p+2+b] = (byte)(timestamp >>> (8*b));
+		}
+		records[p+6] = (byte)payload.length;
+		records[p+7] = (byte)(payload.length >>> 8);
+		System.arraycopy(payload, 0, records, p+LogRecord.HEADER_SIZE, payload.length);
+		LogRecord record = new LogRecord();
+		record.setType(type);
+		record.setTimestamp(timestamp);
+		record.setPayloadSize(payload.length);
+		record.setPayload(records, p + LogRecord.HEADER_SIZE);
+		// The checksum that makes CalculateCheckSum() come out at the separator
+		records[p+LogRecord.HEADER_SIZE+payload.length] = (byte)(0x1E ^ GT3XUtils.CalculateCheckSum(record, (byte)0));
+		return p + LogRecord.HEADER_SIZE + payload.length + 1;
+	}
+	
+	/*
+	 * Deflates "records" at "level" (Deflater.NO_COMPRESSION for stored blocks), ending with a sync
+	 * flush unless it is the last segment. Returns the offset of its first block in the compressed data,
+	 * at a byte boundary.
+	 */
+	public int deflate(final byte[] records, final int level, final boolean last) {
+		int offset = _compressed.size();
+		Deflater deflater = new Deflater(level, true);
+		byte[] data = _data.toByteArray();
+		if(data.length > 0) {
+			int window = Math.min(data.length, InflateIndex.WINDOW_SIZE);
+			deflater.setDictionary(data, data.length - window, window);
+		}
+		deflater.setInput(records);
+		if(last) {
+			deflater.finish();
+		}
+		byte[] buffer = new byte[64 * 1024];
+		while(true) {
+			int n = deflater.deflate(buffer, 0, buffer.length, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+			_compressed.write(buffer, 0, n);
+			if(last ? deflater.finished() : (n < buffer.length && deflater.needsInput())) {
+				break;
+			}
+		}
+		deflater.end();
+		_data.write(records, 0, records.length);
+		return offset;
+	}
+	
+	public byte[] getData() {
+		return _data.toByteArray();
+	}
+	
+	byte[] getCompressed() {
+		return _compressed.toByteArray();
+	}
+	
+	/*
+	 * The type of the block whose header starts at byte "offset" of the compressed data: 0 stored,
+	 * 1 fixed, 2 dynamic Huffman codes
+	 */
+	int blockType(final int offset) {
+		return (getCompressed()[offset] >>> 1) & 3;
+	}
+	
+	/*
+	 * The entry of the compressed data, as the zip file has it
+	 */
+	ZipEntry getEntry() {
+		byte[] data = getData();
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		ZipEntry entry = new ZipEntry("log.bin");
+		entry.setMethod(ZipEntry.DEFLATED);
+		entry.setSize(data.length);
+		entry.setCompressedSize(_compressed.size());
+		entry.setCrc(crc.getValue());
+		return entry;
+	}
+	
+	/*
+	 * Writes the compressed data to "file", after DATA_OFFSET bytes of something else
+	 */
+	void write(final File file) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			byte[] header = new byte[DATA_OFFSET];
+			Arrays.fill(header, (byte)0x50);
+			out.write(header);
+			out.write(getCompressed());
+		} finally {
+			out.close();
+		}
+	}
+	
+	/*
+	 * The compressed data inflated by java.util.zip
+	 */
+	byte[] inflate() throws DataFormatException {
+		Inflater inflater = new Inflater(true);
+		byte[] compressed = getCompressed();
+		// A raw stream needs a byte past its end
+		inflater.setInput(Arrays.copyOf(compressed, compressed.length + 1));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[64 * 1024];
+		while(!inflater.finished()) {
+			int n = inflater.inflate(buffer);
+			if(n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+				throw new DataFormatException("truncated");
+			}
+			out.write(buffer, 0, n);
+		}
+		inflater.end();
+		return out.toByteArray();
+	}
+	
+	/*
+	 * Reads the compressed data of "file" (see write()) with an IndexingInflaterInputStream, in reads of
+	 * an odd size. Returns the index built, the data read goes to "data" if it is not null.
+	 */
+	InflateIndex index(final File file, final long span, final ByteArrayOutputStream data) throws IOException {
+		IndexingInflaterInputStream in = new IndexingInflaterInputStream(open(file), DATA_OFFSET, getEntry(), span);
+		try {
+			byte[] read = readAll(in);
+			if(data != null) {
+				data.write(read, 0, read.length);
+			}
+		} finally {
+			in.close();
+		}
+		return in.getIndex();
+	}
+	
+	static FileChannel open(final File file) throws IOException {
+		return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+	}
+	
+	static byte[] readAll(final InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[7919];
+		int n;
+		while((n = in.read(buffer, 0, buffer.length)) >= 0) {
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+}
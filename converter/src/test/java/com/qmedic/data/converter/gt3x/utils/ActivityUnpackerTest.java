@@ -0,0 +1,165 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+import com.qmedic.data.converter.gt3x.AccelPair;
+import com.qmedic.data.converter.gt3x.enums.GT3XParserOutputDataType;
+import com.qmedic.data.converter.gt3x.enums.LogRecordType;
+import com.qmedic.data.converter.gt3x.model.AccelSampleBlock;
+
+public class ActivityUnpackerTest {
+
+	private static final int OFFSET = 3; // the payload doesn't start the buffer
+	
+	@Test
+	public void unpacksEvery12BitValueLikeAccelPair() {
+		// Every value on every axis of both samples of a pair, shifted from one axis to the next
+		int pairs = 4096;
+		byte[] bytes = new byte[OFFSET + pairs * ActivityUnpacker.PAIR_SIZE];
+		for(int i = 0; i < pairs; i++) {
+			pack(bytes, OFFSET + i * ActivityUnpacker.PAIR_SIZE, i, i + 1, i + 2, i + 3, i + 4, i + 5);
+		}
+		AccelSampleBlock block = new AccelSampleBlock(1);
+		assertEquals(2 * pairs, ActivityUnpacker.unpack(bytes, OFFSET, pairs * ActivityUnpacker.PAIR_SIZE, block));
+		assertEquals(2 * pairs, block.size());
+		AccelPair pair = new AccelPair(true, false, 30, GT3XParserOutputDataType.MHEALTH);
+		for(int i = 0; i < pairs; i++) {
+			pair.setAccelPair(bytes, OFFSET + i * ActivityUnpacker.PAIR_SIZE, 256d);
+			for(int j = 0; j < 2; j++) {
+				String sample = "pair "+i+", sample "+j;
+				assertEquals(sample, pair.rawX(j), block.x()[2*i+j]);
+				assertEquals(sample, pair.rawY(j), block.y()[2*i+j]);
+				assertEquals(sample, pair.rawZ(j), block.z()[2*i+j]);
+			}
+			// Packed in YXZ order, 12-bit two's complement
+			assertEquals(signed(i), block.y()[2*i]);
+			assertEquals(signed(i + 1), block.x()[2*i]);
+			assertEquals(signed(i + 2), block.z()[2*i]);
+			assertEquals(signed(i + 3), block.y()[2*i+1]);
+			assertEquals(signed(i + 4), block.x()[2*i+1]);
+			assertEquals(signed(i + 5), block.z()[2*i+1]);
+		}
+	}
+	
+	@Test
+	public void signExtendsTheExtremes() {
+		byte[] bytes = new byte[ActivityUnpacker.PAIR_SIZE];
+		pack(bytes, 0, 0x7FF, 0x800, 0xFFF, 0x000, 0x001, 0x801);
+		AccelSampleBlock block = new AccelSampleBlock(2);
+		ActivityUnpacker.unpack(bytes, 0, bytes.length, block);
+		assertEquals(2047, block.y()[0]);
+		assertEquals(-2048, block.x()[0]);
+		assertEquals(-1, block.z()[0]);
+		assertEquals(0, block.y()[1]);
+		assertEquals(1, block.x()[1]);
+		assertEquals(-2047, block.z()[1]);
+	}
+	
+	@Test
+	public void unpacksAnOddTrailingSample() {
+		byte[] bytes = new byte[OFFSET + 2 * ActivityUnpacker.PAIR_SIZE];
+		pack(bytes, OFFSET, 1, 2, 3, 4, 5, 6);
+		pack(bytes, OFFSET + ActivityUnpacker.PAIR_SIZE, 0xF00, 0x0F0, 0x00F, 0xFFF, 0xFFF, 0xFFF);
+		AccelSampleBlock block = new AccelSampleBlock(1);
+		// 36 bits (5 bytes, the last 4 bits padding) or more left over make one more sample
+		for(int extra = 5; extra < ActivityUnpacker.PAIR_SIZE; extra++) {
+			assertEquals(3, ActivityUnpacker.unpack(bytes, OFFSET, ActivityUnpacker.PAIR_SIZE + extra, block));
+			assertEquals(3, block.size());
+			assertEquals(4, block.y()[1]);
+			assertEquals(signed(0xF00), block.y()[2]);
+			assertEquals(signed(0x0F0), block.x()[2]);
+			assertEquals(signed(0x00F), block.z()[2]);
+		}
+		for(int extra = 0; extra < 5; extra++) {
+			assertEquals(2, ActivityUnpacker.unpack(bytes, OFFSET, ActivityUnpacker.PAIR_SIZE + extra, block));
+		}
+		assertEquals(0, ActivityUnpacker.unpack(bytes, OFFSET, 4, block));
+		assertEquals(0, block.size());
+	}
+	
+	@Test
+	public void unpacksLittleEndianActivity2Samples() {
+		short[] values = { 0, 1, -1, 255, 256, -256, Short.MAX_VALUE, Short.MIN_VALUE, 0x1234, -0x1234, 2047, -2048 };
+		int samples = values.length; // 4 pairs
+		ByteBuffer buffer = ByteBuffer.allocate(OFFSET + samples * 6).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.position(OFFSET);
+		for(int i = 0; i < samples; i++) {
+			buffer.putShort(values[i]); // X, Y and Z
+			buffer.putShort(values[(i + 1) % samples]);
+			buffer.putShort(values[(i + 2) % samples]);
+		}
+		byte[] bytes = buffer.array();
+		AccelSampleBlock block = new AccelSampleBlock(1);
+		int type = LogRecordType.ACTIVITY2.getId();
+		assertEquals(ActivityUnpacker.ACTIVITY2_PAIR_SIZE, ActivityUnpacker.pairSize(type));
+		assertEquals(samples, ActivityUnpacker.unpack(type, bytes, OFFSET, samples * 6, block));
+		for(int i = 0; i < samples; i++) {
+			assertEquals(values[i], block.x()[i]);
+			assertEquals(values[(i + 1) % samples], block.y()[i]);
+			assertEquals(values[(i + 2) % samples], block.z()[i]);
+		}
+		// A sample left over after the last full pair, but not a partial one
+		assertEquals(samples - 1, ActivityUnpacker.unpackActivity2(bytes, OFFSET, (samples - 1) * 6 + 5, block));
+		assertEquals(samples - 1, block.size());
+	}
+	
+	@Test
+	public void knowsThePairSizeOfEveryType() {
+		assertEquals(ActivityUnpacker.PAIR_SIZE, ActivityUnpacker.pairSize(LogRecordType.ACTIVITY.getId()));
+		assertEquals(ActivityUnpacker.ACTIVITY2_PAIR_SIZE, ActivityUnpacker.pairSize(LogRecordType.ACTIVITY2.getId()));
+		assertEquals(0, ActivityUnpacker.pairSize(LogRecordType.BATTERY.getId()));
+		assertEquals(0, ActivityUnpacker.pairSize(LogRecordType.METADATA.getId()));
+	}
+	
+	/*
+	 * Packs two samples of 12-bit values (the low bits of the arguments) in YXZ order
+	 */
+	private static void pack(final byte[] bytes, final int offset, final int y1, final int x1, final int z1, final int y2, final int x2, final int z2) {
+		int bit = 0; // most significant bit first
+		for(int value : new int[] { y1, x1, z1, y2, x2, z2 }) {
+			for(int i = 11; i >= 0; i--, bit++) {
+				int index = offset + bit / 8;
+				int mask = 0x80 >>> (bit % 8);
+				bytes[index] = (byte)(((value >>> i) & 1) != 0 ? bytes[index] | mask : bytes[index] & ~mask);
+			}
+		}
+	}
+	
+	private static short signed(final int value) {
+		int v = value & 0xFFF;
+		return (short)(v > 2047 ? v - 4096 : v);
+	}
+}
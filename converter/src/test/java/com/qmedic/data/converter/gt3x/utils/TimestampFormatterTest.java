@@ -0,0 +1,183 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.qmedic.data.converter.gt3x.enums.GT3XParserOutputDataType;
+
+public class TimestampFormatterTest {
+
+	private static final long YEAR_1900 = -2208988800000L;
+	private static final long YEAR_10000 = 253402300800000L;
+	private static final long DAY = 86400000L;
+	
+	@Test
+	public void formatsRandomInstantsLikeSimpleDateFormat() {
+		Random random = new Random(1);
+		for(int i = 0; i < 200000; i++) {
+			long millis = YEAR_1900 + (long)(random.nextDouble() * (YEAR_10000 - YEAR_1900));
+			assertFormats(millis);
+		}
+	}
+	
+	@Test
+	public void formatsLeapDaysAndYearBoundaries() {
+		for(String date : new String[] { "2016-02-29", "2000-02-29", "1900-03-01", "2100-03-01", "1996-02-29", "9999-12-31",
+				"1970-01-01", "2016-01-01", "2017-01-01", "1901-01-01", "2400-02-29" }) {
+			long midnight = parse(date);
+			// The day before, the change of day and the whole first second
+			for(long millis = midnight - 1500; millis < midnight + 1500; millis++) {
+				assertFormats(millis);
+			}
+			assertFormats(midnight - DAY);
+			assertFormats(midnight + DAY - 1);
+		}
+	}
+	
+	@Test
+	public void formatsInstantsBefore1970() {
+		for(long millis : new long[] { -1, -999, -1000, -1001, -DAY, -DAY - 1, -DAY + 1, YEAR_1900, YEAR_1900 + 1 }) {
+			assertFormats(millis);
+		}
+		Random random = new Random(2);
+		for(int i = 0; i < 10000; i++) {
+			assertFormats(YEAR_1900 + (long)(random.nextDouble() * -YEAR_1900));
+		}
+	}
+	
+	@Test
+	public void fallsBackOutside1900To9999() {
+		for(long millis : new long[] { YEAR_1900 - 1, YEAR_1900 - DAY, -62135596800000L, -12219292800001L, YEAR_10000, YEAR_10000 + 1,
+				YEAR_10000 * 2, Long.MAX_VALUE / 1000, Long.MIN_VALUE / 1000 }) {
+			assertFormats(millis);
+		}
+	}
+	
+	@Test
+	public void keepsFormattingAfterTheFallback() {
+		TimestampFormatter formatter = TimestampFormatter.MHEALTH.copy();
+		long millis = parse("2016-06-01");
+		assertEquals(expected(MHealthUtils.MHEALTH_TIMESTAMP_DATA_FORMAT, millis), formatter.format(millis));
+		assertEquals(expected(MHealthUtils.MHEALTH_TIMESTAMP_DATA_FORMAT, YEAR_10000), formatter.format(YEAR_10000));
+		assertEquals(expected(MHealthUtils.MHEALTH_TIMESTAMP_DATA_FORMAT, millis + 1), formatter.format(millis + 1));
+	}
+	
+	@Test
+	public void writesAtTheOffsetWithinMaxLength() {
+		byte[] dest = new byte[3 + TimestampFormatter.MAX_LENGTH];
+		long millis = parse("2016-06-01") + 12345;
+		int end = TimestampFormatter.ACTIGRAPH.copy().format(millis, dest, 3);
+		assertEquals(expected(MHealthUtils.ACTIGRAPH_TIMESTAMP_DATA_FORMAT, millis), new String(dest, 3, end - 3));
+	}
+	
+	@Test(timeout = 120000)
+	public void sharedInstancesFormatTheSameOnAllThreads() throws Throwable {
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int t = 0; t < 8; t++) {
+			final int seed = t;
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Random random = new Random(seed);
+						SimpleDateFormat mhealth = utc(MHealthUtils.MHEALTH_TIMESTAMP_DATA_FORMAT);
+						SimpleDateFormat actigraph = utc(MHealthUtils.ACTIGRAPH_TIMESTAMP_DATA_FORMAT);
+						long millis = parse("2016-01-01") + seed * 3600000L;
+						for(int i = 0; i < 100000; i++) {
+							// Runs of rows in the same second and jumps, so the threads keep replacing the cached second
+							millis += (random.nextInt(4) == 0) ? random.nextInt(100000000) : random.nextInt(40);
+							assertEquals(mhealth.format(millis), TimestampFormatter.MHEALTH.format(millis));
+							assertEquals(actigraph.format(millis), TimestampFormatter.ACTIGRAPH.format(millis));
+						}
+					} catch(Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+			assertFalse(thread.isAlive());
+		}
+		if(failure.get() != null) {
+			throw failure.get();
+		}
+	}
+	
+	@Test
+	public void isSharedPerOutputDataType() {
+		assertEquals(TimestampFormatter.MHEALTH, TimestampFormatter.forOutputDataType(GT3XParserOutputDataType.MHEALTH));
+		assertEquals(TimestampFormatter.ACTIGRAPH, TimestampFormatter.forOutputDataType(GT3XParserOutputDataType.ACTIGRAPH));
+	}
+	
+	/*
+	 * Both formats, with the shared instance and with a copy of its own, as SimpleDateFormat in UTC
+	 */
+	private static void assertFormats(final long millis) {
+		String mhealth = expected(MHealthUtils.MHEALTH_TIMESTAMP_DATA_FORMAT, millis);
+		String actigraph = expected(MHealthUtils.ACTIGRAPH_TIMESTAMP_DATA_FORMAT, millis);
+		assertEquals(String.valueOf(millis), mhealth, TimestampFormatter.MHEALTH.format(millis));
+		assertEquals(String.valueOf(millis), actigraph, TimestampFormatter.ACTIGRAPH.format(millis));
+		assertEquals(String.valueOf(millis), mhealth, TimestampFormatter.MHEALTH.copy().format(millis));
+		assertEquals(String.valueOf(millis), actigraph, TimestampFormatter.ACTIGRAPH.copy().format(millis));
+	}
+	
+	private static String expected(final String pattern, final long millis) {
+		return utc(pattern).format(millis);
+	}
+	
+	private static long parse(final String date) {
+		try {
+			return utc("yyyy-MM-dd").parse(date).getTime();
+		} catch(ParseException e) {
+			throw new IllegalArgumentException(date, e);
+		}
+	}
+	
+	private static SimpleDateFormat utc(final String pattern) {
+		SimpleDateFormat format = new SimpleDateFormat(pattern);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format;
+	}
+}
@@ -34,8 +34,10 @@ import java.text.SimpleDateFormat;
 
 import com.qmedic.data.converter.gt3x.base.OutFileWriter;
 import com.qmedic.data.converter.gt3x.enums.GT3XParserOutputDataType;
+import com.qmedic.data.converter.gt3x.iface.AccelEncoder;
 import com.qmedic.data.converter.gt3x.model.AccelDataPoint;
 import com.qmedic.data.converter.gt3x.model.AccelPairData;
+import com.qmedic.data.converter.gt3x.model.AccelSampleBlock;
 import com.qmedic.data.converter.gt3x.utils.TimestampHelper;
 
 public class AccelPair extends OutFileWriter {
@@ -61,6 +63,8 @@ public class AccelPair extends OutFileWriter {
 	private double gx2;
 	private double gy2;
 	private double gz2;
+	
+	private double _secondTimestamp; // see getSecondTimestamp()
 
 	public AccelPair(
 			final boolean inGAcceleration,
@@ -85,46 +89,68 @@ public class AccelPair extends OutFileWriter {
 		 */
 		
 		if(bytes.length == 9) {
-			
-			int datum = 0;
-			datum=(bytes[0]&0xff);datum=datum<<4;datum|=(bytes[1]&0xff)>>>4;
-			this.y1=(short)datum;						
-			if (y1>2047)
-				y1+=61440;
+			setAccelPair(bytes, 0, accelerationScale);
+		}
+	}
+	
+	/*
+	 * Same as setAccelPair(byte[], double), but reads the 9 bytes starting at "offset" so that
+	 * a pair can be decoded straight out of a larger buffer (e.g. a log record payload).
+	 */
+	public void setAccelPair(final byte[] bytes, final int offset, final double accelerationScale) {
+		int datum = 0;
+		datum=(bytes[offset+0]&0xff);datum=datum<<4;datum|=(bytes[offset+1]&0xff)>>>4;
+		this.y1=(short)datum;						
+		if (y1>2047)
+			y1+=61440;
 
-			datum=bytes[1]&0x0F;datum=datum<<8;datum|=(bytes[2]&0xff);						
-			this.x1=(short)datum;						
-			if (x1>2047)
-				x1+=61440;
+		datum=bytes[offset+1]&0x0F;datum=datum<<8;datum|=(bytes[offset+2]&0xff);						
+		this.x1=(short)datum;						
+		if (x1>2047)
+			x1+=61440;
 
-			datum=bytes[3]&0xff;datum=datum<<4;datum|=(bytes[4]&0xff)>>>4;
-			this.z1=(short)datum;						
-			if (z1>2047)
-				z1+=61440;
+		datum=bytes[offset+3]&0xff;datum=datum<<4;datum|=(bytes[offset+4]&0xff)>>>4;
+		this.z1=(short)datum;						
+		if (z1>2047)
+			z1+=61440;
 
-			datum=bytes[4]&0x0F;datum=datum<<8;datum|=(bytes[5]&0xff);
-			this.y2=(short) datum;
-			if (y2>2047)
-				y2+=61440;
+		datum=bytes[offset+4]&0x0F;datum=datum<<8;datum|=(bytes[offset+5]&0xff);
+		this.y2=(short) datum;
+		if (y2>2047)
+			y2+=61440;
 
-			datum=(bytes[6]&0xff);datum=datum<<4;datum|=(bytes[7]&0xff)>>>4;						
-			this.x2=(short)datum;
-			if (x2>2047)
-				x2+=61440;
+		datum=(bytes[offset+6]&0xff);datum=datum<<4;datum|=(bytes[offset+7]&0xff)>>>4;						
+		this.x2=(short)datum;
+		if (x2>2047)
+			x2+=61440;
 
-			datum=bytes[7]&0x0F;datum=datum<<8;datum|=(bytes[8]&0xff);
-			this.z2=(short)datum;
-			if (z2>2047)
-				z2+=61440;
-			
-			this.gx1=x1/accelerationScale;
-			this.gy1=y1/accelerationScale;
-			this.gz1=z1/accelerationScale;
+		datum=bytes[offset+7]&0x0F;datum=datum<<8;datum|=(bytes[offset+8]&0xff);
+		this.z2=(short)datum;
+		if (z2>2047)
+			z2+=61440;
+		
+		this.gx1=x1/accelerationScale;
+		this.gy1=y1/accelerationScale;
+		this.gz1=z1/accelerationScale;
 
-			this.gx2=x2/accelerationScale;
-			this.gy2=y2/accelerationScale;
-			this.gz2=z2/accelerationScale;
-		}
+		this.gx2=x2/accelerationScale;
+		this.gy2=y2/accelerationScale;
+		this.gz2=z2/accelerationScale;
+	}
+	
+	/*
+	 * Raw (ADC) values of the first (0) or second (1) sample of the last decoded pair
+	 */
+	public short rawX(final int sample) {
+		return sample == 0 ? x1 : x2;
+	}
+	
+	public short rawY(final int sample) {
+		return sample == 0 ? y1 : y2;
+	}
+	
+	public short rawZ(final int sample) {
+		return sample == 0 ? z1 : z2;
 	}
 	
 	public AccelPairData writeToFile(final BufferedWriter writer, double timestamp, final SimpleDateFormat sdf) throws IOException {	
@@ -232,6 +258,39 @@ public class AccelPair extends OutFileWriter {
 		return new AccelPairData(timestamp, data1, data2);
 	}
 	
+	/*
+	 * Takes samples "index" and "index+1" of a decoded block as the pair
+	 */
+	public void setAccelPair(final AccelSampleBlock block, final int index) {
+		this.x1 = block.x()[index];
+		this.y1 = block.y()[index];
+		this.z1 = block.z()[index];
+		this.x2 = block.x()[index+1];
+		this.y2 = block.y()[index+1];
+		this.z2 = block.z()[index+1];
+	}
+	
+	/*
+	 * Writes the two samples of a decoded block starting at "index" and returns the timestamp of
+	 * the sample that follows them. They become the last recorded pair (see getLastRecordedXYZ).
+	 */
+	public double writePairToFile(final AccelEncoder encoder, double timestamp, final AccelSampleBlock block, final int index) throws IOException {
+		setAccelPair(block, index);
+		encoder.writeSample(timestamp, x1, y1, z1);
+		timestamp += tsHelper.Next();
+		_secondTimestamp = timestamp;
+		encoder.writeSample(timestamp, x2, y2, z2);
+		timestamp += tsHelper.Next();
+		return timestamp;
+	}
+	
+	/*
+	 * Timestamp of the second sample of the pair last written by writePairToFile()
+	 */
+	public double getSecondTimestamp() {
+		return _secondTimestamp;
+	}
+	
 	public double advanceTimestampHelper() {
 		long ts = tsHelper.Next();
 		return ts;
@@ -0,0 +1,336 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x;
+
+/*
+ * ActiGraph activity counts of a stream of samples in g, with the band-pass filter of ActiLife (Brond et
+ * al., 2017): the samples are resampled to 30Hz, band-pass filtered, rectified, clipped to 4..128 and
+ * averaged over 3 samples to 10Hz. The counts of an epoch are the sums of these 10Hz values, per axis.
+ * 
+ * Other rates than 30Hz are resampled the way the ActiGraph reference does (agcounts): linearly
+ * interpolated up to a multiple of 30Hz (e.g. 300Hz for 100Hz, 240Hz for 80Hz), low-pass filtered
+ * against aliasing and decimated to 30Hz. The anti-aliasing filter is a Butterworth filter designed
+ * here (ANTI_ALIASING_ORDER, ANTI_ALIASING_CUTOFF), not the coefficients of the reference.
+ * 
+ * Every sample is added as soon as it is decoded: add() leaves the 10Hz values it completes (if any)
+ * in countX()..countZ(). The filters are in transposed direct form, so their state is a few values
+ * per axis and nothing is allocated per sample. The state of the whole stage can be saved and restored
+ * (see getState()), to carry on with the same stream in another instance.
+ */
+class ActiGraphCounts {
+
+	private static final int RATE = 30; // Hz, of the filter
+	private static final int ORDER = 8;
+	private static final int ANTI_ALIASING_ORDER = 4; // 2 sections
+	private static final double ANTI_ALIASING_CUTOFF = 12d; // Hz, 80% of the Nyquist frequency at 30Hz
+	private static final int STATE_LENGTH = 9 + 3 * (ANTI_ALIASING_ORDER + ORDER);
+	
+	/*
+	 * Band-pass filter of ActiLife at 30Hz, normalized (A[0] = 1)
+	 */
+	private static final double[] B = {
+		-0.009341062898525, -0.025470289659360, -0.004235264826105, 0.044152415456420, 0.036493718347760,
+		-0.011893961934740, -0.022917390623150, -0.006788163862310, 0.000000000000000 };
+	private static final double[] A = {
+		1.00000000000000000, -3.63367395910957000, 5.03689812757486000, -3.09612247819666000, 0.50620507633883000,
+		0.32421701566682000, -0.15685485875559000, 0.01949130205890000, 0.00000000000000000 };
+	private static final double GAIN = (3d / 4096d) / (2.6d / 256d) * 237.5d; // counts per g of the filtered signal
+	private static final double DEAD_BAND = 4d;
+	private static final double PEAK = 128d;
+	
+	private final int _sampleRate;
+	private final int _up; // upsampled rate = sample rate * _up = 30Hz * _down
+	private final int _down;
+	private final double[][] _sections; // of the anti-aliasing filter, b0 b1 b2 a1 a2 each; none unless decimated
+	private final double[] _aliasingX = new double[ANTI_ALIASING_ORDER]; // unused unless decimated
+	private final double[] _aliasingY = new double[ANTI_ALIASING_ORDER];
+	private final double[] _aliasingZ = new double[ANTI_ALIASING_ORDER];
+	private final double[] _stateX = new double[ORDER];
+	private final double[] _stateY = new double[ORDER];
+	private final double[] _stateZ = new double[ORDER];
+	private boolean _started = false;
+	private int _decimation; // upsampled samples before the next 30Hz sample
+	private double _prevX, _prevY, _prevZ;
+	private int _phase; // 30Hz samples of the current 10Hz value
+	private long _sumX, _sumY, _sumZ;
+	private long _countX, _countY, _countZ;
+	
+	ActiGraphCounts(final int sampleRate) {
+		this._sampleRate = sampleRate;
+		int gcd = gcd(sampleRate, RATE);
+		this._up = RATE / gcd;
+		this._down = sampleRate / gcd;
+		this._sections = (_down > 1) ? antiAliasingSections(sampleRate * _up) : new double[0][];
+	}
+	
+	/*
+	 * Starts over: the next sample is the first of the stream, the filters start in their steady state for it
+	 */
+	private void reset() {
+		_started = false;
+		_phase = 0;
+		_sumX = _sumY = _sumZ = 0;
+		_countX = _countY = _countZ = 0;
+	}
+	
+	/*
+	 * The state after the samples so far, as text: restored by setState(), the next samples give the
+	 * same counts as they would have here
+	 */
+	String getState() {
+		StringBuilder state = new StringBuilder();
+		state.append(_started).append(',').append(_decimation).append(',').append(_phase);
+		state.append(',').append(_sumX).append(',').append(_sumY).append(',').append(_sumZ);
+		state.append(',').append(_prevX).append(',').append(_prevY).append(',').append(_prevZ);
+		for(double[] values : new double[][] { _aliasingX, _aliasingY, _aliasingZ, _stateX, _stateY, _stateZ }) {
+			for(double value : values) {
+				state.append(',').append(value);
+			}
+		}
+		return state.toString();
+	}
+	
+	/*
+	 * Whether "state" is a state of getState(), at any sample rate
+	 */
+	static boolean isState(final String state) {
+		String[] values = state.split(",");
+		if(values.length != STATE_LENGTH || !(values[0].equals("true") || values[0].equals("false"))) {
+			return false;
+		}
+		try {
+			for(int i = 1; i < values.length; i++) {
+				if(i < 3) {
+					Integer.parseInt(values[i]);
+				} else if(i < 6) {
+					Long.parseLong(values[i]);
+				} else {
+					Double.parseDouble(values[i]);
+				}
+			}
+		} catch(NumberFormatException e) {
+			return false;
+		}
+		return true;
+	}
+	
+	/*
+	 * Carries on from a state of getState() at the same sample rate, or starts over if "state" is null.
+	 * Throws IllegalArgumentException if it isn't one.
+	 */
+	void setState(final String state) {
+		reset();
+		if(state == null) {
+			return;
+		}
+		if(!isState(state)) {
+			throw new IllegalArgumentException("Not a state of the activity counts: "+state);
+		}
+		String[] values = state.split(",");
+		int decimation = Integer.parseInt(values[1]);
+		int phase = Integer.parseInt(values[2]);
+		if(decimation < 0 || decimation >= _down || phase < 0 || phase >= 3) {
+			throw new IllegalArgumentException("Not a state of the activity counts at "+_sampleRate+"Hz: "+state);
+		}
+		_decimation = decimation;
+		_phase = phase;
+		_sumX = Long.parseLong(values[3]);
+		_sumY = Long.parseLong(values[4]);
+		_sumZ = Long.parseLong(values[5]);
+		_prevX = Double.parseDouble(values[6]);
+		_prevY = Double.parseDouble(values[7]);
+		_prevZ = Double.parseDouble(values[8]);
+		int i = 9;
+		for(double[] array : new double[][] { _aliasingX, _aliasingY, _aliasingZ, _stateX, _stateY, _stateZ }) {
+			for(int j = 0; j < array.length; j++) {
+				array[j] = Double.parseDouble(values[i++]);
+			}
+		}
+		_started = Boolean.parseBoolean(values[0]);
+	}
+	
+	/*
+	 * Adds the next sample, see countX()..countZ()
+	 */
+	void add(final double x, final double y, final double z) {
+		_countX = _countY = _countZ = 0;
+		if(!_started) {
+			startAntiAliasing(_aliasingX, x);
+			startAntiAliasing(_aliasingY, y);
+			startAntiAliasing(_aliasingZ, z);
+			start(_stateX, x);
+			start(_stateY, y);
+			start(_stateZ, z);
+			_started = true;
+			_decimation = 0;
+			upsampled(x, y, z);
+		} else if(_up == 1) {
+			upsampled(x, y, z);
+		} else {
+			// linear interpolation between the previous sample and this one
+			for(int i = 1; i < _up; i++) {
+				double f = i / (double)_up;
+				upsampled(_prevX + (x - _prevX) * f, _prevY + (y - _prevY) * f, _prevZ + (z - _prevZ) * f);
+			}
+			upsampled(x, y, z);
+		}
+		_prevX = x;
+		_prevY = y;
+		_prevZ = z;
+	}
+	
+	/*
+	 * Sums of the 10Hz values completed by the last sample, usually 0 or 1 of them
+	 */
+	long countX() {
+		return _countX;
+	}
+	
+	long countY() {
+		return _countY;
+	}
+	
+	long countZ() {
+		return _countZ;
+	}
+	
+	/*
+	 * The next sample at the upsampled rate: low-pass filtered, every _down-th one goes on at 30Hz
+	 */
+	private void upsampled(double x, double y, double z) {
+		if(_sections.length > 0) {
+			x = antiAliasing(_aliasingX, x);
+			y = antiAliasing(_aliasingY, y);
+			z = antiAliasing(_aliasingZ, z);
+		}
+		if(_decimation == 0) {
+			filter(x, y, z);
+		}
+		if(++_decimation == _down) {
+			_decimation = 0;
+		}
+	}
+	
+	private double antiAliasing(final double[] state, double input) {
+		for(int i = 0; i < _sections.length; i++) {
+			double[] c = _sections[i];
+			double output = c[0] * input + state[2*i];
+			state[2*i] = c[1] * input - c[3] * output + state[2*i+1];
+			state[2*i+1] = c[2] * input - c[4] * output;
+			input = output;
+		}
+		return input;
+	}
+	
+	/*
+	 * Steady state of the anti-aliasing filter for a constant "input"
+	 */
+	private void startAntiAliasing(final double[] state, double input) {
+		for(int i = 0; i < _sections.length; i++) {
+			double[] c = _sections[i];
+			double output = input * (c[0] + c[1] + c[2]) / (1d + c[3] + c[4]);
+			state[2*i+1] = c[2] * input - c[4] * output;
+			state[2*i] = c[1] * input - c[3] * output + state[2*i+1];
+			input = output;
+		}
+	}
+	
+	/*
+	 * Second order sections of the Butterworth low-pass filter against aliasing at "rate" Hz (bilinear
+	 * transform, the cutoff frequency prewarped)
+	 */
+	private static double[][] antiAliasingSections(final int rate) {
+		double k = Math.tan(Math.PI * ANTI_ALIASING_CUTOFF / rate);
+		double[][] sections = new double[ANTI_ALIASING_ORDER / 2][];
+		for(int i = 0; i < sections.length; i++) {
+			double q = 1d / (2d * Math.cos((2 * i + 1) * Math.PI / (2 * ANTI_ALIASING_ORDER)));
+			double norm = 1d / (1d + k / q + k * k);
+			double b0 = k * k * norm;
+			sections[i] = new double[] { b0, 2d * b0, b0, 2d * (k * k - 1d) * norm, (1d - k / q + k * k) * norm };
+		}
+		return sections;
+	}
+	
+	private static int gcd(final int a, final int b) {
+		return b == 0 ? a : gcd(b, a % b);
+	}
+	
+	private void filter(final double x, final double y, final double z) {
+		final double[] stateX = _stateX;
+		final double[] stateY = _stateY;
+		final double[] stateZ = _stateZ;
+		double outputX = B[0] * x + stateX[0];
+		double outputY = B[0] * y + stateY[0];
+		double outputZ = B[0] * z + stateZ[0];
+		for(int i = 1; i < ORDER; i++) {
+			stateX[i-1] = B[i] * x - A[i] * outputX + stateX[i];
+			stateY[i-1] = B[i] * y - A[i] * outputY + stateY[i];
+			stateZ[i-1] = B[i] * z - A[i] * outputZ + stateZ[i];
+		}
+		stateX[ORDER-1] = B[ORDER] * x - A[ORDER] * outputX;
+		stateY[ORDER-1] = B[ORDER] * y - A[ORDER] * outputY;
+		stateZ[ORDER-1] = B[ORDER] * z - A[ORDER] * outputZ;
+		_sumX += count(outputX);
+		_sumY += count(outputY);
+		_sumZ += count(outputZ);
+		if(++_phase == 3) {
+			_countX += _sumX / 3;
+			_countY += _sumY / 3;
+			_countZ += _sumZ / 3;
+			_sumX = _sumY = _sumZ = 0;
+			_phase = 0;
+		}
+	}
+	
+	/*
+	 * Steady state of the filter for a constant "input"
+	 */
+	private static void start(final double[] state, final double input) {
+		double sumB = 0d;
+		double sumA = 0d;
+		for(int i = 0; i <= ORDER; i++) {
+			sumB += B[i];
+			sumA += A[i];
+		}
+		double output = input * sumB / sumA;
+		double next = 0d;
+		for(int i = ORDER; i >= 1; i--) {
+			next += B[i] * input - A[i] * output;
+			state[i-1] = next;
+		}
+	}
+	
+	/*
+	 * Rectified and clipped 30Hz value of a filtered sample
+	 */
+	private static long count(final double filtered) {
+		double value = Math.min(Math.abs(filtered * GAIN), PEAK);
+		return value < DEAD_BAND ? 0 : (long)value;
+	}
+}
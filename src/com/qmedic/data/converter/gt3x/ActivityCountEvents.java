@@ -0,0 +1,103 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+
+/*
+ * The activity count input (timestamp and magnitude of every sample) of one hourly file of the
+ * parallel conversion, to be replayed later into an ActivityCountSummaryCreator with the exact same
+ * results. The first minute may continue a minute of the previous hour, so its magnitudes are kept
+ * one by one. Every following minute starts from zero and only needs its total, summed in the same
+ * order as ActivityCountSummaryCreator would.
+ */
+class ActivityCountEvents {
+
+	private double[] _firstMinute = new double[256];
+	private int _firstMinuteCount = 0;
+	private long _firstTimestamp = 0;
+	private boolean _firstMinuteDone = false;
+	
+	private long[] _minutes = new long[64];
+	private double[] _totals = new double[64];
+	private int _minuteCount = 0;
+	
+	void add(final long timestamp, final double magnitude) {
+		long minuteTs = timestamp / 60000 * 60000;
+		if(!_firstMinuteDone) {
+			if(_firstMinuteCount == 0 || minuteTs == _firstTimestamp / 60000 * 60000) {
+				if(_firstMinuteCount == _firstMinute.length) {
+					_firstMinute = Arrays.copyOf(_firstMinute, _firstMinuteCount * 2);
+				}
+				if(_firstMinuteCount == 0) {
+					_firstTimestamp = timestamp;
+				}
+				_firstMinute[_firstMinuteCount++] = magnitude;
+				return;
+			}
+			_firstMinuteDone = true;
+		}
+		if(_minuteCount == 0 || _minutes[_minuteCount-1] != minuteTs) {
+			if(_minuteCount == _minutes.length) {
+				_minutes = Arrays.copyOf(_minutes, _minuteCount * 2);
+				_totals = Arrays.copyOf(_totals, _minuteCount * 2);
+			}
+			_minutes[_minuteCount] = minuteTs;
+			_totals[_minuteCount] = 0d;
+			_minuteCount++;
+		}
+		_totals[_minuteCount-1] += magnitude;
+	}
+	
+	/*
+	 * Same as add() for the first "count" timestamps, all with the same magnitude
+	 */
+	void add(final long[] timestamps, final int count, final double magnitude) {
+		for(int i = 0; i < count; i++) {
+			long timestamp = timestamps[i];
+			if(_minuteCount > 0 && timestamp >= _minutes[_minuteCount-1] && timestamp < _minutes[_minuteCount-1] + 60000) {
+				_totals[_minuteCount-1] += magnitude;
+			} else {
+				add(timestamp, magnitude);
+			}
+		}
+	}
+	
+	void replay(final ActivityCountSummaryCreator summaryCreator, final BufferedWriter writer, final SimpleDateFormat sdf) throws IOException {
+		for(int i=0; i<_firstMinuteCount; i++) {
+			summaryCreator.addMagnitude(writer, _firstTimestamp, _firstMinute[i], sdf);
+		}
+		for(int i=0; i<_minuteCount; i++) {
+			// Switches to the new minute, whose total starts from zero
+			summaryCreator.addMagnitude(writer, _minutes[i], _totals[i], sdf);
+		}
+	}
+}
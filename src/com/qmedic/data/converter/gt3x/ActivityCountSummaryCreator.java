@@ -34,11 +34,13 @@ import java.text.SimpleDateFormat;
 
 import com.qmedic.data.converter.gt3x.base.OutFileWriter;
 import com.qmedic.data.converter.gt3x.model.AccelDataPoint;
+import com.qmedic.data.converter.gt3x.model.AccelSampleBlock;
 
 public class ActivityCountSummaryCreator extends OutFileWriter {
 	
 	private long _prevMinuteTs = 0;
 	private double _totalSoFar = 0d;
+	private long _rowsWritten = 0;
 
 	public ActivityCountSummaryCreator() {
 		this._prevMinuteTs = 0;
@@ -46,6 +48,26 @@ public class ActivityCountSummaryCreator extends OutFileWriter {
 	}
 	
 	public void processNewAccelData(final BufferedWriter writer, final long timestamp, final AccelDataPoint data, final SimpleDateFormat sdf) throws IOException {
+		processNewAccelData(writer, timestamp, data.x(), data.y(), data.z(), sdf);
+	}
+	
+	/*
+	 * Adds sample "index" of a decoded block. The raw values are divided by "scale",
+	 * use the acceleration scale for values in g and 1 for ADC values.
+	 */
+	public void processNewAccelData(final BufferedWriter writer, final long timestamp, final AccelSampleBlock block, final int index, final double scale, final SimpleDateFormat sdf) throws IOException {
+		addMagnitude(writer, timestamp, magnitude(block, index, scale), sdf);
+	}
+	
+	public void processNewAccelData(final BufferedWriter writer, final long timestamp, final double x, final double y, final double z, final SimpleDateFormat sdf) throws IOException {
+		addMagnitude(writer, timestamp, magnitude(x, y, z), sdf);
+	}
+	
+	/*
+	 * Adds the magnitude of a sample (see magnitude()). Also used to replay the per-minute totals
+	 * collected by ActivityCountEvents.
+	 */
+	public void addMagnitude(final BufferedWriter writer, final long timestamp, final double magnitude, final SimpleDateFormat sdf) throws IOException {
 		long currMinuteTs = timestamp / 60000 * 60000;
 		if(currMinuteTs != _prevMinuteTs) {
 			if(_prevMinuteTs != 0) {
@@ -54,10 +76,49 @@ public class ActivityCountSummaryCreator extends OutFileWriter {
 				writer.append(Integer.toString((int)_totalSoFar));
 				writer.append('\n');
 				_totalSoFar = 0d;
+				_rowsWritten++;
 			}
 			_prevMinuteTs = currMinuteTs;
 		}
-		_totalSoFar += Math.sqrt(data.x()*data.x() + data.y()*data.y() + data.z()*data.z());
+		_totalSoFar += magnitude;
+	}
+	
+	/*
+	 * Adds the same magnitude for the first "count" timestamps (samples filling a data gap), summed one
+	 * after the other as addMagnitude() would. Timestamps within the current minute skip its checks.
+	 */
+	public void addMagnitude(final BufferedWriter writer, final long[] timestamps, final int count, final double magnitude, final SimpleDateFormat sdf) throws IOException {
+		long minuteEnd = _prevMinuteTs + 60000;
+		for(int i = 0; i < count; i++) {
+			long timestamp = timestamps[i];
+			if(timestamp < _prevMinuteTs || timestamp >= minuteEnd) {
+				addMagnitude(writer, timestamp, magnitude, sdf);
+				minuteEnd = _prevMinuteTs + 60000;
+			} else {
+				_totalSoFar += magnitude;
+			}
+		}
+	}
+	
+	public static double magnitude(final double x, final double y, final double z) {
+		return Math.sqrt(x*x + y*y + z*z);
+	}
+	
+	public static double magnitude(final AccelDataPoint data) {
+		return magnitude(data.x(), data.y(), data.z());
+	}
+	
+	public static double magnitude(final AccelSampleBlock block, final int index, final double scale) {
+		return magnitude(block.x()[index]/scale, block.y()[index]/scale, block.z()[index]/scale);
+	}
+	
+	/*
+	 * Carries on with the minute "prevMinuteTs" summed up to "totalSoFar" (see getTotalSoFar()),
+	 * as when a conversion is resumed
+	 */
+	public void resume(final long prevMinuteTs, final double totalSoFar) {
+		this._prevMinuteTs = prevMinuteTs;
+		this._totalSoFar = totalSoFar;
 	}
 	
 	public double getTotalSoFar() {
@@ -68,4 +129,11 @@ public class ActivityCountSummaryCreator extends OutFileWriter {
 		return _prevMinuteTs;
 	}
 	
+	/*
+	 * Number of activity count rows written so far
+	 */
+	public long getRowsWritten() {
+		return _rowsWritten;
+	}
+	
 }
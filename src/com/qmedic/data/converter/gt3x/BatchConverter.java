@@ -0,0 +1,275 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/*
+ * Converts many gt3x files in one JVM with a fixed number of worker threads.
+ * The input (first command line argument) is either:
+ *   - a directory of gt3x files (one without an info.txt, which would be an extracted gt3x),
+ *   - a glob pattern such as "/data/MOS*.gt3x" ("**" also matches across directories, e.g. "/data/**.gt3x"),
+ *   - or "@manifest.txt", a text file listing one input per line (blank lines and lines starting with # are skipped).
+ * Every file goes through its own ConverterWorker with the same options. A failure (invalid file, I/O
+ * error, unexpected exception) only affects that file, and a report of all files is printed at the end.
+ */
+public class BatchConverter {
+
+	public static final String OPTION_WORKERS = "WORKERS="; // e.g. WORKERS=8, defaults to the number of processors
+	public static final String MANIFEST_PREFIX = "@";
+	
+	private String[] _cmdLineArgs;
+	private int _workers;
+	
+	/*
+	 * Outcome of one file
+	 */
+	public static class Result {
+		private final String _inputFilePath;
+		private final boolean _ok;
+		private final String _message;
+		private final long _bytesReadTotal;
+		private final int _filesCreated;
+		private final long _elapsedMillis;
+		
+		Result(final String inputFilePath, final boolean ok, final String message, final long bytesReadTotal, final int filesCreated, final long elapsedMillis) {
+			this._inputFilePath = inputFilePath;
+			this._ok = ok;
+			this._message = message;
+			this._bytesReadTotal = bytesReadTotal;
+			this._filesCreated = filesCreated;
+			this._elapsedMillis = elapsedMillis;
+		}
+		
+		public String getInputFilePath() {
+			return _inputFilePath;
+		}
+		
+		public boolean isOk() {
+			return _ok;
+		}
+		
+		public String getMessage() {
+			return _message;
+		}
+		
+		public long getBytesReadTotal() {
+			return _bytesReadTotal;
+		}
+		
+		public int getFilesCreated() {
+			return _filesCreated;
+		}
+		
+		public long getElapsedMillis() {
+			return _elapsedMillis;
+		}
+	}
+	
+	/*
+	 * Same command line arguments as ConverterWorker, with a directory, glob or manifest as the input
+	 */
+	public BatchConverter(final String[] cmdLineArgs) {
+		this._cmdLineArgs = cmdLineArgs.clone();
+		this._workers = Runtime.getRuntime().availableProcessors();
+		for(int i=8; i<cmdLineArgs.length; i++) {
+			if(cmdLineArgs[i].startsWith(OPTION_WORKERS)) {
+				try {
+					this._workers = Math.max(1, Integer.parseInt(cmdLineArgs[i].substring(OPTION_WORKERS.length())));
+				} catch(NumberFormatException e) {
+					System.out.println("Warning: Invalid option "+cmdLineArgs[i]+" ignored.");
+				}
+			}
+		}
+	}
+	
+	/*
+	 * Whether the input argument designates several gt3x files rather than a single (possibly extracted) one
+	 */
+	public static boolean isBatchInput(final String input) {
+		if(input.startsWith(MANIFEST_PREFIX) || isGlob(input)) {
+			return true;
+		}
+		File inFile = new File(input);
+		return inFile.isDirectory() && !new File(inFile, "info.txt").isFile();
+	}
+	
+	/*
+	 * Converts all input files and returns their results in input order
+	 */
+	public List<Result> convertAll() throws IOException {
+		List<String> inputs = listInputs(_cmdLineArgs[0]);
+		System.out.println("Batch: "+inputs.size()+" file(s) to convert with "+_workers+" worker(s).");
+		
+		ExecutorService executor = Executors.newFixedThreadPool(_workers);
+		List<Future<Result>> futures = new ArrayList<Future<Result>>(inputs.size());
+		try {
+			for(final String input : inputs) {
+				futures.add(executor.submit(new Callable<Result>() {
+					@Override
+					public Result call() {
+						return convert(input);
+					}
+				}));
+			}
+			List<Result> results = new ArrayList<Result>(inputs.size());
+			for(int i=0; i<futures.size(); i++) {
+				try {
+					results.add(futures.get(i).get());
+				} catch(ExecutionException e) {
+					results.add(new Result(inputs.get(i), false, "Error: "+e.getCause(), 0, 0, 0));
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Batch conversion interrupted.", e);
+				}
+			}
+			return results;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/*
+	 * Prints the completion report and returns the number of files that failed
+	 */
+	public static int printReport(final List<Result> results, final long elapsedMillis) {
+		int failed = 0;
+		long bytes = 0;
+		int filesCreated = 0;
+		for(Result result : results) {
+			bytes += result.getBytesReadTotal();
+			filesCreated += result.getFilesCreated();
+			if(!result.isOk()) {
+				failed++;
+			}
+		}
+		System.out.println("Batch report");
+		System.out.println("--------");
+		for(Result result : results) {
+			System.out.println((result.isOk() ? "OK     " : "FAILED ")+result.getInputFilePath()
+					+" ("+result.getElapsedMillis()+" ms, "+result.getFilesCreated()+" file(s) created)"
+					+(result.isOk() ? "" : ": "+result.getMessage()));
+		}
+		System.out.println("--------");
+		System.out.println("Files: "+results.size()+". OK: "+(results.size()-failed)+". Failed: "+failed+".");
+		System.out.println("Files created: "+filesCreated+". Bytes read: "+bytes+". Elapsed: "+elapsedMillis+" ms.");
+		return failed;
+	}
+	
+	private Result convert(final String input) {
+		long startedTs = System.currentTimeMillis();
+		String[] args = _cmdLineArgs.clone();
+		args[0] = input;
+		ConverterWorker worker = new ConverterWorker(args);
+		try {
+			boolean ok = worker.processFile();
+			return new Result(input, ok, worker.getMessage(), worker.getBytesReadTotal(), worker.getFilesCreated(), System.currentTimeMillis()-startedTs);
+		} catch(RuntimeException e) {
+			e.printStackTrace();
+			return new Result(input, false, "Error: "+e, worker.getBytesReadTotal(), worker.getFilesCreated(), System.currentTimeMillis()-startedTs);
+		}
+	}
+	
+	static List<String> listInputs(final String input) throws IOException {
+		List<String> inputs = new ArrayList<String>();
+		if(input.startsWith(MANIFEST_PREFIX)) {
+			BufferedReader reader = new BufferedReader(new FileReader(input.substring(MANIFEST_PREFIX.length())));
+			try {
+				String line;
+				while((line = reader.readLine()) != null) {
+					line = line.trim();
+					if(!line.isEmpty() && !line.startsWith("#")) {
+						inputs.add(line);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+			return inputs;
+		}
+		
+		Path base;
+		int maxDepth;
+		final PathMatcher matcher;
+		if(isGlob(input)) {
+			// Walk from the longest part of the path without wildcards
+			Path pattern = Paths.get(input);
+			int fixed = 0;
+			while(fixed < pattern.getNameCount() && !isGlob(pattern.getName(fixed).toString())) {
+				fixed++;
+			}
+			base = (fixed == 0) ? (pattern.getRoot() != null ? pattern.getRoot() : Paths.get("")) 
+					: (pattern.getRoot() != null ? pattern.getRoot().resolve(pattern.subpath(0, fixed)) : pattern.subpath(0, fixed));
+			maxDepth = input.contains("**") ? Integer.MAX_VALUE : pattern.getNameCount() - fixed;
+			matcher = FileSystems.getDefault().getPathMatcher("glob:"+pattern.toString());
+		} else {
+			base = Paths.get(input);
+			maxDepth = 1;
+			matcher = FileSystems.getDefault().getPathMatcher("glob:**.{gt3x,GT3X}");
+		}
+		
+		List<String> found = new ArrayList<String>();
+		Stream<Path> paths = Files.walk(base, maxDepth);
+		try {
+			Iterator<Path> it = paths.iterator();
+			while(it.hasNext()) {
+				Path path = it.next();
+				if(Files.isRegularFile(path) && matcher.matches(path)) {
+					found.add(path.toString());
+				}
+			}
+		} finally {
+			paths.close();
+		}
+		Collections.sort(found);
+		inputs.addAll(found);
+		return inputs;
+	}
+	
+	private static boolean isGlob(final String s) {
+		return s.indexOf('*') >= 0 || s.indexOf('?') >= 0 || s.indexOf('[') >= 0 || s.indexOf('{') >= 0;
+	}
+}
@@ -0,0 +1,248 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/*
+ * Cache of the conversions of a GT3XFile, in a directory of manifests. A conversion is keyed by a
+ * SHA-256 of the contents of the gt3x file (or of its extracted files) and of the options that change
+ * its output, including the output directory. Its manifest lists the files it produced, with their size,
+ * modification time and CRC-32, and what the callbacks of these files were. If all of them are still
+ * there and unchanged when the same conversion is run again, it doesn't have to be: the callbacks are
+ * replayed instead. A file counts as unchanged if its size and modification time are, its CRC-32 is
+ * only checked on request, as that reads all of the output again.
+ */
+class ConversionCache {
+
+	private static final int VERSION = 1; // of the converter's output, part of the key
+	private static final String MANIFEST_SUFFIX = ".manifest";
+	private static final int BUFFER_SIZE = 1024 * 1024; // bytes
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	/*
+	 * A file produced by a conversion, and the arguments of its onHourlyFileCreated() callback
+	 */
+	static final class OutputFile {
+		final String path;
+		final long bytesRead;
+		final long calendarMillis;
+		long size;
+		long modified; // milliseconds, when the manifest was saved
+		long crc;
+		
+		OutputFile(final String path, final long bytesRead, final long calendarMillis) {
+			this.path = path;
+			this.bytesRead = bytesRead;
+			this.calendarMillis = calendarMillis;
+		}
+	}
+	
+	private File _directory;
+	private String _key;
+	private String _options;
+	private List<OutputFile> _files = Collections.emptyList(); // of the manifest found
+	private long _totalBytes = 0;
+	
+	/*
+	 * Hashes the input files (the gt3x file or its extracted files, in a fixed order) and "options"
+	 */
+	ConversionCache(final String directory, final List<File> inputFiles, final String options) throws IOException {
+		this._directory = new File(directory);
+		this._options = options;
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch(NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		digest.update(("v"+VERSION+"\n"+options+"\n").getBytes(UTF8));
+		byte[] buffer = new byte[BUFFER_SIZE];
+		for(File file : inputFiles) {
+			digest.update((file.getName()+"\n").getBytes(UTF8));
+			InputStream in = new FileInputStream(file);
+			try {
+				int n;
+				while((n = in.read(buffer)) >= 0) {
+					digest.update(buffer, 0, n);
+				}
+			} finally {
+				in.close();
+			}
+		}
+		StringBuilder key = new StringBuilder();
+		for(byte b : digest.digest()) {
+			key.append(String.format("%02x", b & 0xFF));
+		}
+		this._key = key.toString();
+	}
+	
+	String getKey() {
+		return _key;
+	}
+	
+	/*
+	 * Reads the manifest of the conversion. Returns true if there is one and all of its files are still
+	 * there, with the same size and modification time, and the same CRC-32 if "verify" is set.
+	 */
+	boolean lookup(final boolean verify) throws IOException {
+		File manifest = new File(_directory, _key + MANIFEST_SUFFIX);
+		if(!manifest.isFile()) {
+			return false;
+		}
+		List<OutputFile> files = new ArrayList<OutputFile>();
+		long totalBytes = -1;
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), UTF8));
+		try {
+			String line;
+			while((line = in.readLine()) != null) {
+				if(line.startsWith("#") || line.startsWith("options=")) {
+					continue;
+				}
+				if(line.startsWith("totalBytes=")) {
+					totalBytes = Long.parseLong(line.substring("totalBytes=".length()));
+					continue;
+				}
+				// CRC-32, size, modification time, bytes read and calendar of the callback, path
+				String[] tokens = line.split(" ", 6);
+				if(tokens.length != 6) {
+					return false;
+				}
+				OutputFile file = new OutputFile(tokens[5], Long.parseLong(tokens[3]), Long.parseLong(tokens[4]));
+				file.crc = Long.parseLong(tokens[0], 16);
+				file.size = Long.parseLong(tokens[1]);
+				file.modified = Long.parseLong(tokens[2]);
+				files.add(file);
+			}
+		} catch(NumberFormatException e) {
+			return false;
+		} finally {
+			in.close();
+		}
+		if(totalBytes < 0 || files.isEmpty()) {
+			return false;
+		}
+		for(OutputFile file : files) {
+			File output = new File(file.path);
+			if(!output.isFile() || output.length() != file.size || output.lastModified() != file.modified) {
+				return false;
+			}
+		}
+		for(OutputFile file : files) {
+			if(verify && crc(new File(file.path)) != file.crc) {
+				return false;
+			}
+		}
+		this._files = files;
+		this._totalBytes = totalBytes;
+		return true;
+	}
+	
+	/*
+	 * The files of the manifest found by lookup(), in the order they were created
+	 */
+	List<OutputFile> getFiles() {
+		return _files;
+	}
+	
+	long getTotalBytes() {
+		return _totalBytes;
+	}
+	
+	/*
+	 * Writes the manifest of the conversion, replacing the previous one. The files' size, modification
+	 * time and CRC-32 must be set. Every save writes a temporary file of its own and renames it, so
+	 * workers saving the same conversion at once leave one of their manifests, whole.
+	 */
+	void save(final List<OutputFile> files, final long totalBytes) throws IOException {
+		if(!_directory.isDirectory() && !_directory.mkdirs() && !_directory.isDirectory()) {
+			throw new IOException("Could not create "+_directory);
+		}
+		File manifest = new File(_directory, _key + MANIFEST_SUFFIX);
+		File tmp = File.createTempFile(_key, MANIFEST_SUFFIX + ".tmp", _directory);
+		boolean saved = false;
+		try {
+			Writer out = new OutputStreamWriter(new FileOutputStream(tmp), UTF8);
+			try {
+				out.write("# gt3x conversion cache\n");
+				out.write("options="+_options+"\n");
+				out.write("totalBytes="+totalBytes+"\n");
+				for(OutputFile file : files) {
+					out.write(Long.toHexString(file.crc)+" "+file.size+" "+file.modified+" "+file.bytesRead+" "+file.calendarMillis+" "+file.path+"\n");
+				}
+			} finally {
+				out.close();
+			}
+			if(!tmp.renameTo(manifest)) {
+				manifest.delete();
+				if(!tmp.renameTo(manifest)) {
+					throw new IOException("Could not write "+manifest);
+				}
+			}
+			saved = true;
+		} finally {
+			if(!saved) {
+				tmp.delete();
+			}
+		}
+	}
+	
+	/*
+	 * CRC-32 of a file's content
+	 */
+	static long crc(final File file) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		InputStream in = new FileInputStream(file);
+		try {
+			int n;
+			while((n = in.read(buffer)) >= 0) {
+				crc.update(buffer, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		return crc.getValue();
+	}
+}
@@ -27,13 +27,33 @@
 
 package com.qmedic.data.converter.gt3x;
 
+import java.io.IOException;
+
 public class ConverterMain {
 
 	public static void main(String[] args) {
 
 		// Command line example: java -jar GT3XParser.jar GT3XParser/sample-data/v1/sample1.gt3x home/user/Development/csv/ G_VALUE WITH_TIMESTAMP SPLIT MHEALTH
-		if (args.length!=8){
-			System.out.println("java -jar GT3XParser.jar [INPUT GT3X FILE] [OUTPUT CSV DIRECTORYPATH] [G_VALUE/ADC_VALUE] [WITH_TIMESTAMP/WITHOUT_TIMESTAMP] [SPLIT/NO_SPLIT] [MHEALTH/ACTIGRAPH] [SUMMARY_ON/SUMMARY_OFF] [DEBUG_ON/DEBUG_OFF]");
+		// Optional flags can follow the 8 required parameters, e.g. MMAP_ON
+		if (args.length<8){
+			System.out.println("java -jar GT3XParser.jar [INPUT GT3X FILE/DIRECTORY/GLOB/@MANIFEST] [OUTPUT CSV DIRECTORYPATH] [G_VALUE/ADC_VALUE] [WITH_TIMESTAMP/WITHOUT_TIMESTAMP] [SPLIT/NO_SPLIT] [MHEALTH/ACTIGRAPH/BINARY] [SUMMARY_ON/SUMMARY_OFF] [DEBUG_ON/DEBUG_OFF] [MMAP_ON] [PARALLEL_ON] [GZIP_ON] [PIPELINE_ON] [RESUME_ON] [INDEX_ON] [SPARSE_GAPS_ON] [FROM=yyyy-MM-dd[THH:mm[:ss]]] [TO=yyyy-MM-dd[THH:mm[:ss]]] [STREAMS=ALL/TYPE,...] [EPOCHS=SECONDS,...] [METRICS=ALL/METRIC,...] [RESAMPLE=HZ] [CACHE=DIRECTORY] [CACHE_VERIFY_ON] [WORKERS=N]");
+			return;
+		}
+		
+		// Batch mode: several gt3x files converted in parallel
+		if (BatchConverter.isBatchInput(args[0])) {
+			long startedTs = System.currentTimeMillis();
+			int failed;
+			try {
+				BatchConverter bc = new BatchConverter(args);
+				failed = BatchConverter.printReport(bc.convertAll(), System.currentTimeMillis()-startedTs);
+			} catch (IOException e) {
+				System.out.println("Error: Could not list the input files. "+e.getMessage());
+				failed = 1;
+			}
+			if (failed > 0) {
+				System.exit(1);
+			}
 			return;
 		}
 		
@@ -29,25 +29,52 @@ package com.qmedic.data.converter.gt3x;
 
 import java.io.File;
 import java.io.IOException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.Date;
+import java.util.EnumSet;
 import java.util.Map;
+import java.util.TimeZone;
 
+import com.qmedic.data.converter.gt3x.enums.EpochMetric;
 import com.qmedic.data.converter.gt3x.enums.GT3XParserOutputDataType;
-import com.qmedic.data.converter.gt3x.iface.GT3XFileProcessingListener;
+import com.qmedic.data.converter.gt3x.enums.LogRecordType;
+import com.qmedic.data.converter.gt3x.iface.GT3XFileProgressListener;
+import com.qmedic.data.converter.gt3x.model.ConversionProgress;
 
-public class ConverterWorker implements GT3XFileProcessingListener {
+public class ConverterWorker implements GT3XFileProgressListener {
+
+	public static final String OPTION_FROM = "FROM="; // e.g. FROM=2015-04-12 or FROM=2015-04-12T08:30:00
+	public static final String OPTION_TO = "TO=";
+	public static final String OPTION_CACHE = "CACHE="; // e.g. CACHE=/home/user/.gt3x-cache
+	public static final String OPTION_STREAMS = "STREAMS="; // e.g. STREAMS=ALL or STREAMS=BATTERY,LUX
+	public static final String OPTION_EPOCHS = "EPOCHS="; // e.g. EPOCHS=1,5,10,60 (seconds)
+	public static final String OPTION_METRICS = "METRICS="; // e.g. METRICS=ALL or METRICS=ENMO,MAD
+	public static final String OPTION_RESAMPLE = "RESAMPLE="; // e.g. RESAMPLE=30 (Hz)
+	public static final int MAX_SAMPLE_RATE = 1000; // Hz, of RESAMPLE
+	private static final String[] TIME_FORMATS = {"yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd'T'HH:mm", "yyyy-MM-dd"};
 
 	private GT3XFile _gt3xFile;
+	private String _inputFilePath;
 	private String _outDirectoryPath;
 	private String[] _cmdLineArgs;
 	
+	// Outcome of processFile()
+	private String _message = null;
+	private long _bytesReadTotal = 0;
+	private int _filesCreated = 0;
+	
 	public ConverterWorker(String[] cmdLineArgs) {
+		this._inputFilePath = cmdLineArgs[0];
 		this._outDirectoryPath = cmdLineArgs[1];
 		this._cmdLineArgs = new String[]{cmdLineArgs[2], cmdLineArgs[3], cmdLineArgs[4]};
 		
 		GT3XParserOutputDataType odt = GT3XParserOutputDataType.MHEALTH;
 		if(cmdLineArgs[5].equals("ACTIGRAPH")) 
 			odt = GT3XParserOutputDataType.ACTIGRAPH;
+		if(cmdLineArgs[5].equals("BINARY")) 
+			odt = GT3XParserOutputDataType.BINARY;
 		this._gt3xFile = new GT3XFile(cmdLineArgs[0], _outDirectoryPath, odt);
 		if(cmdLineArgs[6].equals("SUMMARY_ON")) {
 			this._gt3xFile.setCreateSummaryFilesOn(); // Create activity counts
@@ -55,27 +82,202 @@ public class ConverterWorker implements GT3XFileProcessingListener {
 		if(cmdLineArgs[7].equals("DEBUG_ON")) {
 			this._gt3xFile.setDebugOn(); // Turn debug mode on
 		}
+		// Optional flags
+		long from = 0;
+		long to = Long.MAX_VALUE;
+		int[] epochs = null;
+		EnumSet<EpochMetric> metrics = EnumSet.allOf(EpochMetric.class);
+		for(int i=8; i<cmdLineArgs.length; i++) {
+			if(cmdLineArgs[i].equals("MMAP_ON")) {
+				this._gt3xFile.setMemoryMappedInputOn(); // Memory map uncompressed input
+			} else if(cmdLineArgs[i].equals("PARALLEL_ON")) {
+				this._gt3xFile.setParallelConversionOn(); // Convert the hourly files of log.bin in parallel
+			} else if(cmdLineArgs[i].equals("GZIP_ON")) {
+				this._gt3xFile.setGzipOutputOn(); // Compress the output files
+			} else if(cmdLineArgs[i].equals("PIPELINE_ON")) {
+				this._gt3xFile.setPipelinedOn(); // Read, convert and write on separate threads
+			} else if(cmdLineArgs[i].equals("RESUME_ON")) {
+				this._gt3xFile.setResumableOn(); // Save checkpoints to resume an interrupted conversion
+			} else if(cmdLineArgs[i].equals("SPARSE_GAPS_ON")) {
+				this._gt3xFile.setSparseGapsOn(); // Write data gaps as intervals instead of filling them in
+			} else if(cmdLineArgs[i].equals("INDEX_ON")) {
+				this._gt3xFile.setInflateIndexOn(); // Index log.bin to inflate it from the middle
+			} else if(cmdLineArgs[i].equals("CACHE_VERIFY_ON")) {
+				this._gt3xFile.setConversionCacheVerifyOn(); // Check the CRC-32 of the cached output files too
+			} else if(cmdLineArgs[i].startsWith(OPTION_FROM) && parseTime(cmdLineArgs[i].substring(OPTION_FROM.length())) >= 0) {
+				from = parseTime(cmdLineArgs[i].substring(OPTION_FROM.length()));
+			} else if(cmdLineArgs[i].startsWith(OPTION_TO) && parseTime(cmdLineArgs[i].substring(OPTION_TO.length())) >= 0) {
+				to = parseTime(cmdLineArgs[i].substring(OPTION_TO.length()));
+			} else if(cmdLineArgs[i].startsWith(OPTION_CACHE) && cmdLineArgs[i].length() > OPTION_CACHE.length()) {
+				this._gt3xFile.setConversionCacheOn(cmdLineArgs[i].substring(OPTION_CACHE.length())); // Skip unchanged conversions
+			} else if(cmdLineArgs[i].startsWith(OPTION_STREAMS) && parseRecordTypes(cmdLineArgs[i].substring(OPTION_STREAMS.length())) != null) {
+				this._gt3xFile.setRecordStreamsOn(parseRecordTypes(cmdLineArgs[i].substring(OPTION_STREAMS.length()))); // Write the other record types too
+			} else if(cmdLineArgs[i].startsWith(OPTION_EPOCHS) && parseEpochs(cmdLineArgs[i].substring(OPTION_EPOCHS.length())) != null) {
+				epochs = parseEpochs(cmdLineArgs[i].substring(OPTION_EPOCHS.length()));
+			} else if(cmdLineArgs[i].startsWith(OPTION_METRICS) && parseMetrics(cmdLineArgs[i].substring(OPTION_METRICS.length())) != null) {
+				metrics = parseMetrics(cmdLineArgs[i].substring(OPTION_METRICS.length()));
+			} else if(cmdLineArgs[i].startsWith(OPTION_RESAMPLE) && parseSampleRate(cmdLineArgs[i].substring(OPTION_RESAMPLE.length())) > 0) {
+				this._gt3xFile.setResampleOn(parseSampleRate(cmdLineArgs[i].substring(OPTION_RESAMPLE.length()))); // Resample the accel files
+			} else if(cmdLineArgs[i].startsWith(BatchConverter.OPTION_WORKERS)) {
+				// Batch mode only, see BatchConverter
+			} else {
+				System.out.println("Warning: Unknown option "+cmdLineArgs[i]+" ignored.");
+			}
+		}
+		if(from > 0 || to < Long.MAX_VALUE) {
+			this._gt3xFile.setTimeWindow(from, to); // Convert the samples of a time window only
+		}
+		if(epochs != null) {
+			this._gt3xFile.setEpochsOn(epochs, metrics); // Summarize the samples over epochs
+		}
 	}
 	
-	public void processFile() {
+	/*
+	 * Record types of a STREAMS option: ALL, or names of LogRecordType separated by commas. Null if one
+	 * of them isn't a record type.
+	 */
+	private static EnumSet<LogRecordType> parseRecordTypes(final String types) {
+		if(types.equals("ALL")) {
+			return LogRecordStreams.SUPPORTED_TYPES;
+		}
+		EnumSet<LogRecordType> recordTypes = EnumSet.noneOf(LogRecordType.class);
+		for(String type : types.split(",")) {
+			try {
+				recordTypes.add(LogRecordType.valueOf(type));
+			} catch(IllegalArgumentException e) {
+				return null;
+			}
+		}
+		return recordTypes;
+	}
+	
+	/*
+	 * Epoch lengths (seconds) of an EPOCHS option, separated by commas. Null if one of them isn't a
+	 * number of seconds dividing an hour.
+	 */
+	private static int[] parseEpochs(final String epochs) {
+		String[] lengths = epochs.split(",");
+		int[] seconds = new int[lengths.length];
+		for(int i = 0; i < lengths.length; i++) {
+			try {
+				seconds[i] = Integer.parseInt(lengths[i]);
+			} catch(NumberFormatException e) {
+				return null;
+			}
+			if(!EpochAggregator.isValidEpochLength(seconds[i])) {
+				return null;
+			}
+		}
+		return seconds;
+	}
+	
+	/*
+	 * Sample rate (Hz) of a RESAMPLE option, up to MAX_SAMPLE_RATE. -1 if it isn't one.
+	 */
+	private static int parseSampleRate(final String sampleRate) {
+		int rate;
+		try {
+			rate = Integer.parseInt(sampleRate);
+		} catch(NumberFormatException e) {
+			return -1;
+		}
+		return (rate > 0 && rate <= MAX_SAMPLE_RATE) ? rate : -1;
+	}
+	
+	/*
+	 * Metrics of a METRICS option: ALL, or names of EpochMetric separated by commas. Null if one of them
+	 * isn't a metric.
+	 */
+	private static EnumSet<EpochMetric> parseMetrics(final String metrics) {
+		if(metrics.equals("ALL")) {
+			return EnumSet.allOf(EpochMetric.class);
+		}
+		EnumSet<EpochMetric> epochMetrics = EnumSet.noneOf(EpochMetric.class);
+		for(String metric : metrics.split(",")) {
+			try {
+				epochMetrics.add(EpochMetric.valueOf(metric));
+			} catch(IllegalArgumentException e) {
+				return null;
+			}
+		}
+		return epochMetrics;
+	}
+	
+	/*
+	 * Milliseconds of a FROM/TO time, in the time of the output files (as UTC), -1 if it can't be parsed
+	 */
+	private static long parseTime(final String time) {
+		for(String format : TIME_FORMATS) {
+			SimpleDateFormat sdf = new SimpleDateFormat(format);
+			sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+			sdf.setLenient(false);
+			ParsePosition position = new ParsePosition(0);
+			Date date = sdf.parse(time, position);
+			if(date != null && position.getIndex() == time.length()) {
+				return date.getTime();
+			}
+		}
+		return -1;
+	}
+	
+	/*
+	 * Converts the input file. Returns true if the conversion finished with an "OK" message,
+	 * see getMessage() otherwise.
+	 */
+	public boolean processFile() {
 		// Check output directory validity
 		File outDirectory = new File(_outDirectoryPath);
 		if(!outDirectory.exists()) {
-			System.out.println("Error: Output directory "+_outDirectoryPath+" doesn't exist!");
-			return;
+			_message = "Error: Output directory "+_outDirectoryPath+" doesn't exist!";
+			System.out.println(_message);
+			return false;
 		}
 		if(!outDirectory.isDirectory()) {
-			System.out.println("Error: Output directory "+_outDirectoryPath+" is not a directory!!");
-			return;
+			_message = "Error: Output directory "+_outDirectoryPath+" is not a directory!!";
+			System.out.println(_message);
+			return false;
 		}
 		
-		if(_gt3xFile.init(_cmdLineArgs, null)) {
-			System.out.println("File ok!");
-			try {
-				_gt3xFile.convertToMHealth(this);
-			} catch (IOException e) {
-				e.printStackTrace();
+		try {
+			if(!_gt3xFile.init(_cmdLineArgs, null)) {
+				_message = "Error: "+_inputFilePath+" is not a valid GT3X file or the options are incorrect.";
+				return false;
 			}
+			System.out.println("File ok!");
+			_gt3xFile.convertToMHealth(this);
+		} catch (IOException e) {
+			_message = "Error: "+e;
+			e.printStackTrace();
+		} finally {
+			closeInput(); // also when init() or the conversion throws a RuntimeException
+		}
+		return "OK".equals(_message);
+	}
+	
+	public String getInputFilePath() {
+		return _inputFilePath;
+	}
+	
+	/*
+	 * Message of the last processing callback or error, null if processing hasn't finished
+	 */
+	public String getMessage() {
+		return _message;
+	}
+	
+	public long getBytesReadTotal() {
+		return _bytesReadTotal;
+	}
+	
+	public int getFilesCreated() {
+		return _filesCreated;
+	}
+	
+	private void closeInput() {
+		try {
+			_gt3xFile.closeInput();
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 	}
 
@@ -87,11 +289,21 @@ public class ConverterWorker implements GT3XFileProcessingListener {
 	@Override
 	public void onHourlyFileCreated(String createdFilePath, String message, long bytesRead, Map<String,Object> callbackMetadata, Calendar calendar) {
 		System.out.println("Created: "+createdFilePath+". BytesRead: "+bytesRead);
+		_filesCreated++;
+	}
+	
+	@Override
+	public void onProgress(String inputFileFullPath, ConversionProgress progress, Map<String,Object> callbackMetadata) {
+		if(_gt3xFile.debugOn()) {
+			System.out.println("Progress: "+inputFileFullPath+". "+progress);
+		}
 	}
 
 	@Override
 	public void onProcessingFinished(String inputFileFullPath, String message, long bytesReadTotal, Map<String,Object> callbackMetadata) {
 		System.out.println("Finished processing: "+inputFileFullPath+". BytesReadTotal: "+bytesReadTotal+". Message: "+message+".");	
+		_message = message;
+		_bytesReadTotal = bytesReadTotal;
 	}
 	
 }
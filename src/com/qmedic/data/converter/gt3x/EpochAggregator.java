@@ -0,0 +1,496 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import com.qmedic.data.converter.gt3x.enums.EpochMetric;
+import com.qmedic.data.converter.gt3x.model.AccelSampleBlock;
+import com.qmedic.data.converter.gt3x.utils.TimestampFormatter;
+
+/*
+ * Summaries of the acceleration over epochs of fixed lengths (EPOCHS=, e.g. 1, 5, 10 and 60 seconds),
+ * computed from the decoded samples (gap samples included) in the same pass as the accel files. An
+ * epoch starts at a multiple of its length, in the time of the output files, and a sample goes to the
+ * epoch of its timestamp. Every epoch length writes a row per epoch to a file of its own when the next
+ * epoch starts or the file is closed (see EpochMetric for the columns). The ActiGraph counts of the
+ * samples are computed once and summed up per epoch (see ActiGraphCounts).
+ * 
+ * The current epoch of a length is kept as primitive sums (shifted by its first sample, for the SD),
+ * minimums and maximums in g, plus its vector magnitudes for MAD. Only the shortest epoch is updated
+ * sample by sample: when it is over, its sums are folded into the longer epochs whose length is a
+ * multiple of it. Other lengths are updated sample by sample as well.
+ * 
+ * Epoch lengths divide an hour, so an hourly file ends with complete epochs and the files of every
+ * hour can be written independently, e.g. in parallel (see ParallelLogConverter).
+ */
+public class EpochAggregator implements Closeable {
+
+	private static final int BUFFER_SIZE = 16 * 1024; // bytes, per epoch length
+	private static final int MAX_VALUE_SIZE = 24; // bytes, a formatted value and its separator
+	private static final int DECIMALS = 10000; // 4 decimals
+	
+	/*
+	 * The current epoch of one epoch length, and the file its rows go to
+	 */
+	private static final class Epoch {
+		final long length; // millis
+		long start = Long.MAX_VALUE; // none yet
+		long end = Long.MIN_VALUE;
+		int count = 0;
+		double firstX, firstY, firstZ; // the sums are shifted by the first sample
+		double sumX, sumY, sumZ;
+		double sumSqX, sumSqY, sumSqZ;
+		double minX, minY, minZ;
+		double maxX, maxY, maxZ;
+		double sumEnmo;
+		double sumMagnitude;
+		double[] magnitudes = new double[0]; // MAD only
+		long countX, countY, countZ; // COUNTS only
+		
+		OutputStream out = null;
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int position = 0;
+		
+		Epoch(final long length) {
+			this.length = length;
+		}
+	}
+	
+	private Epoch[] _epochs; // shortest first
+	private Epoch[] _sampled; // updated sample by sample, the shortest and those that can't be folded from it
+	private boolean[] _folded; // by epoch, folded from the shortest one
+	private boolean _enmo;
+	private boolean _mad;
+	private boolean _mean;
+	private boolean _sd;
+	private boolean _minMax;
+	private ActiGraphCounts _counts; // null unless COUNTS
+	private double _accelerationScale;
+	private TimestampFormatter _formatter;
+	private byte[] _header;
+	private int _maxRowSize;
+	private long _rowsWritten = 0;
+	
+	/*
+	 * "epochSeconds" are the epoch lengths (see isValidEpochLength()), "accelerationScale" the number of
+	 * ADC counts per g of the samples and "sampleRate" their rate in Hz
+	 */
+	public EpochAggregator(final int[] epochSeconds, final EnumSet<EpochMetric> metrics, final double accelerationScale, final int sampleRate, final TimestampFormatter formatter) {
+		int[] lengths = sortedEpochLengths(epochSeconds);
+		this._epochs = new Epoch[lengths.length];
+		this._folded = new boolean[lengths.length];
+		int sampled = 0;
+		for(int i = 0; i < lengths.length; i++) {
+			if(!isValidEpochLength(lengths[i])) {
+				throw new IllegalArgumentException("Epoch length "+lengths[i]+" s doesn't divide an hour");
+			}
+			_epochs[i] = new Epoch(lengths[i] * 1000L);
+			_folded[i] = (i > 0 && lengths[i] % lengths[0] == 0);
+			sampled += _folded[i] ? 0 : 1;
+		}
+		this._sampled = new Epoch[sampled];
+		for(int i = 0, j = 0; i < lengths.length; i++) {
+			if(!_folded[i]) {
+				_sampled[j++] = _epochs[i];
+			}
+		}
+		this._enmo = metrics.contains(EpochMetric.ENMO);
+		this._mad = metrics.contains(EpochMetric.MAD);
+		this._mean = metrics.contains(EpochMetric.MEAN);
+		this._sd = metrics.contains(EpochMetric.SD);
+		this._minMax = metrics.contains(EpochMetric.MINMAX);
+		this._counts = metrics.contains(EpochMetric.COUNTS) ? new ActiGraphCounts(sampleRate) : null;
+		this._accelerationScale = accelerationScale;
+		this._formatter = formatter.copy();
+		
+		StringBuilder header = new StringBuilder("HEADER_TIMESTAMP,SAMPLES");
+		int values = 1;
+		for(EpochMetric metric : metrics) {
+			header.append(',').append(metric.getColumns());
+			values += metric.getColumns().split(",").length;
+		}
+		header.append('\n');
+		this._header = new byte[header.length()];
+		for(int i = 0; i < _header.length; i++) {
+			_header[i] = (byte)header.charAt(i);
+		}
+		this._maxRowSize = TimestampFormatter.MAX_LENGTH + values * MAX_VALUE_SIZE + 1;
+	}
+	
+	/*
+	 * Epoch lengths have to divide an hour
+	 */
+	public static boolean isValidEpochLength(final int seconds) {
+		return seconds > 0 && 3600 % seconds == 0;
+	}
+	
+	/*
+	 * The distinct lengths of "epochSeconds", shortest first: the order of the files
+	 */
+	public static int[] sortedEpochLengths(final int[] epochSeconds) {
+		int[] lengths = epochSeconds.clone();
+		Arrays.sort(lengths);
+		int count = 0;
+		for(int i = 0; i < lengths.length; i++) {
+			if(count == 0 || lengths[count-1] != lengths[i]) {
+				lengths[count++] = lengths[i];
+			}
+		}
+		return Arrays.copyOf(lengths, count);
+	}
+	
+	/*
+	 * Data type of the files of an epoch length in their mHealth file names, e.g. "Epoch60s"
+	 */
+	public static String getDataType(final int epochSeconds) {
+		return "Epoch"+epochSeconds+"s";
+	}
+	
+	/*
+	 * Starts writing new files, one per epoch length, shortest first (see sortedEpochLengths()). The
+	 * previous ones (if any) are completed and closed. The counts carry on from the samples of the
+	 * previous files, see getCountsState() for files written on their own.
+	 */
+	public void open(final OutputStream[] outs) throws IOException {
+		close();
+		for(int i = 0; i < _epochs.length; i++) {
+			Epoch epoch = _epochs[i];
+			epoch.out = outs[i];
+			System.arraycopy(_header, 0, epoch.buffer, 0, _header.length);
+			epoch.position = _header.length;
+		}
+	}
+	
+	/*
+	 * State of the activity counts after the samples so far, null unless COUNTS. The files of an hour
+	 * written with another aggregator (in parallel, or resumed) get the counts of a single pass over
+	 * the recording when it starts from the state at the end of the previous hour.
+	 */
+	String getCountsState() {
+		return (_counts != null) ? _counts.getState() : null;
+	}
+	
+	/*
+	 * Carries on with the counts of getCountsState(), they start over if "state" is null
+	 */
+	void setCountsState(final String state) {
+		if(_counts != null) {
+			_counts.setState(state);
+		}
+	}
+	
+	/*
+	 * Only follows the state of the activity counts, without any epoch files (see ParallelLogConverter):
+	 * the samples added update the counts and nothing else
+	 */
+	void followCountsOnly() {
+		_sampled = new Epoch[0];
+	}
+	
+	/*
+	 * A sample with raw (ADC) values
+	 */
+	public void add(final long timestamp, final short x, final short y, final short z) throws IOException {
+		double gx = x / _accelerationScale;
+		double gy = y / _accelerationScale;
+		double gz = z / _accelerationScale;
+		add(timestamp, gx, gy, gz, Math.sqrt(gx*gx + gy*gy + gz*gz));
+	}
+	
+	/*
+	 * Samples "index" and "index+1" of the block, at t0 and t1
+	 */
+	public void addPair(final double t0, final double t1, final AccelSampleBlock block, final int index) throws IOException {
+		add((long)t0, block.x()[index], block.y()[index], block.z()[index]);
+		add((long)t1, block.x()[index+1], block.y()[index+1], block.z()[index+1]);
+	}
+	
+	/*
+	 * Samples filling a data gap: the first "count" timestamps, all with the same raw values
+	 */
+	public void addRepeated(final long[] timestamps, final int count, final short x, final short y, final short z) throws IOException {
+		double gx = x / _accelerationScale;
+		double gy = y / _accelerationScale;
+		double gz = z / _accelerationScale;
+		double magnitude = Math.sqrt(gx*gx + gy*gy + gz*gz);
+		for(int i = 0; i < count; i++) {
+			add(timestamps[i], gx, gy, gz, magnitude);
+		}
+	}
+	
+	private void add(final long timestamp, final double x, final double y, final double z, final double magnitude) throws IOException {
+		long countX = 0;
+		long countY = 0;
+		long countZ = 0;
+		if(_counts != null) {
+			_counts.add(x, y, z);
+			countX = _counts.countX();
+			countY = _counts.countY();
+			countZ = _counts.countZ();
+		}
+		for(Epoch epoch : _sampled) {
+			if(timestamp < epoch.start || timestamp >= epoch.end) {
+				complete(epoch);
+				reset(epoch, timestamp - Math.floorMod(timestamp, epoch.length), x, y, z);
+			}
+			double dx = x - epoch.firstX;
+			double dy = y - epoch.firstY;
+			double dz = z - epoch.firstZ;
+			epoch.sumX += dx;
+			epoch.sumY += dy;
+			epoch.sumZ += dz;
+			epoch.sumSqX += dx*dx;
+			epoch.sumSqY += dy*dy;
+			epoch.sumSqZ += dz*dz;
+			if(x < epoch.minX) epoch.minX = x;
+			if(y < epoch.minY) epoch.minY = y;
+			if(z < epoch.minZ) epoch.minZ = z;
+			if(x > epoch.maxX) epoch.maxX = x;
+			if(y > epoch.maxY) epoch.maxY = y;
+			if(z > epoch.maxZ) epoch.maxZ = z;
+			if(magnitude > 1) {
+				epoch.sumEnmo += magnitude - 1;
+			}
+			epoch.sumMagnitude += magnitude;
+			if(_mad) {
+				if(epoch.count == epoch.magnitudes.length) {
+					epoch.magnitudes = Arrays.copyOf(epoch.magnitudes, Math.max(256, epoch.count * 2));
+				}
+				epoch.magnitudes[epoch.count] = magnitude;
+			}
+			epoch.countX += countX;
+			epoch.countY += countY;
+			epoch.countZ += countZ;
+			epoch.count++;
+		}
+	}
+	
+	private static void reset(final Epoch epoch, final long start, final double firstX, final double firstY, final double firstZ) {
+		epoch.start = start;
+		epoch.end = start + epoch.length;
+		epoch.count = 0;
+		epoch.firstX = firstX;
+		epoch.firstY = firstY;
+		epoch.firstZ = firstZ;
+		epoch.sumX = epoch.sumY = epoch.sumZ = 0d;
+		epoch.sumSqX = epoch.sumSqY = epoch.sumSqZ = 0d;
+		epoch.minX = epoch.minY = epoch.minZ = Double.POSITIVE_INFINITY;
+		epoch.maxX = epoch.maxY = epoch.maxZ = Double.NEGATIVE_INFINITY;
+		epoch.sumEnmo = 0d;
+		epoch.sumMagnitude = 0d;
+		epoch.countX = epoch.countY = epoch.countZ = 0;
+	}
+	
+	/*
+	 * The epoch is over: the shortest one is folded into the longer epochs, and its row is written
+	 */
+	private void complete(final Epoch epoch) throws IOException {
+		if(epoch.count == 0) {
+			return;
+		}
+		if(epoch == _epochs[0]) {
+			for(int i = 1; i < _epochs.length; i++) {
+				if(_folded[i]) {
+					fold(epoch, _epochs[i]);
+				}
+			}
+		}
+		writeRow(epoch);
+	}
+	
+	/*
+	 * Adds the sums of "from" to the longer epoch "into", shifted to the first sample of "into"
+	 */
+	private void fold(final Epoch from, final Epoch into) throws IOException {
+		if(from.start < into.start || from.start >= into.end) {
+			complete(into);
+			reset(into, from.start - Math.floorMod(from.start, into.length), from.firstX, from.firstY, from.firstZ);
+		}
+		int n = from.count;
+		double dx = from.firstX - into.firstX;
+		double dy = from.firstY - into.firstY;
+		double dz = from.firstZ - into.firstZ;
+		into.sumSqX += from.sumSqX + 2 * dx * from.sumX + n * dx * dx;
+		into.sumSqY += from.sumSqY + 2 * dy * from.sumY + n * dy * dy;
+		into.sumSqZ += from.sumSqZ + 2 * dz * from.sumZ + n * dz * dz;
+		into.sumX += from.sumX + n * dx;
+		into.sumY += from.sumY + n * dy;
+		into.sumZ += from.sumZ + n * dz;
+		into.minX = Math.min(into.minX, from.minX);
+		into.minY = Math.min(into.minY, from.minY);
+		into.minZ = Math.min(into.minZ, from.minZ);
+		into.maxX = Math.max(into.maxX, from.maxX);
+		into.maxY = Math.max(into.maxY, from.maxY);
+		into.maxZ = Math.max(into.maxZ, from.maxZ);
+		into.sumEnmo += from.sumEnmo;
+		into.sumMagnitude += from.sumMagnitude;
+		if(_mad) {
+			if(into.magnitudes.length - into.count < n) {
+				into.magnitudes = Arrays.copyOf(into.magnitudes, Math.max(into.magnitudes.length * 2, into.count + n));
+			}
+			System.arraycopy(from.magnitudes, 0, into.magnitudes, into.count, n);
+		}
+		into.countX += from.countX;
+		into.countY += from.countY;
+		into.countZ += from.countZ;
+		into.count += n;
+	}
+	
+	/*
+	 * Writes the row of the current epoch
+	 */
+	private void writeRow(final Epoch epoch) throws IOException {
+		int n = epoch.count;
+		if(epoch.buffer.length - epoch.position < _maxRowSize) {
+			flush(epoch);
+		}
+		epoch.position = _formatter.format(epoch.start, epoch.buffer, epoch.position);
+		appendLong(epoch, n);
+		if(_enmo) {
+			appendValue(epoch, epoch.sumEnmo / n);
+		}
+		if(_mad) {
+			double mean = epoch.sumMagnitude / n;
+			double deviation = 0d;
+			for(int i = 0; i < n; i++) {
+				deviation += Math.abs(epoch.magnitudes[i] - mean);
+			}
+			appendValue(epoch, deviation / n);
+		}
+		if(_mean) {
+			appendValue(epoch, epoch.firstX + epoch.sumX / n);
+			appendValue(epoch, epoch.firstY + epoch.sumY / n);
+			appendValue(epoch, epoch.firstZ + epoch.sumZ / n);
+		}
+		if(_sd) {
+			appendValue(epoch, sd(epoch.sumX, epoch.sumSqX, n));
+			appendValue(epoch, sd(epoch.sumY, epoch.sumSqY, n));
+			appendValue(epoch, sd(epoch.sumZ, epoch.sumSqZ, n));
+		}
+		if(_minMax) {
+			appendValue(epoch, epoch.minX);
+			appendValue(epoch, epoch.minY);
+			appendValue(epoch, epoch.minZ);
+			appendValue(epoch, epoch.maxX);
+			appendValue(epoch, epoch.maxY);
+			appendValue(epoch, epoch.maxZ);
+		}
+		if(_counts != null) {
+			appendLong(epoch, epoch.countX);
+			appendLong(epoch, epoch.countY);
+			appendLong(epoch, epoch.countZ);
+			appendValue(epoch, Math.sqrt((double)epoch.countX * epoch.countX + (double)epoch.countY * epoch.countY + (double)epoch.countZ * epoch.countZ));
+		}
+		epoch.buffer[epoch.position++] = '\n';
+		epoch.count = 0;
+		_rowsWritten++;
+	}
+	
+	/*
+	 * Sample standard deviation from the (shifted) sum and sum of squares
+	 */
+	private static double sd(final double sum, final double sumSq, final int n) {
+		if(n < 2) {
+			return 0d;
+		}
+		return Math.sqrt(Math.max(0d, (sumSq - sum * sum / n) / (n - 1)));
+	}
+	
+	/*
+	 * Appends a separator and "value" rounded to 4 decimals
+	 */
+	private static void appendValue(final Epoch epoch, final double value) {
+		long scaled = Math.round(value * DECIMALS);
+		byte[] buffer = epoch.buffer;
+		buffer[epoch.position++] = ',';
+		if(scaled < 0) {
+			buffer[epoch.position++] = '-';
+			scaled = -scaled;
+		}
+		epoch.position = appendDigits(buffer, epoch.position, scaled / DECIMALS);
+		buffer[epoch.position++] = '.';
+		long fraction = scaled % DECIMALS;
+		for(int divisor = DECIMALS / 10; divisor > 0; divisor /= 10) {
+			buffer[epoch.position++] = (byte)('0' + fraction / divisor % 10);
+		}
+	}
+	
+	private static void appendLong(final Epoch epoch, final long value) {
+		epoch.buffer[epoch.position++] = ',';
+		epoch.position = appendDigits(epoch.buffer, epoch.position, value);
+	}
+	
+	private static int appendDigits(final byte[] buffer, int position, long value) {
+		int start = position;
+		do {
+			buffer[position++] = (byte)('0' + value % 10);
+			value /= 10;
+		} while(value > 0);
+		for(int i = start, j = position - 1; i < j; i++, j--) {
+			byte digit = buffer[i];
+			buffer[i] = buffer[j];
+			buffer[j] = digit;
+		}
+		return position;
+	}
+	
+	private static void flush(final Epoch epoch) throws IOException {
+		if(epoch.position > 0) {
+			epoch.out.write(epoch.buffer, 0, epoch.position);
+			epoch.position = 0;
+		}
+	}
+	
+	/*
+	 * Writes the rows of the current epochs and closes the files
+	 */
+	@Override
+	public void close() throws IOException {
+		for(Epoch epoch : _epochs) {
+			if(epoch.out != null) {
+				complete(epoch); // the shortest first, it is folded into the others
+				flush(epoch);
+				epoch.out.close();
+				epoch.out = null;
+			}
+			epoch.count = 0;
+			epoch.start = Long.MAX_VALUE;
+			epoch.end = Long.MIN_VALUE;
+		}
+	}
+	
+	public long getRowsWritten() {
+		return _rowsWritten;
+	}
+}
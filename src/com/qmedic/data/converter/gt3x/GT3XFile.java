@@ -32,29 +32,63 @@ import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import com.qmedic.data.converter.gt3x.enums.DeviceType;
 import com.qmedic.data.converter.gt3x.enums.DeviceVersion;
-import com.qmedic.data.converter.gt3x.enums.LogRecordType;
+import com.qmedic.data.converter.gt3x.enums.ConversionStage;
+import com.qmedic.data.converter.gt3x.enums.EpochMetric;
 import com.qmedic.data.converter.gt3x.enums.GT3XParserOutputDataType;
+import com.qmedic.data.converter.gt3x.enums.LogRecordType;
+import com.qmedic.data.converter.gt3x.iface.GT3XFileMetricsListener;
 import com.qmedic.data.converter.gt3x.iface.GT3XFileProcessingListener;
-import com.qmedic.data.converter.gt3x.model.AccelPairData;
+import com.qmedic.data.converter.gt3x.iface.GT3XFileProgressListener;
+import com.qmedic.data.converter.gt3x.iface.AccelEncoder;
+import com.qmedic.data.converter.gt3x.io.AccelBinaryEncoder;
+import com.qmedic.data.converter.gt3x.io.AccelCsvEncoder;
+import com.qmedic.data.converter.gt3x.io.ParallelGzipOutputStream;
+import com.qmedic.data.converter.gt3x.io.IndexingInflaterInputStream;
+import com.qmedic.data.converter.gt3x.io.InflateIndex;
+import com.qmedic.data.converter.gt3x.io.PipelinedInputStream;
+import com.qmedic.data.converter.gt3x.io.PipelinedOutputStream;
+import com.qmedic.data.converter.gt3x.io.LogRecordReader;
+import com.qmedic.data.converter.gt3x.io.MappedInputStream;
+import com.qmedic.data.converter.gt3x.io.MeteredInputStream;
+import com.qmedic.data.converter.gt3x.io.MeteredOutputStream;
+import com.qmedic.data.converter.gt3x.io.ResamplingAccelEncoder;
+import com.qmedic.data.converter.gt3x.io.ZipEntryLocator;
+import com.qmedic.data.converter.gt3x.model.AccelSampleBlock;
+import com.qmedic.data.converter.gt3x.model.ConversionMetrics;
 import com.qmedic.data.converter.gt3x.model.LogRecord;
+import com.qmedic.data.converter.gt3x.utils.ActivityUnpacker;
+import com.qmedic.data.converter.gt3x.utils.ConverterMetrics;
 import com.qmedic.data.converter.gt3x.utils.GT3XUtils;
 import com.qmedic.data.converter.gt3x.utils.MHealthUtils;
 
@@ -66,12 +100,15 @@ public class GT3XFile {
 	private static final int ZIP_INDICATOR = 0x504b0304; // first 4 bytes of all zip file
 	private static final double ACCELERATION_SCALE_FACTOR_NEO_CLE=341.0;
 	private static final double ACCELERATION_SCALE_FACTOR_MOS=256.0;
+	private static final int ACTIVITY_BLOCK_SIZE = 64 * 1024 * 9; // bytes, a multiple of 9 (two samples)
+	private static final String[] EXTRACTED_CONTENT_FILES = {"info.txt", "activity.bin", "lux.bin", "log.bin"};
 	
 	// File information
 	private String _inputFileFullPath = null;
 	private String _outputDirectory = null;
 	private GT3XParserOutputDataType _outputDataType = GT3XParserOutputDataType.MHEALTH;
 	private ZipFile _sourceGt3x = null;
+	private File _extractedDirectory = null; // set when the input is an already extracted gt3x
 	private DeviceVersion _deviceVersion = DeviceVersion.UNKNOWN;
 	private DeviceType _deviceType = DeviceType.UNKNOWN;
 	private long _bytesOfUncompressedContent = 0;
@@ -105,26 +142,58 @@ public class GT3XFile {
 	private boolean _doneProcessing = false;
 	private boolean _debug = false;
 	private boolean _createSummaryFilesOn = false;
+	private boolean _memoryMappedInput = false;
 	private ZipEntry _logData = null;
 	private ZipEntry _activityData = null;
+	private ZipEntry _luxData = null;
+	private LuxBinConverter _luxConverter = null; // while converting a V1 lux.bin
 	private long _totalBytes = 0;
 	private long _currHourTs = 0;
 	private long _prevHourTs = 0;
 	private String _currOutputFile = null;
 	private String _currMHealthFileName = null;
 	private String _currOutputSummaryFile = null;
-	// Process data info (V2 only)
-	private long _lastRecordedTs = 0;
-	private String _lastRecordedXYZ = null;
-	private double _delta = -1;
+	private boolean _parallelConversion = false;
+	private boolean _gzipOutput = false;
+	private boolean _pipelined = false;
+	private ConversionMetrics _metrics = null; // of the conversion, see convertToMHealth()
+	private boolean _metricsReported = false;
+	private long _progressIntervalMillis = 1000;
+	private long _progressIntervalBytes = 0;
+	private ProgressReporter _progress = null; // if the listener is a GT3XFileProgressListener
+	private boolean _inflateIndexOn = false;
+	private long _inflateIndexSpan = InflateIndex.DEFAULT_SPAN;
+	private IndexingInflaterInputStream _indexing = null; // if the index of log.bin is built by the conversion
+	private InflateIndex.Checkpoint _startCheckpoint = null; // if log.bin is inflated from a checkpoint
+	private long _windowStart = 0;
+	private long _windowEnd = Long.MAX_VALUE;
+	private String _cacheDirectory = null;
+	private boolean _cacheVerify = false; // check the CRC-32 of the output files of a cache hit too
+	private ConversionCache _cache = null; // of the conversion, if the cache is on
+	private List<ConversionCache.OutputFile> _createdFiles = null; // in the order of their callbacks
+	private Map<String,CRC32> _outputChecksums = null; // of the files being written, by path
+	private boolean _resumable = false;
+	private EnumSet<LogRecordType> _recordStreamTypes = EnumSet.noneOf(LogRecordType.class);
+	private boolean _sparseGaps = false;
+	private int[] _epochSeconds = new int[0]; // epoch lengths of the epoch files, none if they are off
+	private EnumSet<EpochMetric> _epochMetrics = EnumSet.allOf(EpochMetric.class);
+	private int _outputSampleRate = 0; // of the accel files, the sample rate if 0
+	private ResumeCheckpoint _resume = null; // where the conversion resumes, if it does
 	
 	// Helpers
 	private MHealthUtils _mHealthUtils = null;
 	
+	/*
+	 * For reading samples with GT3XReader only, no output files are written
+	 */
+	public GT3XFile(final String inputFileFullPath) {
+		this(inputFileFullPath, null, GT3XParserOutputDataType.MHEALTH);
+	}
+	
 	public GT3XFile(final String inputFileFullPath, final String outputDirectory, final GT3XParserOutputDataType outputDataType) {
 		this._inputFileFullPath = inputFileFullPath;
 		this._outputDirectory = outputDirectory;
-		if(!_outputDirectory.endsWith("/")) {
+		if(_outputDirectory != null && !_outputDirectory.endsWith("/")) {
 			this._outputDirectory = _outputDirectory + "/";
 		}
 		this._outputDataType = outputDataType;
@@ -143,6 +212,556 @@ public class GT3XFile {
 		this._createSummaryFilesOn = true;
 	}
 	
+	/*
+	 * Memory maps STORED (uncompressed) gt3x entries and extracted log.bin/activity.bin files
+	 * instead of reading them through java.util.zip. Deflated entries are always inflated.
+	 */
+	public void setMemoryMappedInputOn() {
+		this._memoryMappedInput = true;
+	}
+	
+	/*
+	 * Converts the hourly files of V2 log.bin in parallel (SPLIT only, see ParallelLogConverter).
+	 * The output files and callbacks are the same as with the sequential conversion, which is still
+	 * used on a single processor.
+	 */
+	public void setParallelConversionOn() {
+		this._parallelConversion = true;
+	}
+	
+	/*
+	 * Writes gzip compressed output files (".gz" is appended to their names), see ParallelGzipOutputStream
+	 */
+	public void setGzipOutputOn() {
+		this._gzipOutput = true;
+	}
+	
+	/*
+	 * Runs the conversion as a pipeline: log.bin/activity.bin is read (and inflated) ahead on one thread,
+	 * decoded and formatted on the calling thread, and every output file is written (and compressed) on a
+	 * thread of its own. The stages exchange reusable chunks through bounded ring buffers, see
+	 * PipelinedInputStream and PipelinedOutputStream. The output is the same.
+	 */
+	public void setPipelinedOn() {
+		this._pipelined = true;
+	}
+	
+	/*
+	 * How often a GT3XFileProgressListener gets a progress callback: every "millis" milliseconds or
+	 * every "bytes" bytes of (uncompressed) activity data, whichever comes first. 0 disables either.
+	 * The default is every second.
+	 */
+	public void setProgressInterval(final long millis, final long bytes) {
+		this._progressIntervalMillis = millis;
+		this._progressIntervalBytes = bytes;
+	}
+	
+	/*
+	 * Keeps an index of a DEFLATED log.bin next to the gt3x file (see InflateIndex), built by the first
+	 * conversion, so that later conversions of a time window start inflating log.bin at the checkpoint
+	 * before the window instead of at its start. A checkpoint is taken every "spanBytes" of log.bin.
+	 */
+	public void setInflateIndexOn(final long spanBytes) {
+		this._inflateIndexOn = true;
+		this._inflateIndexSpan = spanBytes;
+	}
+	
+	public void setInflateIndexOn() {
+		setInflateIndexOn(InflateIndex.DEFAULT_SPAN);
+	}
+	
+	/*
+	 * Only converts the samples from "fromMillis" (included) to "toMillis" (excluded), in the time of the
+	 * output files. V2 (log.bin) only, the conversion is sequential and stops at the end of the window.
+	 */
+	public void setTimeWindow(final long fromMillis, final long toMillis) {
+		this._windowStart = fromMillis;
+		this._windowEnd = toMillis;
+	}
+	
+	/*
+	 * Keeps a manifest of every conversion in "manifestDirectory" (see ConversionCache), so that a
+	 * conversion of the same content with the same options is skipped when the files it produced are
+	 * still there and unchanged. The callbacks of these files are replayed instead.
+	 */
+	public void setConversionCacheOn(final String manifestDirectory) {
+		this._cacheDirectory = manifestDirectory;
+	}
+	
+	/*
+	 * Reads the output files of a cache hit again to check their CRC-32, instead of only their size and
+	 * modification time
+	 */
+	public void setConversionCacheVerifyOn() {
+		this._cacheVerify = true;
+	}
+	
+	/*
+	 * Saves a checkpoint next to the output files at the start of every hourly file (SPLIT only, see
+	 * ResumeCheckpoint), so that a conversion that didn't finish resumes from the last one when it is
+	 * run again. The checkpoint is deleted once the conversion is done.
+	 */
+	public void setResumableOn() {
+		this._resumable = true;
+	}
+	
+	boolean resumableOn() {
+		return _resumable;
+	}
+	
+	/*
+	 * Also writes the V2 records of "types" (battery, lux, capsense, heart rate, metadata) to mHealth
+	 * files of their own, in the same pass over log.bin (see LogRecordStreams). The types that can't
+	 * be written are ignored. For V1 files, LUX converts lux.bin on a thread of its own (see LuxBinConverter).
+	 */
+	public void setRecordStreamsOn(final EnumSet<LogRecordType> types) {
+		this._recordStreamTypes = EnumSet.copyOf(types);
+		_recordStreamTypes.retainAll(LogRecordStreams.SUPPORTED_TYPES);
+	}
+	
+	/*
+	 * Writes all the record types LogRecordStreams supports
+	 */
+	public void setRecordStreamsOn() {
+		setRecordStreamsOn(LogRecordStreams.SUPPORTED_TYPES);
+	}
+	
+	/*
+	 * Writes the data gaps of V2 files as intervals to GapMarkers files next to the accel files (see
+	 * GapMarkerWriter), instead of filling them in with the last recorded values. The activity counts
+	 * are the same.
+	 */
+	public void setSparseGapsOn() {
+		this._sparseGaps = true;
+	}
+	
+	/*
+	 * Also writes the "metrics" of the acceleration over epochs of "epochSeconds" to an epoch file per
+	 * length next to the accel files, in the same pass (see EpochAggregator). Lengths that don't divide
+	 * an hour are ignored.
+	 */
+	public void setEpochsOn(final int[] epochSeconds, final EnumSet<EpochMetric> metrics) {
+		int[] lengths = new int[epochSeconds.length];
+		int count = 0;
+		for(int seconds : epochSeconds) {
+			if(EpochAggregator.isValidEpochLength(seconds)) {
+				lengths[count++] = seconds;
+			}
+		}
+		this._epochSeconds = EpochAggregator.sortedEpochLengths(Arrays.copyOf(lengths, count));
+		this._epochMetrics = EnumSet.copyOf(metrics);
+	}
+	
+	/*
+	 * Resamples the accel files to "sampleRate" Hz (see ResamplingAccelEncoder). The summary, epoch and
+	 * other files are computed from the samples at the sample rate of the device.
+	 */
+	public void setResampleOn(final int sampleRate) {
+		this._outputSampleRate = sampleRate;
+	}
+	
+	/*
+	 * Sample rate of the accel files
+	 */
+	int getOutputSampleRate() {
+		return _outputSampleRate > 0 ? _outputSampleRate : _sampleRate;
+	}
+	
+	private boolean hasTimeWindow() {
+		return _windowStart > 0 || _windowEnd < Long.MAX_VALUE;
+	}
+	
+	DeviceVersion getDeviceVersion() {
+		return _deviceVersion;
+	}
+	
+	String getSerialNumber() {
+		return _serialNumber;
+	}
+	
+	int getSampleRate() {
+		return _sampleRate;
+	}
+	
+	long getStartDate() {
+		return _startDate;
+	}
+	
+	ZipEntry getActivityData() {
+		return _activityData;
+	}
+	
+	ZipEntry getLogData() {
+		return _logData;
+	}
+	
+	boolean memoryMappedInputOn() {
+		return _memoryMappedInput;
+	}
+	
+	boolean inGAccelerationOn() {
+		return _optionInGAcceleration;
+	}
+	
+	boolean withTimestampOn() {
+		return _optionWithTimestamp;
+	}
+	
+	boolean createSummaryFilesOn() {
+		return _createSummaryFilesOn;
+	}
+	
+	boolean splitOn() {
+		return _optionSplit;
+	}
+	
+	double getLuxScaleFactor() {
+		return _luxScaleFactor;
+	}
+	
+	double getLuxMaxValue() {
+		return _luxMaxValue;
+	}
+	
+	GT3XParserOutputDataType getOutputDataType() {
+		return _outputDataType;
+	}
+	
+	/*
+	 * Acceleration Scale of info.txt
+	 */
+	double getAccelerationScale() {
+		return _accelerationScale;
+	}
+	
+	MHealthUtils getMHealthUtils() {
+		return _mHealthUtils;
+	}
+	
+	/*
+	 * Counters and stage timings of the last conversion, null before convertToMHealth()
+	 */
+	public ConversionMetrics getMetrics() {
+		return _metrics;
+	}
+	
+	/*
+	 * Null if the listener doesn't take progress callbacks
+	 */
+	ProgressReporter getProgress() {
+		return _progress;
+	}
+	
+	String getCurrentMHealthFileName() {
+		return _currMHealthFileName;
+	}
+	
+	/*
+	 * Name of the accel file of the hour starting at "hourTs"
+	 */
+	String getMHealthFileName(final long hourTs) {
+		return _mHealthUtils.getMHealthFileName(hourTs, _deviceType.toString(), _firmware, _serialNumber, _timeZoneOffsetMHealth);
+	}
+	
+	/*
+	 * Same as getMHealthFileName(hourTs), formatted with "mHealthUtils" (e.g. on another thread)
+	 */
+	String getMHealthFileName(final long hourTs, final MHealthUtils mHealthUtils) {
+		return mHealthUtils.getMHealthFileName(hourTs, _deviceType.toString(), _firmware, _serialNumber, _timeZoneOffsetMHealth);
+	}
+	
+	/*
+	 * Path of the accel file "mHealthFileName"
+	 */
+	String getOutputFile(final String mHealthFileName) {
+		return _outputDirectory+mHealthFileName+(_gzipOutput ? ".gz" : "");
+	}
+	
+	/*
+	 * Path of the activity count file going with the accel file "mHealthFileName"
+	 */
+	String getOutputSummaryFile(final String mHealthFileName) {
+		return _outputDirectory+_mHealthUtils.getActivityCountMHealthFileName(mHealthFileName)+(_gzipOutput ? ".gz" : "");
+	}
+	
+	/*
+	 * Path of the "dataType" file (see LogRecordStreams) going with the accel file "mHealthFileName"
+	 */
+	String getOutputSensorFile(final String mHealthFileName, final String dataType) {
+		return _outputDirectory+_mHealthUtils.getSensorMHealthFileName(mHealthFileName, dataType)+(_gzipOutput ? ".gz" : "");
+	}
+	
+	/*
+	 * Path of the GapMarkers file going with the accel file "mHealthFileName"
+	 */
+	String getOutputGapMarkerFile(final String mHealthFileName) {
+		return getOutputSensorFile(mHealthFileName, GapMarkerWriter.DATA_TYPE);
+	}
+	
+	/*
+	 * Paths of the epoch files going with the accel file "mHealthFileName", one per epoch length (none if they are off)
+	 */
+	List<String> getOutputEpochFiles(final String mHealthFileName) {
+		List<String> paths = new ArrayList<String>();
+		for(int seconds : _epochSeconds) {
+			paths.add(getOutputSensorFile(mHealthFileName, EpochAggregator.getDataType(seconds)));
+		}
+		return paths;
+	}
+	
+	/*
+	 * Aggregator of the epoch files for samples of "accelerationScale", null if they are off
+	 */
+	EpochAggregator createEpochAggregator(final double accelerationScale) {
+		if(_epochSeconds.length == 0) {
+			return null;
+		}
+		return new EpochAggregator(_epochSeconds, _epochMetrics, accelerationScale, _sampleRate, _mHealthUtils.dataTimestampFormatter());
+	}
+	
+	/*
+	 * Starts the epoch files going with the accel file "mHealthFileName", counted in "metrics"
+	 */
+	void openEpochFiles(final EpochAggregator epochs, final String mHealthFileName, final ConversionMetrics metrics) throws IOException {
+		List<String> paths = getOutputEpochFiles(mHealthFileName);
+		OutputStream[] outs = new OutputStream[paths.size()];
+		for(int i = 0; i < outs.length; i++) {
+			outs[i] = createOutputStream(paths.get(i), metrics);
+		}
+		epochs.open(outs);
+	}
+	
+	/*
+	 * Fires the callbacks of the completed epoch files of "mHealthFileName"
+	 */
+	void epochFilesCompleted(final String mHealthFileName, final long bytesRead, final Calendar calendar) {
+		for(String path : getOutputEpochFiles(mHealthFileName)) {
+			hourlyFileCreated(path, bytesRead, calendar);
+		}
+	}
+	
+	/*
+	 * Writer of the data gaps, null if they are filled in
+	 */
+	GapMarkerWriter createGapMarkerWriter() {
+		return _sparseGaps ? new GapMarkerWriter(_mHealthUtils.dataTimestampFormatter()) : null;
+	}
+	
+	/*
+	 * The streams of the other record types of log.bin, null if none are on
+	 */
+	LogRecordStreams createRecordStreams() {
+		if(_recordStreamTypes.isEmpty()) {
+			return null;
+		}
+		long firstTimestamp = Math.max(_startDate, _windowStart);
+		return new LogRecordStreams(this, _recordStreamTypes, getMHealthFileName(firstTimestamp), firstTimestamp, _windowStart, _windowEnd);
+	}
+	
+	/*
+	 * Fires the callbacks of completed stream files, along with those of the accel file
+	 */
+	void streamFilesCompleted(final List<LogRecordStreams.StreamFile> files, final long bytesRead, final Calendar calendar) {
+		for(LogRecordStreams.StreamFile file : files) {
+			hourlyFileCreated(file.path, bytesRead, calendar);
+		}
+	}
+	
+	/*
+	 * Reader of log.bin for resuming its conversion (see ResumeCheckpoint). The records from the stream
+	 * offset of the checkpoint up to its own offset go to "streams", the reader is at its offset then.
+	 */
+	LogRecordReader openResumedLogReader(final LogRecordStreams streams) throws IOException {
+		long streamOffset = (streams != null) ? Math.min(_resume.streamOffset, _resume.offset) : _resume.offset;
+		LogRecordReader reader = new LogRecordReader(openLogInput(streamOffset));
+		LogRecord record;
+		while(reader.getBytesRead() < _resume.offset - streamOffset && (record = reader.next()) != null) {
+			streams.record(record, streamOffset + reader.getBytesRead() - record.getRecordSize());
+		}
+		return reader;
+	}
+	
+	/*
+	 * Creates an output file, compressed if gzip output is on, written on its own thread if pipelined
+	 */
+	OutputStream createOutputStream(final String filePath) throws IOException {
+		return createOutputStream(filePath, _metrics);
+	}
+	
+	/*
+	 * Same as createOutputStream(filePath), the file's bytes and write time are counted in "metrics"
+	 */
+	OutputStream createOutputStream(final String filePath, final ConversionMetrics metrics) throws IOException {
+		OutputStream out = new FileOutputStream(filePath);
+		if(_outputChecksums != null) {
+			CRC32 crc = new CRC32();
+			_outputChecksums.put(filePath, crc);
+			out = new CheckedOutputStream(out, crc);
+		}
+		if(_gzipOutput) {
+			out = new ParallelGzipOutputStream(out);
+		}
+		if(_pipelined) {
+			out = new PipelinedOutputStream(out);
+		}
+		if(metrics != null) {
+			metrics.addFileCreated();
+			out = new MeteredOutputStream(out, metrics);
+		}
+		return out;
+	}
+	
+	/*
+	 * Opens the activity data (log.bin or activity.bin) for the conversion, read ahead on its own thread if pipelined
+	 */
+	InputStream openActivityInput(final ZipEntry entry) throws IOException {
+		return wrapActivityInput(openEntry(entry, _memoryMappedInput));
+	}
+	
+	/*
+	 * Same as openActivityInput(entry), starting at "offset" of the activity data. The bytes before it
+	 * are skipped (or inflated) but not decoded.
+	 */
+	InputStream openActivityInput(final ZipEntry entry, final long offset) throws IOException {
+		return wrapActivityInput(skipFully(openEntry(entry, _memoryMappedInput), offset));
+	}
+	
+	/*
+	 * Opens the V1 lux.bin, starting at "offset"
+	 */
+	InputStream openLuxInput(final long offset) throws IOException {
+		return skipFully(openEntry(_luxData, _memoryMappedInput), offset);
+	}
+	
+	/*
+	 * Skips "count" bytes of "in", by reading them unless it is a file
+	 */
+	private static InputStream skipFully(final InputStream in, long count) throws IOException {
+		byte[] buffer = (in instanceof FileInputStream || in instanceof MappedInputStream) ? null : new byte[ACTIVITY_BLOCK_SIZE];
+		while(count > 0) {
+			long skipped = (buffer == null) ? in.skip(count) : in.read(buffer, 0, (int)Math.min(buffer.length, count));
+			if(skipped <= 0) {
+				in.close();
+				throw new EOFException("Unexpected end of the activity data");
+			}
+			count -= skipped;
+		}
+		return in;
+	}
+	
+	/*
+	 * Opens log.bin for resuming its conversion at "offset", from the checkpoint of the inflate index
+	 * before it if there is one
+	 */
+	InputStream openLogInput(final long offset) throws IOException {
+		this._indexing = null;
+		this._startCheckpoint = null;
+		if(_inflateIndexOn && _sourceGt3x != null && _logData.getMethod() == ZipEntry.DEFLATED) {
+			InflateIndex index = InflateIndex.load(InflateIndex.sidecarPath(_inputFileFullPath), _logData);
+			InflateIndex.Checkpoint checkpoint = (index != null) ? index.findRecord(offset) : null;
+			if(checkpoint != null) {
+				FileChannel channel = new RandomAccessFile(_inputFileFullPath, "r").getChannel();
+				long dataOffset = ZipEntryLocator.findDataOffset(channel, _logData);
+				if(dataOffset >= 0) {
+					if(_debug) System.out.println("Inflating log.bin from offset "+checkpoint.getRecordOffset()+".");
+					return wrapActivityInput(skipFully(index.open(channel, dataOffset, checkpoint), offset - checkpoint.getRecordOffset()));
+				}
+				channel.close();
+			}
+		}
+		return openActivityInput(_logData, offset);
+	}
+	
+	/*
+	 * Opens log.bin for the conversion, as openActivityInput(). With the inflate index on, a DEFLATED log.bin
+	 * is inflated from the checkpoint before the time window if it has an index, and indexed while it is
+	 * read otherwise (see saveInflateIndex()).
+	 */
+	InputStream openLogInput() throws IOException {
+		this._indexing = null;
+		this._startCheckpoint = null;
+		if(_inflateIndexOn && _sourceGt3x != null && _logData.getMethod() == ZipEntry.DEFLATED) {
+			InflateIndex index = InflateIndex.load(InflateIndex.sidecarPath(_inputFileFullPath), _logData);
+			FileChannel channel = new RandomAccessFile(_inputFileFullPath, "r").getChannel();
+			long offset = ZipEntryLocator.findDataOffset(channel, _logData);
+			InflateIndex.Checkpoint checkpoint = (index != null) ? index.find(_windowStart) : null;
+			if(offset >= 0 && index == null) {
+				if(_debug) System.out.println("Indexing log.bin.");
+				this._indexing = new IndexingInflaterInputStream(channel, offset, _logData, _inflateIndexSpan);
+				return wrapActivityInput(_indexing);
+			} else if(offset >= 0 && checkpoint != null) {
+				if(_debug) System.out.println("Inflating log.bin from offset "+checkpoint.getRecordOffset()+".");
+				this._startCheckpoint = checkpoint;
+				return wrapActivityInput(index.open(channel, offset, checkpoint));
+			}
+			channel.close();
+		}
+		return openActivityInput(_logData);
+	}
+	
+	/*
+	 * Sets the time window of the processor going over log.bin as opened by openLogInput(), and where it
+	 * starts. Building the index needs all of log.bin, so the processor doesn't stop at the end of the
+	 * window then, and it keeps track of the timestamps for the index.
+	 */
+	void setUpLogProcessor(final LogActivityProcessor processor) {
+		processor.setTimeWindow(_windowStart, _windowEnd, _indexing != null);
+		if(_indexing != null) {
+			processor.trackTimestampPhases();
+		}
+		if(_startCheckpoint != null) {
+			processor.setTimestampPhase(_startCheckpoint.getTimestampPhase());
+		}
+	}
+	
+	/*
+	 * Saves the index of log.bin built by the conversion, once "processor" went over all of log.bin
+	 */
+	void saveInflateIndex(final LogActivityProcessor processor) {
+		InflateIndex index = (_indexing != null) ? _indexing.getIndex() : null;
+		this._indexing = null;
+		if(index != null) {
+			for(InflateIndex.Checkpoint checkpoint : index.getCheckpoints()) {
+				checkpoint.setTimestampPhase(processor.getTimestampPhase(checkpoint.getRecordOffset()));
+			}
+			try {
+				index.save(InflateIndex.sidecarPath(_inputFileFullPath));
+			} catch(IOException e) {
+				if(_debug) System.out.println("Warning: Could not save the index of log.bin. "+e.getMessage());
+			}
+		}
+	}
+	
+	private InputStream wrapActivityInput(InputStream in) {
+		if(_pipelined) {
+			in = new PipelinedInputStream(in);
+		}
+		return (_metrics != null) ? new MeteredInputStream(in, _metrics) : in;
+	}
+	
+	/*
+	 * The files being written, once they are the last ones
+	 */
+	void setCurrentOutputFiles(final String mHealthFileName, final String outputFile, final String outputSummaryFile) {
+		this._currMHealthFileName = mHealthFileName;
+		this._currOutputFile = outputFile;
+		this._currOutputSummaryFile = outputSummaryFile;
+	}
+	
+	void setDoneProcessing(final long totalBytes) {
+		this._totalBytes = totalBytes;
+		this._doneProcessing = true;
+	}
+	
+	/*
+	 * Closes the input once it is no longer read (by GT3XReader)
+	 */
+	void closeInput() throws IOException {
+		if(_sourceGt3x != null) {
+			_sourceGt3x.close();
+		}
+	}
+	
 	public String toString() {
 		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z"); // the format of your date
 		sdf.setTimeZone(TimeZone.getTimeZone("UTC")); // give a timezone reference for formating (see comment at the bottom		
@@ -179,6 +798,8 @@ public class GT3XFile {
 	
 	/*
 	 * This method checks if a file is of GT3X format version 1 (NHANES) or version 2 and initializes the object
+	 * The input can also be an extracted gt3x: a directory holding info.txt and log.bin (or activity.bin
+	 * and lux.bin), or the log.bin/activity.bin file itself with its info.txt next to it.
 	 * Note: callbackMetadata is a metadata holder.
 	 */
 	public boolean init(final String[] params, final Map<String, Object> callbackMetadata) {
@@ -211,14 +832,33 @@ public class GT3XFile {
 		}
 		this._optionSplit = params[2].equals("SPLIT") ? true : false;
 		
+		return initInput(callbackMetadata);
+	}
+	
+	/*
+	 * Checks and opens the input file and reads its info.txt, without any of the conversion options.
+	 * Used directly by GT3XReader.
+	 */
+	boolean initInput(final Map<String, Object> callbackMetadata) {
+		if(_inputFileFullPath == null) {
+			if(_debug) System.out.println("Usage: Input file full path not provided.");
+			return false;
+		}
+		
 		// Check input file validity and update the inputFileFullPath to the full path
 		File inFile = new File(_inputFileFullPath);
 		if(!inFile.exists()) {
 			if(_debug) System.out.println("Error: "+_inputFileFullPath+" doesn't exist!");
 			return false;
 		}
+		File extractedDirectory = null;
 		if(inFile.isDirectory()) {
-			if(_debug) System.out.println("Error: "+_inputFileFullPath+" is a directory!");
+			extractedDirectory = inFile;
+		} else if(inFile.getName().equals("log.bin") || inFile.getName().equals("activity.bin")) {
+			extractedDirectory = inFile.getAbsoluteFile().getParentFile();
+		}
+		if(extractedDirectory != null && !new File(extractedDirectory, "info.txt").isFile()) {
+			if(_debug) System.out.println("Error: "+_inputFileFullPath+" is a directory or extracted log file without an info.txt!");
 			return false;
 		}
 		if(!inFile.canRead()) {
@@ -238,16 +878,33 @@ public class GT3XFile {
 		}
 		
 		try {
-			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(inFile)));
-			int test = in.readInt();
-			in.close();
-			boolean isZipFile = (test == ZIP_INDICATOR);
-			if (!isZipFile) {
-				return false;
+			Enumeration<? extends ZipEntry> entries;
+			if(extractedDirectory != null) {
+				// Describe the extracted files as zip entries so that they are handled like the zipped ones
+				List<ZipEntry> extractedEntries = new ArrayList<ZipEntry>();
+				for(String name : EXTRACTED_CONTENT_FILES) {
+					File extractedFile = new File(extractedDirectory, name);
+					if(extractedFile.isFile()) {
+						ZipEntry extractedEntry = new ZipEntry(name);
+						extractedEntry.setSize(extractedFile.length());
+						extractedEntries.add(extractedEntry);
+					}
+				}
+				this._extractedDirectory = extractedDirectory;
+				entries = Collections.enumeration(extractedEntries);
+			} else {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(inFile)));
+				int test = in.readInt();
+				in.close();
+				boolean isZipFile = (test == ZIP_INDICATOR);
+				if (!isZipFile) {
+					return false;
+				}
+				this._sourceGt3x = new ZipFile(inFile);
+				entries = _sourceGt3x.entries();
 			}
 			this._inputFileFullPath = inFile.getAbsolutePath(); // Update the inputFilePath with its absolute file path
 			this._mHealthUtils = new MHealthUtils(_outputDataType);
-			this._sourceGt3x = new ZipFile(inFile);
 			this._callbackMetadata = callbackMetadata;
 			
 			// Check if the file contains the necessary Actigraph files
@@ -258,8 +915,8 @@ public class GT3XFile {
 			
 			ZipEntry entry = null;
 			this._bytesOfUncompressedContent = 0;
-			for (Enumeration<?> e = _sourceGt3x.entries(); e.hasMoreElements();) {
-				entry = (ZipEntry) e.nextElement();
+			while (entries.hasMoreElements()) {
+				entry = entries.nextElement();
 				_bytesOfUncompressedContent += entry.getSize();
 				if(entry.toString().equals("info.txt")) {
 					hasInfoData = true;
@@ -270,6 +927,7 @@ public class GT3XFile {
 					hasActivityData = true;
 				}
 				if(entry.toString().equals("lux.bin")) {
+					this._luxData = entry;
 					hasLuxData = true;
 				}
 				if(entry.toString().equals("log.bin")) {
@@ -288,7 +946,9 @@ public class GT3XFile {
 			} else if(hasLogData) {
 				return true;
 			} else {
-				_sourceGt3x.close();
+				if(_sourceGt3x != null) {
+					_sourceGt3x.close();
+				}
 				if(_debug) System.out.println("Error: "+_inputFileFullPath+" is not a valid GT3X file. Unknown file content detected.");
 				return false;
 			}
@@ -303,28 +963,216 @@ public class GT3XFile {
 		
 		listener.onProcessingStarted(_inputFileFullPath, "OK", _bytesOfUncompressedContent, _callbackMetadata);
 		
-		if(_sourceGt3x == null || _deviceVersion == DeviceVersion.UNKNOWN) {
+		if((_sourceGt3x == null && _extractedDirectory == null) || _deviceVersion == DeviceVersion.UNKNOWN) {
 			if(this.listener != null) {
 				listener.onProcessingFinished(_inputFileFullPath, "Error processing. Source GT3X file or its version is unknown.", _totalBytes, _callbackMetadata);
 			}
 			return false;
 		}
 		
-		switch(_deviceVersion) {
-		case V1:
-			return processGT3XV1();
-		case V2:
-			return processGT3XV2();
-		default:
+		this._currOutputFile = getOutputFile(_currMHealthFileName); // the output options may have changed since init()
+		this._metrics = new ConversionMetrics();
+		this._metricsReported = false;
+		ConverterMetrics.getInstance().conversionStarted();
+		_metrics.start();
+		this._progress = null;
+		if(listener instanceof GT3XFileProgressListener) {
+			ZipEntry activityEntry = (_deviceVersion == DeviceVersion.V1) ? _activityData : _logData;
+			long size = (activityEntry != null) ? activityEntry.getSize() : -1;
+			long compressedSize = (activityEntry != null) ? activityEntry.getCompressedSize() : -1;
+			this._progress = new ProgressReporter((GT3XFileProgressListener)listener, _inputFileFullPath, _callbackMetadata, _metrics,
+					size, compressedSize, _progressIntervalMillis, _progressIntervalBytes);
+		}
+		try {
+			if(convertFromCache()) {
+				return true;
+			}
+			loadResumeCheckpoint();
+			switch(_deviceVersion) {
+			case V1:
+				return processGT3XV1();
+			case V2:
+				return processGT3XV2();
+			default:
+				return false;
+			}
+		} finally {
+			if(_luxConverter != null) {
+				_luxConverter.close();
+				this._luxConverter = null;
+			}
+			if(!_metricsReported) {
+				// Failed without finishProcessing()
+				reportMetrics(false);
+			}
+		}
+	}
+	
+	/*
+	 * Looks up the conversion in the cache, if it is on. Replays its callbacks and returns true if
+	 * its files are still valid, otherwise sets up the recording of the files it creates.
+	 */
+	private boolean convertFromCache() {
+		this._cache = null;
+		this._createdFiles = null;
+		this._outputChecksums = null;
+		if(_cacheDirectory == null) {
 			return false;
 		}
+		try {
+			ConversionCache cache = new ConversionCache(_cacheDirectory, getInputFiles(), getOutputOptions());
+			if(cache.lookup(_cacheVerify)) {
+				if(_debug) System.out.println("Conversion cache hit ("+cache.getKey()+"), the output files are unchanged.");
+				for(ConversionCache.OutputFile file : cache.getFiles()) {
+					Calendar cal = Calendar.getInstance();
+					cal.setTimeInMillis(file.calendarMillis);
+					hourlyFileCreated(file.path, file.bytesRead, cal);
+				}
+				this._doneProcessing = true;
+				finishProcessing("OK", cache.getTotalBytes());
+				return true;
+			}
+			this._cache = cache;
+			this._createdFiles = new ArrayList<ConversionCache.OutputFile>();
+			this._outputChecksums = Collections.synchronizedMap(new HashMap<String,CRC32>());
+		} catch(IOException e) {
+			if(_debug) System.out.println("Warning: Could not look up the conversion cache, converting anyway. "+e.getMessage());
+		}
+		return false;
+	}
+	
+	/*
+	 * The gt3x file, or the files of an extracted gt3x file
+	 */
+	private List<File> getInputFiles() {
+		List<File> inputFiles = new ArrayList<File>();
+		if(_extractedDirectory != null) {
+			for(String name : EXTRACTED_CONTENT_FILES) {
+				File extractedFile = new File(_extractedDirectory, name);
+				if(extractedFile.isFile()) {
+					inputFiles.add(extractedFile);
+				}
+			}
+		} else {
+			inputFiles.add(new File(_inputFileFullPath));
+		}
+		return inputFiles;
+	}
+	
+	/*
+	 * Everything that changes the output files, their names or their paths
+	 */
+	private String getOutputOptions() {
+		return (_optionInGAcceleration ? "G" : "ADC")
+				+ "," + (_optionWithTimestamp ? "TIMESTAMP_ON" : "TIMESTAMP_OFF")
+				+ "," + (_optionSplit ? "SPLIT_ON" : "SPLIT_OFF")
+				+ "," + _outputDataType
+				+ "," + (_createSummaryFilesOn ? "SUMMARY_ON" : "SUMMARY_OFF")
+				+ "," + (_gzipOutput ? "GZIP_ON" : "GZIP_OFF")
+				+ ",FROM=" + _windowStart + ",TO=" + _windowEnd
+				+ ",STREAMS=" + _recordStreamTypes
+				+ "," + (_sparseGaps ? "SPARSE_GAPS_ON" : "SPARSE_GAPS_OFF")
+				+ ",EPOCHS=" + Arrays.toString(_epochSeconds) + ",METRICS=" + _epochMetrics
+				+ ",RESAMPLE=" + _outputSampleRate
+				+ "," + new File(_outputDirectory).getAbsolutePath();
+	}
+	
+	/*
+	 * Path, size and modification time of the input files, for the resume checkpoint
+	 */
+	private String getInputIdentity() {
+		StringBuilder identity = new StringBuilder(_inputFileFullPath);
+		for(File inputFile : getInputFiles()) {
+			identity.append(',').append(inputFile.getName()).append(':').append(inputFile.length()).append(':').append(inputFile.lastModified());
+		}
+		return identity.toString();
+	}
+	
+	private String getResumeCheckpointPath() {
+		return _outputDirectory + new File(_inputFileFullPath).getName() + ResumeCheckpoint.SUFFIX;
+	}
+	
+	/*
+	 * Looks up the checkpoint of a conversion to resume, if resuming is on. Replays the callbacks of the
+	 * files completed before it.
+	 */
+	private void loadResumeCheckpoint() {
+		this._resume = null;
+		if(!_resumable || !_optionSplit) {
+			return;
+		}
+		if(_createdFiles == null) {
+			this._createdFiles = new ArrayList<ConversionCache.OutputFile>();
+		}
+		ResumeCheckpoint checkpoint = ResumeCheckpoint.load(getResumeCheckpointPath(), getInputIdentity(), getOutputOptions());
+		if(checkpoint == null || !isResamplingState(checkpoint.resamplingState) || !isCountsState(checkpoint.countsState)) {
+			return;
+		}
+		if(_debug) System.out.println("Resuming the conversion at "+_mHealthUtils.dataSimpleDateFormat().format(checkpoint.hourTs)+" (offset "+checkpoint.offset+").");
+		for(ConversionCache.OutputFile file : checkpoint.files) {
+			Calendar cal = Calendar.getInstance();
+			cal.setTimeInMillis(file.calendarMillis);
+			hourlyFileCreated(file.path, file.bytesRead, cal);
+		}
+		this._resume = checkpoint;
+	}
+	
+	/*
+	 * The checkpoint the conversion resumes from, null if it starts from the beginning
+	 */
+	ResumeCheckpoint getResumeCheckpoint() {
+		return _resume;
+	}
+	
+	private ResumeCheckpoint newResumeCheckpoint() {
+		return new ResumeCheckpoint(getInputIdentity(), getOutputOptions());
+	}
+	
+	/*
+	 * Saves the checkpoint of a log.bin conversion at the start of an hourly file, once the previous
+	 * files are completed
+	 */
+	void saveResumeCheckpoint(final LogActivityProcessor.Position position, final long totalBytes, final ActivityCountSummaryCreator summaryCreator,
+			final LogRecordStreams streams) throws IOException {
+		ResumeCheckpoint checkpoint = newResumeCheckpoint();
+		checkpoint.setPosition(position, totalBytes);
+		if(streams != null) {
+			checkpoint.streamOffset = streams.getFirstPendingRecordOffset(position.recordOffset);
+		}
+		saveResumeCheckpoint(checkpoint, summaryCreator);
+	}
+	
+	private void saveResumeCheckpoint(final ResumeCheckpoint checkpoint, final ActivityCountSummaryCreator summaryCreator) throws IOException {
+		checkpoint.setSummary(summaryCreator);
+		checkpoint.files.addAll(_createdFiles);
+		checkpoint.save(getResumeCheckpointPath());
+	}
+	
+	/*
+	 * Writes the manifest of a conversion done with the cache on
+	 */
+	private void saveConversionCache(final long totalBytes) {
+		ConversionCache cache = _cache;
+		this._cache = null;
+		try {
+			for(ConversionCache.OutputFile file : _createdFiles) {
+				CRC32 crc = _outputChecksums.get(file.path);
+				// A file written before the conversion resumed is read again
+				file.crc = (crc != null) ? crc.getValue() : ConversionCache.crc(new File(file.path));
+				file.size = new File(file.path).length();
+				file.modified = new File(file.path).lastModified();
+			}
+			cache.save(_createdFiles, totalBytes);
+		} catch(IOException e) {
+			if(_debug) System.out.println("Warning: Could not save the conversion cache. "+e.getMessage());
+		}
 	}
 	
 	private void processInfoFile(final ZipEntry infoTxtZipEntry) throws IOException {
-		if(_sourceGt3x == null || infoTxtZipEntry == null) {
+		if((_sourceGt3x == null && _extractedDirectory == null) || infoTxtZipEntry == null) {
 			return;
 		}
-		BufferedReader in = new BufferedReader(new InputStreamReader(_sourceGt3x.getInputStream(infoTxtZipEntry)));
+		BufferedReader in = new BufferedReader(new InputStreamReader(openEntry(infoTxtZipEntry, false)));
 		while(in.ready()) {
 			String line = in.readLine();
 			if(line != null){
@@ -399,112 +1247,211 @@ public class GT3XFile {
 		}
 		//Parse activity.bin
 		if(_debug) System.out.println("Parsing activity data for GT3X version 1 format....");
+		if(_debug && hasTimeWindow()) System.out.println("Warning: The time window only applies to GT3X version 2 files, converting all of activity.bin.");
 		long startedTs = System.currentTimeMillis();
-		InputStream reader =_sourceGt3x.getInputStream(_activityData);								
-		//Read 2 XYZ samples at a time, each sample consists of 36 bits ... 2 full samples will be 9 bytes
-		byte[] bytes=new byte[9];	
-		int i=0;
-		int datum=0;
-		double timestamp=_startDate;
+		long blockOffset = (_resume != null) ? _resume.offset : 0; // of the block in activity.bin
+		InputStream reader = null;
+		AccelEncoder encoder = null;
+		EpochAggregator epochs = null;
+		OutputStreamWriter acWriter = null;
+		BufferedWriter acBw = null;
+		boolean completed = false;
+		try {
+			reader = openActivityInput(_activityData, blockOffset);
+			//Read 2 XYZ samples at a time, each sample consists of 36 bits ... 2 full samples will be 9 bytes
+			//activity.bin is read in blocks, an incomplete pair at the end of a block is carried over to the next one
+			byte[] bytes=new byte[ACTIVITY_BLOCK_SIZE];
+			int available=0;
+			int bytesRead=0;
+			boolean endOfData=false;
+			double timestamp=_startDate;
 		
-		// Calendar instance for callbacks
-		Calendar cal = Calendar.getInstance();
-		cal.setTimeInMillis((long) timestamp);
+			// Calendar instance for callbacks
+			Calendar cal = Calendar.getInstance();
+			cal.setTimeInMillis((long) timestamp);
 
-		// For ACCEL data
-		AccelPair twoSamples = new AccelPair(_optionInGAcceleration, _optionWithTimestamp, _sampleRate, _outputDataType);
-		AccelPairData accelPairData;
-		FileWriter writer = new FileWriter(_currOutputFile);
-		BufferedWriter bw = new BufferedWriter(writer);
-		bw.append(getAccelFileHeader()); // Add mHealth header
+			// For ACCEL data
+			AccelPair twoSamples = new AccelPair(_optionInGAcceleration, _optionWithTimestamp, _sampleRate, _outputDataType);
+			if(_resume != null) {
+				// Carry on with the hourly file of the checkpoint
+				timestamp = _resume.timestamp;
+				twoSamples.tsHelper.SetCount(_resume.timestampPhase);
+				_totalBytes = _resume.totalBytes;
+				_prevHourTs = _resume.hourTs;
+				_currMHealthFileName = getMHealthFileName(_resume.hourTs);
+				_currOutputFile = getOutputFile(_currMHealthFileName);
+				cal.setTimeInMillis(_resume.hourTs);
+			}
+			if(_luxData != null && _recordStreamTypes.contains(LogRecordType.LUX)) {
+				_luxConverter = new LuxBinConverter(this, _currMHealthFileName, (_resume != null) ? _resume.hourTs : _startDate);
+				_luxConverter.start();
+			}
+			AccelSampleBlock samples = new AccelSampleBlock(ACTIVITY_BLOCK_SIZE/9*2);
+			double summaryScale = _optionInGAcceleration ? GT3XFile.ACCELERATION_SCALE_FACTOR_NEO_CLE : 1.0; // activity counts in g or ADC values
+			encoder = createAccelEncoder(GT3XFile.ACCELERATION_SCALE_FACTOR_NEO_CLE);
+			encoder.open(createOutputStream(_currOutputFile));
+			if(_resume != null) {
+				setResamplingState(encoder, _resume.resamplingState);
+			}
+			epochs = createEpochAggregator(GT3XFile.ACCELERATION_SCALE_FACTOR_NEO_CLE);
+			if(epochs != null) {
+				openEpochFiles(epochs, _currMHealthFileName, _metrics);
+				if(_resume != null) {
+					epochs.setCountsState(_resume.countsState);
+				}
+			}
 		
-		// For Activity Count summary data
-		ActivityCountSummaryCreator acSummaryCreator = null;
-		FileWriter acWriter = null;
-		BufferedWriter acBw = null;
-		if(_createSummaryFilesOn) {
-			acSummaryCreator = new ActivityCountSummaryCreator();
-			this._currOutputSummaryFile = _outputDirectory+_mHealthUtils.getActivityCountMHealthFileName(_currMHealthFileName); 
-			acWriter = new FileWriter(_currOutputSummaryFile);
-			acBw = new BufferedWriter(acWriter);
-			acBw.append(getActivityCountFileHeader());
-		}
+			// For Activity Count summary data
+			ActivityCountSummaryCreator acSummaryCreator = null;
+			if(_createSummaryFilesOn) {
+				acSummaryCreator = new ActivityCountSummaryCreator();
+				this._currOutputSummaryFile = getOutputSummaryFile(_currMHealthFileName); 
+				acWriter = new OutputStreamWriter(createOutputStream(_currOutputSummaryFile));
+				acBw = new BufferedWriter(acWriter);
+				acBw.append(getActivityCountFileHeader());
+				if(_resume != null) {
+					_resume.restoreSummary(acSummaryCreator);
+				}
+			}
 		
-		StringBuilder filenameSb = new StringBuilder();
-		while ((datum=reader.read())!=-1){		
-			bytes[i] = (byte)datum;
-			_totalBytes++;
+			while (!endOfData) {
+				bytesRead = reader.read(bytes, available, bytes.length-available);
+				if(bytesRead < 0) {
+					endOfData = true;
+				} else {
+					available += bytesRead;
+				}
+				if(_progress != null) {
+					_progress.update((long)timestamp);
+				}
+				// Trailing bytes that don't make up a full pair are only looked at once all data is read
+				int end = endOfData ? available : available - available%9;
+				_metrics.enter(ConversionStage.DECODE);
+				int decoded = ActivityUnpacker.unpack(bytes, 0, available - available%9, samples);
+				_metrics.addSamplesDecoded(decoded);
+				_metrics.addRowsWritten(decoded);
+				_metrics.enter(ConversionStage.FORMAT);
+				int i = 0;
+				int index = 0;
+				for(; i<end; i+=9, index+=2) {
+					_totalBytes++;
 
-			if(_optionSplit) {
-				_currHourTs = GT3XUtils.GetCurrentHourTimestamp(timestamp);					
-				// Create a new file if hour changes...
-				if(_prevHourTs != _currHourTs) {
-					if(_prevHourTs!=0) {
-						// Close the previous file
-						bw.close();
-						writer.close();
-						hourlyFileCreated(_currOutputFile, _totalBytes, cal);
-						if(_createSummaryFilesOn) {
-							acBw.close();
-							acWriter.close();
-							hourlyFileCreated(_currOutputSummaryFile, _totalBytes, cal);
-						}	
-						
-						// Create the new file
-						_currMHealthFileName = _mHealthUtils.getMHealthFileName(_currHourTs, _deviceType.toString(), _firmware, _serialNumber, _timeZoneOffsetMHealth);
-						filenameSb.setLength(0);
-						filenameSb.append(_outputDirectory);
-						filenameSb.append(_currMHealthFileName);
-						_currOutputFile = filenameSb.toString();
-						writer = new FileWriter(_currOutputFile);
-						bw = new BufferedWriter(writer);
-						bw.append(getAccelFileHeader()); // Add mHealth header
+					if(_optionSplit) {
+						_currHourTs = GT3XUtils.GetCurrentHourTimestamp(timestamp);					
+						// Create a new file if hour changes...
+						if(_prevHourTs != _currHourTs) {
+							if(_prevHourTs!=0) {
+								_metrics.enter(ConversionStage.ROTATION);
+								// Close the previous file
+								encoder.close();
+								hourlyFileCreated(_currOutputFile, _totalBytes, cal);
+								if(_createSummaryFilesOn) {
+									acBw.close();
+									acWriter.close();
+									hourlyFileCreated(_currOutputSummaryFile, _totalBytes, cal);
+								}	
+								if(epochs != null) {
+									epochs.close();
+									epochFilesCompleted(_currMHealthFileName, _totalBytes, cal);
+								}
+								if(_luxConverter != null) {
+									streamFilesCompleted(_luxConverter.complete(_currHourTs), _totalBytes, cal);
+								}
+								if(_resumable) {
+									ResumeCheckpoint checkpoint = newResumeCheckpoint();
+									checkpoint.offset = blockOffset + i;
+									checkpoint.hourTs = _currHourTs;
+									checkpoint.timestamp = timestamp;
+									checkpoint.timestampPhase = twoSamples.tsHelper.GetCount();
+									checkpoint.totalBytes = _totalBytes - 1; // the pair is counted again when it is resumed
+									checkpoint.countsState = (epochs != null) ? epochs.getCountsState() : null;
+									checkpoint.resamplingState = getResamplingState(encoder);
+									saveResumeCheckpoint(checkpoint, acSummaryCreator);
+								}
+							
+								// Create the new file
+								_currMHealthFileName = _mHealthUtils.getMHealthFileName(_currHourTs, _deviceType.toString(), _firmware, _serialNumber, _timeZoneOffsetMHealth);
+								_currOutputFile = getOutputFile(_currMHealthFileName);
+								encoder.open(createOutputStream(_currOutputFile));
+								if(epochs != null) {
+									openEpochFiles(epochs, _currMHealthFileName, _metrics);
+								}
+								if(_createSummaryFilesOn) {
+									this._currOutputSummaryFile = getOutputSummaryFile(_currMHealthFileName); 
+									acWriter = new OutputStreamWriter(createOutputStream(_currOutputSummaryFile));
+									acBw = new BufferedWriter(acWriter);
+									acBw.append(getActivityCountFileHeader());
+								}
+							
+								cal.setTimeInMillis((long)_currHourTs); // Update calendar for callbacks
+								_metrics.enter(ConversionStage.FORMAT);
+							}
+							_prevHourTs = _currHourTs;
+						}
+					}
+
+					if (i+9 <= available){
+						_totalBytes+=8;
+						double t0 = timestamp;
+						timestamp = twoSamples.writePairToFile(encoder, timestamp, samples, index);
+						if(epochs != null) {
+							epochs.addPair(t0, twoSamples.getSecondTimestamp(), samples, index);
+						}
 						if(_createSummaryFilesOn) {
-							this._currOutputSummaryFile = _outputDirectory+_mHealthUtils.getActivityCountMHealthFileName(_currMHealthFileName); 
-							acWriter = new FileWriter(_currOutputSummaryFile);
-							acBw = new BufferedWriter(acWriter);
-							acBw.append(getActivityCountFileHeader());
+							// Process the data pair for activity count summary calculation
+							acSummaryCreator.processNewAccelData(acBw, (long)timestamp, samples, index, summaryScale, _mHealthUtils.dataSimpleDateFormat());
+							acSummaryCreator.processNewAccelData(acBw, (long)timestamp, samples, index+1, summaryScale, _mHealthUtils.dataSimpleDateFormat());
 						}
-						
-						cal.setTimeInMillis((long)_currHourTs); // Update calendar for callbacks
+					
+						_totalBytes+=2;
+					} else {
+						_totalBytes+=available-i-1;
 					}
-					_prevHourTs = _currHourTs;
 				}
-			}
-
-			if (++i==9){						
-				twoSamples.setAccelPair(bytes, GT3XFile.ACCELERATION_SCALE_FACTOR_NEO_CLE);
-				accelPairData = twoSamples.writeToFile(bw, timestamp, _mHealthUtils.dataSimpleDateFormat());
-				timestamp = accelPairData.timestamp();
-				if(_createSummaryFilesOn) {
-					// Process the data pair for activity count summary calculation
-					acSummaryCreator.processNewAccelData(acBw, (long)timestamp, accelPairData.first(), _mHealthUtils.dataSimpleDateFormat());
-					acSummaryCreator.processNewAccelData(acBw, (long)timestamp, accelPairData.second(), _mHealthUtils.dataSimpleDateFormat());
+				// Carry the incomplete pair over to the next block
+				if(!endOfData) {
+					System.arraycopy(bytes, i, bytes, 0, available-i);
+					available -= i;
+					blockOffset += i;
 				}
-				
-				_totalBytes+=2;
-//				if (_totalBytes%1000==0 && _debug) {
-//					System.out.print("\rConverting sample.... "+(_totalBytes/1000)+"K");
-//				}
-				i=0;				
-			}
-		}	
-		bw.close();
-		writer.close();
-		reader.close();
-		this._doneProcessing = true;
-		hourlyFileCreated(_currOutputFile, _totalBytes, cal);
-		if(_createSummaryFilesOn) {
-			acBw.close();
-			acWriter.close();
-			hourlyFileCreated(_currOutputSummaryFile, _totalBytes, cal);
-		}
-		finishProcessing("OK", _totalBytes);
-		if(_debug) {
-			System.out.println("Done: "+(Math.round((System.currentTimeMillis()-startedTs)/1000))+" seconds. Total bytes processed = "+_totalBytes);
-			System.out.println(this.toString());
+			}	
+			_metrics.enter(ConversionStage.ROTATION);
+			encoder.end();
+			encoder.close();
+			reader.close();
+			this._doneProcessing = true;
+			hourlyFileCreated(_currOutputFile, _totalBytes, cal);
+			if(_createSummaryFilesOn) {
+				acBw.close();
+				acWriter.close();
+				hourlyFileCreated(_currOutputSummaryFile, _totalBytes, cal);
+				_metrics.addRowsWritten(acSummaryCreator.getRowsWritten());
+			}
+			if(epochs != null) {
+				epochs.close();
+				epochFilesCompleted(_currMHealthFileName, _totalBytes, cal);
+				_metrics.addRowsWritten(epochs.getRowsWritten());
+			}
+			if(_luxConverter != null) {
+				streamFilesCompleted(_luxConverter.finish(_metrics), _totalBytes, cal);
+			}
+			finishProcessing("OK", _totalBytes);
+			if(_debug) {
+				System.out.println("Done: "+(Math.round((System.currentTimeMillis()-startedTs)/1000))+" seconds. Total bytes processed = "+_totalBytes);
+				System.out.println(this.toString());
+			}
+			completed = true;
+			return true;
+		} finally {
+			if(!completed) {
+				// Close what is still open, so that no output thread or file is left behind
+				GT3XUtils.closeQuietly(encoder);
+				GT3XUtils.closeQuietly(acBw);
+				GT3XUtils.closeQuietly(acWriter);
+				GT3XUtils.closeQuietly(epochs);
+				GT3XUtils.closeQuietly(reader);
+			}
 		}
-		return true;
 	}
 	
 	private boolean processGT3XV2() throws IOException {
@@ -512,301 +1459,397 @@ public class GT3XFile {
 			finishProcessing("Log data not found!", _totalBytes);
 			return false;
 		}
+		if(_parallelConversion && _optionSplit && !hasTimeWindow() && Runtime.getRuntime().availableProcessors() > 1) {
+			return new ParallelLogConverter(this).convert();
+		}
 		//Parse log.bin
 		if(_debug) System.out.println("Parsing activity data for GT3X version 2 format....");
 		long startedTs = System.currentTimeMillis();
-		InputStream reader =_sourceGt3x.getInputStream(_logData);
-		byte[] bytes=new byte[LogRecord.HEADER_SIZE];
-		int i=0;
-		int datum=0;
+		LogRecordStreams streams = createRecordStreams();
+		LogRecordReader reader = null;
+		LogFileSink sink = null;
+		boolean completed = false;
+		try {
+			reader = (_resume != null) ? openResumedLogReader(streams) : new LogRecordReader(openLogInput());
 		
-		LogRecord record = null;
-		boolean headerRead = false;
-		boolean payloadRead = false;
-		long logTimestamp = -1;
+			// Calendar instance for callbacks
+			Calendar cal = Calendar.getInstance();
+			cal.setTimeInMillis(Math.max(_startDate, _windowStart));
 		
-		double timestamp = _startDate;
-		this._delta = Math.round(1000.0/_sampleRate * 100d) / 100d; // round the delta to its second decimal
+			if(_resume != null) {
+				// Carry on with the hourly file of the checkpoint
+				_currMHealthFileName = getMHealthFileName(_resume.hourTs);
+				_currOutputFile = getOutputFile(_currMHealthFileName);
+				cal.setTimeInMillis(_resume.hourTs);
+			} else if(_windowStart > _startDate) {
+				// The first file starts with the window
+				_currMHealthFileName = getMHealthFileName(_windowStart);
+				_currOutputFile = getOutputFile(_currMHealthFileName);
+			}
 		
-		// Calendar instance for callbacks
-		Calendar cal = Calendar.getInstance();
-		cal.setTimeInMillis((long) timestamp);
+			// Set acceleration scale
+			double accelerationScale = getActivityAccelerationScale();
 		
-		// Set acceleration scale
-		double accelerationScale = 0.0;
-		if((_serialNumber.startsWith("NEO") || (_serialNumber.startsWith("CLE")))) {
-			accelerationScale = GT3XFile.ACCELERATION_SCALE_FACTOR_NEO_CLE;
-		} else if(_serialNumber.startsWith("MOS")){
-			accelerationScale = GT3XFile.ACCELERATION_SCALE_FACTOR_MOS;
-		} else {
-			accelerationScale = _accelerationScale;
+			sink = new LogFileSink(accelerationScale, cal);
+			sink._streams = streams;
+			LogActivityProcessor processor = new LogActivityProcessor(sink, _sampleRate, accelerationScale, _optionInGAcceleration, _optionSplit);
+			processor.setMetrics(_metrics, true);
+			setUpLogProcessor(processor);
+			sink._processor = processor;
+			LogActivityProcessor.Position start = null;
+			if(_resume != null) {
+				start = _resume.getPosition(_sampleRate);
+				processor.setTotalBytes(_resume.totalBytes);
+				_resume.restoreSummary(sink._acSummaryCreator);
+				if(sink._epochs != null) {
+					sink._epochs.setCountsState(start.countsState);
+				}
+				setResamplingState(sink._encoder, start.resamplingState);
+			}
+			processor.process(reader, start);
+			_totalBytes = processor.getTotalBytes();
+			saveInflateIndex(processor);
+		
+			_metrics.enter(ConversionStage.ROTATION);
+			sink._encoder.end();
+			sink._encoder.close();
+			reader.close();
+			this._doneProcessing = true;
+			hourlyFileCreated(_currOutputFile, _totalBytes, cal);
+			if(_createSummaryFilesOn) {
+				sink._acBw.close();
+				sink._acWriter.close();
+				hourlyFileCreated(_currOutputSummaryFile, _totalBytes, cal);
+				_metrics.addRowsWritten(sink._acSummaryCreator.getRowsWritten());
+			}
+			if(sink._gapMarkers != null) {
+				sink._gapMarkers.close();
+				hourlyFileCreated(sink._currOutputGapMarkerFile, _totalBytes, cal);
+				_metrics.addRowsWritten(sink._gapMarkers.getRowsWritten());
+			}
+			if(sink._epochs != null) {
+				sink._epochs.close();
+				epochFilesCompleted(_currMHealthFileName, _totalBytes, cal);
+				_metrics.addRowsWritten(sink._epochs.getRowsWritten());
+			}
+			if(streams != null) {
+				streamFilesCompleted(streams.finish(), _totalBytes, cal);
+			}
+			finishProcessing("OK", _totalBytes);
+			if(_debug) {
+				System.out.println("Done: "+(Math.round((System.currentTimeMillis()-startedTs)/1000))+" seconds. Total bytes processed = "+_totalBytes);
+				System.out.println(this.toString());
+			}
+			completed = true;
+			return true;
+		} finally {
+			if(!completed) {
+				// Close what is still open, so that no output thread or file is left behind
+				if(sink != null) {
+					sink.abort();
+				}
+				if(streams != null) {
+					streams.abort();
+				}
+				GT3XUtils.closeQuietly(reader);
+			}
 		}
-
+	}
+	
+	/*
+	 * Writes the V2 samples to the accel (and activity count) files, one after the other
+	 */
+	private class LogFileSink implements LogActivityProcessor.Sink {
+		
+		private LogActivityProcessor _processor;
+		private LogRecordStreams _streams = null; // of the other record types
+		private Calendar _cal;
+		private double _summaryScale;
+		
 		// For ACCEL data
-		AccelPair twoSamples = new AccelPair(_optionInGAcceleration, _optionWithTimestamp, _sampleRate, _outputDataType);
-		AccelPairData accelPairData;
-		FileWriter writer = new FileWriter(_currOutputFile);
-		BufferedWriter bw = new BufferedWriter(writer);
-		bw.append(getAccelFileHeader()); // Add mHealth header
+		private AccelEncoder _encoder;
+		private GapMarkerWriter _gapMarkers; // null unless the gaps are written as intervals
+		private String _currOutputGapMarkerFile = null;
+		private EpochAggregator _epochs; // null unless the epoch files are on
 		
 		// For Activity Count summary data
-		ActivityCountSummaryCreator acSummaryCreator = null;
-		FileWriter acWriter = null;
-		BufferedWriter acBw = null;
-		if(_createSummaryFilesOn) {
-			acSummaryCreator = new ActivityCountSummaryCreator();
-			this._currOutputSummaryFile = _outputDirectory+_mHealthUtils.getActivityCountMHealthFileName(_currMHealthFileName); 
-			acWriter = new FileWriter(_currOutputSummaryFile);
-			acBw = new BufferedWriter(acWriter);
-			acBw.append(getActivityCountFileHeader());
+		private ActivityCountSummaryCreator _acSummaryCreator = null;
+		private OutputStreamWriter _acWriter = null;
+		private BufferedWriter _acBw = null;
+		
+		LogFileSink(final double accelerationScale, final Calendar cal) throws IOException {
+			this._cal = cal;
+			this._summaryScale = _optionInGAcceleration ? accelerationScale : 1.0; // activity counts in g or ADC values
+			boolean opened = false;
+			try {
+				this._encoder = createAccelEncoder(accelerationScale);
+				_encoder.open(createOutputStream(_currOutputFile));
+				this._gapMarkers = createGapMarkerWriter();
+				if(_gapMarkers != null) {
+					_currOutputGapMarkerFile = getOutputGapMarkerFile(_currMHealthFileName);
+					_gapMarkers.open(createOutputStream(_currOutputGapMarkerFile));
+				}
+				this._epochs = createEpochAggregator(accelerationScale);
+				if(_epochs != null) {
+					openEpochFiles(_epochs, _currMHealthFileName, _metrics);
+				}
+				if(_createSummaryFilesOn) {
+					_acSummaryCreator = new ActivityCountSummaryCreator();
+					_currOutputSummaryFile = getOutputSummaryFile(_currMHealthFileName); 
+					_acWriter = new OutputStreamWriter(createOutputStream(_currOutputSummaryFile));
+					_acBw = new BufferedWriter(_acWriter);
+					_acBw.append(getActivityCountFileHeader());
+				}
+				opened = true;
+			} finally {
+				if(!opened) {
+					abort();
+				}
+			}
 		}
 		
-		StringBuilder filenameSb = new StringBuilder();
-		while ((datum=reader.read())!=-1){		
-			bytes[i] = (byte)datum;
-			_totalBytes++;
-
-			// Read header
-			if(!headerRead && !payloadRead && (++i==LogRecord.HEADER_SIZE)) {
-				record = new LogRecord();
-				record.setSeparator((byte)(bytes[0]&0xFF)); // Separator
-				record.setType((byte)(bytes[1]&0xFF)); // Type
-				logTimestamp = bytes[2]&0xFF;
-				logTimestamp |= (bytes[3]&0xFF)<<8;
-				logTimestamp |= (bytes[4]&0xFF)<<16;
-				logTimestamp |= (bytes[5]&0xFF)<<24;
-				record.setTimestamp((long)logTimestamp); // Timestamp
-				datum = bytes[6]&0xFF;
-				datum |= (bytes[7]&0xFF)<<8;
-				record.setPayloadSize((int)datum); // Payload size (little-endian)						
-
-				//System.out.println();
-				//System.out.print("Header="+GT3XUtils.bytesToHex(bytes)+". ");
-				//System.out.print("Separator="+record.getSeparator()+". ");
-				//System.out.print("Type="+record.getType()+". ");
-				//System.out.print("Timestamp="+record.getTimestamp()+". ");
-				//System.out.print("Payload="+record.getPayloadSize()+" bytes"+".");						
-
-				// Prepare to read payload
-				headerRead = true;
-				i = -1;
-				bytes = new byte[record.getPayloadSize()];
+		/*
+		 * Closes the open files after a failure
+		 */
+		void abort() {
+			GT3XUtils.closeQuietly(_encoder);
+			GT3XUtils.closeQuietly(_acBw);
+			GT3XUtils.closeQuietly(_acWriter);
+			GT3XUtils.closeQuietly(_gapMarkers);
+			GT3XUtils.closeQuietly(_epochs);
+		}
+		
+		@Override
+		public void record(final LogRecord record) throws IOException {
+			if(_progress != null) {
+				_progress.update(record.getTimestamp()*1000);
+			}
+			if(_streams != null) {
+				_streams.record(record, _processor.getRecordOffset());
+			}
+		}
+		
+		@Override
+		public boolean hourChanged(final long hourTs, final boolean inGap, final double timestamp) throws IOException {
+			if(inGap && _acSummaryCreator != null && _acBw != null) {
+				// Fill the data gap for the activitycount file before switching files,
+				// otherwise the last activity count data point spills over to the next file
+				_acSummaryCreator.processNewAccelData(_acBw, (long)timestamp, _processor.getPair().getLastRecordXYZ(_accelerationScale), _mHealthUtils.dataSimpleDateFormat());
 			}
+			ConversionStage previous = _metrics.enter(ConversionStage.ROTATION);
 			
-			// Read payload
-			if(headerRead && !payloadRead && (++i==record.getPayloadSize())) {
-				// Metadata: TYPE = 6
-				if(record.getType()==LogRecordType.METADATA.getId()) {
-					// TODO Take care of metadata?
-					//System.out.println("\nMetadata= "+GT3XUtils.bytesToHex(bytes)+"\n");
-				}
-				if(record.getType()==LogRecordType.PARAMETERS.getId()) {
-					// TODO Take care of parameters - look for ACCEL_SCALE?
-					//System.out.println("\nParameters= "+GT3XUtils.bytesToHex(bytes)+"\n");
-				}
-
-				record.setPayload(bytes); // Copy payload for verifying checksum later
-
-				// Prepare to verify checksum
-				payloadRead = true;
-				i = -1;
-				bytes = new byte[1];
+			// Close the previous file
+			_encoder.close();
+			hourlyFileCreated(_currOutputFile, _processor.getTotalBytes(), _cal);
+			if(_createSummaryFilesOn) {
+				_acBw.close();
+				_acWriter.close();
+				hourlyFileCreated(_currOutputSummaryFile, _processor.getTotalBytes(), _cal);
+			}
+			if(_gapMarkers != null) {
+				_gapMarkers.close();
+				hourlyFileCreated(_currOutputGapMarkerFile, _processor.getTotalBytes(), _cal);
+			}
+			if(_epochs != null) {
+				_epochs.close();
+				epochFilesCompleted(_currMHealthFileName, _processor.getTotalBytes(), _cal);
+			}
+			if(_streams != null) {
+				streamFilesCompleted(_streams.complete(hourTs), _processor.getTotalBytes(), _cal);
+			}
+			if(_resumable) {
+				LogActivityProcessor.Position position = _processor.getPosition(hourTs, timestamp);
+				position.countsState = (_epochs != null) ? _epochs.getCountsState() : null;
+				position.resamplingState = getResamplingState(_encoder);
+				saveResumeCheckpoint(position, _processor.getTotalBytes(), _acSummaryCreator, _streams);
 			}
 			
-			// Read checksum
-			if(headerRead && payloadRead && ++i==1) {						
-				// Process checksum to verify
-				byte chkSum = GT3XUtils.CalculateCheckSum(record, bytes[0]);
-				//System.out.print("\n--- Checksum= 0x"+GT3XUtils.bytesToHex(bytes[0])+". Calculated= 0x"+GT3XUtils.byteToHex(chkSum)+"\n\n");
-
-				// Write the data if checksum is verified
-				if(chkSum==0x1E) {
-					/*
-					// Activity2 data: TYPE = 26. For GT9X devices.
-					if(record.getType()==LogRecordType.ACTIVITY2.getId()) {
-						// TODO Add support for ACTIVITY2 LogRecord data type
-					}
-					*/
-					// Activity data: TYPE = 0
-					// Read 2 XYZ samples at a time, each sample consists of 36 bits ... 2 full samples = 9 bytes
-					if(record.getType()==LogRecordType.ACTIVITY.getId()) {								
-						int byteCounter = 0;
-						byte[] payloadBuffer = new byte[9];
-						timestamp = (double)(record.getTimestamp()*1000); // Multiply by 1000 to get milliseconds precision								
-
-						// Check for gaps in data and fill them out using the last known data points before those gaps occur
-						if(_lastRecordedTs!=0) {
-							long diff = (long)timestamp - _lastRecordedTs;
-							if(diff>0) {
-								long numSamplesMissing = (long)(diff/_delta);
-								double tempTimestamp = (double)_lastRecordedTs;
-								for(int j=0; j<numSamplesMissing; j++) {
-									if(_optionSplit) {
-										_currHourTs = GT3XUtils.GetCurrentHourTimestamp(tempTimestamp);
-										// Create a new file if hour changes...
-										if(_prevHourTs != _currHourTs) {
-											if(_prevHourTs!=0) {
-												// Fill the data gap for the activitycount file before switching files,
-												// otherwise the last activity count data point spills over to the next file
-												if(acSummaryCreator != null && acBw != null) {
-													acSummaryCreator.processNewAccelData(acBw, (long)tempTimestamp, twoSamples.getLastRecordXYZ(_accelerationScale), _mHealthUtils.dataSimpleDateFormat());
-												}
-												
-												// Close the previous file
-												bw.close();
-												writer.close();
-												hourlyFileCreated(_currOutputFile, _totalBytes, cal);
-												if(_createSummaryFilesOn) {
-													acBw.close();
-													acWriter.close();
-													hourlyFileCreated(_currOutputSummaryFile, _totalBytes, cal);
-												}
-												
-												// Create the new file
-												_currMHealthFileName = _mHealthUtils.getMHealthFileName(_currHourTs, _deviceType.toString(), _firmware, _serialNumber, _timeZoneOffsetMHealth);
-												filenameSb.setLength(0);
-												filenameSb.append(_outputDirectory);
-												filenameSb.append(_currMHealthFileName);
-												_currOutputFile = filenameSb.toString();
-												writer = new FileWriter(_currOutputFile);
-												bw = new BufferedWriter(writer);
-												bw.append(getAccelFileHeader()); // Add mHealth header
-												if(_createSummaryFilesOn) {
-													this._currOutputSummaryFile = _outputDirectory+_mHealthUtils.getActivityCountMHealthFileName(_currMHealthFileName); 
-													acWriter = new FileWriter(_currOutputSummaryFile);
-													acBw = new BufferedWriter(acWriter);
-													acBw.append(getActivityCountFileHeader());
-												}
-												
-												cal.setTimeInMillis((long)_currHourTs); // Update calendar for callbacks
-											}
-											_prevHourTs = _currHourTs;
-										}
-									}
-									// Fill the data gap for the activitycount file
-									if(acSummaryCreator != null && acBw != null) {
-										acSummaryCreator.processNewAccelData(acBw, (long)tempTimestamp, twoSamples.getLastRecordXYZ(_accelerationScale), _mHealthUtils.dataSimpleDateFormat());
-									}
-									// Fill the data gap for the accel file
-									tempTimestamp = fillDataGap(twoSamples, bw, tempTimestamp, _lastRecordedXYZ);
-								}										
-								//System.out.println("Before "+_mHealthUtils.dataSimpleDateFormat().format((long)timestamp)+". "+(diff/1000)+" sec gap. "+numSamplesMissing+" samples.");
-							}
-						}
-
-						// Write current payload
-						for(int j=0; j<record.getPayload().length; j++) {
-							payloadBuffer[byteCounter] = record.getPayload()[j];
-
-							if(_optionSplit) {
-								_currHourTs = GT3XUtils.GetCurrentHourTimestamp(timestamp);									
-								// Create a new file if hour changes...
-								if(_prevHourTs != _currHourTs) {
-									if(_prevHourTs!=0) {
-										// Close the previous file
-										bw.close();
-										writer.close();
-										hourlyFileCreated(_currOutputFile, _totalBytes, cal);
-										if(_createSummaryFilesOn) {
-											acBw.close();
-											acWriter.close();
-											hourlyFileCreated(_currOutputSummaryFile, _totalBytes, cal);
-										}
-										
-										// Create the new file
-										_currMHealthFileName = _mHealthUtils.getMHealthFileName(_currHourTs, _deviceType.toString(), _firmware, _serialNumber, _timeZoneOffsetMHealth);
-										_currOutputFile = _outputDirectory+_currMHealthFileName;
-										writer = new FileWriter(_currOutputFile);
-										bw = new BufferedWriter(writer);
-										bw.append(getAccelFileHeader()); // Add mHealth header
-										if(_createSummaryFilesOn) {
-											this._currOutputSummaryFile = _outputDirectory+_mHealthUtils.getActivityCountMHealthFileName(_currMHealthFileName); 
-											acWriter = new FileWriter(_currOutputSummaryFile);
-											acBw = new BufferedWriter(acWriter);
-											acBw.append(getActivityCountFileHeader());
-										}
-										
-										cal.setTimeInMillis((long)_currHourTs); // Update calendar for callbacks
-									}
-									_prevHourTs = _currHourTs;
-								}
-							}
-							if(++byteCounter==9) {
-								// Write the two samples from the current 9 bytes
-								twoSamples.setAccelPair(payloadBuffer, accelerationScale);										
-								accelPairData = twoSamples.writeToFile(bw, timestamp, _mHealthUtils.dataSimpleDateFormat());
-								timestamp = accelPairData.timestamp();
-								if(_createSummaryFilesOn) {
-									// Process the data pair for activity count summary calculation
-									acSummaryCreator.processNewAccelData(acBw, (long)timestamp, accelPairData.first(), _mHealthUtils.dataSimpleDateFormat());
-									acSummaryCreator.processNewAccelData(acBw, (long)timestamp, accelPairData.second(), _mHealthUtils.dataSimpleDateFormat());
-								}
-
-								// Save last recorded information (in case there is a gap following this data point)
-								_lastRecordedTs = (long)timestamp;
-								_lastRecordedXYZ = twoSamples.getLastRecordedXYZ(accelerationScale);
-
-								// Print progress
-								_totalBytes+=2;
-//								if (_totalBytes%1000==0 && _debug) {
-//									System.out.print("\rConverting sample.... "+(_totalBytes/1000)+"K");
-//								}
-								byteCounter = 0;
-							}
-						}
-					}
-				}
-
-				// Prepare to read the next log record
-				i = 0;
-				bytes = new byte[LogRecord.HEADER_SIZE];
-				headerRead = false;
-				payloadRead = false;
+			// Create the new file
+			_currMHealthFileName = getMHealthFileName(hourTs);
+			_currOutputFile = getOutputFile(_currMHealthFileName);
+			_encoder.open(createOutputStream(_currOutputFile));
+			if(_gapMarkers != null) {
+				_currOutputGapMarkerFile = getOutputGapMarkerFile(_currMHealthFileName);
+				_gapMarkers.open(createOutputStream(_currOutputGapMarkerFile));
+			}
+			if(_epochs != null) {
+				openEpochFiles(_epochs, _currMHealthFileName, _metrics);
+			}
+			if(_createSummaryFilesOn) {
+				_currOutputSummaryFile = getOutputSummaryFile(_currMHealthFileName); 
+				_acWriter = new OutputStreamWriter(createOutputStream(_currOutputSummaryFile));
+				_acBw = new BufferedWriter(_acWriter);
+				_acBw.append(getActivityCountFileHeader());
 			}
 			
-		}	
-		bw.close();
-		writer.close();
-		reader.close();
-		this._doneProcessing = true;
-		hourlyFileCreated(_currOutputFile, _totalBytes, cal);
-		if(_createSummaryFilesOn) {
-			acBw.close();
-			acWriter.close();
-			hourlyFileCreated(_currOutputSummaryFile, _totalBytes, cal);
+			_cal.setTimeInMillis(hourTs); // Update calendar for callbacks
+			_metrics.enter(previous);
+			return true;
 		}
-		finishProcessing("OK", _totalBytes);
-		if(_debug) {
-			System.out.println("Done: "+(Math.round((System.currentTimeMillis()-startedTs)/1000))+" seconds. Total bytes processed = "+_totalBytes);
-			System.out.println(this.toString());
+		
+		@Override
+		public void gapSamples(final long[] timestamps, final int count) throws IOException {
+			// Fill the data gap for the activitycount file, the values are the same for all the samples
+			if(_acSummaryCreator != null && _acBw != null) {
+				double magnitude = ActivityCountSummaryCreator.magnitude(_processor.getPair().getLastRecordXYZ(_accelerationScale));
+				_acSummaryCreator.addMagnitude(_acBw, timestamps, count, magnitude, _mHealthUtils.dataSimpleDateFormat());
+			}
+			AccelPair last = _processor.getPair();
+			if(_epochs != null) {
+				_epochs.addRepeated(timestamps, count, last.rawX(1), last.rawY(1), last.rawZ(1));
+			}
+			// Fill the data gap for the accel file, or mark it
+			_metrics.addGapSamplesFilled(count);
+			if(_gapMarkers != null) {
+				_gapMarkers.add(timestamps, count, _processor.getLastRecordedXYZ());
+				return;
+			}
+			_encoder.writeGapSamples(timestamps, count, last.rawX(1), last.rawY(1), last.rawZ(1), _processor.getLastRecordedXYZ());
+			_metrics.addRowsWritten(count);
+		}
+		
+		@Override
+		public void pair(final double t0, final double t1, final double next, final AccelSampleBlock samples, final int index) throws IOException {
+			if(_gapMarkers != null) {
+				_gapMarkers.end();
+			}
+			// Write the two samples
+			_encoder.writeSample(t0, samples.x()[index], samples.y()[index], samples.z()[index]);
+			_encoder.writeSample(t1, samples.x()[index+1], samples.y()[index+1], samples.z()[index+1]);
+			_metrics.addSamplesDecoded(2);
+			_metrics.addRowsWritten(2);
+			if(_createSummaryFilesOn) {
+				// Process the data pair for activity count summary calculation
+				_acSummaryCreator.processNewAccelData(_acBw, (long)next, samples, index, _summaryScale, _mHealthUtils.dataSimpleDateFormat());
+				_acSummaryCreator.processNewAccelData(_acBw, (long)next, samples, index+1, _summaryScale, _mHealthUtils.dataSimpleDateFormat());
+			}
+			if(_epochs != null) {
+				_epochs.addPair(t0, t1, samples, index);
+			}
+		}
+	}
+	
+	/*
+	 * Encoder of the accel files for the output data type, "accelerationScale" being the scale of the
+	 * samples. The samples are resampled first if the accel files have another sample rate.
+	 */
+	AccelEncoder createAccelEncoder(final double accelerationScale) {
+		AccelEncoder encoder;
+		if(_outputDataType == GT3XParserOutputDataType.BINARY) {
+			encoder = new AccelBinaryEncoder(_optionInGAcceleration, accelerationScale, getOutputSampleRate(), _serialNumber);
+		} else {
+			encoder = new AccelCsvEncoder(_optionInGAcceleration, _optionWithTimestamp, accelerationScale, _outputDataType, _mHealthUtils.dataTimestampFormatter());
+		}
+		if(getOutputSampleRate() != _sampleRate) {
+			encoder = new ResamplingAccelEncoder(encoder, _sampleRate, getOutputSampleRate());
+		}
+		return encoder;
+	}
+	
+	/*
+	 * State of the resampling of the accel files after the samples written so far to "encoder" (see
+	 * ResamplingAccelEncoder.getState()), null if they aren't resampled
+	 */
+	static String getResamplingState(final AccelEncoder encoder) {
+		return (encoder instanceof ResamplingAccelEncoder) ? ((ResamplingAccelEncoder)encoder).getState() : null;
+	}
+	
+	/*
+	 * Carries on with the resampling of getResamplingState() in "encoder"
+	 */
+	static void setResamplingState(final AccelEncoder encoder, final String state) {
+		if(encoder instanceof ResamplingAccelEncoder) {
+			((ResamplingAccelEncoder)encoder).setState(state);
+		}
+	}
+	
+	/*
+	 * Whether "state" is a state of the resampling of the accel files, or null
+	 */
+	private boolean isResamplingState(final String state) {
+		if(state == null) {
+			return true;
+		}
+		if(getOutputSampleRate() == _sampleRate) {
+			return false;
+		}
+		try {
+			new ResamplingAccelEncoder(null, _sampleRate, getOutputSampleRate()).setState(state);
+			return true;
+		} catch(IllegalArgumentException e) {
+			return false;
+		}
+	}
+	
+	private boolean isCountsState(final String state) {
+		if(state == null) {
+			return true;
+		}
+		try {
+			new ActiGraphCounts(_sampleRate).setState(state);
+			return true;
+		} catch(IllegalArgumentException e) {
+			return false;
 		}
-		return true;
 	}
 	
-	private double fillDataGap(final AccelPair ap, final BufferedWriter bw, double timestamp, final String lastKnownData) 
-			throws IOException {
-		if(_optionWithTimestamp) {
-			bw.append(_mHealthUtils.dataSimpleDateFormat().format((long)timestamp));
-			bw.append(',');
-			bw.append(lastKnownData);
-			if(_outputDataType == GT3XParserOutputDataType.ACTIGRAPH) bw.append('\r');
-			bw.append('\n');
+	/*
+	 * The scale (ADC counts per g) of the activity samples: fixed for the 12-bit samples of NEO, CLE
+	 * and MOS devices, the Acceleration Scale of info.txt for the others (e.g. the 16-bit ACTIVITY2
+	 * samples of GT9X Link devices), or the MOS scale if info.txt doesn't have it
+	 */
+	double getActivityAccelerationScale() {
+		if(_deviceVersion == DeviceVersion.V1) {
+			return GT3XFile.ACCELERATION_SCALE_FACTOR_NEO_CLE;
+		}
+		double accelerationScale = 0.0;
+		if((_serialNumber.startsWith("NEO") || (_serialNumber.startsWith("CLE")))) {
+			accelerationScale = GT3XFile.ACCELERATION_SCALE_FACTOR_NEO_CLE;
+		} else if(_serialNumber.startsWith("MOS")){
+			accelerationScale = GT3XFile.ACCELERATION_SCALE_FACTOR_MOS;
+		} else if(_accelerationScale > 0) {
+			accelerationScale = _accelerationScale;
 		} else {
-			bw.append(lastKnownData);
-			if(_outputDataType == GT3XParserOutputDataType.ACTIGRAPH) bw.append('\r');
-			bw.append('\n');
+			accelerationScale = GT3XFile.ACCELERATION_SCALE_FACTOR_MOS;
+		}
+		return accelerationScale;
+	}
+	
+	/*
+	 * Opens one of the gt3x content files (info.txt, log.bin, activity.bin...) for reading.
+	 * If "map" is set, extracted files and STORED zip entries are memory mapped.
+	 */
+	InputStream openEntry(final ZipEntry entry, final boolean map) throws IOException {
+		if(_extractedDirectory != null) {
+			File extractedFile = new File(_extractedDirectory, entry.getName());
+			if(map) {
+				FileChannel channel = new RandomAccessFile(extractedFile, "r").getChannel();
+				return new MappedInputStream(channel, 0, channel.size());
+			}
+			return new FileInputStream(extractedFile);
 		}
-		timestamp +=  ap.advanceTimestampHelper();
-		return timestamp;
+		if(map && entry.getMethod() == ZipEntry.STORED) {
+			FileChannel channel = new RandomAccessFile(_inputFileFullPath, "r").getChannel();
+			long offset = ZipEntryLocator.findStoredDataOffset(channel, entry);
+			if(offset >= 0) {
+				if(_debug) System.out.println("Memory mapping "+entry.getName()+" at offset "+offset+".");
+				return new MappedInputStream(channel, offset, entry.getSize());
+			}
+			channel.close();
+		}
+		return _sourceGt3x.getInputStream(entry);
 	}
 	
-	private void hourlyFileCreated(String filePath, long bytesRead, Calendar calendar) {
+	void hourlyFileCreated(String filePath, long bytesRead, Calendar calendar) {
+		if(_createdFiles != null) {
+			_createdFiles.add(new ConversionCache.OutputFile(filePath, bytesRead, calendar.getTimeInMillis()));
+		}
 		if(this.listener != null) {
 			listener.onHourlyFileCreated(filePath, "OK", bytesRead, _callbackMetadata, calendar);
 		}
 	}
 	
-	private void finishProcessing(String message, long totalBytes) {
+	void finishProcessing(String message, long totalBytes) {
 		if(this._sourceGt3x != null && this._doneProcessing) {
 			try {
 				_sourceGt3x.close();
@@ -814,16 +1857,39 @@ public class GT3XFile {
 				e.printStackTrace();
 			}
 		}
+		if(_progress != null && "OK".equals(message)) {
+			_progress.finish();
+		}
+		if(_metrics != null && !_metricsReported) {
+			reportMetrics("OK".equals(message));
+		}
+		if(_cache != null && "OK".equals(message)) {
+			saveConversionCache(totalBytes);
+		}
+		if(_resumable && "OK".equals(message)) {
+			new File(getResumeCheckpointPath()).delete();
+		}
 		if(this.listener != null) {
 			listener.onProcessingFinished(_inputFileFullPath, message, totalBytes, _callbackMetadata);
 		}
 	}
 	
-	private String getAccelFileHeader() {
-		return _optionWithTimestamp ? "HEADER_TIMESTAMP,X,Y,Z\n" : "X,Y,Z\n";
+	/*
+	 * Stops the metrics of the conversion and hands them to the listener and ConverterMetrics
+	 */
+	private void reportMetrics(final boolean succeeded) {
+		this._metricsReported = true;
+		_metrics.stop();
+		ConverterMetrics.getInstance().conversionFinished(_inputFileFullPath, _metrics, succeeded);
+		if(this.listener instanceof GT3XFileMetricsListener) {
+			((GT3XFileMetricsListener)listener).onMetrics(_inputFileFullPath, _metrics, _callbackMetadata);
+		}
+		if(_debug) {
+			System.out.print(_metrics.toString());
+		}
 	}
 	
-	private String getActivityCountFileHeader() {
+	String getActivityCountFileHeader() {
 		return _optionWithTimestamp ? "HEADER_TIMESTAMP,ACTIVITY_COUNT\n" : "ACTIVITY_COUNT\n";
 	}
 	
@@ -0,0 +1,338 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ * 
+ ******************************************************************************************/
+
+
+package com.qmedic.data.converter.gt3x;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.qmedic.data.converter.gt3x.enums.DeviceVersion;
+import com.qmedic.data.converter.gt3x.enums.GT3XParserOutputDataType;
+import com.qmedic.data.converter.gt3x.io.LogRecordReader;
+import com.qmedic.data.converter.gt3x.model.AccelSample;
+import com.qmedic.data.converter.gt3x.model.AccelSampleBlock;
+import com.qmedic.data.converter.gt3x.model.LogRecord;
+import com.qmedic.data.converter.gt3x.utils.ActivityUnpacker;
+import com.qmedic.data.converter.gt3x.utils.GT3XUtils;
+
+/*
+ * Pull-based access to the decoded accelerometer samples of a gt3x file (V1 activity.bin or V2 log.bin),
+ * for use as a library without going through CSV files.
+ * 
+ * Usage:
+ *   GT3XReader reader = GT3XReader.open("/path/to/file.gt3x", true);
+ *   while(reader.next()) {
+ *       long ts = reader.timestampMillis();
+ *       double x = reader.x(); // or reader.rawX() for the ADC value
+ *   }
+ *   reader.close();
+ * 
+ * Timestamps and gap filling follow the same rules as GT3XFile.convertToMHealth(), so the samples
+ * are the rows of the converter's CSV output.
+ */
+public class GT3XReader implements Closeable {
+
+	private GT3XFile _gt3xFile;
+	private boolean _fillGaps;
+	private double _accelerationScale;
+	private double _delta;
+	private AccelPair _pair; // for its timestamp helper
+	private AccelSampleBlock _samples;
+	
+	// V1 activity.bin
+	private InputStream _activityIn = null;
+	private byte[] _activityBuffer = null;
+	private int _activityPosition = 0;
+	private int _activityLimit = 0;
+	
+	// V2 log.bin
+	private LogRecordReader _logReader = null;
+	private long _lastRecordedTs = 0;
+	private long _gapRemaining = 0;
+	private double _gapTimestamp = 0;
+	
+	// Cursor
+	private double _timestamp;
+	private int _sampleIndex = 0; // next sample of the block to hand out
+	private short _lastX = 0;
+	private short _lastY = 0;
+	private short _lastZ = 0;
+	private long _currentTs = 0;
+	private short _currentX = 0;
+	private short _currentY = 0;
+	private short _currentZ = 0;
+	private boolean _currentGapFill = false;
+	
+	/*
+	 * Opens a gt3x file (or an extracted gt3x, see GT3XFile.init) for reading.
+	 * If fillGaps is set, samples missing from V2 files (e.g. idle sleep mode) are filled in with the
+	 * last known sample, as in the converter's CSV output.
+	 */
+	public static GT3XReader open(final String inputFilePath, final boolean fillGaps) throws IOException {
+		GT3XFile gt3xFile = new GT3XFile(inputFilePath);
+		if(!gt3xFile.initInput(null)) {
+			throw new IOException(inputFilePath+" is not a valid GT3X file.");
+		}
+		return new GT3XReader(gt3xFile, fillGaps);
+	}
+	
+	/*
+	 * Reads the samples of a GT3XFile that was already initialized, for example to use its
+	 * memory mapped input option. The reader takes over (and closes) the file's input.
+	 */
+	public GT3XReader(final GT3XFile gt3xFile, final boolean fillGaps) throws IOException {
+		this._gt3xFile = gt3xFile;
+		this._fillGaps = fillGaps;
+		this._accelerationScale = gt3xFile.getActivityAccelerationScale();
+		this._delta = Math.round(1000.0/gt3xFile.getSampleRate() * 100d) / 100d; // round the delta to its second decimal
+		this._pair = new AccelPair(true, true, gt3xFile.getSampleRate(), GT3XParserOutputDataType.MHEALTH);
+		this._samples = new AccelSampleBlock(LogRecordReader.DEFAULT_BUFFER_SIZE / ActivityUnpacker.PAIR_SIZE * 2);
+		this._timestamp = gt3xFile.getStartDate();
+		
+		if(gt3xFile.getDeviceVersion() == DeviceVersion.V1 && gt3xFile.getActivityData() != null) {
+			this._activityIn = gt3xFile.openEntry(gt3xFile.getActivityData(), gt3xFile.memoryMappedInputOn());
+			this._activityBuffer = new byte[LogRecordReader.DEFAULT_BUFFER_SIZE / ActivityUnpacker.PAIR_SIZE * ActivityUnpacker.PAIR_SIZE];
+		} else if(gt3xFile.getDeviceVersion() == DeviceVersion.V2 && gt3xFile.getLogData() != null) {
+			this._logReader = new LogRecordReader(gt3xFile.openEntry(gt3xFile.getLogData(), gt3xFile.memoryMappedInputOn()));
+		} else {
+			gt3xFile.closeInput();
+			throw new IOException("Source GT3X file or its version is unknown.");
+		}
+	}
+	
+	/*
+	 * Moves the cursor to the next sample. Returns false once all samples have been read.
+	 */
+	public boolean next() throws IOException {
+		while(true) {
+			if(_gapRemaining > 0) {
+				_gapRemaining--;
+				_currentTs = (long)_gapTimestamp;
+				_currentX = _lastX;
+				_currentY = _lastY;
+				_currentZ = _lastZ;
+				_currentGapFill = true;
+				_gapTimestamp += _pair.advanceTimestampHelper();
+				return true;
+			}
+			if(_sampleIndex < _samples.size()) {
+				_currentTs = (long)_timestamp;
+				_currentX = _lastX = _samples.x()[_sampleIndex];
+				_currentY = _lastY = _samples.y()[_sampleIndex];
+				_currentZ = _lastZ = _samples.z()[_sampleIndex];
+				_currentGapFill = false;
+				_timestamp += _pair.advanceTimestampHelper();
+				if((++_sampleIndex & 1) == 0) {
+					// End of a pair
+					_lastRecordedTs = (long)_timestamp;
+				}
+				return true;
+			}
+			boolean dataLeft = (_logReader != null) ? readLogRecord() : readActivityBlock();
+			if(!dataLeft) {
+				return false;
+			}
+		}
+	}
+	
+	public long timestampMillis() {
+		return _currentTs;
+	}
+	
+	/*
+	 * Acceleration in g
+	 */
+	public double x() {
+		return _currentX/_accelerationScale;
+	}
+	
+	public double y() {
+		return _currentY/_accelerationScale;
+	}
+	
+	public double z() {
+		return _currentZ/_accelerationScale;
+	}
+	
+	/*
+	 * Acceleration as raw ADC values
+	 */
+	public short rawX() {
+		return _currentX;
+	}
+	
+	public short rawY() {
+		return _currentY;
+	}
+	
+	public short rawZ() {
+		return _currentZ;
+	}
+	
+	/*
+	 * Whether the current sample was filled in for a gap in the data
+	 */
+	public boolean isGapFill() {
+		return _currentGapFill;
+	}
+	
+	public int getSampleRate() {
+		return _gt3xFile.getSampleRate();
+	}
+	
+	public double getAccelerationScale() {
+		return _accelerationScale;
+	}
+	
+	public String getSerialNumber() {
+		return _gt3xFile.getSerialNumber();
+	}
+	
+	/*
+	 * Snapshot of the current sample
+	 */
+	public AccelSample sample() {
+		return new AccelSample(_currentTs, _currentX, _currentY, _currentZ, _accelerationScale, _currentGapFill);
+	}
+	
+	/*
+	 * Spliterator over the remaining samples. IOExceptions are rethrown as UncheckedIOException.
+	 */
+	public Spliterator<AccelSample> spliterator() {
+		return new Spliterators.AbstractSpliterator<AccelSample>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE) {
+			@Override
+			public boolean tryAdvance(Consumer<? super AccelSample> action) {
+				try {
+					if(!next()) {
+						return false;
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				action.accept(sample());
+				return true;
+			}
+		};
+	}
+	
+	/*
+	 * Sequential stream over the remaining samples, closing the stream closes the reader
+	 */
+	public Stream<AccelSample> samples() {
+		return StreamSupport.stream(spliterator(), false).onClose(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					close();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		});
+	}
+	
+	public void close() throws IOException {
+		if(_activityIn != null) {
+			_activityIn.close();
+		}
+		if(_logReader != null) {
+			_logReader.close();
+		}
+		_gt3xFile.closeInput();
+	}
+	
+	/*
+	 * Decodes the next block of full pairs of activity.bin
+	 */
+	private boolean readActivityBlock() throws IOException {
+		// Carry the incomplete pair over and refill the buffer
+		System.arraycopy(_activityBuffer, _activityPosition, _activityBuffer, 0, _activityLimit - _activityPosition);
+		_activityLimit -= _activityPosition;
+		_activityPosition = 0;
+		int n = 0;
+		while(_activityLimit < _activityBuffer.length 
+				&& (n = _activityIn.read(_activityBuffer, _activityLimit, _activityBuffer.length - _activityLimit)) >= 0) {
+			_activityLimit += n;
+		}
+		int length = _activityLimit - _activityLimit%ActivityUnpacker.PAIR_SIZE;
+		if(length == 0) {
+			return false;
+		}
+		ActivityUnpacker.unpack(_activityBuffer, 0, length, _samples);
+		_activityPosition = length;
+		_sampleIndex = 0;
+		return true;
+	}
+	
+	/*
+	 * Decodes the full pairs of the next ACTIVITY (or ACTIVITY2) record of log.bin, and sets up the gap in front of it
+	 * so that it is handed out (with the last known sample) before the record's own samples. Records
+	 * without a full pair (e.g. idle sleep mode markers) still count for the gaps.
+	 */
+	private boolean readLogRecord() throws IOException {
+		LogRecord record;
+		while((record = _logReader.next()) != null) {
+			int pairSize = ActivityUnpacker.pairSize(record.getType());
+			if(pairSize == 0 || GT3XUtils.CalculateCheckSum(record, record.getChecksum()) != 0x1E) {
+				continue;
+			}
+			_timestamp = (double)(record.getTimestamp()*1000); // Multiply by 1000 to get milliseconds precision
+			int length = record.getPayloadSize() - record.getPayloadSize()%pairSize;
+			ActivityUnpacker.unpack(record.getType(), record.getPayloadBuffer(), record.getPayloadOffset(), length, _samples);
+			_sampleIndex = 0;
+			
+			// Gaps before this record. The timestamp helper is advanced even if they are not filled in,
+			// so the timestamps of the recorded samples are the same either way.
+			if(_lastRecordedTs != 0) {
+				long diff = (long)_timestamp - _lastRecordedTs;
+				if(diff > 0) {
+					long numSamplesMissing = (long)(diff/_delta);
+					if(_fillGaps) {
+						_gapRemaining = numSamplesMissing;
+						_gapTimestamp = (double)_lastRecordedTs;
+					} else {
+						for(long j=0; j<numSamplesMissing; j++) {
+							_pair.advanceTimestampHelper();
+						}
+					}
+				}
+			}
+			if(_gapRemaining > 0 || _samples.size() > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
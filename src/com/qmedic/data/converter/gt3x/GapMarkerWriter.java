@@ -0,0 +1,124 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+
+import com.qmedic.data.converter.gt3x.utils.TimestampFormatter;
+
+/*
+ * Writes the data gaps of the V2 accel files as intervals, to mHealth files of their own named like
+ * the accel file of the same hour with the data type "GapMarkers" (SPARSE_GAPS_ON), instead of
+ * filling them in with a row per missing sample. A row has the timestamps of the first and last
+ * missing samples of a gap in that hour, their number and the values they would have been filled
+ * in with. The gap samples of a gap come in batches (see LogActivityProcessor.Sink.gapSamples()),
+ * they make up one row until end() is called.
+ */
+class GapMarkerWriter implements Closeable {
+
+	static final String DATA_TYPE = "GapMarkers";
+	private static final String HEADER = "HEADER_TIMESTAMP,STOP_TIMESTAMP,SAMPLES,X,Y,Z\n";
+	
+	private TimestampFormatter _formatter;
+	private BufferedWriter _writer = null;
+	private long _rowsWritten = 0;
+	
+	// The gap of the row being merged
+	private long _count = 0;
+	private long _firstTs;
+	private long _lastTs;
+	private String _values;
+	
+	GapMarkerWriter(final TimestampFormatter formatter) {
+		this._formatter = formatter.copy();
+	}
+	
+	/*
+	 * Starts writing a new file, the previous one (if any) is completed and closed
+	 */
+	void open(final OutputStream out) throws IOException {
+		close();
+		_writer = new BufferedWriter(new OutputStreamWriter(out, Charset.forName("US-ASCII")));
+		_writer.write(HEADER);
+	}
+	
+	/*
+	 * Adds the first "count" timestamps, missing samples filled in with "values", to the gap
+	 */
+	void add(final long[] timestamps, final int count, final String values) throws IOException {
+		if(count == 0) {
+			return;
+		}
+		if(_count > 0 && (timestamps[0] <= _lastTs || !values.equals(_values))) {
+			end(); // not the same gap
+		}
+		if(_count == 0) {
+			_firstTs = timestamps[0];
+			_values = values;
+		}
+		_lastTs = timestamps[count-1];
+		_count += count;
+	}
+	
+	/*
+	 * Writes the row of the gap, if any
+	 */
+	void end() throws IOException {
+		if(_count > 0) {
+			_writer.write(_formatter.format(_firstTs));
+			_writer.write(',');
+			_writer.write(_formatter.format(_lastTs));
+			_writer.write(',');
+			_writer.write(Long.toString(_count));
+			_writer.write(',');
+			_writer.write(_values);
+			_writer.write('\n');
+			_rowsWritten++;
+			_count = 0;
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if(_writer != null) {
+			end();
+			_writer.close();
+			_writer = null;
+		}
+	}
+	
+	long getRowsWritten() {
+		return _rowsWritten;
+	}
+}
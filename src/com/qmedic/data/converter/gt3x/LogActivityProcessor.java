@@ -0,0 +1,528 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.qmedic.data.converter.gt3x.enums.ConversionStage;
+import com.qmedic.data.converter.gt3x.enums.GT3XParserOutputDataType;
+import com.qmedic.data.converter.gt3x.enums.LogRecordType;
+import com.qmedic.data.converter.gt3x.io.LogRecordReader;
+import com.qmedic.data.converter.gt3x.model.AccelSampleBlock;
+import com.qmedic.data.converter.gt3x.model.ConversionMetrics;
+import com.qmedic.data.converter.gt3x.model.LogRecord;
+import com.qmedic.data.converter.gt3x.utils.ActivityUnpacker;
+import com.qmedic.data.converter.gt3x.utils.GT3XUtils;
+import com.qmedic.data.converter.gt3x.utils.TimestampHelper;
+
+/*
+ * The conversion loop over the ACTIVITY (or ACTIVITY2) records of a V2 log.bin: record timestamps, gap filling and
+ * hourly splits. What is done with the samples, the filled in samples and the hour changes is up to a
+ * Sink, so the same loop drives the sequential conversion and the parallel one (its scan and its
+ * hourly units, see ParallelLogConverter).
+ */
+class LogActivityProcessor {
+
+	private static final int GAP_BATCH_SIZE = 4096; // gap samples handed out at once
+
+	interface Sink {
+		/*
+		 * Every record read, before it is processed
+		 */
+		void record(LogRecord record) throws IOException;
+		
+		/*
+		 * The hour changed (SPLIT only, not called for the first hour), while filling a gap if "inGap" is set.
+		 * "timestamp" is the one of the gap sample or pair about to be written. Returning false stops the
+		 * processing right there.
+		 */
+		boolean hourChanged(long hourTs, boolean inGap, double timestamp) throws IOException;
+		
+		/*
+		 * The first "count" timestamps are missing samples, to be filled in with the last recorded values
+		 * (see getLastRecordedXYZ() and getPair()). A gap comes in several calls if it is long or goes over
+		 * an hour change, the array is reused afterwards.
+		 */
+		void gapSamples(long[] timestamps, int count) throws IOException;
+		
+		/*
+		 * Samples "index" and "index+1" of the block, at t0 and t1. "next" is the timestamp following them.
+		 */
+		void pair(double t0, double t1, double next, AccelSampleBlock samples, int index) throws IOException;
+	}
+	
+	/*
+	 * Where the processing was, and in which state, when an hour changed. Processing can resume from it.
+	 */
+	static final class Position {
+		final long recordOffset; // of the record in log.bin
+		final boolean inGap;
+		final int j; // gap sample or payload byte
+		final double timestamp; // of that gap sample or pair
+		final long hourTs;
+		final TimestampHelper tsHelper;
+		final long lastRecordedTs;
+		final String lastRecordedXYZ;
+		final AccelSampleBlock lastPair;
+		String countsState = null; // of the epoch files, set by the sink (see EpochAggregator.getCountsState())
+		String resamplingState = null; // of the accel files, set by the sink (see GT3XFile.getResamplingState())
+		
+		private Position(final LogActivityProcessor processor, final double timestamp, final long hourTs) {
+			this.recordOffset = processor._recordOffset;
+			this.inGap = processor._inGap;
+			this.j = processor._j;
+			this.timestamp = timestamp;
+			this.hourTs = hourTs;
+			this.tsHelper = new TimestampHelper(processor._pair.tsHelper);
+			this.lastRecordedTs = processor._lastRecordedTs;
+			this.lastRecordedXYZ = processor._lastRecordedXYZ;
+			this.lastPair = new AccelSampleBlock(2);
+			for(int i=0; i<2; i++) {
+				lastPair.x()[i] = processor._pair.rawX(i);
+				lastPair.y()[i] = processor._pair.rawY(i);
+				lastPair.z()[i] = processor._pair.rawZ(i);
+			}
+			lastPair.setSize(2);
+		}
+		
+		/*
+		 * A position saved before, see ResumeCheckpoint
+		 */
+		Position(final long recordOffset, final boolean inGap, final int j, final double timestamp, final long hourTs,
+				final TimestampHelper tsHelper, final long lastRecordedTs, final String lastRecordedXYZ, final AccelSampleBlock lastPair) {
+			this.recordOffset = recordOffset;
+			this.inGap = inGap;
+			this.j = j;
+			this.timestamp = timestamp;
+			this.hourTs = hourTs;
+			this.tsHelper = tsHelper;
+			this.lastRecordedTs = lastRecordedTs;
+			this.lastRecordedXYZ = lastRecordedXYZ;
+			this.lastPair = lastPair;
+		}
+	}
+	
+	private Sink _sink;
+	private double _accelerationScale;
+	private boolean _split;
+	private double _delta;
+	private AccelPair _pair; // for its timestamp helper and the last recorded values
+	private AccelSampleBlock _samples = new AccelSampleBlock(LogRecordReader.DEFAULT_BUFFER_SIZE/9*2);
+	private long[] _gapTimestamps = new long[GAP_BATCH_SIZE];
+	
+	// Scan only (see scanOnly()): the pairs are decoded when asked for
+	private boolean _scanOnly = false;
+	private LogRecord _record = null;
+	private int _pairOffset = -1; // of the last pair handed out in the payload of _record, not decoded yet
+	private byte[] _tail = new byte[12]; // last pair of the last record with pairs, not decoded yet if _tailType >= 0
+	private int _tailType = -1;
+	private AccelSampleBlock _tailSamples = new AccelSampleBlock(2);
+	
+	private long _lastRecordedTs = 0;
+	private String _lastRecordedXYZ = null;
+	private long _prevHourTs = 0;
+	private long _hourEnd = 0; // of the hour of _prevHourTs
+	private long _totalBytes = 0;
+	
+	// Current position
+	private long _recordOffset = 0;
+	private boolean _inGap = false;
+	private int _j = 0;
+	private ConversionMetrics _metrics = null;
+	private boolean _countRecords = false;
+	private double _windowStart = 0;
+	private double _windowEnd = Double.MAX_VALUE;
+	private boolean _readToEnd = false;
+	private TreeMap<Long,Integer> _timestampPhases = null; // record offset -> timestamp helper phase from that record on
+	
+	/*
+	 * "accelerationScale" is the scale of the activity samples (see GT3XFile.getActivityAccelerationScale())
+	 */
+	LogActivityProcessor(final Sink sink, final int sampleRate, final double accelerationScale, final boolean inGAcceleration, final boolean split) {
+		this._sink = sink;
+		this._accelerationScale = accelerationScale;
+		this._split = split;
+		this._delta = Math.round(1000.0/sampleRate * 100d) / 100d; // round the delta to its second decimal
+		this._pair = new AccelPair(inGAcceleration, false, sampleRate, GT3XParserOutputDataType.MHEALTH);
+	}
+	
+	/*
+	 * Times the stages of the processing in "metrics", and counts the records and checksum failures
+	 * if "countRecords" is set (only one of the processors going over the same records should)
+	 */
+	void setMetrics(final ConversionMetrics metrics, final boolean countRecords) {
+		this._metrics = metrics;
+		this._countRecords = countRecords;
+	}
+	
+	/*
+	 * Only hands out the samples (and gap samples) from "fromMillis" (included) to "toMillis" (excluded).
+	 * The processing stops at the first one after the window, unless "readToEnd" is set. A pair goes with
+	 * its first sample.
+	 */
+	void setTimeWindow(final long fromMillis, final long toMillis, final boolean readToEnd) {
+		this._windowStart = fromMillis;
+		this._windowEnd = (toMillis == Long.MAX_VALUE) ? Double.MAX_VALUE : toMillis;
+		this._readToEnd = readToEnd;
+	}
+	
+	/*
+	 * Only follows the record headers and the timestamps (hour changes and gaps): the samples are not
+	 * decoded, no pairs or gap samples are handed out to the sink, and the timestamps of a record or a
+	 * gap that stays in the hour are counted at once. The last pair (see getPair(), getLastRecordedXYZ()
+	 * and getPosition()) is only decoded when asked for.
+	 */
+	void scanOnly() {
+		this._scanOnly = true;
+	}
+	
+	/*
+	 * Keeps track of the phase of the timestamp helper at the ACTIVITY records, see getTimestampPhase()
+	 */
+	void trackTimestampPhases() {
+		this._timestampPhases = new TreeMap<Long,Integer>();
+	}
+	
+	/*
+	 * Phase of the timestamp helper at the first sample of the ACTIVITY record at "recordOffset" in log.bin
+	 * (after filling the gap before it). Processing can start at that record with setTimestampPhase(), with
+	 * the same timestamps. Rates that don't divide 1000 have ticks of different lengths, whose order depends
+	 * on all samples (and gap samples) before.
+	 */
+	int getTimestampPhase(final long recordOffset) {
+		Map.Entry<Long,Integer> phase = _timestampPhases.floorEntry(recordOffset);
+		return (phase != null) ? phase.getValue() : 0;
+	}
+	
+	void setTimestampPhase(final int phase) {
+		_pair.tsHelper.SetCount(phase);
+	}
+	
+	private void enter(final ConversionStage stage) {
+		if(_metrics != null) {
+			_metrics.enter(stage);
+		}
+	}
+	
+	/*
+	 * Processes all records of the reader. If "resume" is set, the reader starts with the record of that
+	 * position and the processing carries on from there, in the state it was in.
+	 * Returns false if the sink stopped the processing.
+	 * See setTimeWindow() as well.
+	 */
+	boolean process(final LogRecordReader reader, final Position resume) throws IOException {
+		long baseOffset = 0;
+		if(resume != null) {
+			baseOffset = resume.recordOffset - reader.getBytesRead(); // the reader may have read the records before it
+			_pair.tsHelper = new TimestampHelper(resume.tsHelper);
+			_pair.setAccelPair(resume.lastPair, 0);
+			_lastRecordedTs = resume.lastRecordedTs;
+			_lastRecordedXYZ = resume.lastRecordedXYZ;
+			_prevHourTs = resume.hourTs;
+			_hourEnd = _prevHourTs + GT3XUtils.MILLIS_IN_HOUR;
+		}
+		boolean resuming = (resume != null);
+		LogRecord record = null;
+		enter(ConversionStage.PARSE);
+		while ((record = reader.next()) != null) {
+			_recordOffset = baseOffset + reader.getBytesRead() - record.getRecordSize();
+			if(!resuming) {
+				_totalBytes += record.getRecordSize();
+			}
+			_sink.record(record);
+			
+			// Metadata: TYPE = 6
+			if(record.getType()==LogRecordType.METADATA.getId()) {
+				// TODO Take care of metadata?
+			}
+			if(record.getType()==LogRecordType.PARAMETERS.getId()) {
+				// TODO Take care of parameters - look for ACCEL_SCALE?
+			}
+			
+			// Process checksum to verify
+			byte chkSum = GT3XUtils.CalculateCheckSum(record, record.getChecksum());
+			if(_countRecords) {
+				_metrics.addRecord(record.getType());
+				if(chkSum!=0x1E) {
+					_metrics.addChecksumFailure();
+				}
+			}
+			// Write the data if checksum is verified
+			if(chkSum==0x1E) {
+				// Activity data: TYPE = 0, 2 XYZ samples of 36 bits each per 9 bytes
+				// Activity2 data: TYPE = 26 (GT9X devices), 2 XYZ samples of 16-bit values per 12 bytes
+				int pairSize = ActivityUnpacker.pairSize(record.getType());
+				if(pairSize > 0) {
+					double timestamp = (double)(record.getTimestamp()*1000); // Multiply by 1000 to get milliseconds precision
+					int payloadStart = 0;
+					
+					if(resuming && !resume.inGap) {
+						// Resume right at the pair (the gap before it was already filled)
+						timestamp = resume.timestamp;
+						payloadStart = resume.j;
+					} else if(_lastRecordedTs!=0) {
+						// Check for gaps in data and fill them out using the last known data points before those gaps occur
+						long diff = (long)timestamp - _lastRecordedTs;
+						if(diff>0) {
+							enter(ConversionStage.FORMAT);
+							long numSamplesMissing = (long)(diff/_delta);
+							double tempTimestamp = (double)_lastRecordedTs;
+							int gapStart = 0;
+							if(resuming) {
+								tempTimestamp = resume.timestamp;
+								gapStart = resume.j;
+							}
+							// The gap samples go to the sink in batches, cut at hour changes
+							_inGap = true;
+							int count = 0;
+							int j = gapStart;
+							if(_scanOnly && j < numSamplesMissing) {
+								int phase = _pair.tsHelper.GetCount();
+								double lastTimestamp = tempTimestamp + _pair.tsHelper.Skip(numSamplesMissing - 1 - j);
+								if(inWindowAndHour(tempTimestamp, lastTimestamp)) {
+									tempTimestamp = lastTimestamp + _pair.advanceTimestampHelper();
+									j = (int)numSamplesMissing;
+								} else {
+									_pair.tsHelper.SetCount(phase);
+								}
+							}
+							for(; j<numSamplesMissing; j++) {
+								_j = j;
+								if(tempTimestamp >= _windowEnd && !_readToEnd) {
+									gapSamples(count);
+									return true;
+								}
+								if(tempTimestamp >= _windowStart && tempTimestamp < _windowEnd) {
+									if(!inHour(tempTimestamp)) {
+										gapSamples(count);
+										count = 0;
+										if(!checkHour(tempTimestamp, true)) {
+											return false;
+										}
+									}
+									if(count == GAP_BATCH_SIZE) {
+										gapSamples(count);
+										count = 0;
+									}
+									if(!_scanOnly) {
+										_gapTimestamps[count++] = (long)tempTimestamp;
+									}
+								}
+								tempTimestamp += _pair.advanceTimestampHelper();
+							}
+							gapSamples(count);
+						}
+					}
+					resuming = false;
+					if(_timestampPhases != null) {
+						int phase = _pair.tsHelper.GetCount();
+						Map.Entry<Long,Integer> last = _timestampPhases.lastEntry();
+						if((last != null) ? last.getValue() != phase : phase != 0) {
+							_timestampPhases.put(_recordOffset, phase);
+						}
+					}
+					
+					// Unpack the full pairs of the current payload and hand them out two samples at a time.
+					// Trailing bytes that don't make up a full pair are not decoded, but they still get the
+					// hourly split check so that files roll over exactly where they always have.
+					int payloadSize = record.getPayloadSize();
+					if(!_scanOnly) {
+						enter(ConversionStage.DECODE);
+						ActivityUnpacker.unpack(record.getType(), record.getPayloadBuffer(), record.getPayloadOffset(), payloadSize - payloadSize%pairSize, _samples);
+					}
+					enter(ConversionStage.FORMAT);
+					_inGap = false;
+					_record = record;
+					_pairOffset = -1;
+					int index = payloadStart/pairSize*2;
+					int j = payloadStart;
+					if(_scanOnly && j < payloadSize) {
+						// The whole record at once if its timestamps (up to the trailing bytes) stay in the hour
+						int pairs = (payloadSize - j) / pairSize;
+						int phase = _pair.tsHelper.GetCount();
+						double endTimestamp = timestamp + _pair.tsHelper.Skip(2L * pairs);
+						if(inWindowAndHour(timestamp, endTimestamp)) {
+							timestamp = endTimestamp;
+							if(pairs > 0) {
+								_pairOffset = j + (pairs - 1) * pairSize;
+								_lastRecordedTs = (long)timestamp;
+								_totalBytes += 2L * pairs;
+							}
+							index += 2 * ((payloadSize - j + pairSize - 1) / pairSize);
+							j = payloadSize;
+						} else {
+							_pair.tsHelper.SetCount(phase);
+						}
+					}
+					for(; j<payloadSize; j+=pairSize, index+=2) {
+						_j = j;
+						if(timestamp >= _windowEnd && !_readToEnd) {
+							return true;
+						}
+						boolean inWindow = (timestamp >= _windowStart && timestamp < _windowEnd);
+						if(inWindow && !checkHour(timestamp, false)) {
+							return false;
+						}
+						if(j+pairSize <= payloadSize) {
+							double t0 = timestamp;
+							double t1 = t0 + _pair.tsHelper.Next();
+							timestamp = t1 + _pair.tsHelper.Next();
+							if(_scanOnly) {
+								_pairOffset = j;
+							} else {
+								_pair.setAccelPair(_samples, index);
+								if(inWindow) {
+									_sink.pair(t0, t1, timestamp, _samples, index);
+								}
+							}
+							
+							// Save last recorded timestamp (in case there is a gap following this data point)
+							_lastRecordedTs = (long)timestamp;
+							_totalBytes+=2;
+						}
+					}
+					if(index > 0) {
+						// Save last recorded values (in case there is a gap following this payload)
+						if(!_scanOnly) {
+							_lastRecordedXYZ = _pair.getLastRecordedXYZ(_accelerationScale);
+						} else if(_pairOffset >= 0) {
+							System.arraycopy(record.getPayloadBuffer(), record.getPayloadOffset() + _pairOffset, _tail, 0, pairSize);
+							_tailType = record.getType();
+						} else if(_tailType < 0) {
+							_lastRecordedXYZ = _pair.getLastRecordedXYZ(_accelerationScale);
+						}
+					}
+					_pairOffset = -1;
+					enter(ConversionStage.PARSE);
+				}
+			}
+			resuming = false;
+		}
+		return true;
+	}
+	
+	/*
+	 * Offset in log.bin of the record being processed, for Sink.record()
+	 */
+	long getRecordOffset() {
+		return _recordOffset;
+	}
+	
+	/*
+	 * Where the processing is, for Sink.hourChanged()
+	 */
+	Position getPosition(final long hourTs, final double timestamp) {
+		decodePair();
+		return new Position(this, timestamp, hourTs);
+	}
+	
+	/*
+	 * Bytes of log.bin processed so far, plus 2 per pair of samples (the converter's bytesRead)
+	 */
+	long getTotalBytes() {
+		return _totalBytes;
+	}
+	
+	/*
+	 * The total bytes of a conversion resumed at a position, counted before it
+	 */
+	void setTotalBytes(final long totalBytes) {
+		this._totalBytes = totalBytes;
+	}
+	
+	String getLastRecordedXYZ() {
+		decodePair();
+		return _lastRecordedXYZ;
+	}
+	
+	/*
+	 * The last pair of samples
+	 */
+	AccelPair getPair() {
+		decodePair();
+		return _pair;
+	}
+	
+	/*
+	 * Scan only: decodes the last pair of the last record with pairs (for the last recorded values) and
+	 * the last pair handed out of the current record, if they weren't yet
+	 */
+	private void decodePair() {
+		if(_tailType >= 0) {
+			ActivityUnpacker.unpack(_tailType, _tail, 0, ActivityUnpacker.pairSize(_tailType), _tailSamples);
+			_pair.setAccelPair(_tailSamples, 0);
+			_lastRecordedXYZ = _pair.getLastRecordedXYZ(_accelerationScale);
+			_tailType = -1;
+		}
+		if(_pairOffset >= 0) {
+			int type = _record.getType();
+			ActivityUnpacker.unpack(type, _record.getPayloadBuffer(), _record.getPayloadOffset() + _pairOffset, ActivityUnpacker.pairSize(type), _tailSamples);
+			_pair.setAccelPair(_tailSamples, 0);
+			_pairOffset = -1;
+		}
+	}
+	
+	private void gapSamples(final int count) throws IOException {
+		if(count > 0) {
+			_sink.gapSamples(_gapTimestamps, count);
+		}
+	}
+	
+	/*
+	 * Whether "timestamp" is in the current hour (or SPLIT is off), without rounding it down to its hour
+	 */
+	private boolean inHour(final double timestamp) {
+		if(!_split) {
+			return true;
+		}
+		long rounded = Math.round(timestamp);
+		return rounded >= _prevHourTs && rounded < _hourEnd;
+	}
+	
+	/*
+	 * Whether the timestamps from "first" to "last" are all in the time window and in the current hour
+	 */
+	private boolean inWindowAndHour(final double first, final double last) {
+		return first >= _windowStart && last < _windowEnd && inHour(first) && inHour(last);
+	}
+	
+	private boolean checkHour(final double timestamp, final boolean inGap) throws IOException {
+		if(!inHour(timestamp)) {
+			long currHourTs = GT3XUtils.GetCurrentHourTimestamp(timestamp);
+			// Create a new file if hour changes...
+			if(_prevHourTs!=0 && !_sink.hourChanged(currHourTs, inGap, timestamp)) {
+				return false;
+			}
+			_prevHourTs = currHourTs;
+			_hourEnd = currHourTs + GT3XUtils.MILLIS_IN_HOUR;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,367 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+
+import com.qmedic.data.converter.gt3x.enums.LogRecordType;
+import com.qmedic.data.converter.gt3x.model.LogRecord;
+import com.qmedic.data.converter.gt3x.utils.GT3XUtils;
+import com.qmedic.data.converter.gt3x.utils.TimestampFormatter;
+
+/*
+ * Writes the V2 log.bin records other than ACTIVITY (battery, lux, capsense, heart rate, metadata)
+ * to mHealth files of their own, in the same pass as the accelerometer data. Each record type has a
+ * Stream in a table indexed by the type, a record of a type without one is ignored.
+ * 
+ * A row goes to the file of the hour of its record (SPLIT), named like the accel file of that hour
+ * with the data type of the stream (see MHealthUtils.getSensorMHealthFileName()). The files of an
+ * hour are completed, and reported, when the accel files roll over to a later hour (see complete()),
+ * so that the callbacks are the same whatever the conversion runs ahead of the accel files.
+ */
+class LogRecordStreams {
+
+	/*
+	 * The record types that can be written
+	 */
+	static final EnumSet<LogRecordType> SUPPORTED_TYPES = EnumSet.of(LogRecordType.BATTERY, LogRecordType.LUX, LogRecordType.CAPSENSE,
+			LogRecordType.HHEART_RATE_BPM, LogRecordType.HEART_RATE_ANT, LogRecordType.HEART_RATE_BLE, LogRecordType.METADATA);
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	/*
+	 * A file of a stream, for one hour
+	 */
+	static final class StreamFile {
+		final String path;
+		final long hourTs;
+		final int type;
+		final long firstRecordOffset; // in log.bin
+		
+		StreamFile(final String path, final long hourTs, final int type, final long firstRecordOffset) {
+			this.path = path;
+			this.hourTs = hourTs;
+			this.type = type;
+			this.firstRecordOffset = firstRecordOffset;
+		}
+	}
+	
+	/*
+	 * The rows of one record type and the file they are written to
+	 */
+	private abstract static class Stream {
+		final int type;
+		final String dataType; // of the mHealth file name
+		final String header;
+		StreamFile file = null; // open
+		BufferedWriter writer = null;
+		
+		Stream(final LogRecordType type, final String dataType, final String header) {
+			this.type = type.getId();
+			this.dataType = dataType;
+			this.header = header;
+		}
+		
+		/*
+		 * Appends the values of the record's payload to "row", after its timestamp. Returns false if the
+		 * payload can't be decoded, the record is skipped then.
+		 */
+		abstract boolean appendValues(byte[] payload, int offset, int size, StringBuilder row);
+	}
+	
+	private GT3XFile _file;
+	private boolean _split;
+	private long _firstHourTs;
+	private String _firstMHealthFileName;
+	private double _windowStart;
+	private double _windowEnd;
+	private TimestampFormatter _formatter;
+	private Stream[] _streams = new Stream[256]; // by record type
+	private List<StreamFile> _completed = new ArrayList<StreamFile>(); // not reported yet
+	private StringBuilder _row = new StringBuilder();
+	
+	/*
+	 * Streams of "types" for "file". The files of the first hour are named after "firstMHealthFileName"
+	 * (the first accel file), the others after their hour.
+	 */
+	LogRecordStreams(final GT3XFile file, final EnumSet<LogRecordType> types, final String firstMHealthFileName, final long firstTimestamp,
+			final long windowStart, final long windowEnd) {
+		this._file = file;
+		this._split = file.splitOn();
+		this._firstHourTs = GT3XUtils.GetCurrentHourTimestamp(firstTimestamp);
+		this._firstMHealthFileName = firstMHealthFileName;
+		this._windowStart = windowStart;
+		this._windowEnd = (windowEnd == Long.MAX_VALUE) ? Double.MAX_VALUE : windowEnd;
+		this._formatter = file.getMHealthUtils().dataTimestampFormatter();
+		for(LogRecordType type : types) {
+			Stream stream = createStream(type, file.getLuxScaleFactor(), file.getLuxMaxValue());
+			if(stream != null) {
+				_streams[type.getId()] = stream;
+			}
+		}
+	}
+	
+	/*
+	 * Writes the row of a record at offset "recordOffset" of log.bin, if it has a stream
+	 */
+	void record(final LogRecord record, final long recordOffset) throws IOException {
+		Stream stream = _streams[record.getType() & 0xFF];
+		if(stream == null) {
+			return;
+		}
+		long timestamp = record.getTimestamp()*1000;
+		if(timestamp < _windowStart || timestamp >= _windowEnd || GT3XUtils.CalculateCheckSum(record, record.getChecksum()) != 0x1E) {
+			return;
+		}
+		_row.setLength(0);
+		_row.append(_formatter.format(timestamp)).append(',');
+		if(!stream.appendValues(record.getPayloadBuffer(), record.getPayloadOffset(), record.getPayloadSize(), _row)) {
+			return;
+		}
+		_row.append('\n');
+		long hourTs = _split ? GT3XUtils.GetCurrentHourTimestamp(timestamp) : _firstHourTs;
+		if(stream.file != null && stream.file.hourTs != hourTs) {
+			close(stream);
+		}
+		if(stream.file == null) {
+			String mHealthFileName = (hourTs == _firstHourTs) ? _firstMHealthFileName : _file.getMHealthFileName(hourTs);
+			stream.file = new StreamFile(_file.getOutputSensorFile(mHealthFileName, stream.dataType), hourTs, stream.type, recordOffset);
+			stream.writer = new BufferedWriter(new OutputStreamWriter(_file.createOutputStream(stream.file.path), UTF8));
+			stream.writer.append(stream.header);
+		}
+		stream.writer.append(_row);
+	}
+	
+	private void close(final Stream stream) throws IOException {
+		stream.writer.close();
+		_completed.add(stream.file);
+		stream.file = null;
+		stream.writer = null;
+	}
+	
+	/*
+	 * Completes the files of the hours before "hourTs" (the accel files rolled over to it). Returns
+	 * them in order of hour and record type.
+	 */
+	List<StreamFile> complete(final long hourTs) throws IOException {
+		for(Stream stream : _streams) {
+			if(stream != null && stream.file != null && stream.file.hourTs < hourTs) {
+				close(stream);
+			}
+		}
+		List<StreamFile> completed = new ArrayList<StreamFile>();
+		List<StreamFile> later = new ArrayList<StreamFile>();
+		for(StreamFile file : _completed) {
+			(file.hourTs < hourTs ? completed : later).add(file);
+		}
+		this._completed = later;
+		sort(completed);
+		return completed;
+	}
+	
+	/*
+	 * Completes all files, at the end of log.bin
+	 */
+	List<StreamFile> finish() throws IOException {
+		return complete(Long.MAX_VALUE);
+	}
+	
+	/*
+	 * Closes the open files after a failure, without completing them
+	 */
+	void abort() {
+		for(Stream stream : _streams) {
+			if(stream != null && stream.writer != null) {
+				GT3XUtils.closeQuietly(stream.writer);
+				stream.file = null;
+				stream.writer = null;
+			}
+		}
+	}
+	
+	/*
+	 * Offset in log.bin of the first record written to a file that is not completed yet, "otherwise"
+	 * if there is none. A conversion resumed at the start of the hour of complete() has to write
+	 * the records from there to the streams again.
+	 */
+	long getFirstPendingRecordOffset(final long otherwise) {
+		long offset = otherwise;
+		for(Stream stream : _streams) {
+			if(stream != null && stream.file != null) {
+				offset = Math.min(offset, stream.file.firstRecordOffset);
+			}
+		}
+		for(StreamFile file : _completed) {
+			offset = Math.min(offset, file.firstRecordOffset);
+		}
+		return offset;
+	}
+	
+	private static void sort(final List<StreamFile> files) {
+		Collections.sort(files, new Comparator<StreamFile>() {
+			@Override
+			public int compare(final StreamFile a, final StreamFile b) {
+				if(a.hourTs != b.hourTs) {
+					return (a.hourTs < b.hourTs) ? -1 : 1;
+				}
+				return a.type - b.type;
+			}
+		});
+	}
+	
+	private static int uint16(final byte[] payload, final int offset) {
+		return (payload[offset] & 0xFF) | ((payload[offset+1] & 0xFF) << 8);
+	}
+	
+	/*
+	 * The stream of a record type, null if it isn't supported. The payloads are described in ActiGraph's
+	 * GT3X file format, lux values are scaled with the device's lux scale factor and capped at its maximum.
+	 */
+	private static Stream createStream(final LogRecordType type, final double luxScaleFactor, final double luxMaxValue) {
+		switch(type) {
+		case BATTERY:
+			return new Stream(type, "Battery", "HEADER_TIMESTAMP,BATTERY_VOLTAGE\n") {
+				@Override
+				boolean appendValues(final byte[] payload, final int offset, final int size, final StringBuilder row) {
+					if(size < 2) {
+						return false;
+					}
+					int millivolts = uint16(payload, offset);
+					row.append(millivolts/1000).append('.');
+					row.append((char)('0' + millivolts/100%10)).append((char)('0' + millivolts/10%10)).append((char)('0' + millivolts%10));
+					return true;
+				}
+			};
+		case LUX:
+			return new Stream(type, "Lux", "HEADER_TIMESTAMP,LUX\n") {
+				@Override
+				boolean appendValues(final byte[] payload, final int offset, final int size, final StringBuilder row) {
+					if(size < 2) {
+						return false;
+					}
+					row.append(Math.round(Math.min(uint16(payload, offset)*luxScaleFactor, luxMaxValue)));
+					return true;
+				}
+			};
+		case CAPSENSE:
+			return new Stream(type, "CapSense", "HEADER_TIMESTAMP,SIGNAL,REFERENCE,WORN,BURSTS\n") {
+				@Override
+				boolean appendValues(final byte[] payload, final int offset, final int size, final StringBuilder row) {
+					if(size < 6) {
+						return false;
+					}
+					row.append(uint16(payload, offset)).append(',');
+					row.append(uint16(payload, offset+2)).append(',');
+					row.append(payload[offset+4] != 0 ? 1 : 0).append(',');
+					row.append(payload[offset+5] & 0xFF);
+					return true;
+				}
+			};
+		case HHEART_RATE_BPM:
+			return new Stream(type, "HeartRate", "HEADER_TIMESTAMP,HEART_RATE\n") {
+				@Override
+				boolean appendValues(final byte[] payload, final int offset, final int size, final StringBuilder row) {
+					if(size < 1) {
+						return false;
+					}
+					row.append(payload[offset] & 0xFF);
+					return true;
+				}
+			};
+		case HEART_RATE_ANT:
+			// ANT+ heart rate data page: beat event time (1/1024 s), beat count and computed heart rate in bytes 4 to 7
+			return new Stream(type, "HeartRateANT", "HEADER_TIMESTAMP,HEART_RATE,BEAT_COUNT,BEAT_EVENT_TIME\n") {
+				@Override
+				boolean appendValues(final byte[] payload, final int offset, final int size, final StringBuilder row) {
+					if(size < 8) {
+						return false;
+					}
+					row.append(payload[offset+7] & 0xFF).append(',');
+					row.append(payload[offset+6] & 0xFF).append(',');
+					row.append(uint16(payload, offset+4));
+					return true;
+				}
+			};
+		case HEART_RATE_BLE:
+			// Bluetooth Heart Rate Measurement: flags, 8 or 16-bit heart rate, energy expended and RR intervals (1/1024 s) if flagged
+			return new Stream(type, "HeartRateBLE", "HEADER_TIMESTAMP,HEART_RATE,ENERGY_EXPENDED,RR_INTERVALS_MS\n") {
+				@Override
+				boolean appendValues(final byte[] payload, final int offset, final int size, final StringBuilder row) {
+					if(size < 2) {
+						return false;
+					}
+					int flags = payload[offset] & 0xFF;
+					int position = offset + 1;
+					int end = offset + size;
+					if((flags & 0x01) != 0) {
+						if(end - position < 2) {
+							return false;
+						}
+						row.append(uint16(payload, position));
+						position += 2;
+					} else {
+						row.append(payload[position] & 0xFF);
+						position += 1;
+					}
+					row.append(',');
+					if((flags & 0x08) != 0 && end - position >= 2) {
+						row.append(uint16(payload, position));
+						position += 2;
+					}
+					row.append(',');
+					if((flags & 0x10) != 0) {
+						for(String separator = ""; end - position >= 2; position += 2, separator = ";") {
+							row.append(separator).append(Math.round(uint16(payload, position)*1000.0/1024));
+						}
+					}
+					return true;
+				}
+			};
+		case METADATA:
+			// JSON, quoted
+			return new Stream(type, "Metadata", "HEADER_TIMESTAMP,METADATA\n") {
+				@Override
+				boolean appendValues(final byte[] payload, final int offset, final int size, final StringBuilder row) {
+					row.append('"').append(new String(payload, offset, size, UTF8).replace("\"", "\"\"")).append('"');
+					return true;
+				}
+			};
+		default:
+			return null;
+		}
+	}
+}
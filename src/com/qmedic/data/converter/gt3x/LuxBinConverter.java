@@ -0,0 +1,274 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.qmedic.data.converter.gt3x.enums.ConversionStage;
+import com.qmedic.data.converter.gt3x.enums.LogRecordType;
+import com.qmedic.data.converter.gt3x.model.ConversionMetrics;
+import com.qmedic.data.converter.gt3x.utils.GT3XUtils;
+import com.qmedic.data.converter.gt3x.utils.MHealthUtils;
+import com.qmedic.data.converter.gt3x.utils.TimestampFormatter;
+
+/*
+ * Writes the lux values of a V1 lux.bin (one little-endian 16-bit value per second from the start
+ * date) to mHealth Lux files, on a thread of its own while activity.bin is converted. Values are
+ * scaled and capped as the LUX records of V2 files (see LogRecordStreams).
+ * 
+ * Files are split by hour like the accel files and named the same way as the V2 Lux files. They are
+ * completed, and reported, when the accel files roll over to a later hour (see complete()), so the
+ * callbacks come in the same order however far ahead of activity.bin the lux thread is.
+ */
+class LuxBinConverter {
+
+	private static final int BUFFER_SIZE = 64 * 1024; // bytes, a multiple of 2
+	private static final int ROWS_BUFFER_SIZE = 64 * 1024; // bytes
+	private static final int MAX_ROW_SIZE = TimestampFormatter.MAX_LENGTH + 22; // bytes, timestamp, separator, value and line end
+	private static final byte[] HEADER = "HEADER_TIMESTAMP,LUX\n".getBytes(Charset.forName("US-ASCII"));
+	
+	private GT3XFile _file;
+	private long _startDate;
+	private long _firstSecond; // index of the first value converted
+	private boolean _split;
+	private long _firstHourTs;
+	private String _firstMHealthFileName;
+	private double _luxScaleFactor;
+	private double _luxMaxValue;
+	private MHealthUtils _mHealthUtils; // a copy for the file names, its date formats aren't thread-safe
+	private TimestampFormatter _formatter;
+	private ConversionMetrics _metrics = new ConversionMetrics();
+	private Thread _thread = null;
+	private volatile boolean _closed = false;
+	
+	// Shared with the lux thread, guarded by this
+	private List<LogRecordStreams.StreamFile> _completed = new ArrayList<LogRecordStreams.StreamFile>(); // not reported yet
+	private long _convertedUpTo = Long.MIN_VALUE; // the values before this timestamp are in completed files
+	private IOException _error = null;
+	
+	/*
+	 * Converts the values of "file"'s lux.bin from "firstTimestamp" on (the start date, or the hour a
+	 * conversion resumes at). The files of the first hour are named after "firstMHealthFileName" (the
+	 * accel file of that hour), the others after their hour.
+	 */
+	LuxBinConverter(final GT3XFile file, final String firstMHealthFileName, final long firstTimestamp) {
+		this._file = file;
+		this._startDate = file.getStartDate();
+		this._firstSecond = Math.max(0, (firstTimestamp - _startDate + 999) / 1000);
+		this._split = file.splitOn();
+		this._firstHourTs = GT3XUtils.GetCurrentHourTimestamp(firstTimestamp);
+		this._firstMHealthFileName = firstMHealthFileName;
+		this._luxScaleFactor = file.getLuxScaleFactor();
+		this._luxMaxValue = file.getLuxMaxValue();
+		this._mHealthUtils = new MHealthUtils(file.getOutputDataType());
+		this._formatter = file.getMHealthUtils().dataTimestampFormatter().copy();
+	}
+	
+	/*
+	 * Starts the lux thread
+	 */
+	void start() {
+		this._thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				convert();
+			}
+		}, "gt3x-lux");
+		_thread.setDaemon(true);
+		_thread.start();
+	}
+	
+	/*
+	 * Completes the files of the hours before "hourTs" (the accel files rolled over to it), waiting for
+	 * the lux thread to get there. Returns them in order. Fails if the lux thread did.
+	 */
+	synchronized List<LogRecordStreams.StreamFile> complete(final long hourTs) throws IOException {
+		while(_convertedUpTo < hourTs) {
+			try {
+				wait();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the lux data");
+			}
+		}
+		if(_error != null) {
+			throw _error;
+		}
+		List<LogRecordStreams.StreamFile> completed = new ArrayList<LogRecordStreams.StreamFile>();
+		List<LogRecordStreams.StreamFile> later = new ArrayList<LogRecordStreams.StreamFile>();
+		for(LogRecordStreams.StreamFile file : _completed) {
+			(file.hourTs < hourTs ? completed : later).add(file);
+		}
+		this._completed = later;
+		return completed;
+	}
+	
+	/*
+	 * Completes all files once activity.bin is converted. The metrics of the lux thread are added to
+	 * "metrics".
+	 */
+	List<LogRecordStreams.StreamFile> finish(final ConversionMetrics metrics) throws IOException {
+		List<LogRecordStreams.StreamFile> completed = complete(Long.MAX_VALUE);
+		join();
+		metrics.add(_metrics);
+		return completed;
+	}
+	
+	/*
+	 * Stops the lux thread, e.g. when the conversion of activity.bin failed. Does nothing once finished.
+	 */
+	void close() {
+		_closed = true;
+		join();
+	}
+	
+	private void join() {
+		try {
+			_thread.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/*
+	 * Lux thread
+	 */
+	private void convert() {
+		_metrics.start();
+		InputStream in = null;
+		OutputStream out = null;
+		LogRecordStreams.StreamFile file = null;
+		IOException error = null;
+		try {
+			try {
+				in = _file.openLuxInput(_firstSecond * 2);
+			} catch(EOFException e) {
+				return; // lux.bin ends before the first value
+			}
+			byte[] buffer = new byte[BUFFER_SIZE];
+			byte[] rows = new byte[ROWS_BUFFER_SIZE];
+			int position = 0;
+			int available = 0;
+			int n = 0;
+			long second = _firstSecond;
+			while(!_closed && (n = in.read(buffer, available, buffer.length - available)) >= 0) {
+				_metrics.enter(ConversionStage.FORMAT);
+				available += n;
+				int end = available - available%2;
+				for(int i = 0; i < end; i += 2, second++) {
+					long timestamp = _startDate + second * 1000;
+					long hourTs = _split ? GT3XUtils.GetCurrentHourTimestamp(timestamp) : _firstHourTs;
+					if(file != null && file.hourTs != hourTs) {
+						_metrics.enter(ConversionStage.ROTATION);
+						out.write(rows, 0, position);
+						position = 0;
+						out.close();
+						out = null;
+						completed(file, hourTs);
+						file = null;
+						_metrics.enter(ConversionStage.FORMAT);
+					}
+					if(file == null) {
+						String mHealthFileName = (hourTs == _firstHourTs) ? _firstMHealthFileName : _file.getMHealthFileName(hourTs, _mHealthUtils);
+						file = new LogRecordStreams.StreamFile(_file.getOutputSensorFile(mHealthFileName, "Lux"), hourTs, LogRecordType.LUX.getId(), second * 2);
+						out = _file.createOutputStream(file.path, _metrics);
+						out.write(HEADER);
+					}
+					if(rows.length - position < MAX_ROW_SIZE) {
+						out.write(rows, 0, position);
+						position = 0;
+					}
+					int lux = (buffer[i] & 0xFF) | ((buffer[i+1] & 0xFF) << 8);
+					position = _formatter.format(timestamp, rows, position);
+					rows[position++] = ',';
+					position = appendDigits(Math.round(Math.min(lux*_luxScaleFactor, _luxMaxValue)), rows, position);
+					rows[position++] = '\n';
+				}
+				_metrics.addRowsWritten(end / 2);
+				_metrics.enter(ConversionStage.OTHER);
+				// Carry an odd byte over
+				System.arraycopy(buffer, end, buffer, 0, available - end);
+				available -= end;
+			}
+			if(file != null) {
+				out.write(rows, 0, position);
+				out.close();
+				out = null;
+				completed(file, Long.MAX_VALUE);
+			}
+		} catch(IOException e) {
+			error = e;
+		} catch(RuntimeException e) {
+			error = new IOException(e);
+		} finally {
+			GT3XUtils.closeQuietly(out);
+			GT3XUtils.closeQuietly(in);
+			_metrics.stop();
+			synchronized(this) {
+				if(_error == null) {
+					_error = error;
+				}
+				_convertedUpTo = Long.MAX_VALUE;
+				notifyAll();
+			}
+		}
+	}
+	
+	/*
+	 * Writes the decimal digits of "value" (not negative) at "position", returns the position after them
+	 */
+	private static int appendDigits(long value, final byte[] dest, final int position) {
+		int end = position + 1;
+		for(long v = value/10; v > 0; v /= 10) {
+			end++;
+		}
+		int p = end;
+		do {
+			dest[--p] = (byte)('0' + value%10);
+			value /= 10;
+		} while(value > 0);
+		return end;
+	}
+	
+	/*
+	 * The values before "convertedUpTo" are all written, "file" is one of their files
+	 */
+	private synchronized void completed(final LogRecordStreams.StreamFile file, final long convertedUpTo) {
+		_completed.add(file);
+		_convertedUpTo = convertedUpTo;
+		notifyAll();
+	}
+}
@@ -0,0 +1,545 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.qmedic.data.converter.gt3x.enums.ConversionStage;
+import com.qmedic.data.converter.gt3x.iface.AccelEncoder;
+import com.qmedic.data.converter.gt3x.io.LogRecordReader;
+import com.qmedic.data.converter.gt3x.io.ResamplingAccelEncoder;
+import com.qmedic.data.converter.gt3x.model.AccelSampleBlock;
+import com.qmedic.data.converter.gt3x.model.ConversionMetrics;
+import com.qmedic.data.converter.gt3x.model.LogRecord;
+import com.qmedic.data.converter.gt3x.utils.GT3XUtils;
+
+/*
+ * Converts a V2 log.bin to hourly files (SPLIT) using all cores.
+ * 
+ * The calling thread inflates log.bin and scans it with a LogActivityProcessor that only follows
+ * the record headers and timestamps, gaps and hour changes (see LogActivityProcessor.scanOnly()): the
+ * samples aren't decoded, but for the last pair before an hour change (the last recorded values for
+ * gap filling). At every hour change it cuts a unit: the raw records of that hour and the processor's
+ * state where the hour starts (timestamp helper, last recorded values, state of the counts and of the
+ * resampling...).
+ * The ActiGraph counts of the epoch files and the resampling of the accel files depend on every sample
+ * before, so with them on the scan decodes all samples and follows their filters as well, like the
+ * sequential conversion. The units can't warm the filters up from the hour before instead: the IIR
+ * filter of the counts never forgets its state exactly (about 1e-12 is left after an hour, enough to
+ * change a count), and both would differ from SPLIT. Scanning a week at 30Hz takes about 0.1 seconds,
+ * 0.4 decoding the samples and 1.1 following the counts.
+ * Units are decoded, gap filled and written to their accel file on the ForkJoinPool, with the same
+ * processor resumed at the start of the unit. A record is copied to every unit it has samples for.
+ * 
+ * The activity counts of a unit are collected (see ActivityCountEvents) and replayed, unit after
+ * unit, into the single ActivityCountSummaryCreator on the calling thread, which also fires the
+ * callbacks. So the files, their content and the callbacks are the same as with the sequential
+ * GT3XFile.processGT3XV2(). Each unit has ConversionMetrics of its own, added to the file's
+ * metrics when it is finished. The resume checkpoint of a unit (see ResumeCheckpoint) is saved
+ * once the units before it are finished.
+ */
+class ParallelLogConverter {
+
+	private static final int INITIAL_UNIT_SIZE = 64 * 1024; // bytes
+	
+	private GT3XFile _file;
+	private ForkJoinPool _pool = ForkJoinPool.commonPool();
+	private int _maxPendingUnits;
+	private boolean _summaryOn;
+	private boolean _sparseGaps;
+	private double _accelerationScale;
+	private double _summaryScale;
+	private AccelEncoder _encoderPrototype;
+	private ConversionMetrics _metrics;
+	
+	// Units being converted, in order, and the output files they use
+	private ArrayDeque<Unit> _pending = new ArrayDeque<Unit>();
+	private Set<String> _pendingFiles = new HashSet<String>();
+	
+	// For the callbacks and the activity count summary files (calling thread only)
+	private Calendar _cal = Calendar.getInstance();
+	private ActivityCountSummaryCreator _acSummaryCreator = null;
+	private OutputStreamWriter _acWriter = null;
+	private BufferedWriter _acBw = null;
+	private LogRecordStreams _streams = null; // of the other record types, written by the scan
+	private Unit _lastFinished = null;
+	
+	/*
+	 * One hour of log.bin
+	 */
+	private static final class Unit {
+		final String mHealthFileName;
+		final String outputFile;
+		final String outputSummaryFile;
+		final String outputGapMarkerFile;
+		final long hourTs;
+		final LogActivityProcessor.Position start; // null for the first hour, unless the conversion is resumed
+		final long bytesRead; // when the hour started, for the callbacks of the previous hour
+		boolean last = false; // of the conversion, ends the resampling
+		
+		// Activity count of the gap sample that rolled over to this hour, belongs to the previous hour
+		boolean hasPreviousCount = false;
+		long previousCountTimestamp;
+		double previousCountMagnitude;
+		
+		byte[] records = new byte[INITIAL_UNIT_SIZE];
+		int size = 0;
+		Future<ActivityCountEvents> result;
+		ConversionMetrics metrics = new ConversionMetrics();
+		
+		Unit(final GT3XFile file, final String mHealthFileName, final long hourTs, final LogActivityProcessor.Position start, final long bytesRead) {
+			this.mHealthFileName = mHealthFileName;
+			this.outputFile = file.getOutputFile(mHealthFileName);
+			this.outputSummaryFile = file.getOutputSummaryFile(mHealthFileName);
+			this.outputGapMarkerFile = file.getOutputGapMarkerFile(mHealthFileName);
+			this.hourTs = hourTs;
+			this.start = start;
+			this.bytesRead = bytesRead;
+		}
+		
+		void add(final LogRecord record) {
+			int recordSize = record.getRecordSize();
+			if(records.length - size < recordSize) {
+				records = Arrays.copyOf(records, Math.max(records.length * 2, size + recordSize));
+			}
+			System.arraycopy(record.getPayloadBuffer(), record.getPayloadOffset() - LogRecord.HEADER_SIZE, records, size, recordSize);
+			size += recordSize;
+		}
+	}
+	
+	ParallelLogConverter(final GT3XFile file) {
+		this._file = file;
+		this._maxPendingUnits = _pool.getParallelism() * 2;
+		this._summaryOn = file.createSummaryFilesOn();
+		this._sparseGaps = (file.createGapMarkerWriter() != null);
+		this._accelerationScale = file.getActivityAccelerationScale();
+		this._summaryScale = file.inGAccelerationOn() ? _accelerationScale : 1.0; // activity counts in g or ADC values
+		this._encoderPrototype = file.createAccelEncoder(_accelerationScale);
+		this._metrics = file.getMetrics();
+	}
+	
+	boolean convert() throws IOException {
+		if(_file.debugOn()) System.out.println("Parsing activity data for GT3X version 2 format in parallel ("+_pool.getParallelism()+" threads)....");
+		long startedTs = System.currentTimeMillis();
+		_cal.setTimeInMillis(_file.getStartDate());
+		
+		ResumeCheckpoint resume = _file.getResumeCheckpoint();
+		LogActivityProcessor.Position start = null;
+		Unit first = new Unit(_file, _file.getCurrentMHealthFileName(), 0, null, 0);
+		if(resume != null) {
+			// Carry on with the hourly file of the checkpoint
+			start = resume.getPosition(_file.getSampleRate());
+			first = new Unit(_file, _file.getMHealthFileName(resume.hourTs), resume.hourTs, start, resume.totalBytes);
+			_cal.setTimeInMillis(resume.hourTs);
+		}
+		if(_summaryOn) {
+			_acSummaryCreator = new ActivityCountSummaryCreator();
+			openSummaryFile(first);
+			if(resume != null) {
+				resume.restoreSummary(_acSummaryCreator);
+			}
+		}
+		
+		_streams = _file.createRecordStreams();
+		LogRecordReader reader = (resume != null) ? _file.openResumedLogReader(_streams) : new LogRecordReader(_file.openLogInput());
+		final LogActivityProcessor[] scanner = new LogActivityProcessor[1];
+		final Unit[] current = new Unit[] { first };
+		final LogRecord[] currentRecord = new LogRecord[1];
+		final ProgressReporter progress = _file.getProgress();
+		final EpochAggregator counts = createCountsFollower(start);
+		final ResamplingAccelEncoder resampling = createResamplingFollower(start);
+		scanner[0] = new LogActivityProcessor(new LogActivityProcessor.Sink() {
+			@Override
+			public void record(final LogRecord record) throws IOException {
+				current[0].add(record);
+				currentRecord[0] = record;
+				if(progress != null) {
+					progress.update(record.getTimestamp()*1000);
+				}
+				if(_streams != null) {
+					_streams.record(record, scanner[0].getRecordOffset());
+				}
+			}
+			
+			@Override
+			public boolean hourChanged(final long hourTs, final boolean inGap, final double timestamp) throws IOException {
+				LogActivityProcessor processor = scanner[0];
+				LogActivityProcessor.Position position = processor.getPosition(hourTs, timestamp);
+				position.countsState = (counts != null) ? counts.getCountsState() : null;
+				if(resampling != null) {
+					resampling.close(); // flushes the end of the hour, like the encoder of the hour
+					position.resamplingState = resampling.getState();
+				}
+				Unit next = new Unit(_file, _file.getMHealthFileName(hourTs), hourTs, position, processor.getTotalBytes());
+				if(inGap && _summaryOn) {
+					// The sequential conversion counts this gap sample in the previous hour as well
+					next.hasPreviousCount = true;
+					next.previousCountTimestamp = (long)timestamp;
+					next.previousCountMagnitude = ActivityCountSummaryCreator.magnitude(processor.getPair().getLastRecordXYZ(_file.getAccelerationScale()));
+				}
+				next.add(currentRecord[0]); // the rest of the record belongs to the new hour
+				submit(current[0]);
+				current[0] = next;
+				return true;
+			}
+			
+			@Override
+			public void gapSamples(final long[] timestamps, final int count) throws IOException {
+				AccelPair last = scanner[0].getPair();
+				if(counts != null) {
+					counts.addRepeated(timestamps, count, last.rawX(1), last.rawY(1), last.rawZ(1));
+				}
+				if(resampling != null && !_sparseGaps) {
+					resampling.writeGapSamples(timestamps, count, last.rawX(1), last.rawY(1), last.rawZ(1), null);
+				}
+			}
+			
+			@Override
+			public void pair(final double t0, final double t1, final double next, final AccelSampleBlock samples, final int index) throws IOException {
+				if(counts != null) {
+					counts.addPair(t0, t1, samples, index);
+				}
+				if(resampling != null) {
+					resampling.writeSample(t0, samples.x()[index], samples.y()[index], samples.z()[index]);
+					resampling.writeSample(t1, samples.x()[index+1], samples.y()[index+1], samples.z()[index+1]);
+				}
+			}
+		}, _file.getSampleRate(), _accelerationScale, _file.inGAccelerationOn(), true);
+		if(counts == null && resampling == null) {
+			scanner[0].scanOnly();
+		}
+		scanner[0].setMetrics(_metrics, true);
+		_file.setUpLogProcessor(scanner[0]);
+		if(resume != null) {
+			scanner[0].setTotalBytes(resume.totalBytes);
+		}
+		
+		long totalBytes;
+		try {
+			scanner[0].process(reader, start);
+			totalBytes = scanner[0].getTotalBytes();
+			_file.saveInflateIndex(scanner[0]);
+			current[0].last = true;
+			submit(current[0]);
+			while(!_pending.isEmpty()) {
+				finishNext();
+			}
+		} catch(IOException e) {
+			abort();
+			throw e;
+		} catch(RuntimeException e) {
+			abort();
+			throw e;
+		} finally {
+			reader.close();
+		}
+		
+		_metrics.enter(ConversionStage.ROTATION);
+		Unit last = _lastFinished;
+		_file.setCurrentOutputFiles(last.mHealthFileName, last.outputFile, _summaryOn ? last.outputSummaryFile : null);
+		_file.setDoneProcessing(totalBytes);
+		_file.hourlyFileCreated(last.outputFile, totalBytes, _cal);
+		if(_summaryOn) {
+			_acBw.close();
+			_acWriter.close();
+			_file.hourlyFileCreated(last.outputSummaryFile, totalBytes, _cal);
+			_metrics.addRowsWritten(_acSummaryCreator.getRowsWritten());
+		}
+		if(_sparseGaps) {
+			_file.hourlyFileCreated(last.outputGapMarkerFile, totalBytes, _cal);
+		}
+		_file.epochFilesCompleted(last.mHealthFileName, totalBytes, _cal);
+		if(_streams != null) {
+			_file.streamFilesCompleted(_streams.finish(), totalBytes, _cal);
+		}
+		_file.finishProcessing("OK", totalBytes);
+		if(_file.debugOn()) {
+			System.out.println("Done: "+(Math.round((System.currentTimeMillis()-startedTs)/1000))+" seconds. Total bytes processed = "+totalBytes);
+			System.out.println(_file.toString());
+		}
+		return true;
+	}
+	
+	/*
+	 * The ActiGraph counts of the epoch files depend on all samples before, through the state of their
+	 * filter: the scan follows it (from "start", if the conversion is resumed) for the units to start
+	 * from. Null if the counts are off.
+	 */
+	private EpochAggregator createCountsFollower(final LogActivityProcessor.Position start) {
+		EpochAggregator counts = _file.createEpochAggregator(_accelerationScale);
+		if(counts == null || counts.getCountsState() == null) {
+			return null;
+		}
+		counts.followCountsOnly();
+		if(start != null) {
+			counts.setCountsState(start.countsState);
+		}
+		return counts;
+	}
+	
+	/*
+	 * The resampled samples of the accel files depend on the samples before as well: the scan follows
+	 * the state of the resampling (see ResamplingAccelEncoder.follower()). Null if they aren't resampled.
+	 */
+	private ResamplingAccelEncoder createResamplingFollower(final LogActivityProcessor.Position start) {
+		if(!(_encoderPrototype instanceof ResamplingAccelEncoder)) {
+			return null;
+		}
+		ResamplingAccelEncoder resampling = ((ResamplingAccelEncoder)_encoderPrototype).follower();
+		if(start != null) {
+			resampling.setState(start.resamplingState);
+		}
+		return resampling;
+	}
+	
+	/*
+	 * Queues the conversion of a unit. Waits for the oldest ones if too many are pending, or if one of
+	 * them writes the same file (the clock went back): the later unit must overwrite it, as it does
+	 * sequentially.
+	 */
+	private void submit(final Unit unit) throws IOException {
+		if(_pendingFiles.contains(unit.outputFile)) {
+			while(!_pending.isEmpty()) {
+				finishNext();
+			}
+		}
+		while(_pending.size() >= _maxPendingUnits) {
+			finishNext();
+		}
+		unit.result = _pool.submit(new Callable<ActivityCountEvents>() {
+			@Override
+			public ActivityCountEvents call() throws IOException {
+				return convertUnit(unit);
+			}
+		});
+		_pending.add(unit);
+		_pendingFiles.add(unit.outputFile);
+	}
+	
+	/*
+	 * Completes the oldest pending unit: the previous hour's files are done, the activity counts of
+	 * the unit go to its summary file.
+	 */
+	private void finishNext() throws IOException {
+		Unit unit = _pending.peek();
+		Unit previous = _lastFinished;
+		ConversionStage stage = _metrics.enter(ConversionStage.ROTATION);
+		if(previous != null) {
+			if(unit.hasPreviousCount) {
+				_acSummaryCreator.addMagnitude(_acBw, unit.previousCountTimestamp, unit.previousCountMagnitude, _file.getMHealthUtils().dataSimpleDateFormat());
+			}
+			_file.hourlyFileCreated(previous.outputFile, unit.bytesRead, _cal);
+			if(_summaryOn) {
+				_acBw.close();
+				_acWriter.close();
+				_file.hourlyFileCreated(previous.outputSummaryFile, unit.bytesRead, _cal);
+			}
+			if(_sparseGaps) {
+				_file.hourlyFileCreated(previous.outputGapMarkerFile, unit.bytesRead, _cal);
+			}
+			_file.epochFilesCompleted(previous.mHealthFileName, unit.bytesRead, _cal);
+			if(_streams != null) {
+				_file.streamFilesCompleted(_streams.complete(unit.hourTs), unit.bytesRead, _cal);
+			}
+			if(_file.resumableOn()) {
+				_file.saveResumeCheckpoint(unit.start, unit.bytesRead, _acSummaryCreator, _streams);
+			}
+			if(_summaryOn) {
+				openSummaryFile(unit);
+			}
+			_cal.setTimeInMillis(unit.hourTs); // Update calendar for callbacks
+		}
+		
+		_metrics.enter(ConversionStage.OTHER); // waiting for the unit
+		ActivityCountEvents events;
+		try {
+			events = unit.result.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while converting "+unit.outputFile, e);
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			}
+			throw new IOException("Failed to convert "+unit.outputFile, e.getCause());
+		}
+		_metrics.add(unit.metrics);
+		_metrics.enter(ConversionStage.FORMAT);
+		if(events != null) {
+			events.replay(_acSummaryCreator, _acBw, _file.getMHealthUtils().dataSimpleDateFormat());
+		}
+		_metrics.enter(stage);
+		_pending.poll();
+		_pendingFiles.remove(unit.outputFile);
+		_lastFinished = unit;
+	}
+	
+	private void cancelPending() {
+		for(Unit unit : _pending) {
+			unit.result.cancel(false);
+		}
+		_pending.clear();
+		_pendingFiles.clear();
+	}
+	
+	/*
+	 * Stops the pending units and closes the open files after a failure
+	 */
+	private void abort() {
+		cancelPending();
+		GT3XUtils.closeQuietly(_acBw);
+		GT3XUtils.closeQuietly(_acWriter);
+		if(_streams != null) {
+			_streams.abort();
+		}
+	}
+	
+	private void openSummaryFile(final Unit unit) throws IOException {
+		_acWriter = new OutputStreamWriter(_file.createOutputStream(unit.outputSummaryFile));
+		_acBw = new BufferedWriter(_acWriter);
+		_acBw.append(_file.getActivityCountFileHeader());
+	}
+	
+	/*
+	 * Writes the accel file of a unit (on a pool thread). Returns its activity counts, or null if
+	 * summary files are off.
+	 */
+	private ActivityCountEvents convertUnit(final Unit unit) throws IOException {
+		final ConversionMetrics metrics = unit.metrics;
+		metrics.start();
+		final ActivityCountEvents events = _summaryOn ? new ActivityCountEvents() : null;
+		final AccelEncoder encoder = _encoderPrototype.copy();
+		final GapMarkerWriter gapMarkers = _file.createGapMarkerWriter();
+		final EpochAggregator epochs = _file.createEpochAggregator(_accelerationScale);
+		final LogActivityProcessor[] processor = new LogActivityProcessor[1];
+		processor[0] = new LogActivityProcessor(new LogActivityProcessor.Sink() {
+			@Override
+			public void record(final LogRecord record) {
+			}
+			
+			@Override
+			public boolean hourChanged(final long hourTs, final boolean inGap, final double timestamp) {
+				return false; // the next unit takes over
+			}
+			
+			@Override
+			public void gapSamples(final long[] timestamps, final int count) throws IOException {
+				if(events != null) {
+					events.add(timestamps, count, ActivityCountSummaryCreator.magnitude(processor[0].getPair().getLastRecordXYZ(_file.getAccelerationScale())));
+				}
+				AccelPair last = processor[0].getPair();
+				if(epochs != null) {
+					epochs.addRepeated(timestamps, count, last.rawX(1), last.rawY(1), last.rawZ(1));
+				}
+				metrics.addGapSamplesFilled(count);
+				if(gapMarkers != null) {
+					gapMarkers.add(timestamps, count, processor[0].getLastRecordedXYZ());
+					return;
+				}
+				encoder.writeGapSamples(timestamps, count, last.rawX(1), last.rawY(1), last.rawZ(1), processor[0].getLastRecordedXYZ());
+				metrics.addRowsWritten(count);
+			}
+			
+			@Override
+			public void pair(final double t0, final double t1, final double next, final AccelSampleBlock samples, final int index) throws IOException {
+				if(gapMarkers != null) {
+					gapMarkers.end();
+				}
+				encoder.writeSample(t0, samples.x()[index], samples.y()[index], samples.z()[index]);
+				encoder.writeSample(t1, samples.x()[index+1], samples.y()[index+1], samples.z()[index+1]);
+				metrics.addSamplesDecoded(2);
+				metrics.addRowsWritten(2);
+				if(events != null) {
+					events.add((long)next, ActivityCountSummaryCreator.magnitude(samples, index, _summaryScale));
+					events.add((long)next, ActivityCountSummaryCreator.magnitude(samples, index+1, _summaryScale));
+				}
+				if(epochs != null) {
+					epochs.addPair(t0, t1, samples, index);
+				}
+			}
+		}, _file.getSampleRate(), _accelerationScale, _file.inGAccelerationOn(), true);
+		
+		processor[0].setMetrics(metrics, false);
+		
+		LogRecordReader reader = new LogRecordReader(new ByteArrayInputStream(unit.records, 0, unit.size), unit.size);
+		metrics.enter(ConversionStage.ROTATION);
+		boolean completed = false;
+		try {
+			encoder.open(_file.createOutputStream(unit.outputFile, metrics));
+			if(unit.start != null) {
+				GT3XFile.setResamplingState(encoder, unit.start.resamplingState);
+			}
+			if(gapMarkers != null) {
+				gapMarkers.open(_file.createOutputStream(unit.outputGapMarkerFile, metrics));
+			}
+			if(epochs != null) {
+				_file.openEpochFiles(epochs, unit.mHealthFileName, metrics);
+				if(unit.start != null) {
+					epochs.setCountsState(unit.start.countsState);
+				}
+			}
+			processor[0].process(reader, unit.start);
+			metrics.enter(ConversionStage.ROTATION);
+			if(unit.last) {
+				encoder.end();
+			}
+			encoder.close();
+			if(gapMarkers != null) {
+				gapMarkers.close();
+				metrics.addRowsWritten(gapMarkers.getRowsWritten());
+			}
+			if(epochs != null) {
+				epochs.close();
+				metrics.addRowsWritten(epochs.getRowsWritten());
+			}
+			completed = true;
+		} finally {
+			if(!completed) {
+				GT3XUtils.closeQuietly(encoder);
+				GT3XUtils.closeQuietly(gapMarkers);
+				GT3XUtils.closeQuietly(epochs);
+			}
+		}
+		unit.records = null;
+		metrics.stop();
+		return events;
+	}
+}
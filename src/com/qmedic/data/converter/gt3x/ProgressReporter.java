@@ -0,0 +1,135 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x;
+
+import java.util.Map;
+
+import com.qmedic.data.converter.gt3x.enums.ConversionStage;
+import com.qmedic.data.converter.gt3x.iface.GT3XFileProgressListener;
+import com.qmedic.data.converter.gt3x.model.ConversionMetrics;
+import com.qmedic.data.converter.gt3x.model.ConversionProgress;
+
+/*
+ * Throttles the progress callbacks of a conversion. update() is called for every record or block of
+ * activity data, and only compares the bytes read (counted by the conversion's ConversionMetrics)
+ * with the next checkpoint. The clock is only read at checkpoints, at most every CHECK_BYTES.
+ */
+class ProgressReporter {
+
+	private static final long CHECK_BYTES = 64 * 1024;
+	
+	private final GT3XFileProgressListener _listener;
+	private final String _inputFileFullPath;
+	private final Map<String,Object> _callbackMetadata;
+	private final ConversionMetrics _metrics;
+	private final long _totalBytes;
+	private final long _compressedTotalBytes;
+	private final long _intervalNanos;
+	private final long _intervalBytes;
+	private final long _checkBytes;
+	private final long _startNanos;
+	
+	private long _nextCheckBytes;
+	private long _nextReportBytes;
+	private long _nextReportNanos;
+	private long _lastReportBytes = 0;
+	private long _lastReportNanos;
+	private long _dataTimestamp = 0;
+	
+	/*
+	 * Reports every "intervalMillis" or "intervalBytes" (of uncompressed activity data), whichever comes
+	 * first, 0 disables either
+	 */
+	ProgressReporter(final GT3XFileProgressListener listener, final String inputFileFullPath, final Map<String,Object> callbackMetadata,
+			final ConversionMetrics metrics, final long totalBytes, final long compressedTotalBytes, final long intervalMillis, final long intervalBytes) {
+		this._listener = listener;
+		this._inputFileFullPath = inputFileFullPath;
+		this._callbackMetadata = callbackMetadata;
+		this._metrics = metrics;
+		this._totalBytes = totalBytes;
+		this._compressedTotalBytes = (compressedTotalBytes > 0) ? compressedTotalBytes : totalBytes;
+		this._intervalNanos = (intervalMillis > 0) ? intervalMillis * 1000000 : Long.MAX_VALUE;
+		this._intervalBytes = (intervalBytes > 0) ? intervalBytes : Long.MAX_VALUE;
+		this._checkBytes = Math.min(CHECK_BYTES, _intervalBytes);
+		this._startNanos = System.nanoTime();
+		this._lastReportNanos = _startNanos;
+		this._nextCheckBytes = _checkBytes;
+		this._nextReportBytes = _intervalBytes;
+		this._nextReportNanos = (_intervalNanos == Long.MAX_VALUE) ? Long.MAX_VALUE : _startNanos + _intervalNanos;
+	}
+	
+	/*
+	 * "dataTimestamp" is the timestamp of the data being converted
+	 */
+	void update(final long dataTimestamp) {
+		long bytesRead = _metrics.getBytesInflated();
+		if(bytesRead < _nextCheckBytes) {
+			return;
+		}
+		_dataTimestamp = dataTimestamp;
+		_nextCheckBytes = bytesRead + _checkBytes;
+		if(bytesRead >= _nextReportBytes) {
+			report(bytesRead, System.nanoTime());
+		} else if(_nextReportNanos != Long.MAX_VALUE) {
+			long now = System.nanoTime();
+			if(now >= _nextReportNanos) {
+				report(bytesRead, now);
+			}
+		}
+	}
+	
+	/*
+	 * The last callback, once all the activity data is converted
+	 */
+	void finish() {
+		report(_metrics.getBytesInflated(), System.nanoTime());
+	}
+	
+	private void report(final long bytesRead, final long now) {
+		long elapsedNanos = now - _startNanos;
+		long sinceLastNanos = now - _lastReportNanos;
+		double megabytesPerSecond = (sinceLastNanos > 0) ? (bytesRead - _lastReportBytes) * 1000.0 / sinceLastNanos : 0;
+		long etaMillis = -1;
+		if(_totalBytes > 0 && bytesRead > 0) {
+			etaMillis = (long)((double)Math.max(0, _totalBytes - bytesRead) * elapsedNanos / bytesRead / 1000000);
+		}
+		long compressedBytesRead = (_totalBytes > 0) ? (long)((double)bytesRead * _compressedTotalBytes / _totalBytes) : bytesRead;
+		long samples = _metrics.getSamplesDecoded() + _metrics.getGapSamplesFilled();
+		
+		ConversionStage stage = _metrics.enter(ConversionStage.OTHER);
+		_listener.onProgress(_inputFileFullPath, new ConversionProgress(bytesRead, _totalBytes, compressedBytesRead, _compressedTotalBytes,
+				samples, _dataTimestamp, elapsedNanos / 1000000, megabytesPerSecond, etaMillis), _callbackMetadata);
+		_metrics.enter(stage);
+		
+		_lastReportBytes = bytesRead;
+		_lastReportNanos = now;
+		_nextReportBytes = (_intervalBytes == Long.MAX_VALUE) ? Long.MAX_VALUE : bytesRead + _intervalBytes;
+		_nextReportNanos = (_intervalNanos == Long.MAX_VALUE) ? Long.MAX_VALUE : now + _intervalNanos;
+	}
+}
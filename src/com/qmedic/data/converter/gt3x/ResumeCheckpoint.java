@@ -0,0 +1,267 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.qmedic.data.converter.gt3x.model.AccelSampleBlock;
+import com.qmedic.data.converter.gt3x.utils.TimestampHelper;
+
+/*
+ * Where a SPLIT conversion was at the start of an hourly file, saved next to the output files so
+ * that a conversion that didn't finish (the JVM died, the disk filled up...) can be run again from
+ * there instead of from the start: the offset in log.bin/activity.bin to skip to, the state of the
+ * conversion at that point (timestamp, timestamp helper phase, last recorded values for the gaps,
+ * pending activity count minute, state of the ActiGraph counts and of the resampling) and the files completed before, whose callbacks are replayed.
+ * The output is the same as that of a conversion that was never interrupted.
+ */
+class ResumeCheckpoint {
+
+	static final String SUFFIX = ".resume";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private String _input; // identity of the input files, see GT3XFile.getInputIdentity()
+	private String _options;
+	
+	long offset = 0; // of the record (log.bin) or pair (activity.bin) to resume at
+	long streamOffset = 0; // of the first record of log.bin for the other record types, see LogRecordStreams
+	long hourTs = 0;
+	double timestamp = 0; // of the gap sample or pair to resume at
+	boolean inGap = false;
+	int j = 0; // gap sample or payload byte (log.bin)
+	int timestampPhase = 0;
+	long lastRecordedTs = 0;
+	String lastRecordedXYZ = null;
+	short[] lastPair = new short[6]; // X, Y, Z of the two samples
+	long totalBytes = 0;
+	long summaryMinuteTs = 0; // activity count minute pending
+	double summaryTotal = 0d;
+	String countsState = null; // see EpochAggregator.getCountsState()
+	String resamplingState = null; // see GT3XFile.getResamplingState(), checked by GT3XFile
+	List<ConversionCache.OutputFile> files = new ArrayList<ConversionCache.OutputFile>(); // completed, their size is checked
+	
+	ResumeCheckpoint(final String input, final String options) {
+		this._input = input;
+		this._options = options;
+	}
+	
+	/*
+	 * Sets the state of a log.bin conversion at "position"
+	 */
+	void setPosition(final LogActivityProcessor.Position position, final long totalBytes) {
+		this.offset = position.recordOffset;
+		this.streamOffset = position.recordOffset;
+		this.hourTs = position.hourTs;
+		this.timestamp = position.timestamp;
+		this.inGap = position.inGap;
+		this.j = position.j;
+		this.timestampPhase = position.tsHelper.GetCount();
+		this.lastRecordedTs = position.lastRecordedTs;
+		this.lastRecordedXYZ = position.lastRecordedXYZ;
+		for(int i=0; i<2; i++) {
+			lastPair[i*3] = position.lastPair.x()[i];
+			lastPair[i*3+1] = position.lastPair.y()[i];
+			lastPair[i*3+2] = position.lastPair.z()[i];
+		}
+		this.countsState = position.countsState;
+		this.resamplingState = position.resamplingState;
+		this.totalBytes = totalBytes;
+	}
+	
+	/*
+	 * The position of a log.bin conversion to resume, see LogActivityProcessor.process()
+	 */
+	LogActivityProcessor.Position getPosition(final int sampleRate) {
+		TimestampHelper tsHelper = new TimestampHelper(1000, sampleRate);
+		tsHelper.SetCount(timestampPhase);
+		AccelSampleBlock pair = new AccelSampleBlock(2);
+		for(int i=0; i<2; i++) {
+			pair.x()[i] = lastPair[i*3];
+			pair.y()[i] = lastPair[i*3+1];
+			pair.z()[i] = lastPair[i*3+2];
+		}
+		pair.setSize(2);
+		LogActivityProcessor.Position position = new LogActivityProcessor.Position(offset, inGap, j, timestamp, hourTs, tsHelper, lastRecordedTs, lastRecordedXYZ, pair);
+		position.countsState = countsState;
+		position.resamplingState = resamplingState;
+		return position;
+	}
+	
+	void setSummary(final ActivityCountSummaryCreator summaryCreator) {
+		if(summaryCreator != null) {
+			this.summaryMinuteTs = (long)summaryCreator.getPreviousMinuteTimestamp();
+			this.summaryTotal = summaryCreator.getTotalSoFar();
+		}
+	}
+	
+	void restoreSummary(final ActivityCountSummaryCreator summaryCreator) {
+		if(summaryCreator != null) {
+			summaryCreator.resume(summaryMinuteTs, summaryTotal);
+		}
+	}
+	
+	/*
+	 * Reads the checkpoint at "path". Returns null if there is none, if it is one of another input or
+	 * other options, or if one of the files completed before is missing or doesn't have the same size.
+	 */
+	static ResumeCheckpoint load(final String path, final String input, final String options) {
+		File file = new File(path);
+		if(!file.isFile()) {
+			return null;
+		}
+		ResumeCheckpoint checkpoint = new ResumeCheckpoint(input, options);
+		Map<String,String> values = new HashMap<String,String>();
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+			try {
+				String line;
+				while((line = in.readLine()) != null) {
+					int separator = line.indexOf('=');
+					if(line.startsWith("#") || separator < 0) {
+						continue;
+					}
+					String key = line.substring(0, separator);
+					String value = line.substring(separator+1);
+					if(key.equals("file")) {
+						// Size, bytes read and calendar of the callback, path
+						String[] tokens = value.split(" ", 4);
+						ConversionCache.OutputFile outputFile = new ConversionCache.OutputFile(tokens[3], Long.parseLong(tokens[1]), Long.parseLong(tokens[2]));
+						outputFile.size = Long.parseLong(tokens[0]);
+						checkpoint.files.add(outputFile);
+					} else {
+						values.put(key, value);
+					}
+				}
+			} finally {
+				in.close();
+			}
+			if(!input.equals(values.get("input")) || !options.equals(values.get("options"))) {
+				return null;
+			}
+			checkpoint.offset = Long.parseLong(values.get("offset"));
+			checkpoint.streamOffset = values.containsKey("streamOffset") ? Long.parseLong(values.get("streamOffset")) : checkpoint.offset;
+			checkpoint.hourTs = Long.parseLong(values.get("hourTs"));
+			checkpoint.timestamp = Double.parseDouble(values.get("timestamp"));
+			checkpoint.inGap = Boolean.parseBoolean(values.get("inGap"));
+			checkpoint.j = Integer.parseInt(values.get("j"));
+			checkpoint.timestampPhase = Integer.parseInt(values.get("timestampPhase"));
+			checkpoint.lastRecordedTs = Long.parseLong(values.get("lastRecordedTs"));
+			checkpoint.lastRecordedXYZ = values.get("lastRecordedXYZ");
+			String[] lastPair = values.get("lastPair").split(",");
+			for(int i=0; i<checkpoint.lastPair.length; i++) {
+				checkpoint.lastPair[i] = Short.parseShort(lastPair[i]);
+			}
+			checkpoint.totalBytes = Long.parseLong(values.get("totalBytes"));
+			checkpoint.summaryMinuteTs = Long.parseLong(values.get("summaryMinuteTs"));
+			checkpoint.summaryTotal = Double.parseDouble(values.get("summaryTotal"));
+			checkpoint.countsState = values.get("countsState");
+			if(checkpoint.countsState != null && !ActiGraphCounts.isState(checkpoint.countsState)) {
+				return null;
+			}
+			checkpoint.resamplingState = values.get("resamplingState");
+		} catch(IOException e) {
+			return null;
+		} catch(RuntimeException e) { // missing or malformed values
+			return null;
+		}
+		// A file written again later (the clock went back) only has its last size
+		Map<String,Long> sizes = new HashMap<String,Long>();
+		for(ConversionCache.OutputFile outputFile : checkpoint.files) {
+			sizes.put(outputFile.path, outputFile.size);
+		}
+		for(Map.Entry<String,Long> size : sizes.entrySet()) {
+			if(new File(size.getKey()).length() != size.getValue()) {
+				return null;
+			}
+		}
+		return checkpoint;
+	}
+	
+	/*
+	 * Writes the checkpoint to "path", synced to the disk, replacing the previous one at once.
+	 * The size of the completed files is taken from the disk.
+	 */
+	void save(final String path) throws IOException {
+		File file = new File(path);
+		File tmp = new File(path + ".tmp");
+		FileOutputStream stream = new FileOutputStream(tmp);
+		Writer out = new OutputStreamWriter(stream, UTF8);
+		try {
+			out.write("# gt3x conversion checkpoint\n");
+			out.write("input="+_input+"\n");
+			out.write("options="+_options+"\n");
+			out.write("offset="+offset+"\n");
+			out.write("streamOffset="+streamOffset+"\n");
+			out.write("hourTs="+hourTs+"\n");
+			out.write("timestamp="+timestamp+"\n");
+			out.write("inGap="+inGap+"\n");
+			out.write("j="+j+"\n");
+			out.write("timestampPhase="+timestampPhase+"\n");
+			out.write("lastRecordedTs="+lastRecordedTs+"\n");
+			if(lastRecordedXYZ != null) {
+				out.write("lastRecordedXYZ="+lastRecordedXYZ+"\n");
+			}
+			out.write("lastPair="+lastPair[0]+","+lastPair[1]+","+lastPair[2]+","+lastPair[3]+","+lastPair[4]+","+lastPair[5]+"\n");
+			out.write("totalBytes="+totalBytes+"\n");
+			out.write("summaryMinuteTs="+summaryMinuteTs+"\n");
+			out.write("summaryTotal="+summaryTotal+"\n");
+			if(countsState != null) {
+				out.write("countsState="+countsState+"\n");
+			}
+			if(resamplingState != null) {
+				out.write("resamplingState="+resamplingState+"\n");
+			}
+			for(ConversionCache.OutputFile outputFile : files) {
+				out.write("file="+new File(outputFile.path).length()+" "+outputFile.bytesRead+" "+outputFile.calendarMillis+" "+outputFile.path+"\n");
+			}
+			out.flush();
+			stream.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if(!tmp.renameTo(file)) {
+			file.delete();
+			if(!tmp.renameTo(file)) {
+				throw new IOException("Could not write "+file);
+			}
+		}
+	}
+}
@@ -0,0 +1,55 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.enums;
+
+/*
+ * Metrics of the epoch files (see EpochAggregator), computed in g (but for COUNTS). Their columns come in this order.
+ */
+public enum EpochMetric {
+
+	ENMO("ENMO"), // mean of max(0, vector magnitude - 1)
+	MAD("MAD"), // mean amplitude deviation, mean of |vector magnitude - its mean|
+	MEAN("X_MEAN,Y_MEAN,Z_MEAN"),
+	SD("X_SD,Y_SD,Z_SD"), // sample standard deviation, 0 for a single sample
+	MINMAX("X_MIN,Y_MIN,Z_MIN,X_MAX,Y_MAX,Z_MAX"),
+	COUNTS("X_COUNTS,Y_COUNTS,Z_COUNTS,VM_COUNTS"); // ActiGraph activity counts, see ActiGraphCounts
+	
+	private String columns;
+	
+	private EpochMetric(final String columns) {
+		this.columns = columns;
+	}
+	
+	/*
+	 * Header of the columns of the metric
+	 */
+	public String getColumns() {
+		return columns;
+	}
+}
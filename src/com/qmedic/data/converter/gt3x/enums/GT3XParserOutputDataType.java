@@ -30,6 +30,7 @@ package com.qmedic.data.converter.gt3x.enums;
 public enum GT3XParserOutputDataType {
 
 	ACTIGRAPH,
-	MHEALTH
+	MHEALTH,
+	BINARY // frames of little-endian columns, see AccelBinaryEncoder
 	
 }
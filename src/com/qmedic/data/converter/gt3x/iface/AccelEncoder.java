@@ -0,0 +1,68 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.iface;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+ * Writes the accelerometer samples of the output files (see AccelCsvEncoder and AccelBinaryEncoder).
+ * Samples are given as raw (ADC) values, the encoder applies the acceleration scale if needed.
+ */
+public interface AccelEncoder extends Closeable {
+	
+	/*
+	 * Starts writing a new file (header included), the previous one (if any) is flushed and closed
+	 */
+	void open(OutputStream out) throws IOException;
+	
+	void writeSample(double timestamp, short x, short y, short z) throws IOException;
+	
+	/*
+	 * Writes a sample filling a data gap, with the last recorded values. "values" is that sample as
+	 * formatted for the CSV gap rows (see AccelPair.getLastRecordedXYZ).
+	 */
+	void writeGapSample(double timestamp, short x, short y, short z, String values) throws IOException;
+	
+	/*
+	 * Same as writeGapSample() for the first "count" timestamps, all with the same values
+	 */
+	void writeGapSamples(long[] timestamps, int count, short x, short y, short z, String values) throws IOException;
+	
+	/*
+	 * The samples are over: an encoder that holds samples back (see ResamplingAccelEncoder) writes
+	 * them to the current file. Called once, before the last file is closed.
+	 */
+	void end() throws IOException;
+	
+	/*
+	 * An encoder with the same settings and buffers of its own, e.g. to write files in parallel
+	 */
+	AccelEncoder copy();
+}
@@ -0,0 +1,56 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.iface;
+
+import java.util.Map;
+
+/*
+ * JMX view of the conversions of this JVM, registered as
+ * "com.qmedic.data.converter.gt3x:type=ConverterMetrics" (see ConverterMetrics)
+ */
+public interface ConverterMetricsMXBean {
+	long getConversionsStarted();
+	long getConversionsSucceeded();
+	long getConversionsFailed();
+	long getConversionsInProgress();
+	long getBytesInflated();
+	long getRecordsParsed();
+	Map<String,Long> getRecordCounts();
+	long getChecksumFailures();
+	long getSamplesDecoded();
+	long getGapSamplesFilled();
+	long getRowsWritten();
+	long getBytesWritten();
+	long getFilesCreated();
+	long getElapsedMillis();
+	Map<String,Long> getStageMillis();
+	String getLastInputFile();
+	long getLastElapsedMillis();
+	void reset();
+}
@@ -0,0 +1,214 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import com.qmedic.data.converter.gt3x.iface.AccelEncoder;
+
+/*
+ * Writer for the BINARY output files: a sequence of fixed-size frames, each holding up to
+ * FRAME_CAPACITY samples as little-endian columns (short ADC values, or float g values).
+ * 
+ * Frame layout (little-endian):
+ *   0   int     MAGIC ("GT3B")
+ *   4   short   VERSION
+ *   6   short   flags (FLAG_G_VALUES)
+ *   8   int     frame size in bytes (the same for every frame of a file)
+ *   12  int     capacity (samples)
+ *   16  int     sample count
+ *   20  int     sample rate (Hz)
+ *   24  double  acceleration scale (ADC counts per g)
+ *   32  long    timestamp of the first sample (milliseconds, UTC)
+ *   40  int     base tick (milliseconds, 1000 / sample rate)
+ *   44  byte[20] serial number (ASCII, zero padded)
+ *   64  tick map: bit i is set if sample i+1 follows sample i by base tick + 1 ms rather than base tick
+ *       gap map: bit i is set if sample i fills a data gap (last recorded values)
+ *       x, y and z columns
+ * 
+ * The timestamps of the converter only ever advance by the base tick or one more millisecond (see
+ * TimestampHelper), anything else (a data gap ending, the clock going back...) starts a new frame.
+ * So the timestamps are exactly those of the CSV output without being stored. Unused room of a
+ * frame is left zeroed. See AccelBinaryReader.
+ */
+public class AccelBinaryEncoder implements AccelEncoder {
+
+	public static final int MAGIC = 0x42335447; // "GT3B"
+	public static final short VERSION = 1;
+	public static final short FLAG_G_VALUES = 1; // float g columns instead of short ADC values
+	public static final int HEADER_SIZE = 64; // bytes
+	public static final int SERIAL_OFFSET = 44;
+	public static final int SERIAL_LENGTH = 20; // bytes
+	public static final int FRAME_CAPACITY = 4096; // samples
+	
+	private boolean _inGAcceleration;
+	private int _sampleRate;
+	private double _accelerationScale;
+	private byte[] _serialNumber = new byte[SERIAL_LENGTH];
+	private int _baseTick;
+	private int _valueSize;
+	private int _columnsOffset;
+	
+	private OutputStream _out = null;
+	private byte[] _frame;
+	private ByteBuffer _frameBuffer;
+	private int _count = 0;
+	private long _startTs = 0;
+	private long _lastTs = 0;
+	
+	/*
+	 * "accelerationScale" is the number of ADC counts per g, for float g values (inGAcceleration) and the frame headers
+	 */
+	public AccelBinaryEncoder(final boolean inGAcceleration, final double accelerationScale, final int sampleRate, final String serialNumber) {
+		this._inGAcceleration = inGAcceleration;
+		this._accelerationScale = accelerationScale;
+		this._sampleRate = sampleRate;
+		if(serialNumber != null) {
+			for(int i = 0; i < serialNumber.length() && i < SERIAL_LENGTH; i++) {
+				_serialNumber[i] = (byte)serialNumber.charAt(i);
+			}
+		}
+		this._baseTick = 1000 / sampleRate;
+		this._valueSize = inGAcceleration ? 4 : 2;
+		this._columnsOffset = HEADER_SIZE + 2 * (FRAME_CAPACITY / 8);
+		this._frame = new byte[frameSize(inGAcceleration)];
+		this._frameBuffer = ByteBuffer.wrap(_frame).order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	/*
+	 * Size in bytes of every frame of a file
+	 */
+	public static int frameSize(final boolean gValues) {
+		return HEADER_SIZE + 2 * (FRAME_CAPACITY / 8) + 3 * FRAME_CAPACITY * (gValues ? 4 : 2);
+	}
+	
+	public AccelEncoder copy() {
+		return new AccelBinaryEncoder(_inGAcceleration, _accelerationScale, _sampleRate, new String(_serialNumber, 0, serialLength()));
+	}
+	
+	/*
+	 * Every sample is written as it comes
+	 */
+	public void end() {
+	}
+	
+	/*
+	 * Binary files have no file header, every frame has its own
+	 */
+	public void open(final OutputStream out) throws IOException {
+		close();
+		this._out = out;
+	}
+	
+	public void writeSample(final double timestamp, final short x, final short y, final short z) throws IOException {
+		append((long)timestamp, x, y, z, false);
+	}
+	
+	public void writeGapSample(final double timestamp, final short x, final short y, final short z, final String values) throws IOException {
+		append((long)timestamp, x, y, z, true);
+	}
+	
+	public void writeGapSamples(final long[] timestamps, final int count, final short x, final short y, final short z, final String values) throws IOException {
+		for(int i = 0; i < count; i++) {
+			append(timestamps[i], x, y, z, true);
+		}
+	}
+	
+	public void close() throws IOException {
+		if(_out != null) {
+			flushFrame();
+			_out.close();
+			_out = null;
+		}
+	}
+	
+	private void append(final long timestamp, final short x, final short y, final short z, final boolean gapFill) throws IOException {
+		if(_count > 0) {
+			long delta = timestamp - _lastTs;
+			if(delta == _baseTick + 1) {
+				_frame[HEADER_SIZE + ((_count-1) >> 3)] |= (byte)(1 << ((_count-1) & 7));
+			} else if(delta != _baseTick) {
+				flushFrame();
+			}
+		}
+		if(_count == 0) {
+			_startTs = timestamp;
+		}
+		if(gapFill) {
+			_frame[HEADER_SIZE + FRAME_CAPACITY / 8 + (_count >> 3)] |= (byte)(1 << (_count & 7));
+		}
+		int p = _columnsOffset + _count * _valueSize;
+		int columnSize = FRAME_CAPACITY * _valueSize;
+		if(_inGAcceleration) {
+			_frameBuffer.putFloat(p, (float)(x/_accelerationScale));
+			_frameBuffer.putFloat(p + columnSize, (float)(y/_accelerationScale));
+			_frameBuffer.putFloat(p + 2 * columnSize, (float)(z/_accelerationScale));
+		} else {
+			_frameBuffer.putShort(p, x);
+			_frameBuffer.putShort(p + columnSize, y);
+			_frameBuffer.putShort(p + 2 * columnSize, z);
+		}
+		_lastTs = timestamp;
+		if(++_count == FRAME_CAPACITY) {
+			flushFrame();
+		}
+	}
+	
+	private void flushFrame() throws IOException {
+		if(_count == 0) {
+			return;
+		}
+		ByteBuffer b = _frameBuffer;
+		b.putInt(0, MAGIC);
+		b.putShort(4, VERSION);
+		b.putShort(6, _inGAcceleration ? FLAG_G_VALUES : 0);
+		b.putInt(8, _frame.length);
+		b.putInt(12, FRAME_CAPACITY);
+		b.putInt(16, _count);
+		b.putInt(20, _sampleRate);
+		b.putDouble(24, _accelerationScale);
+		b.putLong(32, _startTs);
+		b.putInt(40, _baseTick);
+		System.arraycopy(_serialNumber, 0, _frame, SERIAL_OFFSET, SERIAL_LENGTH);
+		_out.write(_frame);
+		Arrays.fill(_frame, (byte)0);
+		_count = 0;
+	}
+	
+	private int serialLength() {
+		int length = 0;
+		while(length < SERIAL_LENGTH && _serialNumber[length] != 0) {
+			length++;
+		}
+		return length;
+	}
+}
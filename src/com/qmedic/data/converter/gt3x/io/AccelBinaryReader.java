@@ -0,0 +1,268 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import com.qmedic.data.converter.gt3x.model.AccelSampleBlock;
+
+/*
+ * Reads a BINARY output file (see AccelBinaryEncoder for the layout). The file is memory mapped,
+ * a window of frames at a time, and its columns are read in place.
+ * 
+ * Usage:
+ *   AccelBinaryReader reader = AccelBinaryReader.open("/path/to/file.sensor.bin");
+ *   while(reader.next()) {
+ *       long ts = reader.timestampMillis();
+ *       double x = reader.x(); // or reader.rawX() for the ADC value
+ *   }
+ *   reader.close();
+ * 
+ * Whole frames can be read at once with readFrame().
+ */
+public class AccelBinaryReader implements Closeable {
+
+	private static final long MAX_WINDOW_SIZE = 256L * 1024 * 1024; // bytes mapped at a time
+	
+	private FileChannel _channel;
+	private long _fileSize;
+	private int _frameSize = 0;
+	private int _frameCount = 0;
+	private int _framesPerWindow = 0;
+	private MappedByteBuffer _window = null;
+	private int _windowFirstFrame = -1;
+	
+	// File properties, from the first frame
+	private boolean _gValues = false;
+	private int _sampleRate = 0;
+	private double _accelerationScale = 0;
+	private String _serialNumber = null;
+	
+	// Cursor
+	private int _frame = -1;
+	private ByteBuffer _frameBuffer = null;
+	private int _frameSamples = 0;
+	private int _capacity = 0;
+	private int _baseTick = 0;
+	private int _sampleIndex = 0;
+	private long _currentTs = 0;
+	
+	public static AccelBinaryReader open(final String filePath) throws IOException {
+		return new AccelBinaryReader(new RandomAccessFile(filePath, "r").getChannel());
+	}
+	
+	public AccelBinaryReader(final FileChannel channel) throws IOException {
+		this._channel = channel;
+		this._fileSize = channel.size();
+		if(_fileSize >= AccelBinaryEncoder.HEADER_SIZE) {
+			ByteBuffer header = ByteBuffer.allocate(AccelBinaryEncoder.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			while(header.hasRemaining() && channel.read(header, header.position()) > 0) {
+			}
+			if(header.getInt(0) != AccelBinaryEncoder.MAGIC) {
+				channel.close();
+				throw new IOException("Not a binary accelerometer file.");
+			}
+			if(header.getShort(4) > AccelBinaryEncoder.VERSION) {
+				channel.close();
+				throw new IOException("Unsupported binary accelerometer file version "+header.getShort(4)+".");
+			}
+			this._gValues = (header.getShort(6) & AccelBinaryEncoder.FLAG_G_VALUES) != 0;
+			this._frameSize = header.getInt(8);
+			this._sampleRate = header.getInt(20);
+			this._accelerationScale = header.getDouble(24);
+			byte[] serial = new byte[AccelBinaryEncoder.SERIAL_LENGTH];
+			header.position(AccelBinaryEncoder.SERIAL_OFFSET);
+			header.get(serial);
+			int length = 0;
+			while(length < serial.length && serial[length] != 0) {
+				length++;
+			}
+			this._serialNumber = new String(serial, 0, length, StandardCharsets.US_ASCII);
+			this._frameCount = (int)(_fileSize / _frameSize);
+			this._framesPerWindow = (int)Math.max(1, MAX_WINDOW_SIZE / _frameSize);
+		}
+	}
+	
+	public int getFrameCount() {
+		return _frameCount;
+	}
+	
+	public boolean gValues() {
+		return _gValues;
+	}
+	
+	public int getSampleRate() {
+		return _sampleRate;
+	}
+	
+	public double getAccelerationScale() {
+		return _accelerationScale;
+	}
+	
+	public String getSerialNumber() {
+		return _serialNumber;
+	}
+	
+	/*
+	 * Moves the cursor to the next sample. Returns false once all samples have been read.
+	 */
+	public boolean next() throws IOException {
+		if(_frameBuffer != null && _sampleIndex + 1 < _frameSamples) {
+			_currentTs += _baseTick + (tickBit(_sampleIndex) ? 1 : 0);
+			_sampleIndex++;
+			return true;
+		}
+		while(_frame + 1 < _frameCount) {
+			selectFrame(_frame + 1);
+			if(_frameSamples > 0) {
+				_sampleIndex = 0;
+				_currentTs = _frameBuffer.getLong(32);
+				return true;
+			}
+		}
+		_frameBuffer = null;
+		return false;
+	}
+	
+	public long timestampMillis() {
+		return _currentTs;
+	}
+	
+	/*
+	 * The ADC value. Float g values are converted back with the acceleration scale.
+	 */
+	public short rawX() {
+		return raw(0);
+	}
+	
+	public short rawY() {
+		return raw(1);
+	}
+	
+	public short rawZ() {
+		return raw(2);
+	}
+	
+	/*
+	 * The value in g
+	 */
+	public double x() {
+		return value(0);
+	}
+	
+	public double y() {
+		return value(1);
+	}
+	
+	public double z() {
+		return value(2);
+	}
+	
+	public boolean isGapFill() {
+		int bit = _sampleIndex;
+		return (_frameBuffer.get(AccelBinaryEncoder.HEADER_SIZE + _capacity / 8 + (bit >> 3)) & (1 << (bit & 7))) != 0;
+	}
+	
+	/*
+	 * Reads all samples of a frame as ADC values into "block" and their timestamps into "timestamps"
+	 * (at least AccelBinaryEncoder.FRAME_CAPACITY long, may be null). Returns the number of samples.
+	 * next() then continues with the following frame.
+	 */
+	public int readFrame(final int frame, final AccelSampleBlock block, final long[] timestamps) throws IOException {
+		selectFrame(frame);
+		int count = _frameSamples;
+		short[] x = block.x();
+		short[] y = block.y();
+		short[] z = block.z();
+		long ts = _frameBuffer.getLong(32);
+		for(int i = 0; i < count; i++) {
+			_sampleIndex = i;
+			x[i] = raw(0);
+			y[i] = raw(1);
+			z[i] = raw(2);
+			if(timestamps != null) {
+				timestamps[i] = ts;
+				ts += _baseTick + (tickBit(i) ? 1 : 0);
+			}
+		}
+		block.setSize(count);
+		_sampleIndex = Math.max(0, count - 1);
+		return count;
+	}
+	
+	public void close() throws IOException {
+		_window = null;
+		_frameBuffer = null;
+		_channel.close();
+	}
+	
+	private void selectFrame(final int frame) throws IOException {
+		if(_window == null || frame < _windowFirstFrame || frame >= _windowFirstFrame + _framesPerWindow) {
+			int frames = Math.min(_framesPerWindow, _frameCount - frame);
+			_window = _channel.map(FileChannel.MapMode.READ_ONLY, (long)frame * _frameSize, (long)frames * _frameSize);
+			_windowFirstFrame = frame;
+		}
+		_window.limit((frame - _windowFirstFrame + 1) * _frameSize);
+		_window.position((frame - _windowFirstFrame) * _frameSize);
+		_frameBuffer = _window.slice().order(ByteOrder.LITTLE_ENDIAN);
+		_window.clear();
+		_frame = frame;
+		_frameSamples = _frameBuffer.getInt(16);
+		_capacity = _frameBuffer.getInt(12);
+		_baseTick = _frameBuffer.getInt(40);
+	}
+	
+	private boolean tickBit(final int index) {
+		return (_frameBuffer.get(AccelBinaryEncoder.HEADER_SIZE + (index >> 3)) & (1 << (index & 7))) != 0;
+	}
+	
+	private int columnOffset(final int axis) {
+		return AccelBinaryEncoder.HEADER_SIZE + 2 * (_capacity / 8) + (axis * _capacity + _sampleIndex) * (_gValues ? 4 : 2);
+	}
+	
+	private short raw(final int axis) {
+		if(_gValues) {
+			return (short)Math.round(_frameBuffer.getFloat(columnOffset(axis)) * _accelerationScale);
+		}
+		return _frameBuffer.getShort(columnOffset(axis));
+	}
+	
+	private double value(final int axis) {
+		if(_gValues) {
+			return _frameBuffer.getFloat(columnOffset(axis));
+		}
+		return _frameBuffer.getShort(columnOffset(axis)) / _accelerationScale;
+	}
+}
@@ -0,0 +1,268 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.qmedic.data.converter.gt3x.base.OutFileWriter;
+import com.qmedic.data.converter.gt3x.enums.GT3XParserOutputDataType;
+import com.qmedic.data.converter.gt3x.iface.AccelEncoder;
+import com.qmedic.data.converter.gt3x.utils.TimestampFormatter;
+
+/*
+ * Byte-level writer for the rows of the accelerometer CSV files.
+ * The formatted value of every possible 12-bit sample (4096 of them) is computed once per
+ * conversion, with the same formatting as OutFileWriter.formatTo3Decimals(), and rows are
+ * assembled by copying those bytes into a reusable buffer. All output is ASCII, so no charset
+ * encoding takes place. Values out of the 12-bit range (16-bit ACTIVITY2 samples) are formatted
+ * as they come. The encoder writes to one output file at a time, see open().
+ * Files start with the mHealth header.
+ */
+public class AccelCsvEncoder extends OutFileWriter implements AccelEncoder {
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024; // bytes
+	private static final int SAMPLE_VALUES = 4096; // 12-bit samples
+	private static final int VALUE_OFFSET = 2048; // table index of the sample value 0
+	private static final int VALUE_STRIDE = 8; // bytes reserved per formatted value, e.g. "-5.997"
+	private static final int MAX_ROW_SIZE = TimestampFormatter.MAX_LENGTH + 3 * VALUE_STRIDE + 4; // bytes, timestamp, values, separators and line end
+	
+	private byte[] _values = new byte[SAMPLE_VALUES * VALUE_STRIDE];
+	private byte[] _valueLengths = new byte[SAMPLE_VALUES];
+	private boolean _inGAcceleration;
+	private double _accelerationScale;
+	private boolean _withTimestamps;
+	private boolean _actigraphLineEnd;
+	private TimestampFormatter _timestampFormatter;
+	private String _gapValues = null; // of the gap row encoded in _gapRow
+	private byte[] _gapRow = new byte[MAX_ROW_SIZE];
+	private int _gapRowLength = 0;
+	
+	private OutputStream _out = null;
+	private byte[] _buffer;
+	private int _position = 0;
+	
+	/*
+	 * "accelerationScale" is the number of ADC counts per g, it is only used if inGAcceleration is set
+	 */
+	public AccelCsvEncoder(final boolean inGAcceleration, final boolean withTimestamps, final double accelerationScale, 
+			final GT3XParserOutputDataType outputDataType, final TimestampFormatter timestampFormatter) {
+		this._inGAcceleration = inGAcceleration;
+		this._accelerationScale = accelerationScale;
+		this._withTimestamps = withTimestamps;
+		this._actigraphLineEnd = (outputDataType == GT3XParserOutputDataType.ACTIGRAPH);
+		this._timestampFormatter = timestampFormatter;
+		this._buffer = new byte[DEFAULT_BUFFER_SIZE];
+		
+		// Same conversions as AccelPair.writeToFile()
+		for(int v = -VALUE_OFFSET; v < SAMPLE_VALUES - VALUE_OFFSET; v++) {
+			String formatted = inGAcceleration ? formatTo3Decimals(v/accelerationScale) : formatTo3Decimals(v);
+			int p = (v + VALUE_OFFSET) * VALUE_STRIDE;
+			for(int i = 0; i < formatted.length(); i++) {
+				_values[p+i] = (byte)formatted.charAt(i);
+			}
+			_valueLengths[v + VALUE_OFFSET] = (byte)formatted.length();
+		}
+	}
+	
+	/*
+	 * Same conversions as "prototype" (its value tables are shared), with its own buffer, timestamp
+	 * cache and output. Cheaper than building the tables again, e.g. for every hourly file written
+	 * in parallel.
+	 */
+	public AccelCsvEncoder(final AccelCsvEncoder prototype) {
+		this._values = prototype._values;
+		this._valueLengths = prototype._valueLengths;
+		this._inGAcceleration = prototype._inGAcceleration;
+		this._accelerationScale = prototype._accelerationScale;
+		this._withTimestamps = prototype._withTimestamps;
+		this._actigraphLineEnd = prototype._actigraphLineEnd;
+		this._timestampFormatter = prototype._timestampFormatter.copy();
+		this._buffer = new byte[DEFAULT_BUFFER_SIZE];
+	}
+	
+	public AccelEncoder copy() {
+		return new AccelCsvEncoder(this);
+	}
+	
+	/*
+	 * Every sample is written as it comes
+	 */
+	public void end() {
+	}
+	
+	public void open(final OutputStream out) throws IOException {
+		close();
+		this._out = out;
+		write(_withTimestamps ? "HEADER_TIMESTAMP,X,Y,Z\n" : "X,Y,Z\n"); // Add mHealth header
+	}
+	
+	/*
+	 * Writes a row with the given raw (ADC) values
+	 */
+	public void writeSample(final double timestamp, final short x, final short y, final short z) throws IOException {
+		if(_buffer.length - _position < MAX_ROW_SIZE) {
+			flush();
+		}
+		if(_withTimestamps) {
+			_position = _timestampFormatter.format((long)timestamp, _buffer, _position);
+			_buffer[_position++] = ',';
+		}
+		appendValue(x);
+		_buffer[_position++] = ',';
+		appendValue(y);
+		_buffer[_position++] = ',';
+		appendValue(z);
+		appendLineEnd();
+	}
+	
+	/*
+	 * Gap rows keep the formatting they always had, see writeRow()
+	 */
+	public void writeGapSample(final double timestamp, final short x, final short y, final short z, final String values) throws IOException {
+		writeRow(timestamp, values);
+	}
+	
+	/*
+	 * The rest of the row (separator, values and line end) is encoded once, every row is then a
+	 * formatted timestamp and a copy of it
+	 */
+	public void writeGapSamples(final long[] timestamps, final int count, final short x, final short y, final short z, final String values) throws IOException {
+		if(!values.equals(_gapValues)) {
+			encodeGapRow(values);
+		}
+		int rowSize = (_withTimestamps ? TimestampFormatter.MAX_LENGTH : 0) + _gapRowLength;
+		if(rowSize > _buffer.length) {
+			for(int i = 0; i < count; i++) {
+				writeRow(timestamps[i], values);
+			}
+			return;
+		}
+		for(int i = 0; i < count; i++) {
+			if(_buffer.length - _position < rowSize) {
+				flush();
+			}
+			if(_withTimestamps) {
+				_position = _timestampFormatter.format(timestamps[i], _buffer, _position);
+			}
+			System.arraycopy(_gapRow, 0, _buffer, _position, _gapRowLength);
+			_position += _gapRowLength;
+		}
+	}
+	
+	private void encodeGapRow(final String values) {
+		int length = values.length() + (_withTimestamps ? 1 : 0) + (_actigraphLineEnd ? 2 : 1);
+		if(_gapRow.length < length) {
+			_gapRow = new byte[length];
+		}
+		int p = 0;
+		if(_withTimestamps) {
+			_gapRow[p++] = ',';
+		}
+		for(int i = 0; i < values.length(); i++) {
+			_gapRow[p++] = (byte)values.charAt(i);
+		}
+		if(_actigraphLineEnd) {
+			_gapRow[p++] = '\r';
+		}
+		_gapRow[p++] = '\n';
+		_gapRowLength = p;
+		_gapValues = values;
+	}
+	
+	/*
+	 * Writes a row with already formatted values, e.g. "0.023,-0.98,0.1" (used to fill data gaps)
+	 */
+	public void writeRow(final double timestamp, final String values) throws IOException {
+		if(_withTimestamps) {
+			if(_buffer.length - _position < TimestampFormatter.MAX_LENGTH + 1) {
+				flush();
+			}
+			_position = _timestampFormatter.format((long)timestamp, _buffer, _position);
+			_buffer[_position++] = ',';
+		}
+		appendAscii(values);
+		if(_buffer.length - _position < 2) {
+			flush();
+		}
+		appendLineEnd();
+	}
+	
+	/*
+	 * Writes text as is, e.g. the file header
+	 */
+	public void write(final String text) throws IOException {
+		appendAscii(text);
+	}
+	
+	public void flush() throws IOException {
+		if(_position > 0) {
+			_out.write(_buffer, 0, _position);
+			_position = 0;
+		}
+	}
+	
+	public void close() throws IOException {
+		if(_out != null) {
+			flush();
+			_out.close();
+			_out = null;
+		}
+	}
+	
+	private void appendValue(final short value) throws IOException {
+		int index = value + VALUE_OFFSET;
+		if(index < 0 || index >= SAMPLE_VALUES) {
+			appendAscii(_inGAcceleration ? formatTo3Decimals(value/_accelerationScale) : formatTo3Decimals(value));
+			if(_buffer.length - _position < MAX_ROW_SIZE) {
+				flush(); // room for the rest of the row
+			}
+			return;
+		}
+		int length = _valueLengths[index];
+		System.arraycopy(_values, index * VALUE_STRIDE, _buffer, _position, length);
+		_position += length;
+	}
+	
+	private void appendLineEnd() {
+		if(_actigraphLineEnd) {
+			_buffer[_position++] = '\r';
+		}
+		_buffer[_position++] = '\n';
+	}
+	
+	private void appendAscii(final String s) throws IOException {
+		int length = s.length();
+		for(int i = 0; i < length; i++) {
+			if(_position == _buffer.length) {
+				flush();
+			}
+			_buffer[_position++] = (byte)s.charAt(i);
+		}
+	}
+}
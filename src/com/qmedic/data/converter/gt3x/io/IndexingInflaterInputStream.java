@@ -0,0 +1,564 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import com.qmedic.data.converter.gt3x.enums.LogRecordType;
+import com.qmedic.data.converter.gt3x.model.LogRecord;
+import com.qmedic.data.converter.gt3x.utils.GT3XUtils;
+
+/*
+ * Inflates a DEFLATED zip entry (log.bin) straight from the zip file and builds its InflateIndex on
+ * the way. java.util.zip.Inflater cannot tell where deflate blocks end, so this is a decoder of its own
+ * (RFC 1951, two level Huffman tables). At a block boundary about every "span" bytes it takes a
+ * checkpoint, and it follows the log record headers going by to find the first activity record after
+ * each one.
+ * 
+ * getIndex() returns the index once the entry has been read to its end. The CRC and size of the
+ * inflated data are checked against the entry.
+ */
+public class IndexingInflaterInputStream extends InputStream {
+
+	private static final int FAST_BITS = 10; // looked up at once, longer codes go through a subtable
+	private static final int FAST_MASK = (1 << FAST_BITS) - 1;
+	private static final int MAX_BITS = 15;
+	private static final int SUBTABLE = 0x100; // table entry flag, its low bits being the subtable's bits
+	private static final int TABLE_SIZE = (1 << FAST_BITS) + (1 << FAST_BITS) * (1 << (MAX_BITS - FAST_BITS));
+	private static final int INPUT_SIZE = 64 * 1024; // bytes
+	private static final int OUTPUT_SIZE = 256 * 1024; // bytes, keeps the last WINDOW_SIZE bytes when it is full
+	private static final int MAX_MATCH = 258;
+	
+	private static final int[] LENGTH_BASE = {3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+	private static final int[] LENGTH_EXTRA = {0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+	private static final int[] DISTANCE_BASE = {1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+	private static final int[] DISTANCE_EXTRA = {0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+	private static final int[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+	
+	// Decoder states, at block boundaries or within a block
+	private static final int HEADER = 0;
+	private static final int STORED = 1;
+	private static final int CODES = 2;
+	private static final int DONE = 3;
+	
+	private static final int[] FIXED_LITERALS = new int[TABLE_SIZE];
+	private static final int[] FIXED_DISTANCES = new int[TABLE_SIZE];
+	static {
+		int[] lengths = new int[288];
+		Arrays.fill(lengths, 0, 144, 8);
+		Arrays.fill(lengths, 144, 256, 9);
+		Arrays.fill(lengths, 256, 280, 7);
+		Arrays.fill(lengths, 280, 288, 8);
+		buildTable(lengths, 0, 288, FIXED_LITERALS);
+		Arrays.fill(lengths, 0, 30, 5);
+		buildTable(lengths, 0, 30, FIXED_DISTANCES);
+	}
+	
+	private ZipEntry _entry;
+	private long _span;
+	
+	// Compressed input
+	private FileChannel _channel;
+	private long _position;
+	private long _end;
+	private byte[] _in = new byte[INPUT_SIZE];
+	private int _inPos = 0;
+	private int _inLimit = 0;
+	private long _bytesLoaded = 0; // into the bit buffer (or copied out of a stored block), including the padding past the end
+	private long _bitBuffer = 0;
+	private int _bitCount = 0;
+	
+	// Decoder
+	private int _state = HEADER;
+	private boolean _finalBlock = false;
+	private int _storedLeft = 0;
+	private int[] _literals = null;
+	private int[] _distances = null;
+	private int[] _dynamicLiterals = new int[TABLE_SIZE];
+	private int[] _dynamicDistances = new int[TABLE_SIZE];
+	private int[] _lengths = new int[288 + 32];
+	
+	// Inflated output, _out[0] being at _outBase in the entry
+	private byte[] _out = new byte[OUTPUT_SIZE];
+	private int _outPos = 0;
+	private int _readPos = 0;
+	private long _outBase = 0;
+	private CRC32 _crc = new CRC32();
+	
+	// Index
+	private InflateIndex _index;
+	private List<InflateIndex.Checkpoint> _checkpoints = null;
+	private long _lastCheckpoint = 0;
+	private int _unresolved = 0; // first checkpoint without its record yet
+	private long _nextRecord = 0;
+	private LogRecord _record = new LogRecord();
+	private boolean _finished = false;
+	
+	/*
+	 * Reads "entry" of the zip file "channel", whose compressed data starts at "dataOffset" (see
+	 * ZipEntryLocator). The stream closes the channel.
+	 */
+	public IndexingInflaterInputStream(final FileChannel channel, final long dataOffset, final ZipEntry entry, final long span) {
+		this._channel = channel;
+		this._position = dataOffset;
+		this._end = dataOffset + entry.getCompressedSize();
+		this._entry = entry;
+		this._span = span;
+		this._index = new InflateIndex(entry, span);
+		this._checkpoints = _index.getCheckpoints();
+	}
+	
+	/*
+	 * The index of the entry, null until it has been read to its end
+	 */
+	public InflateIndex getIndex() {
+		return _finished ? _index : null;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xFF);
+	}
+	
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		if(len == 0) {
+			return 0;
+		}
+		while(_readPos == _outPos) {
+			if(_state == DONE) {
+				finish();
+				return -1;
+			}
+			inflate();
+		}
+		int n = Math.min(len, _outPos - _readPos);
+		System.arraycopy(_out, _readPos, b, off, n);
+		_readPos += n;
+		return n;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		_channel.close();
+	}
+	
+	/*
+	 * Inflates until the output buffer is full or the last block ends
+	 */
+	private void inflate() throws IOException {
+		if(_outPos > OUTPUT_SIZE - MAX_MATCH) {
+			// Keep the dictionary, and the record that is not complete yet
+			int from = _outPos - Math.min(InflateIndex.WINDOW_SIZE, _outPos);
+			if(_nextRecord - _outBase < from) {
+				from = (int)(_nextRecord - _outBase);
+			}
+			System.arraycopy(_out, from, _out, 0, _outPos - from);
+			_outBase += from;
+			_outPos -= from;
+			_readPos = _outPos;
+		}
+		int start = _outPos;
+		while(_state != DONE && _outPos <= OUTPUT_SIZE - MAX_MATCH) {
+			switch(_state) {
+			case HEADER:
+				readBlockHeader();
+				break;
+			case STORED:
+				copyStored();
+				break;
+			default:
+				inflateCodes();
+				break;
+			}
+		}
+		_crc.update(_out, start, _outPos - start);
+		trackRecords();
+	}
+	
+	private void readBlockHeader() throws IOException {
+		_finalBlock = bits(1) == 1;
+		int type = bits(2);
+		if(type == 0) {
+			bits(_bitCount & 7); // to the byte boundary
+			int length = bits(16);
+			int complement = bits(16);
+			if(length != (~complement & 0xFFFF)) {
+				throw new ZipException("invalid stored block lengths");
+			}
+			_storedLeft = length;
+			_state = STORED;
+		} else if(type == 1) {
+			_literals = FIXED_LITERALS;
+			_distances = FIXED_DISTANCES;
+			_state = CODES;
+		} else if(type == 2) {
+			readDynamicTables();
+			_literals = _dynamicLiterals;
+			_distances = _dynamicDistances;
+			_state = CODES;
+		} else {
+			throw new ZipException("invalid block type");
+		}
+		if(_state == STORED && _storedLeft == 0) {
+			blockEnded();
+		}
+	}
+	
+	private void readDynamicTables() throws IOException {
+		int literalCount = bits(5) + 257;
+		int distanceCount = bits(5) + 1;
+		int codeLengthCount = bits(4) + 4;
+		if(literalCount > 286 || distanceCount > 30) {
+			throw new ZipException("too many length or distance symbols");
+		}
+		int[] lengths = _lengths;
+		Arrays.fill(lengths, 0, 19, 0);
+		for(int i = 0; i < codeLengthCount; i++) {
+			lengths[CODE_LENGTH_ORDER[i]] = bits(3);
+		}
+		int[] codeLengths = _dynamicLiterals; // rebuilt right after
+		if(!buildTable(lengths, 0, 19, codeLengths)) {
+			throw new ZipException("invalid code lengths set");
+		}
+		int count = literalCount + distanceCount;
+		int n = 0;
+		while(n < count) {
+			int symbol = decode(codeLengths);
+			if(symbol < 16) {
+				lengths[n++] = symbol;
+			} else {
+				int value = 0;
+				int repeat;
+				if(symbol == 16) {
+					if(n == 0) {
+						throw new ZipException("invalid bit length repeat");
+					}
+					value = lengths[n-1];
+					repeat = 3 + bits(2);
+				} else if(symbol == 17) {
+					repeat = 3 + bits(3);
+				} else {
+					repeat = 11 + bits(7);
+				}
+				if(n + repeat > count) {
+					throw new ZipException("invalid bit length repeat");
+				}
+				Arrays.fill(lengths, n, n + repeat, value);
+				n += repeat;
+			}
+		}
+		if(lengths[256] == 0) {
+			throw new ZipException("invalid code -- missing end-of-block");
+		}
+		if(!buildTable(lengths, 0, literalCount, _dynamicLiterals) || !buildTable(lengths, literalCount, distanceCount, _dynamicDistances)) {
+			throw new ZipException("invalid literal/lengths or distances set");
+		}
+	}
+	
+	private void copyStored() throws IOException {
+		int n = Math.min(_storedLeft, OUTPUT_SIZE - _outPos);
+		_storedLeft -= n;
+		// Whole bytes left in the bit buffer first, then straight from the input
+		while(n > 0 && _bitCount >= 8) {
+			_out[_outPos++] = (byte)_bitBuffer;
+			_bitBuffer >>>= 8;
+			_bitCount -= 8;
+			n--;
+		}
+		while(n > 0) {
+			if(_inPos == _inLimit && !fillInput()) {
+				throw new EOFException("Unexpected end of ZLIB input stream");
+			}
+			int count = Math.min(n, _inLimit - _inPos);
+			System.arraycopy(_in, _inPos, _out, _outPos, count);
+			_inPos += count;
+			_outPos += count;
+			_bytesLoaded += count;
+			n -= count;
+		}
+		if(_storedLeft == 0) {
+			blockEnded();
+		}
+	}
+	
+	private void inflateCodes() throws IOException {
+		byte[] out = _out;
+		int pos = _outPos;
+		int[] literals = _literals;
+		int[] distances = _distances;
+		while(pos <= OUTPUT_SIZE - MAX_MATCH) {
+			int symbol = decode(literals);
+			if(symbol < 256) {
+				out[pos++] = (byte)symbol;
+			} else if(symbol == 256) {
+				_outPos = pos;
+				blockEnded();
+				return;
+			} else {
+				symbol -= 257;
+				if(symbol >= 29) {
+					throw new ZipException("invalid literal/length code");
+				}
+				int length = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+				symbol = decode(distances);
+				if(symbol >= 30) {
+					throw new ZipException("invalid distance code");
+				}
+				int distance = DISTANCE_BASE[symbol] + bits(DISTANCE_EXTRA[symbol]);
+				if(distance > pos) {
+					throw new ZipException("invalid distance too far back");
+				}
+				int from = pos - distance;
+				if(distance >= length) {
+					System.arraycopy(out, from, out, pos, length);
+					pos += length;
+				} else {
+					// Overlapping, repeats the last "distance" bytes
+					for(int end = pos + length; pos < end; ) {
+						out[pos++] = out[from++];
+					}
+				}
+			}
+		}
+		_outPos = pos;
+	}
+	
+	/*
+	 * At a block boundary: takes a checkpoint every span bytes, unless it was the last block
+	 */
+	private void blockEnded() throws IOException {
+		if(_finalBlock) {
+			_state = DONE;
+			if(_bytesLoaded*8 - _bitCount > _entry.getCompressedSize()*8) {
+				throw new EOFException("Unexpected end of ZLIB input stream");
+			}
+			return;
+		}
+		_state = HEADER;
+		long total = _outBase + _outPos;
+		if(total - _lastCheckpoint >= _span) {
+			InflateIndex.Checkpoint checkpoint = new InflateIndex.Checkpoint();
+			checkpoint.bitOffset = _bytesLoaded*8 - _bitCount;
+			checkpoint.uncompressedOffset = total;
+			checkpoint.windowLength = (int)Math.min(InflateIndex.WINDOW_SIZE, total);
+			checkpoint.window = Arrays.copyOfRange(_out, _outPos - checkpoint.windowLength, _outPos);
+			_index.add(checkpoint);
+			_lastCheckpoint = total;
+		}
+	}
+	
+	/*
+	 * Goes over the records inflated so far. A record is always as long as its header says, as for
+	 * LogRecordReader, so the records can be followed by their headers. A checkpoint goes with the first
+	 * ACTIVITY (or ACTIVITY2) record after it whose checksum is right.
+	 */
+	private void trackRecords() {
+		long end = _outBase + _outPos;
+		byte[] b = _out;
+		while(_nextRecord + LogRecord.HEADER_SIZE <= end) {
+			int p = (int)(_nextRecord - _outBase);
+			int payloadSize = (b[p+6]&0xFF) | ((b[p+7]&0xFF)<<8);
+			int recordSize = LogRecord.HEADER_SIZE + payloadSize + 1;
+			if(_nextRecord + recordSize > end) {
+				break; // until the rest of it is inflated
+			}
+			int type = b[p+1] & 0xFF;
+			if(_unresolved < _checkpoints.size() && _checkpoints.get(_unresolved).uncompressedOffset <= _nextRecord
+					&& (type == LogRecordType.ACTIVITY.getId() || type == LogRecordType.ACTIVITY2.getId())) {
+				LogRecord record = _record;
+				record.setType((short)type);
+				record.setTimestamp((b[p+2]&0xFF) | ((b[p+3]&0xFF)<<8) | ((b[p+4]&0xFF)<<16) | ((long)(b[p+5]&0xFF)<<24));
+				record.setPayloadSize(payloadSize);
+				record.setPayload(b, p + LogRecord.HEADER_SIZE);
+				if(GT3XUtils.CalculateCheckSum(record, b[p + recordSize - 1]) == 0x1E) {
+					for(; _unresolved < _checkpoints.size(); _unresolved++) {
+						InflateIndex.Checkpoint checkpoint = _checkpoints.get(_unresolved);
+						if(checkpoint.uncompressedOffset > _nextRecord) {
+							break;
+						}
+						checkpoint.recordOffset = _nextRecord;
+						checkpoint.recordTimestamp = record.getTimestamp();
+					}
+				}
+			}
+			_nextRecord += recordSize;
+		}
+	}
+	
+	private void finish() throws IOException {
+		if(_finished) {
+			return;
+		}
+		long size = _outBase + _outPos;
+		if(_entry.getSize() >= 0 && size != _entry.getSize()) {
+			throw new ZipException("invalid entry size (expected "+_entry.getSize()+" but got "+size+" bytes)");
+		}
+		if(_entry.getCrc() >= 0 && _crc.getValue() != _entry.getCrc()) {
+			throw new ZipException("invalid entry CRC (expected 0x"+Long.toHexString(_entry.getCrc())+" but got 0x"+Long.toHexString(_crc.getValue())+")");
+		}
+		_index.removeUnresolved();
+		_finished = true;
+	}
+	
+	/*
+	 * Decodes a symbol with a table of buildTable()
+	 */
+	private int decode(final int[] table) throws IOException {
+		if(_bitCount < MAX_BITS) {
+			refill();
+		}
+		int entry = table[(int)_bitBuffer & FAST_MASK];
+		if((entry & SUBTABLE) != 0) {
+			entry = table[(entry >>> 16) + ((int)(_bitBuffer >>> FAST_BITS) & ((1 << (entry & 0xFF)) - 1))];
+		}
+		int length = entry & 0xFF;
+		if(length == 0) {
+			throw new ZipException("invalid code");
+		}
+		_bitBuffer >>>= length;
+		_bitCount -= length;
+		return entry >>> 16;
+	}
+	
+	private int bits(final int count) throws IOException {
+		if(_bitCount < count) {
+			refill();
+		}
+		int value = (int)_bitBuffer & ((1 << count) - 1);
+		_bitBuffer >>>= count;
+		_bitCount -= count;
+		return value;
+	}
+	
+	/*
+	 * Tops the bit buffer up. Past the end of the data it is padded with zeros, which may be looked at
+	 * but not used.
+	 */
+	private void refill() throws IOException {
+		while(_bitCount <= 56) {
+			if(_inPos == _inLimit && !fillInput()) {
+				if(_bytesLoaded - _entry.getCompressedSize() < 8) {
+					// Padding
+					_bitCount += 8;
+					_bytesLoaded++;
+					continue;
+				}
+				throw new EOFException("Unexpected end of ZLIB input stream");
+			}
+			_bitBuffer |= (long)(_in[_inPos++] & 0xFF) << _bitCount;
+			_bitCount += 8;
+			_bytesLoaded++;
+		}
+	}
+	
+	private boolean fillInput() throws IOException {
+		if(_position >= _end) {
+			return false;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(_in, 0, (int)Math.min(_in.length, _end - _position));
+		int n = _channel.read(buffer, _position);
+		if(n <= 0) {
+			return false;
+		}
+		_position += n;
+		_inPos = 0;
+		_inLimit = n;
+		return true;
+	}
+	
+	/*
+	 * Canonical Huffman decoding table for the code lengths lengths[offset..offset+count) (0 for unused
+	 * symbols). Entries are (symbol << 16) | code length, indexed by the next FAST_BITS bits of input, or
+	 * point to a subtable for the codes that are longer. Returns false if the lengths are over-subscribed.
+	 */
+	private static boolean buildTable(final int[] lengths, final int offset, final int count, final int[] table) {
+		int[] lengthCount = new int[MAX_BITS + 1];
+		for(int i = 0; i < count; i++) {
+			lengthCount[lengths[offset + i]]++;
+		}
+		lengthCount[0] = 0;
+		int left = 1;
+		int maxLength = 0;
+		for(int length = 1; length <= MAX_BITS; length++) {
+			left = (left << 1) - lengthCount[length];
+			if(left < 0) {
+				return false;
+			}
+			if(lengthCount[length] > 0) {
+				maxLength = length;
+			}
+		}
+		int[] nextCode = new int[MAX_BITS + 1];
+		for(int length = 1, code = 0; length <= MAX_BITS; length++) {
+			code = (code + lengthCount[length-1]) << 1;
+			nextCode[length] = code;
+		}
+		Arrays.fill(table, 0, 1 << FAST_BITS, 0);
+		int subBits = Math.max(0, maxLength - FAST_BITS);
+		int nextSubtable = 1 << FAST_BITS;
+		for(int symbol = 0; symbol < count; symbol++) {
+			int length = lengths[offset + symbol];
+			if(length == 0) {
+				continue;
+			}
+			int code = Integer.reverse(nextCode[length]++) >>> (32 - length); // deflate sends codes from their last bit
+			if(length <= FAST_BITS) {
+				for(int i = code; i < (1 << FAST_BITS); i += 1 << length) {
+					table[i] = (symbol << 16) | length;
+				}
+			} else {
+				int prefix = code & FAST_MASK;
+				int subtable;
+				if((table[prefix] & SUBTABLE) == 0) {
+					subtable = nextSubtable;
+					nextSubtable += 1 << subBits;
+					Arrays.fill(table, subtable, nextSubtable, 0);
+					table[prefix] = (subtable << 16) | SUBTABLE | subBits;
+				} else {
+					subtable = table[prefix] >>> 16;
+				}
+				for(int i = code >>> FAST_BITS; i < (1 << subBits); i += 1 << (length - FAST_BITS)) {
+					table[subtable + i] = (symbol << 16) | length;
+				}
+			}
+		}
+		return true;
+	}
+}
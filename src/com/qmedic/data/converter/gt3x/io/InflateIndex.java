@@ -0,0 +1,430 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+
+/*
+ * Checkpoints into a DEFLATED zip entry (log.bin), so that it can be inflated from the middle
+ * instead of from its first byte, as in zlib's zran example. A checkpoint is taken at a deflate
+ * block boundary about every "span" bytes of inflated data and holds the bit offset of that block
+ * in the compressed data and the 32 KB of inflated data before it (the dictionary the following
+ * blocks may refer to). It also holds the offset and timestamp of the first ACTIVITY (or ACTIVITY2)
+ * record starting at or after it, to find where a time window starts, and the state of the conversion's
+ * timestamp helper at that record (see LogActivityProcessor), so that the samples get the timestamps
+ * they get when log.bin is converted from its start.
+ * 
+ * The index is built while the entry is inflated once (see IndexingInflaterInputStream) and saved
+ * next to the gt3x file (see sidecarPath()). It is only used with the entry it was built from
+ * (same size, compressed size and CRC). Checkpoint windows are read from the sidecar when needed.
+ */
+public class InflateIndex {
+
+	public static final long DEFAULT_SPAN = 8L * 1024 * 1024; // bytes of inflated data between checkpoints
+	public static final int WINDOW_SIZE = 32 * 1024; // bytes, the deflate dictionary
+	private static final String SIDECAR_SUFFIX = ".idx";
+	private static final int MAGIC = 0x47334958; // "G3IX"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 4 + 4 + 4 * 8 + 4; // bytes
+	private static final int CHECKPOINT_SIZE = 4 * 8 + 4 + 4; // bytes, without the window
+	private static final int INPUT_BUFFER_SIZE = 64 * 1024; // bytes
+	
+	/*
+	 * Where inflating can start again
+	 */
+	public static final class Checkpoint {
+		long bitOffset; // of the deflate block in the entry's compressed data
+		long uncompressedOffset; // of the block's first inflated byte
+		long recordOffset = -1; // in log.bin, of the first activity record starting at or after uncompressedOffset
+		long recordTimestamp = -1; // seconds, of that record
+		int timestampPhase = 0;
+		byte[] window; // inflated data before uncompressedOffset, null until read from the sidecar
+		int windowLength;
+		long windowPosition; // in the sidecar
+		
+		public long getBitOffset() {
+			return bitOffset;
+		}
+		
+		public long getUncompressedOffset() {
+			return uncompressedOffset;
+		}
+		
+		public long getRecordOffset() {
+			return recordOffset;
+		}
+		
+		public long getRecordTimestamp() {
+			return recordTimestamp;
+		}
+		
+		public int getTimestampPhase() {
+			return timestampPhase;
+		}
+		
+		public void setTimestampPhase(final int timestampPhase) {
+			this.timestampPhase = timestampPhase;
+		}
+	}
+	
+	private long _crc;
+	private long _size;
+	private long _compressedSize;
+	private long _span;
+	private List<Checkpoint> _checkpoints = new ArrayList<Checkpoint>();
+	private String _path = null; // sidecar the windows are read from, if loaded
+	
+	InflateIndex(final ZipEntry entry, final long span) {
+		this._crc = entry.getCrc();
+		this._size = entry.getSize();
+		this._compressedSize = entry.getCompressedSize();
+		this._span = span;
+	}
+	
+	private InflateIndex() {
+	}
+	
+	/*
+	 * Path of the index of the gt3x file "gt3xFilePath"
+	 */
+	public static String sidecarPath(final String gt3xFilePath) {
+		return gt3xFilePath + SIDECAR_SUFFIX;
+	}
+	
+	/*
+	 * Reads the index at "path" (without the checkpoint windows). Returns null if there is none, or if it
+	 * was not built from "entry" or cannot be read.
+	 */
+	public static InflateIndex load(final String path, final ZipEntry entry) {
+		File file = new File(path);
+		if(!file.isFile()) {
+			return null;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return null;
+			}
+			InflateIndex index = new InflateIndex();
+			index._crc = in.readLong();
+			index._size = in.readLong();
+			index._compressedSize = in.readLong();
+			index._span = in.readLong();
+			if(!index.matches(entry)) {
+				return null;
+			}
+			int count = in.readInt();
+			long windowPosition = HEADER_SIZE + (long)count * CHECKPOINT_SIZE;
+			for(int i = 0; i < count; i++) {
+				Checkpoint checkpoint = new Checkpoint();
+				checkpoint.bitOffset = in.readLong();
+				checkpoint.uncompressedOffset = in.readLong();
+				checkpoint.recordOffset = in.readLong();
+				checkpoint.recordTimestamp = in.readLong();
+				checkpoint.timestampPhase = in.readInt();
+				checkpoint.windowLength = in.readInt();
+				checkpoint.windowPosition = windowPosition;
+				windowPosition += checkpoint.windowLength;
+				index._checkpoints.add(checkpoint);
+			}
+			if(windowPosition != file.length()) {
+				return null; // truncated
+			}
+			index._path = path;
+			return index;
+		} catch(IOException e) {
+			return null;
+		} finally {
+			if(in != null) {
+				try {
+					in.close();
+				} catch(IOException e) {
+					// Already read
+				}
+			}
+		}
+	}
+	
+	/*
+	 * Writes the index to "path", replacing it once written
+	 */
+	public void save(final String path) throws IOException {
+		File file = new File(path);
+		File tmp = new File(path + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(_crc);
+			out.writeLong(_size);
+			out.writeLong(_compressedSize);
+			out.writeLong(_span);
+			out.writeInt(_checkpoints.size());
+			for(Checkpoint checkpoint : _checkpoints) {
+				out.writeLong(checkpoint.bitOffset);
+				out.writeLong(checkpoint.uncompressedOffset);
+				out.writeLong(checkpoint.recordOffset);
+				out.writeLong(checkpoint.recordTimestamp);
+				out.writeInt(checkpoint.timestampPhase);
+				out.writeInt(checkpoint.windowLength);
+			}
+			for(Checkpoint checkpoint : _checkpoints) {
+				out.write(readWindow(checkpoint), 0, checkpoint.windowLength);
+			}
+		} finally {
+			out.close();
+		}
+		if(!tmp.renameTo(file)) {
+			file.delete();
+			if(!tmp.renameTo(file)) {
+				throw new IOException("Could not write "+path);
+			}
+		}
+	}
+	
+	/*
+	 * Whether the index was built from "entry"
+	 */
+	public boolean matches(final ZipEntry entry) {
+		return entry.getMethod() == ZipEntry.DEFLATED && entry.getCrc() == _crc
+				&& entry.getSize() == _size && entry.getCompressedSize() == _compressedSize;
+	}
+	
+	public List<Checkpoint> getCheckpoints() {
+		return Collections.unmodifiableList(_checkpoints);
+	}
+	
+	public long getSpan() {
+		return _span;
+	}
+	
+	/*
+	 * The last checkpoint whose activity record is not after "timestampMillis", null if there is none
+	 * (the entry has to be read from its start). A checkpoint whose timestamp is out of order with the
+	 * ones around it (that of a corrupt record) is not used.
+	 */
+	public Checkpoint find(final long timestampMillis) {
+		Checkpoint found = null;
+		for(int i = 0; i < _checkpoints.size(); i++) {
+			long timestamp = _checkpoints.get(i).recordTimestamp;
+			if((i > 0 && _checkpoints.get(i-1).recordTimestamp > timestamp)
+					|| (i+1 < _checkpoints.size() && timestamp > _checkpoints.get(i+1).recordTimestamp)) {
+				continue;
+			}
+			if(timestamp*1000 > timestampMillis) {
+				break;
+			}
+			found = _checkpoints.get(i);
+		}
+		return found;
+	}
+	
+	/*
+	 * The last checkpoint whose activity record is not after offset "recordOffset" of the entry, null if
+	 * there is none
+	 */
+	public Checkpoint findRecord(final long recordOffset) {
+		Checkpoint found = null;
+		for(Checkpoint checkpoint : _checkpoints) {
+			if(checkpoint.recordOffset > recordOffset) {
+				break;
+			}
+			found = checkpoint;
+		}
+		return found;
+	}
+	
+	/*
+	 * Inflates the entry from "checkpoint", starting with its first record. "dataOffset" is the offset
+	 * of the entry's compressed data in the zip file (see ZipEntryLocator). The stream closes the channel.
+	 */
+	public InputStream open(final FileChannel channel, final long dataOffset, final Checkpoint checkpoint) throws IOException {
+		final Inflater inflater = new Inflater(true);
+		InputStream in;
+		try {
+			if(checkpoint.windowLength > 0) {
+				inflater.setDictionary(readWindow(checkpoint), 0, checkpoint.windowLength);
+			}
+			long start = dataOffset + checkpoint.bitOffset/8;
+			in = new InflaterInputStream(new ShiftedInputStream(channel, start, dataOffset + _compressedSize, (int)(checkpoint.bitOffset & 7)), inflater, INPUT_BUFFER_SIZE) {
+				@Override
+				public void close() throws IOException {
+					super.close();
+					inflater.end();
+				}
+			};
+		} catch(IOException e) {
+			inflater.end();
+			channel.close();
+			throw e;
+		}
+		long skip = checkpoint.recordOffset - checkpoint.uncompressedOffset;
+		while(skip > 0) {
+			long skipped = in.skip(skip);
+			if(skipped <= 0) {
+				in.close();
+				throw new EOFException("Unexpected end of ZLIB input stream");
+			}
+			skip -= skipped;
+		}
+		return in;
+	}
+	
+	void add(final Checkpoint checkpoint) {
+		_checkpoints.add(checkpoint);
+	}
+	
+	/*
+	 * Drops the checkpoints no record was found for (at the end of the entry)
+	 */
+	void removeUnresolved() {
+		while(!_checkpoints.isEmpty() && _checkpoints.get(_checkpoints.size()-1).recordTimestamp < 0) {
+			_checkpoints.remove(_checkpoints.size()-1);
+		}
+	}
+	
+	private byte[] readWindow(final Checkpoint checkpoint) throws IOException {
+		if(checkpoint.window == null) {
+			byte[] window = new byte[checkpoint.windowLength];
+			RandomAccessFile file = new RandomAccessFile(_path, "r");
+			try {
+				file.seek(checkpoint.windowPosition);
+				file.readFully(window);
+			} finally {
+				file.close();
+			}
+			checkpoint.window = window;
+		}
+		return checkpoint.window;
+	}
+	
+	/*
+	 * The bytes of a region of a file starting "shift" bits into its first byte: a deflate block that
+	 * doesn't start on a byte boundary, as if it did. The last byte is padded with zeros.
+	 */
+	private static final class ShiftedInputStream extends InputStream {
+		
+		private FileChannel _channel;
+		private long _position;
+		private long _end;
+		private int _shift;
+		private ByteBuffer _buffer = ByteBuffer.allocate(INPUT_BUFFER_SIZE);
+		private int _carry = -1; // the byte whose high bits start the next byte read, -1 before the first one, 256 after the last one
+		
+		ShiftedInputStream(final FileChannel channel, final long start, final long end, final int shift) {
+			this._channel = channel;
+			this._position = start;
+			this._end = end;
+			this._shift = shift;
+			_buffer.limit(0);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xFF);
+		}
+		
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			if(len == 0) {
+				return 0;
+			}
+			if(_shift == 0) {
+				if(!_buffer.hasRemaining() && !fill()) {
+					return -1;
+				}
+				int n = Math.min(len, _buffer.remaining());
+				_buffer.get(b, off, n);
+				return n;
+			}
+			if(_carry < 0) {
+				if(!fill()) {
+					return -1;
+				}
+				_carry = _buffer.get() & 0xFF;
+			}
+			if(_carry == 256) {
+				return -1;
+			}
+			int n = 0;
+			while(n < len) {
+				if(!_buffer.hasRemaining() && !fill()) {
+					// Last byte, padded
+					b[off + n++] = (byte)(_carry >>> _shift);
+					_carry = 256;
+					break;
+				}
+				int next = _buffer.get() & 0xFF;
+				b[off + n++] = (byte)((_carry >>> _shift) | (next << (8 - _shift)));
+				_carry = next;
+			}
+			return n;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			_channel.close();
+		}
+		
+		private boolean fill() throws IOException {
+			if(_position >= _end) {
+				return false;
+			}
+			_buffer.clear();
+			_buffer.limit((int)Math.min(_buffer.capacity(), _end - _position));
+			int n = _channel.read(_buffer, _position);
+			_buffer.flip();
+			if(n <= 0) {
+				return false;
+			}
+			_position += n;
+			return true;
+		}
+	}
+}
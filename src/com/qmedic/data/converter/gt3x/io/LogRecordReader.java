@@ -0,0 +1,133 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ * 
+ ******************************************************************************************/
+
+
+package com.qmedic.data.converter.gt3x.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.qmedic.data.converter.gt3x.model.LogRecord;
+
+/*
+ * Block-oriented reader for the LogRecords of a V2 log.bin.
+ * The input is read in large blocks into a reusable buffer and the record headers are decoded
+ * in place. next() always returns the same LogRecord instance whose payload is a view into that
+ * buffer, so a record (and its payload) is only valid until the following call to next().
+ */
+public class LogRecordReader implements Closeable {
+
+	public static final int DEFAULT_BUFFER_SIZE = 256 * 1024; // bytes
+	private static final int MAX_RECORD_SIZE = LogRecord.HEADER_SIZE + 0xFFFF + 1; // payload size is an unsigned short
+	
+	private InputStream _in;
+	private byte[] _buffer;
+	private int _position = 0;
+	private int _limit = 0;
+	private boolean _eof = false;
+	private long _bytesRead = 0;
+	private LogRecord _record = new LogRecord();
+	
+	public LogRecordReader(final InputStream in) {
+		this(in, DEFAULT_BUFFER_SIZE);
+	}
+	
+	public LogRecordReader(final InputStream in, final int bufferSize) {
+		this._in = in;
+		this._buffer = new byte[Math.max(bufferSize, MAX_RECORD_SIZE)];
+	}
+	
+	/*
+	 * Returns the next complete record, or null when the end of log.bin is reached.
+	 * A truncated record at the end of the stream is ignored.
+	 */
+	public LogRecord next() throws IOException {
+		if(!ensureAvailable(LogRecord.HEADER_SIZE)) {
+			return null;
+		}
+		byte[] b = _buffer;
+		int p = _position;
+		int payloadSize = (b[p+6]&0xFF) | ((b[p+7]&0xFF)<<8); // Payload size (little-endian)
+		if(!ensureAvailable(LogRecord.HEADER_SIZE + payloadSize + 1)) {
+			return null;
+		}
+		b = _buffer;
+		p = _position;
+		long logTimestamp = b[p+2]&0xFF;
+		logTimestamp |= (b[p+3]&0xFF)<<8;
+		logTimestamp |= (b[p+4]&0xFF)<<16;
+		logTimestamp |= (b[p+5]&0xFF)<<24;
+		
+		LogRecord record = _record;
+		record.setSeparator(b[p]); // Separator
+		record.setType((byte)(b[p+1]&0xFF)); // Type
+		record.setTimestamp(logTimestamp); // Timestamp
+		record.setPayloadSize(payloadSize);
+		record.setPayload(b, p + LogRecord.HEADER_SIZE);
+		record.setChecksum(b[p + LogRecord.HEADER_SIZE + payloadSize]);
+		
+		_position = p + record.getRecordSize();
+		_bytesRead += record.getRecordSize();
+		return record;
+	}
+	
+	/*
+	 * Number of bytes of log.bin consumed by the records returned so far
+	 */
+	public long getBytesRead() {
+		return _bytesRead;
+	}
+	
+	public void close() throws IOException {
+		_in.close();
+	}
+	
+	/*
+	 * Makes sure that at least "count" bytes starting at _position are in the buffer,
+	 * compacting the unread bytes to the front of the buffer and refilling it when needed.
+	 */
+	private boolean ensureAvailable(final int count) throws IOException {
+		if(_limit - _position >= count) {
+			return true;
+		}
+		if(_position > 0) {
+			System.arraycopy(_buffer, _position, _buffer, 0, _limit - _position);
+			_limit -= _position;
+			_position = 0;
+		}
+		while(!_eof && _limit < count) {
+			int n = _in.read(_buffer, _limit, _buffer.length - _limit);
+			if(n < 0) {
+				_eof = true;
+			} else {
+				_limit += n;
+			}
+		}
+		return _limit >= count;
+	}
+}
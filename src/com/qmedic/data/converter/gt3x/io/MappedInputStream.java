@@ -0,0 +1,141 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ * 
+ ******************************************************************************************/
+
+
+package com.qmedic.data.converter.gt3x.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * InputStream over a region of a file that is memory mapped instead of read through system calls.
+ * The region is mapped in windows so that entries larger than 2 GB (the limit of a single
+ * MappedByteBuffer) can be read as well. Bulk reads copy straight out of the mapped pages.
+ */
+public class MappedInputStream extends InputStream {
+
+	public static final long DEFAULT_WINDOW_SIZE = 256L * 1024 * 1024; // bytes
+	
+	private FileChannel _channel;
+	private long _regionStart;
+	private long _regionEnd;
+	private long _windowSize;
+	private long _nextWindowStart;
+	private MappedByteBuffer _window = null;
+	
+	public MappedInputStream(final FileChannel channel, final long offset, final long length) {
+		this(channel, offset, length, DEFAULT_WINDOW_SIZE);
+	}
+	
+	public MappedInputStream(final FileChannel channel, final long offset, final long length, final long windowSize) {
+		this._channel = channel;
+		this._regionStart = offset;
+		this._regionEnd = offset + length;
+		this._windowSize = Math.min(windowSize, Integer.MAX_VALUE);
+		this._nextWindowStart = offset;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		if(!ensureWindow()) {
+			return -1;
+		}
+		return _window.get() & 0xFF;
+	}
+	
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		if(len == 0) {
+			return 0;
+		}
+		if(!ensureWindow()) {
+			return -1;
+		}
+		int n = Math.min(len, _window.remaining());
+		_window.get(b, off, n);
+		return n;
+	}
+	
+	@Override
+	public long skip(final long n) throws IOException {
+		if(n <= 0) {
+			return 0;
+		}
+		long position = getPosition();
+		long target = Math.min(position + n, _regionEnd);
+		if(_window != null && target - position <= _window.remaining()) {
+			_window.position(_window.position() + (int)(target - position));
+		} else {
+			_window = null;
+			_nextWindowStart = target;
+		}
+		return target - position;
+	}
+	
+	@Override
+	public int available() throws IOException {
+		return (int)Math.min(_regionEnd - getPosition(), Integer.MAX_VALUE);
+	}
+	
+	/*
+	 * The mapping is released by the garbage collector, closing only closes the underlying channel
+	 */
+	@Override
+	public void close() throws IOException {
+		_window = null;
+		_channel.close();
+	}
+	
+	/*
+	 * Absolute position in the file of the next byte to be read
+	 */
+	public long getPosition() {
+		if(_window == null) {
+			return _nextWindowStart;
+		}
+		return _nextWindowStart - _window.remaining();
+	}
+	
+	public long getRegionStart() {
+		return _regionStart;
+	}
+	
+	private boolean ensureWindow() throws IOException {
+		if(_window != null && _window.hasRemaining()) {
+			return true;
+		}
+		if(_nextWindowStart >= _regionEnd) {
+			return false;
+		}
+		long size = Math.min(_windowSize, _regionEnd - _nextWindowStart);
+		_window = _channel.map(FileChannel.MapMode.READ_ONLY, _nextWindowStart, size);
+		_nextWindowStart += size;
+		return true;
+	}
+}
@@ -0,0 +1,77 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.qmedic.data.converter.gt3x.enums.ConversionStage;
+import com.qmedic.data.converter.gt3x.model.ConversionMetrics;
+
+/*
+ * Counts the bytes read and charges the time spent reading to the INFLATE stage of a ConversionMetrics
+ */
+public class MeteredInputStream extends FilterInputStream {
+
+	private final ConversionMetrics _metrics;
+	
+	public MeteredInputStream(final InputStream in, final ConversionMetrics metrics) {
+		super(in);
+		this._metrics = metrics;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		ConversionStage previous = _metrics.enter(ConversionStage.INFLATE);
+		try {
+			int b = in.read();
+			if(b >= 0) {
+				_metrics.addBytesInflated(1);
+			}
+			return b;
+		} finally {
+			_metrics.enter(previous);
+		}
+	}
+	
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		ConversionStage previous = _metrics.enter(ConversionStage.INFLATE);
+		try {
+			int read = in.read(b, off, len);
+			if(read > 0) {
+				_metrics.addBytesInflated(read);
+			}
+			return read;
+		} finally {
+			_metrics.enter(previous);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.qmedic.data.converter.gt3x.enums.ConversionStage;
+import com.qmedic.data.converter.gt3x.model.ConversionMetrics;
+
+/*
+ * Counts the bytes written and charges the time spent writing (and closing) to the WRITE stage of a
+ * ConversionMetrics
+ */
+public class MeteredOutputStream extends FilterOutputStream {
+
+	private final ConversionMetrics _metrics;
+	
+	public MeteredOutputStream(final OutputStream out, final ConversionMetrics metrics) {
+		super(out);
+		this._metrics = metrics;
+	}
+	
+	@Override
+	public void write(final int b) throws IOException {
+		ConversionStage previous = _metrics.enter(ConversionStage.WRITE);
+		try {
+			out.write(b);
+			_metrics.addBytesWritten(1);
+		} finally {
+			_metrics.enter(previous);
+		}
+	}
+	
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		ConversionStage previous = _metrics.enter(ConversionStage.WRITE);
+		try {
+			out.write(b, off, len);
+			_metrics.addBytesWritten(len);
+		} finally {
+			_metrics.enter(previous);
+		}
+	}
+	
+	@Override
+	public void flush() throws IOException {
+		ConversionStage previous = _metrics.enter(ConversionStage.WRITE);
+		try {
+			out.flush();
+		} finally {
+			_metrics.enter(previous);
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		ConversionStage previous = _metrics.enter(ConversionStage.WRITE);
+		try {
+			out.close();
+		} finally {
+			_metrics.enter(previous);
+		}
+	}
+}
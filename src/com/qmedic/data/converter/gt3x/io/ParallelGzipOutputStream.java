@@ -0,0 +1,222 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/*
+ * gzip output stream compressing blocks of its input on several threads, like pigz.
+ * The input is cut into blocks of DEFAULT_BLOCK_SIZE bytes, each one deflated on its own (with the
+ * last 32 KB of the previous block as dictionary, so the ratio stays close to gzip's) and ended with
+ * a sync flush so that the compressed blocks can simply be concatenated into one deflate stream.
+ * The CRC and the blocks' order are taken care of by the writing thread. The result is a regular
+ * single member gzip file.
+ * 
+ * Blocks are compressed on the common ForkJoinPool, or on the writing thread on a single processor.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+	public static final int DEFAULT_BLOCK_SIZE = 128 * 1024; // bytes
+	private static final int DICTIONARY_SIZE = 32 * 1024; // bytes, the deflate window
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte)0xff };
+	
+	private OutputStream _out;
+	private int _level;
+	private int _blockSize;
+	private ForkJoinPool _pool = null;
+	private int _maxPendingBlocks;
+	
+	private byte[] _block;
+	private int _position = 0;
+	private byte[] _previousBlock = null;
+	private int _previousLength = 0;
+	private CRC32 _crc = new CRC32();
+	private long _size = 0;
+	private ArrayDeque<Future<byte[]>> _pending = new ArrayDeque<Future<byte[]>>();
+	private boolean _closed = false;
+	
+	public ParallelGzipOutputStream(final OutputStream out) throws IOException {
+		this(out, Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE);
+	}
+	
+	public ParallelGzipOutputStream(final OutputStream out, final int level, final int blockSize) throws IOException {
+		this._out = out;
+		this._level = level;
+		this._blockSize = Math.max(blockSize, DICTIONARY_SIZE);
+		this._block = new byte[_blockSize];
+		if(Runtime.getRuntime().availableProcessors() > 1) {
+			this._pool = ForkJoinPool.commonPool();
+			this._maxPendingBlocks = _pool.getParallelism() * 2 + 1;
+		}
+		_out.write(GZIP_HEADER);
+	}
+	
+	@Override
+	public void write(final int b) throws IOException {
+		if(_position == _blockSize) {
+			submitBlock(false);
+		}
+		_block[_position++] = (byte)b;
+	}
+	
+	@Override
+	public void write(final byte[] b, int off, int len) throws IOException {
+		while(len > 0) {
+			if(_position == _blockSize) {
+				submitBlock(false);
+			}
+			int n = Math.min(len, _blockSize - _position);
+			System.arraycopy(b, off, _block, _position, n);
+			_position += n;
+			off += n;
+			len -= n;
+		}
+	}
+	
+	/*
+	 * Writes the blocks compressed so far. The current block is not cut short, that would hurt the ratio.
+	 */
+	@Override
+	public void flush() throws IOException {
+		while(!_pending.isEmpty() && _pending.peek().isDone()) {
+			writeNext();
+		}
+		_out.flush();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if(_closed) {
+			return;
+		}
+		_closed = true;
+		try {
+			submitBlock(true);
+			while(!_pending.isEmpty()) {
+				writeNext();
+			}
+			byte[] trailer = new byte[8];
+			writeIntLE(trailer, 0, (int)_crc.getValue());
+			writeIntLE(trailer, 4, (int)_size); // input size modulo 2^32
+			_out.write(trailer);
+		} finally {
+			for(Future<byte[]> block : _pending) {
+				block.cancel(false);
+			}
+			_out.close();
+		}
+	}
+	
+	private void submitBlock(final boolean last) throws IOException {
+		final byte[] input = _block;
+		final int length = _position;
+		final byte[] dictionary = _previousBlock;
+		final int dictionaryEnd = _previousLength;
+		_crc.update(input, 0, length);
+		_size += length;
+		if(_pool == null) {
+			_out.write(deflate(input, length, dictionary, dictionaryEnd, last));
+		} else {
+			while(_pending.size() >= _maxPendingBlocks) {
+				writeNext();
+			}
+			_pending.add(_pool.submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() {
+					return deflate(input, length, dictionary, dictionaryEnd, last);
+				}
+			}));
+		}
+		
+		// Blocks are not reused, a pending one may still be read (as input or dictionary)
+		_previousBlock = input;
+		_previousLength = length;
+		if(!last) {
+			_block = new byte[_blockSize];
+			_position = 0;
+		}
+	}
+	
+	private void writeNext() throws IOException {
+		try {
+			_out.write(_pending.peek().get());
+			_pending.poll();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compressing", e);
+		} catch(ExecutionException e) {
+			throw new IOException("Compression failed", e.getCause());
+		}
+	}
+	
+	private byte[] deflate(final byte[] input, final int length, final byte[] dictionary, final int dictionaryEnd, final boolean last) {
+		Deflater deflater = new Deflater(_level, true);
+		try {
+			if(dictionary != null) {
+				int dictionaryLength = Math.min(DICTIONARY_SIZE, dictionaryEnd);
+				deflater.setDictionary(dictionary, dictionaryEnd - dictionaryLength, dictionaryLength);
+			}
+			deflater.setInput(input, 0, length);
+			if(last) {
+				deflater.finish();
+			}
+			byte[] output = new byte[length + (length >> 3) + 64];
+			int outputLength = 0;
+			while(true) {
+				if(outputLength == output.length) {
+					output = Arrays.copyOf(output, output.length * 2);
+				}
+				int room = output.length - outputLength;
+				int n = deflater.deflate(output, outputLength, room, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+				outputLength += n;
+				if(last ? deflater.finished() : n < room) {
+					break;
+				}
+			}
+			return Arrays.copyOf(output, outputLength);
+		} finally {
+			deflater.end();
+		}
+	}
+	
+	private static void writeIntLE(final byte[] b, final int off, final int v) {
+		b[off] = (byte)v;
+		b[off+1] = (byte)(v >>> 8);
+		b[off+2] = (byte)(v >>> 16);
+		b[off+3] = (byte)(v >>> 24);
+	}
+}
@@ -0,0 +1,167 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ * 
+ ******************************************************************************************/
+package com.qmedic.data.converter.gt3x.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+ * Reads (and inflates) an input stream ahead on a thread of its own. The data is passed in chunks
+ * through a SpscRingBuffer, the emptied chunks go back to the reading thread through another one,
+ * so there are never more than "chunks" buffers in flight.
+ */
+public class PipelinedInputStream extends InputStream {
+
+	public static final int DEFAULT_CHUNK_SIZE = 256 * 1024; // bytes
+	public static final int DEFAULT_CHUNKS = 8;
+	
+	private InputStream _source;
+	private SpscRingBuffer<ByteChunk> _full;
+	private SpscRingBuffer<ByteChunk> _free;
+	private Thread _reader;
+	private volatile IOException _error = null;
+	private volatile boolean _closed = false;
+	
+	private ByteChunk _current = null;
+	private int _position = 0;
+	private boolean _end = false;
+	
+	public PipelinedInputStream(final InputStream source) {
+		this(source, DEFAULT_CHUNK_SIZE, DEFAULT_CHUNKS);
+	}
+	
+	public PipelinedInputStream(final InputStream source, final int chunkSize, final int chunks) {
+		this._source = source;
+		this._full = new SpscRingBuffer<ByteChunk>(chunks);
+		this._free = new SpscRingBuffer<ByteChunk>(chunks);
+		for(int i = 0; i < chunks; i++) {
+			_free.offer(new ByteChunk(chunkSize));
+		}
+		this._reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readAhead();
+			}
+		}, "gt3x-input");
+		_reader.setDaemon(true);
+		_reader.start();
+	}
+	
+	@Override
+	public int read() throws IOException {
+		if(!ensureData()) {
+			return -1;
+		}
+		return _current.data[_position++] & 0xFF;
+	}
+	
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		if(len == 0) {
+			return 0;
+		}
+		if(!ensureData()) {
+			return -1;
+		}
+		int n = Math.min(len, _current.length - _position);
+		System.arraycopy(_current.data, _position, b, off, n);
+		_position += n;
+		return n;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if(_closed) {
+			return;
+		}
+		_closed = true;
+		_full.close();
+		_free.close();
+		try {
+			_reader.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		_source.close();
+	}
+	
+	private boolean ensureData() throws IOException {
+		while(_current == null || _position == _current.length) {
+			if(_end) {
+				return false;
+			}
+			if(_current != null) {
+				_free.put(_current);
+				_current = null;
+			}
+			ByteChunk chunk = _full.take();
+			if(chunk == null || chunk.isEnd()) {
+				_end = true;
+				if(_error != null) {
+					throw _error;
+				}
+				return false;
+			}
+			_current = chunk;
+			_position = 0;
+		}
+		return true;
+	}
+	
+	/*
+	 * Reading thread: fills free chunks from the source until its end
+	 */
+	private void readAhead() {
+		try {
+			while(!_closed) {
+				ByteChunk chunk = _free.take();
+				if(chunk == null) {
+					return;
+				}
+				int length = 0;
+				int n = 0;
+				while(length < chunk.data.length && (n = _source.read(chunk.data, length, chunk.data.length - length)) >= 0) {
+					length += n;
+				}
+				chunk.length = length;
+				if(length > 0) {
+					_full.put(chunk);
+				}
+				if(n < 0) {
+					break;
+				}
+			}
+		} catch(IOException e) {
+			_error = e;
+		} catch(RuntimeException e) {
+			_error = new IOException(e);
+		}
+		ByteChunk end = new ByteChunk(0);
+		end.length = -1;
+		_full.put(end);
+	}
+}
@@ -0,0 +1,174 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ * 
+ ******************************************************************************************/
+package com.qmedic.data.converter.gt3x.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+ * Writes to an output stream (a file, a ParallelGzipOutputStream...) on a thread of its own.
+ * Written data is collected in chunks passed to the writing thread through a SpscRingBuffer, the
+ * written chunks come back through another one. When all "chunks" buffers are in flight the
+ * producer waits (backpressure). close() waits for all data to be written and closes the target.
+ */
+public class PipelinedOutputStream extends OutputStream {
+
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024; // bytes
+	public static final int DEFAULT_CHUNKS = 8;
+	
+	private OutputStream _target;
+	private SpscRingBuffer<ByteChunk> _full;
+	private SpscRingBuffer<ByteChunk> _free;
+	private Thread _writer;
+	private volatile IOException _error = null;
+	private boolean _closed = false;
+	
+	private ByteChunk _current = null;
+	
+	public PipelinedOutputStream(final OutputStream target) {
+		this(target, DEFAULT_CHUNK_SIZE, DEFAULT_CHUNKS);
+	}
+	
+	public PipelinedOutputStream(final OutputStream target, final int chunkSize, final int chunks) {
+		this._target = target;
+		this._full = new SpscRingBuffer<ByteChunk>(chunks + 1); // room for the end marker
+		this._free = new SpscRingBuffer<ByteChunk>(chunks);
+		for(int i = 0; i < chunks; i++) {
+			_free.offer(new ByteChunk(chunkSize));
+		}
+		this._writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeBehind();
+			}
+		}, "gt3x-output");
+		_writer.setDaemon(true);
+		_writer.start();
+	}
+	
+	@Override
+	public void write(final int b) throws IOException {
+		if(_current == null || _current.length == _current.data.length) {
+			nextChunk();
+		}
+		_current.data[_current.length++] = (byte)b;
+	}
+	
+	@Override
+	public void write(final byte[] b, int off, int len) throws IOException {
+		while(len > 0) {
+			if(_current == null || _current.length == _current.data.length) {
+				nextChunk();
+			}
+			int n = Math.min(len, _current.data.length - _current.length);
+			System.arraycopy(b, off, _current.data, _current.length, n);
+			_current.length += n;
+			off += n;
+			len -= n;
+		}
+	}
+	
+	/*
+	 * Hands the data written so far to the writing thread
+	 */
+	@Override
+	public void flush() throws IOException {
+		publishCurrent();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if(_closed) {
+			return;
+		}
+		_closed = true;
+		publishCurrent();
+		ByteChunk end = new ByteChunk(0);
+		end.length = -1;
+		_full.put(end);
+		try {
+			_writer.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing", e);
+		}
+		if(_error != null) {
+			throw _error;
+		}
+	}
+	
+	private void nextChunk() throws IOException {
+		publishCurrent();
+		_current = _free.take();
+		if(_current == null) {
+			throw _error != null ? _error : new IOException("Output closed");
+		}
+		_current.length = 0;
+	}
+	
+	private void publishCurrent() throws IOException {
+		if(_error != null) {
+			throw _error;
+		}
+		if(_current != null && _current.length > 0) {
+			_full.put(_current);
+			_current = null;
+		}
+	}
+	
+	/*
+	 * Writing thread: writes the chunks until the end marker, then closes the target
+	 */
+	private void writeBehind() {
+		try {
+			while(true) {
+				ByteChunk chunk = _full.take();
+				if(chunk == null || chunk.isEnd()) {
+					break;
+				}
+				_target.write(chunk.data, 0, chunk.length);
+				_free.put(chunk);
+			}
+		} catch(IOException e) {
+			_error = e;
+		} catch(RuntimeException e) {
+			_error = new IOException(e);
+		}
+		try {
+			_target.close();
+		} catch(IOException e) {
+			if(_error == null) {
+				_error = e;
+			}
+		}
+		if(_error != null) {
+			// Unblock the producer, it gets the error on its next call
+			_free.close();
+			_full.close();
+		}
+	}
+}
@@ -0,0 +1,389 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.qmedic.data.converter.gt3x.iface.AccelEncoder;
+import com.qmedic.data.converter.gt3x.utils.GT3XUtils;
+
+/*
+ * Resamples the samples of the accel files to another sample rate (RESAMPLE=) on their way to the
+ * encoder of the output data type. A polyphase FIR filter: the output rate is the input rate times
+ * UP / DOWN (reduced), the prototype low-pass filter is a Kaiser windowed sinc cut off below the
+ * Nyquist frequency of the lower of the two rates, and its UP phases are computed once per ratio.
+ * Every output sample is the dot product of one phase with the last input samples, kept in a ring
+ * buffer per axis (written twice, so the window is contiguous).
+ * 
+ * Output sample k is at k * 1000 / output rate milliseconds from the first sample of the stream (an
+ * exact rational clock, nothing accumulates), rounded to the millisecond. The phases are centred on
+ * the output samples, so these aren't shifted in time, but an output sample is only written once the
+ * input samples of the second half of the filter are in. The stream goes on across the hourly files:
+ * when a file is closed, the output samples still waiting for their inputs but before the end of its
+ * hour are written to it, with the last sample repeated in place of the inputs still to come (only the
+ * history of the filter goes on with the next file, so these samples differ slightly from those of a
+ * single file). The state of the stream can be carried over to another encoder (see getState()) to write the next files
+ * in parallel (PARALLEL_ON) or after a resume (RESUME_ON), with the same samples. The filter starts with
+ * the first sample of the stream repeated before it and ends with its last sample repeated after it
+ * (see end()). A jump of the timestamps (a data gap left out with SPARSE_GAPS_ON, or the clock going
+ * back) ends the resampled stream and starts another one the same way. Samples filling data gaps are
+ * resampled like the others.
+ */
+public class ResamplingAccelEncoder implements AccelEncoder {
+
+	private static final int ZERO_CROSSINGS = 8; // of the sinc on each side of the filter, at the lower rate
+	private static final double CUTOFF = 0.9; // of the Nyquist frequency of the lower rate
+	private static final double KAISER_BETA = 8d; // about 80dB of stop-band attenuation
+	
+	private static final Map<String,double[][]> PHASES = new HashMap<String,double[][]>(); // by "UP/DOWN"
+	
+	private AccelEncoder _encoder; // null if the state is only followed, see follower()
+	private int _inputRate;
+	private int _outputRate;
+	private int _up;
+	private int _down;
+	private double[][] _phases; // [phase][tap], the taps of every phase add up to 1
+	private int _taps;
+	private int _halfTaps;
+	
+	private double[] _x;
+	private double[] _y;
+	private double[] _z;
+	private int _head = 0; // next position in the ring buffers
+	private boolean _started = false;
+	private long _inputs = 0; // samples of the stream, and the padding at its end
+	private double _startTs = 0d; // timestamp of the first sample of the stream
+	private long _outputs = 0; // output samples of the stream
+	private long _nextInput = 0; // input sample at or before the next output sample
+	private int _phase = 0; // position of the next output sample after it, in 1/UP samples
+	private double _lastX, _lastY, _lastZ;
+	
+	/*
+	 * Resamples from "inputRate" to "outputRate" (Hz) and writes the samples to "encoder"
+	 */
+	public ResamplingAccelEncoder(final AccelEncoder encoder, final int inputRate, final int outputRate) {
+		this._encoder = encoder;
+		this._inputRate = inputRate;
+		this._outputRate = outputRate;
+		int gcd = gcd(inputRate, outputRate);
+		this._up = outputRate / gcd;
+		this._down = inputRate / gcd;
+		this._phases = phases(_up, _down);
+		this._taps = _phases[0].length;
+		this._halfTaps = _taps / 2;
+		this._x = new double[2 * _taps];
+		this._y = new double[2 * _taps];
+		this._z = new double[2 * _taps];
+	}
+	
+	/*
+	 * The next file, the stream goes on with it
+	 */
+	public void open(final OutputStream out) throws IOException {
+		_encoder.open(out);
+	}
+	
+	public void writeSample(final double timestamp, final short x, final short y, final short z) throws IOException {
+		add(timestamp, x, y, z);
+	}
+	
+	public void writeGapSample(final double timestamp, final short x, final short y, final short z, final String values) throws IOException {
+		add(timestamp, x, y, z);
+	}
+	
+	public void writeGapSamples(final long[] timestamps, final int count, final short x, final short y, final short z, final String values) throws IOException {
+		for(int i = 0; i < count; i++) {
+			add(timestamps[i], x, y, z);
+		}
+	}
+	
+	public AccelEncoder copy() {
+		return new ResamplingAccelEncoder(_encoder.copy(), _inputRate, _outputRate);
+	}
+	
+	/*
+	 * A resampler of the same rates that only follows the state of the stream of the samples it is
+	 * given (see getState()), without computing or writing the output samples. It is never opened, but
+	 * closed at the end of every hour like the encoder it follows.
+	 */
+	public ResamplingAccelEncoder follower() {
+		return new ResamplingAccelEncoder(null, _inputRate, _outputRate);
+	}
+	
+	/*
+	 * Closes the current file, with the output samples before the end of the hour of the last sample
+	 */
+	public void close() throws IOException {
+		flush();
+		if(_encoder != null) {
+			_encoder.close();
+		}
+	}
+	
+	/*
+	 * Ends the stream: the output samples up to its last sample are written
+	 */
+	public void end() throws IOException {
+		if(_started) {
+			for(int i = 0; i < _halfTaps; i++) {
+				push(_lastX, _lastY, _lastZ);
+			}
+			_started = false;
+		}
+	}
+	
+	/*
+	 * State of the stream after the samples so far, as text. An encoder of the same rates restored
+	 * with setState() writes the same output samples for the next input samples as this one would.
+	 */
+	public String getState() {
+		StringBuilder state = new StringBuilder();
+		state.append(_started).append(',').append(_inputs).append(',').append(_startTs);
+		state.append(',').append(_outputs).append(',').append(_nextInput).append(',').append(_phase);
+		state.append(',').append(_lastX).append(',').append(_lastY).append(',').append(_lastZ);
+		for(double[] ring : new double[][] { _x, _y, _z }) {
+			for(int i = _head; i < _head + _taps; i++) { // oldest first
+				state.append(',').append(ring[i]);
+			}
+		}
+		return state.toString();
+	}
+	
+	/*
+	 * Carries on with a stream of getState(), or starts a new one with the next sample if "state" is
+	 * null. Throws IllegalArgumentException if it isn't a state of these rates.
+	 */
+	public void setState(final String state) {
+		_started = false;
+		if(state == null) {
+			return;
+		}
+		String[] values = state.split(",");
+		if(values.length != 9 + 3 * _taps || !(values[0].equals("true") || values[0].equals("false"))) {
+			throw new IllegalArgumentException("Not a state of resampling from "+_inputRate+" to "+_outputRate+" Hz: "+state);
+		}
+		try {
+			_inputs = Long.parseLong(values[1]);
+			_startTs = Double.parseDouble(values[2]);
+			_outputs = Long.parseLong(values[3]);
+			_nextInput = Long.parseLong(values[4]);
+			_phase = Integer.parseInt(values[5]);
+			_lastX = Double.parseDouble(values[6]);
+			_lastY = Double.parseDouble(values[7]);
+			_lastZ = Double.parseDouble(values[8]);
+			for(int i = 0; i < _taps; i++) {
+				_x[i] = _x[i + _taps] = Double.parseDouble(values[9 + i]);
+				_y[i] = _y[i + _taps] = Double.parseDouble(values[9 + _taps + i]);
+				_z[i] = _z[i + _taps] = Double.parseDouble(values[9 + 2 * _taps + i]);
+			}
+		} catch(NumberFormatException e) {
+			throw new IllegalArgumentException("Not a state of resampling from "+_inputRate+" to "+_outputRate+" Hz: "+state, e);
+		}
+		if(_phase < 0 || _phase >= _up) {
+			throw new IllegalArgumentException("Not a state of resampling from "+_inputRate+" to "+_outputRate+" Hz: "+state);
+		}
+		_head = 0;
+		_started = Boolean.parseBoolean(values[0]);
+	}
+	
+	/*
+	 * Writes the output samples before the end of the hour of the last input sample (and before the
+	 * next input sample), the inputs they are still waiting for padded with the last one. The filter
+	 * then goes on from the real inputs.
+	 */
+	private void flush() throws IOException {
+		if(!_started) {
+			return;
+		}
+		long next = Math.round(_startTs + _inputs * 1000d / _inputRate);
+		long end = Math.min(next, GT3XUtils.GetCurrentHourTimestamp(_startTs + (_inputs - 1) * 1000d / _inputRate) + GT3XUtils.MILLIS_IN_HOUR);
+		if(outputTimestamp() >= end) {
+			return;
+		}
+		double[] x = _x.clone();
+		double[] y = _y.clone();
+		double[] z = _z.clone();
+		int head = _head;
+		long inputs = _inputs;
+		while(outputTimestamp() < end) {
+			store(_lastX, _lastY, _lastZ);
+			write(end);
+		}
+		_x = x;
+		_y = y;
+		_z = z;
+		_head = head;
+		_inputs = inputs;
+	}
+	
+	private void add(final double timestamp, final double x, final double y, final double z) throws IOException {
+		if(_started && Math.abs(timestamp - (_startTs + _inputs * 1000d / _inputRate)) > 500d / _inputRate) {
+			end();
+		}
+		if(!_started) {
+			start(timestamp, x, y, z);
+		}
+		push(x, y, z);
+		_lastX = x;
+		_lastY = y;
+		_lastZ = z;
+	}
+	
+	/*
+	 * Starts a stream with the sample of "timestamp": the filter is filled with it
+	 */
+	private void start(final double timestamp, final double x, final double y, final double z) {
+		for(int i = 0; i < 2 * _taps; i++) {
+			_x[i] = x;
+			_y[i] = y;
+			_z[i] = z;
+		}
+		_head = 0;
+		_inputs = 0;
+		_startTs = timestamp;
+		_outputs = 0;
+		_nextInput = 0;
+		_phase = 0;
+		_started = true;
+	}
+	
+	/*
+	 * Adds the next input sample and writes the output samples it completes: those up to half the
+	 * filter before it
+	 */
+	private void push(final double x, final double y, final double z) throws IOException {
+		store(x, y, z);
+		write(Long.MAX_VALUE);
+	}
+	
+	private void store(final double x, final double y, final double z) {
+		int head = _head;
+		_x[head] = _x[head + _taps] = x;
+		_y[head] = _y[head + _taps] = y;
+		_z[head] = _z[head + _taps] = z;
+		_head = (head + 1 == _taps) ? 0 : head + 1;
+		_inputs++;
+	}
+	
+	/*
+	 * Writes the output samples completed by the inputs so far, before "end"
+	 */
+	private void write(final long end) throws IOException {
+		while(_nextInput + _halfTaps < _inputs && outputTimestamp() < end) {
+			if(_encoder != null) {
+				double[] taps = _phases[_phase];
+				double sumX = 0d;
+				double sumY = 0d;
+				double sumZ = 0d;
+				for(int i = 0, j = _head; i < _taps; i++, j++) {
+					sumX += taps[i] * _x[j];
+					sumY += taps[i] * _y[j];
+					sumZ += taps[i] * _z[j];
+				}
+				_encoder.writeSample(outputTimestamp(), toShort(sumX), toShort(sumY), toShort(sumZ));
+			}
+			_outputs++;
+			_phase += _down;
+			_nextInput += _phase / _up;
+			_phase %= _up;
+		}
+	}
+	
+	private long outputTimestamp() {
+		return Math.round(_startTs + _outputs * 1000d / _outputRate);
+	}
+	
+	private static short toShort(final double value) {
+		long rounded = Math.round(value);
+		return (short)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, rounded));
+	}
+	
+	/*
+	 * The phases of the filter for a ratio, computed once
+	 */
+	private static double[][] phases(final int up, final int down) {
+		synchronized(PHASES) {
+			String key = up + "/" + down;
+			double[][] phases = PHASES.get(key);
+			if(phases == null) {
+				phases = computePhases(up, down);
+				PHASES.put(key, phases);
+			}
+			return phases;
+		}
+	}
+	
+	/*
+	 * Tap i of phase p weighs input sample n - half + 1 + i for the output sample at n + p / up
+	 */
+	private static double[][] computePhases(final int up, final int down) {
+		double cutoff = 0.5 * CUTOFF * Math.min(1d, up / (double)down); // cycles per input sample
+		int half = (int)Math.ceil(ZERO_CROSSINGS * Math.max(1d, down / (double)up));
+		double[][] phases = new double[up][2 * half];
+		double window = besselI0(KAISER_BETA);
+		for(int p = 0; p < up; p++) {
+			double sum = 0d;
+			for(int i = 0; i < 2 * half; i++) {
+				double distance = p / (double)up + half - 1 - i;
+				double r = distance / half;
+				double tap = 0d;
+				if(Math.abs(r) < 1d) {
+					double sinc = (distance == 0d) ? 1d : Math.sin(2 * Math.PI * cutoff * distance) / (2 * Math.PI * cutoff * distance);
+					tap = sinc * besselI0(KAISER_BETA * Math.sqrt(1 - r * r)) / window;
+				}
+				phases[p][i] = tap;
+				sum += tap;
+			}
+			for(int i = 0; i < 2 * half; i++) {
+				phases[p][i] /= sum;
+			}
+		}
+		return phases;
+	}
+	
+	/*
+	 * Modified Bessel function of the first kind of order 0, for the Kaiser window
+	 */
+	private static double besselI0(final double x) {
+		double sum = 1d;
+		double term = 1d;
+		for(int k = 1; k < 50 && term > 1e-12 * sum; k++) {
+			term *= (x / (2 * k)) * (x / (2 * k));
+			sum += term;
+		}
+		return sum;
+	}
+	
+	private static int gcd(final int a, final int b) {
+		return b == 0 ? a : gcd(b, a % b);
+	}
+}
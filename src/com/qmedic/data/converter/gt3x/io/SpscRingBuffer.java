@@ -0,0 +1,149 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ * 
+ ******************************************************************************************/
+package com.qmedic.data.converter.gt3x.io;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Bounded queue between exactly one producer thread and one consumer thread (see PipelinedInputStream
+ * and PipelinedOutputStream). The slots are a power of two sized array indexed by two ever increasing
+ * counters, each one only written by its own side, so no locks are needed. A side that has to wait
+ * (queue full or empty) spins briefly, then parks until the other side unparks it (an item was taken
+ * or added) or the queue is closed.
+ */
+public class SpscRingBuffer<T> {
+
+	private static final int SPINS = 100;
+	
+	private final Object[] _slots;
+	private final int _mask;
+	private final AtomicLong _head = new AtomicLong(0); // next slot to take, written by the consumer
+	private final AtomicLong _tail = new AtomicLong(0); // next slot to fill, written by the producer
+	private volatile boolean _closed = false;
+	private volatile Thread _waitingProducer = null; // parked until there is room
+	private volatile Thread _waitingConsumer = null; // parked until there is an item
+	
+	public SpscRingBuffer(final int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		this._slots = new Object[size];
+		this._mask = size - 1;
+	}
+	
+	public int capacity() {
+		return _slots.length;
+	}
+	
+	/*
+	 * Producer side. Returns false if the queue is full.
+	 */
+	public boolean offer(final T item) {
+		long tail = _tail.get();
+		if(tail - _head.get() == _slots.length) {
+			return false;
+		}
+		_slots[(int)tail & _mask] = item;
+		_tail.set(tail + 1); // publishes the slot, ordered before the check for a waiting consumer
+		LockSupport.unpark(_waitingConsumer);
+		return true;
+	}
+	
+	/*
+	 * Consumer side. Returns null if the queue is empty.
+	 */
+	@SuppressWarnings("unchecked")
+	public T poll() {
+		long head = _head.get();
+		if(head == _tail.get()) {
+			return null;
+		}
+		int index = (int)head & _mask;
+		T item = (T)_slots[index];
+		_slots[index] = null;
+		_head.set(head + 1); // frees the slot, ordered before the check for a waiting producer
+		LockSupport.unpark(_waitingProducer);
+		return item;
+	}
+	
+	/*
+	 * Producer side, waits for room. Returns false if the queue was closed meanwhile.
+	 */
+	public boolean put(final T item) {
+		int spins = 0;
+		while(!offer(item)) {
+			if(_closed) {
+				return false;
+			}
+			if(spins < SPINS) {
+				Thread.yield();
+				spins++;
+			} else {
+				_waitingProducer = Thread.currentThread();
+				// Checked again after registering, so that a slot freed in between is not missed
+				if(!_closed && _tail.get() - _head.get() == _slots.length) {
+					LockSupport.park(this);
+				}
+				_waitingProducer = null;
+			}
+		}
+		return true;
+	}
+	
+	/*
+	 * Consumer side, waits for an item. Returns null if the queue is closed and empty.
+	 */
+	public T take() {
+		int spins = 0;
+		T item;
+		while((item = poll()) == null) {
+			if(_closed) {
+				return poll();
+			}
+			if(spins < SPINS) {
+				Thread.yield();
+				spins++;
+			} else {
+				_waitingConsumer = Thread.currentThread();
+				// Checked again after registering, so that an item added in between is not missed
+				if(!_closed && _head.get() == _tail.get()) {
+					LockSupport.park(this);
+				}
+				_waitingConsumer = null;
+			}
+		}
+		return item;
+	}
+	
+	/*
+	 * Wakes up both sides for good, e.g. when one of them gives up
+	 */
+	public void close() {
+		this._closed = true;
+		LockSupport.unpark(_waitingProducer);
+		LockSupport.unpark(_waitingConsumer);
+	}
+}
@@ -0,0 +1,146 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ * 
+ ******************************************************************************************/
+
+
+package com.qmedic.data.converter.gt3x.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.ZipEntry;
+
+/*
+ * Locates the raw data of zip entries, so that STORED (uncompressed) entries can be memory mapped
+ * and DEFLATED ones inflated from a checkpoint (see InflateIndex).
+ * java.util.zip.ZipFile does not expose where an entry's data starts, so the central directory
+ * and the entry's local header are read here. ZIP64 archives are not handled (-1 is returned).
+ */
+public class ZipEntryLocator {
+
+	private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+	private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22; // bytes, without the comment
+	private static final int LOCAL_HEADER_SIZE = 30; // bytes, without the name and extra field
+	private static final int MAX_COMMENT_SIZE = 0xFFFF;
+	private static final long ZIP64_MARKER = 0xFFFFFFFFL;
+	
+	/*
+	 * Returns the offset in the zip file of the first data byte of the given entry, or -1 if
+	 * the entry is not STORED or could not be located.
+	 */
+	public static long findStoredDataOffset(final FileChannel channel, final ZipEntry entry) throws IOException {
+		if(entry.getMethod() != ZipEntry.STORED) {
+			return -1;
+		}
+		return findDataOffset(channel, entry);
+	}
+	
+	/*
+	 * Returns the offset in the zip file of the first (compressed) data byte of the given entry,
+	 * or -1 if the entry could not be located.
+	 */
+	public static long findDataOffset(final FileChannel channel, final ZipEntry entry) throws IOException {
+		long localHeaderOffset = findLocalHeaderOffset(channel, entry.getName());
+		if(localHeaderOffset < 0) {
+			return -1;
+		}
+		ByteBuffer header = read(channel, localHeaderOffset, LOCAL_HEADER_SIZE);
+		if(header == null || header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+			return -1;
+		}
+		int nameLength = header.getShort(26) & 0xFFFF;
+		int extraLength = header.getShort(28) & 0xFFFF;
+		long dataOffset = localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+		if(dataOffset + entry.getCompressedSize() > channel.size()) {
+			return -1;
+		}
+		return dataOffset;
+	}
+	
+	private static long findLocalHeaderOffset(final FileChannel channel, final String entryName) throws IOException {
+		// The end of central directory record sits at the end of the file, followed by an optional comment
+		long fileSize = channel.size();
+		int tailSize = (int)Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+		ByteBuffer tail = read(channel, fileSize - tailSize, tailSize);
+		if(tail == null) {
+			return -1;
+		}
+		int eocd = -1;
+		for(int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+			if(tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+				eocd = i;
+				break;
+			}
+		}
+		if(eocd < 0) {
+			return -1;
+		}
+		int entries = tail.getShort(eocd + 10) & 0xFFFF;
+		long directorySize = tail.getInt(eocd + 12) & ZIP64_MARKER;
+		long directoryOffset = tail.getInt(eocd + 16) & ZIP64_MARKER;
+		if(directoryOffset == ZIP64_MARKER || directorySize > Integer.MAX_VALUE) {
+			return -1;
+		}
+		
+		ByteBuffer directory = read(channel, directoryOffset, (int)directorySize);
+		if(directory == null) {
+			return -1;
+		}
+		Charset utf8 = Charset.forName("UTF-8");
+		int p = 0;
+		for(int i = 0; i < entries && p + 46 <= directory.limit(); i++) {
+			if(directory.getInt(p) != CENTRAL_DIRECTORY_SIGNATURE) {
+				return -1;
+			}
+			int nameLength = directory.getShort(p + 28) & 0xFFFF;
+			int extraLength = directory.getShort(p + 30) & 0xFFFF;
+			int commentLength = directory.getShort(p + 32) & 0xFFFF;
+			long localHeaderOffset = directory.getInt(p + 42) & ZIP64_MARKER;
+			byte[] name = new byte[nameLength];
+			directory.position(p + 46);
+			directory.get(name);
+			if(entryName.equals(new String(name, utf8))) {
+				return (localHeaderOffset == ZIP64_MARKER) ? -1 : localHeaderOffset;
+			}
+			p += 46 + nameLength + extraLength + commentLength;
+		}
+		return -1;
+	}
+	
+	private static ByteBuffer read(final FileChannel channel, final long position, final int size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer, position + buffer.position()) < 0) {
+				return null;
+			}
+		}
+		return buffer;
+	}
+}
@@ -0,0 +1,92 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ * 
+ ******************************************************************************************/
+
+
+package com.qmedic.data.converter.gt3x.model;
+
+public class AccelSample {
+
+	private long timestamp;
+	private short rawX;
+	private short rawY;
+	private short rawZ;
+	private double accelerationScale;
+	private boolean gapFill;
+	
+	public AccelSample(final long timestamp, final short rawX, final short rawY, final short rawZ, final double accelerationScale, final boolean gapFill) {
+		this.timestamp = timestamp;
+		this.rawX = rawX;
+		this.rawY = rawY;
+		this.rawZ = rawZ;
+		this.accelerationScale = accelerationScale;
+		this.gapFill = gapFill;
+	}
+	
+	public long timestampMillis() {
+		return timestamp;
+	}
+	
+	public short rawX() {
+		return rawX;
+	}
+	
+	public short rawY() {
+		return rawY;
+	}
+	
+	public short rawZ() {
+		return rawZ;
+	}
+	
+	public double x() {
+		return rawX/accelerationScale;
+	}
+	
+	public double y() {
+		return rawY/accelerationScale;
+	}
+	
+	public double z() {
+		return rawZ/accelerationScale;
+	}
+	
+	public boolean isGapFill() {
+		return gapFill;
+	}
+	
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(timestamp);
+		sb.append(',');
+		sb.append(x());
+		sb.append(',');
+		sb.append(y());
+		sb.append(',');
+		sb.append(z());
+		return sb.toString();
+	}
+}
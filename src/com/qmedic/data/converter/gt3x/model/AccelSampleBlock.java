@@ -0,0 +1,77 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ * 
+ ******************************************************************************************/
+
+
+package com.qmedic.data.converter.gt3x.model;
+
+/*
+ * Reusable structure-of-arrays buffer of decoded 3-axis samples (raw ADC values)
+ */
+public class AccelSampleBlock {
+
+	private short[] x;
+	private short[] y;
+	private short[] z;
+	private int size = 0;
+	
+	public AccelSampleBlock(final int capacity) {
+		this.x = new short[capacity];
+		this.y = new short[capacity];
+		this.z = new short[capacity];
+	}
+	
+	/*
+	 * Grows the arrays if needed. The content is not kept.
+	 */
+	public void ensureCapacity(final int capacity) {
+		if(x.length < capacity) {
+			this.x = new short[capacity];
+			this.y = new short[capacity];
+			this.z = new short[capacity];
+		}
+	}
+	
+	public short[] x() {
+		return x;
+	}
+	
+	public short[] y() {
+		return y;
+	}
+	
+	public short[] z() {
+		return z;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public void setSize(final int size) {
+		this.size = size;
+	}
+}
@@ -0,0 +1,253 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.qmedic.data.converter.gt3x.enums.ConversionStage;
+import com.qmedic.data.converter.gt3x.enums.LogRecordType;
+
+/*
+ * Counters and stage timings of one conversion (see GT3XFileMetricsListener and ConverterMetrics).
+ * 
+ * An instance is updated by one thread at a time. The time is split between stages with enter(),
+ * which only reads the clock when the stage changes, a few times per record or output buffer and
+ * never per sample. Parallel conversions measure each unit of work separately and add() them up,
+ * so their stage times are summed over the threads and can exceed the elapsed time.
+ */
+public class ConversionMetrics {
+
+	private static final ConversionStage[] STAGES = ConversionStage.values();
+	
+	private long _bytesInflated = 0;
+	private long[] _recordCounts = new long[256]; // by record type
+	private long _checksumFailures = 0;
+	private long _samplesDecoded = 0;
+	private long _gapSamplesFilled = 0;
+	private long _rowsWritten = 0;
+	private long _bytesWritten = 0;
+	private long _filesCreated = 0;
+	
+	private long[] _stageNanos = new long[STAGES.length];
+	private ConversionStage _stage = ConversionStage.OTHER;
+	private long _mark = 0;
+	private long _startNanos = 0;
+	private long _elapsedNanos = 0;
+	
+	public void start() {
+		this._startNanos = System.nanoTime();
+		this._mark = _startNanos;
+		this._stage = ConversionStage.OTHER;
+	}
+	
+	public void stop() {
+		enter(ConversionStage.OTHER);
+		this._elapsedNanos = _mark - _startNanos;
+	}
+	
+	/*
+	 * Charges the time since the last change to the current stage and switches to "stage".
+	 * Returns the stage that was current, to go back to it once "stage" is done.
+	 */
+	public ConversionStage enter(final ConversionStage stage) {
+		long now = System.nanoTime();
+		ConversionStage previous = _stage;
+		_stageNanos[previous.ordinal()] += now - _mark;
+		_mark = now;
+		_stage = stage;
+		return previous;
+	}
+	
+	/*
+	 * Adds the counters and stage times of "other", e.g. a unit converted on another thread
+	 */
+	public void add(final ConversionMetrics other) {
+		_bytesInflated += other._bytesInflated;
+		for(int i = 0; i < _recordCounts.length; i++) {
+			_recordCounts[i] += other._recordCounts[i];
+		}
+		_checksumFailures += other._checksumFailures;
+		_samplesDecoded += other._samplesDecoded;
+		_gapSamplesFilled += other._gapSamplesFilled;
+		_rowsWritten += other._rowsWritten;
+		_bytesWritten += other._bytesWritten;
+		_filesCreated += other._filesCreated;
+		for(int i = 0; i < _stageNanos.length; i++) {
+			_stageNanos[i] += other._stageNanos[i];
+		}
+	}
+	
+	public void addBytesInflated(final long bytes) {
+		_bytesInflated += bytes;
+	}
+	
+	public void addRecord(final short type) {
+		_recordCounts[type & 0xFF]++;
+	}
+	
+	public void addChecksumFailure() {
+		_checksumFailures++;
+	}
+	
+	public void addSamplesDecoded(final long samples) {
+		_samplesDecoded += samples;
+	}
+	
+	public void addGapSamplesFilled(final long samples) {
+		_gapSamplesFilled += samples;
+	}
+	
+	public void addRowsWritten(final long rows) {
+		_rowsWritten += rows;
+	}
+	
+	public void addBytesWritten(final long bytes) {
+		_bytesWritten += bytes;
+	}
+	
+	public void addFileCreated() {
+		_filesCreated++;
+	}
+	
+	/*
+	 * Bytes of log.bin/activity.bin read, after inflating
+	 */
+	public long getBytesInflated() {
+		return _bytesInflated;
+	}
+	
+	public long getRecordCount(final short type) {
+		return _recordCounts[type & 0xFF];
+	}
+	
+	public long getRecordCount(final LogRecordType type) {
+		return getRecordCount(type.getId());
+	}
+	
+	/*
+	 * Records of log.bin parsed, checksum failures included
+	 */
+	public long getRecordsParsed() {
+		long total = 0;
+		for(long count : _recordCounts) {
+			total += count;
+		}
+		return total;
+	}
+	
+	/*
+	 * Number of records parsed by type name (or "TYPE_<id>" for unknown types), for the types seen
+	 */
+	public Map<String,Long> getRecordCounts() {
+		Map<String,Long> counts = new LinkedHashMap<String,Long>();
+		for(int id = 0; id < _recordCounts.length; id++) {
+			if(_recordCounts[id] > 0) {
+				counts.put(recordTypeName(id), _recordCounts[id]);
+			}
+		}
+		return counts;
+	}
+	
+	public static String recordTypeName(final int id) {
+		for(LogRecordType type : LogRecordType.values()) {
+			if(type.getId() == id) {
+				return type.name();
+			}
+		}
+		return "TYPE_"+id;
+	}
+	
+	public long getChecksumFailures() {
+		return _checksumFailures;
+	}
+	
+	public long getSamplesDecoded() {
+		return _samplesDecoded;
+	}
+	
+	public long getGapSamplesFilled() {
+		return _gapSamplesFilled;
+	}
+	
+	/*
+	 * Rows of the output files: samples, gap samples and activity counts
+	 */
+	public long getRowsWritten() {
+		return _rowsWritten;
+	}
+	
+	/*
+	 * Bytes handed to the output files, before gzip compression
+	 */
+	public long getBytesWritten() {
+		return _bytesWritten;
+	}
+	
+	public long getFilesCreated() {
+		return _filesCreated;
+	}
+	
+	public long getStageNanos(final ConversionStage stage) {
+		return _stageNanos[stage.ordinal()];
+	}
+	
+	/*
+	 * Milliseconds spent in each stage, by stage name
+	 */
+	public Map<String,Long> getStageMillis() {
+		Map<String,Long> millis = new LinkedHashMap<String,Long>();
+		for(ConversionStage stage : STAGES) {
+			millis.put(stage.name(), _stageNanos[stage.ordinal()] / 1000000);
+		}
+		return millis;
+	}
+	
+	/*
+	 * Wall time of the conversion, once stopped
+	 */
+	public long getElapsedNanos() {
+		return _elapsedNanos;
+	}
+	
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Elapsed: "+(_elapsedNanos/1000000)+" ms\n");
+		sb.append("Bytes inflated: "+_bytesInflated+"\n");
+		sb.append("Records parsed: "+getRecordCounts()+"\n");
+		sb.append("Checksum failures: "+_checksumFailures+"\n");
+		sb.append("Samples decoded: "+_samplesDecoded+"\n");
+		sb.append("Gap samples filled: "+_gapSamplesFilled+"\n");
+		sb.append("Rows written: "+_rowsWritten+"\n");
+		sb.append("Bytes written: "+_bytesWritten+"\n");
+		sb.append("Files created: "+_filesCreated+"\n");
+		sb.append("Stage times (ms): "+getStageMillis()+"\n");
+		return sb.toString();
+	}
+}
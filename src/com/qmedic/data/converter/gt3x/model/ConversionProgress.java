@@ -0,0 +1,139 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.model;
+
+/*
+ * Where a conversion is, see GT3XFileProgressListener. Byte counts are those of the activity data
+ * (log.bin or activity.bin), the compressed ones are estimated from the compression ratio of the entry.
+ */
+public class ConversionProgress {
+
+	private final long _bytesRead;
+	private final long _totalBytes;
+	private final long _compressedBytesRead;
+	private final long _compressedTotalBytes;
+	private final long _samples;
+	private final long _dataTimestamp;
+	private final long _elapsedMillis;
+	private final double _megabytesPerSecond;
+	private final long _etaMillis;
+	
+	public ConversionProgress(final long bytesRead, final long totalBytes, final long compressedBytesRead, final long compressedTotalBytes,
+			final long samples, final long dataTimestamp, final long elapsedMillis, final double megabytesPerSecond, final long etaMillis) {
+		this._bytesRead = bytesRead;
+		this._totalBytes = totalBytes;
+		this._compressedBytesRead = compressedBytesRead;
+		this._compressedTotalBytes = compressedTotalBytes;
+		this._samples = samples;
+		this._dataTimestamp = dataTimestamp;
+		this._elapsedMillis = elapsedMillis;
+		this._megabytesPerSecond = megabytesPerSecond;
+		this._etaMillis = etaMillis;
+	}
+	
+	/*
+	 * Uncompressed bytes of the activity data read so far
+	 */
+	public long getBytesRead() {
+		return _bytesRead;
+	}
+	
+	/*
+	 * Uncompressed size of the activity data, -1 if unknown
+	 */
+	public long getTotalBytes() {
+		return _totalBytes;
+	}
+	
+	public long getCompressedBytesRead() {
+		return _compressedBytesRead;
+	}
+	
+	public long getCompressedTotalBytes() {
+		return _compressedTotalBytes;
+	}
+	
+	/*
+	 * Samples written so far, gap samples included. Parallel conversions count the samples of an
+	 * hourly file once it is finished.
+	 */
+	public long getSamples() {
+		return _samples;
+	}
+	
+	/*
+	 * Timestamp (ms, as in the output files) of the data being converted
+	 */
+	public long getDataTimestamp() {
+		return _dataTimestamp;
+	}
+	
+	public long getElapsedMillis() {
+		return _elapsedMillis;
+	}
+	
+	/*
+	 * Uncompressed MB (10^6 bytes) read per second since the previous progress callback
+	 */
+	public double getMegabytesPerSecond() {
+		return _megabytesPerSecond;
+	}
+	
+	/*
+	 * Estimated time left at the average rate so far, -1 if unknown
+	 */
+	public long getEtaMillis() {
+		return _etaMillis;
+	}
+	
+	/*
+	 * Between 0 and 1, -1 if the size of the activity data is unknown
+	 */
+	public double getFractionDone() {
+		if(_totalBytes <= 0) {
+			return -1;
+		}
+		return Math.min(1.0, (double)_bytesRead / _totalBytes);
+	}
+	
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		double fraction = getFractionDone();
+		if(fraction >= 0) {
+			sb.append(Math.round(fraction * 1000) / 10.0).append("%, ");
+		}
+		sb.append(_bytesRead).append(" bytes, ");
+		sb.append(_samples).append(" samples, ");
+		sb.append(Math.round(_megabytesPerSecond * 10) / 10.0).append(" MB/s");
+		if(_etaMillis >= 0) {
+			sb.append(", ETA ").append((_etaMillis + 999) / 1000).append(" s");
+		}
+		return sb.toString();
+	}
+}
@@ -36,6 +36,8 @@ public class LogRecord {
 	private long timestamp = -1;
 	private int payloadSize = -1;
 	private byte[] payload = null;
+	private int payloadOffset = 0;
+	private byte checksum = 0;
 	
 	public byte getSeparator() {
 		return separator;
@@ -65,12 +67,52 @@ public class LogRecord {
 		this.payloadSize = payloadSize;
 	}
 	
+	/*
+	 * Returns the payload as its own array. Records handed out by LogRecordReader are
+	 * views into a shared buffer, so this copies; prefer getPayloadBuffer()/getPayloadOffset().
+	 */
 	public byte[] getPayload() {
+		if(payload != null && (payloadOffset != 0 || payload.length != payloadSize)) {
+			byte[] copy = new byte[payloadSize];
+			System.arraycopy(payload, payloadOffset, copy, 0, payloadSize);
+			return copy;
+		}
 		return payload;
 	}
 	public void setPayload(byte[] payload) {
-		this.payload = new byte[payloadSize];
 		this.payload = payload;
+		this.payloadOffset = 0;
+	}
+	
+	/*
+	 * Points the payload at a slice of a (shared) buffer without copying it.
+	 * The slice is only valid until the owner of the buffer reads the next record.
+	 */
+	public void setPayload(byte[] buffer, int offset) {
+		this.payload = buffer;
+		this.payloadOffset = offset;
+	}
+	
+	public byte[] getPayloadBuffer() {
+		return payload;
+	}
+	
+	public int getPayloadOffset() {
+		return payloadOffset;
+	}
+	
+	public byte getChecksum() {
+		return checksum;
+	}
+	public void setChecksum(byte checksum) {
+		this.checksum = checksum;
+	}
+	
+	/*
+	 * Size of the whole record in log.bin: header, payload and checksum byte
+	 */
+	public int getRecordSize() {
+		return HEADER_SIZE + payloadSize + 1;
 	}
 	
 }
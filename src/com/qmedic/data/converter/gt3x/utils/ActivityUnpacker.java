@@ -0,0 +1,137 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ * 
+ ******************************************************************************************/
+
+
+package com.qmedic.data.converter.gt3x.utils;
+
+import com.qmedic.data.converter.gt3x.enums.LogRecordType;
+import com.qmedic.data.converter.gt3x.model.AccelSampleBlock;
+
+public class ActivityUnpacker {
+
+	public static final int PAIR_SIZE = 9; // bytes, two 3-axis samples of 36 bits
+	public static final int ACTIVITY2_PAIR_SIZE = 12; // bytes, two 3-axis samples of 16-bit values
+	private static final int ACTIVITY2_SAMPLE_SIZE = 6; // bytes
+	
+	/*
+	 * Size of a pair of samples in the payload of a log.bin record: PAIR_SIZE for ACTIVITY records,
+	 * ACTIVITY2_PAIR_SIZE for ACTIVITY2 records and 0 for the other types (no samples)
+	 */
+	public static int pairSize(final int recordType) {
+		if(recordType == LogRecordType.ACTIVITY.getId()) {
+			return PAIR_SIZE;
+		} else if(recordType == LogRecordType.ACTIVITY2.getId()) {
+			return ACTIVITY2_PAIR_SIZE;
+		}
+		return 0;
+	}
+	
+	/*
+	 * Unpacks the samples of an ACTIVITY or ACTIVITY2 record payload, see unpack() and unpackActivity2()
+	 */
+	public static int unpack(final int recordType, final byte[] bytes, final int offset, final int length, final AccelSampleBlock block) {
+		if(recordType == LogRecordType.ACTIVITY2.getId()) {
+			return unpackActivity2(bytes, offset, length, block);
+		}
+		return unpack(bytes, offset, length, block);
+	}
+	
+	/*
+	 * Unpacks 12-bit activity samples (activity.bin for V1, ACTIVITY log record payloads for V2) into
+	 * the x, y and z arrays of a block, in one pass over the bytes. Samples are packed in YXZ order.
+	 * Each full 9-byte group holds two samples. If at least 5 bytes (36 bits) are left over after
+	 * the last full group, they are decoded as one more (odd) sample, and the last 4 bits are
+	 * padding. Pass a length that is a multiple of 9 to only decode full pairs.
+	 * Returns the number of samples decoded, which is also set as the size of the block.
+	 */
+	public static int unpack(final byte[] bytes, final int offset, final int length, final AccelSampleBlock block) {
+		int pairs = length / PAIR_SIZE;
+		int odd = (length - pairs * PAIR_SIZE) >= 5 ? 1 : 0;
+		int count = pairs * 2 + odd;
+		block.ensureCapacity(count);
+		short[] x = block.x();
+		short[] y = block.y();
+		short[] z = block.z();
+		
+		int p = offset;
+		int s = 0;
+		for(int i = 0; i < pairs; i++, p += PAIR_SIZE, s += 2) {
+			int b0 = bytes[p]&0xFF;
+			int b1 = bytes[p+1]&0xFF;
+			int b2 = bytes[p+2]&0xFF;
+			int b3 = bytes[p+3]&0xFF;
+			int b4 = bytes[p+4]&0xFF;
+			int b5 = bytes[p+5]&0xFF;
+			int b6 = bytes[p+6]&0xFF;
+			int b7 = bytes[p+7]&0xFF;
+			int b8 = bytes[p+8]&0xFF;
+			// Shifting the 12-bit value to the top of the int and back sign-extends it without a branch
+			y[s] = (short)(((b0<<4 | b1>>>4) << 20) >> 20);
+			x[s] = (short)((((b1&0x0F)<<8 | b2) << 20) >> 20);
+			z[s] = (short)(((b3<<4 | b4>>>4) << 20) >> 20);
+			y[s+1] = (short)((((b4&0x0F)<<8 | b5) << 20) >> 20);
+			x[s+1] = (short)(((b6<<4 | b7>>>4) << 20) >> 20);
+			z[s+1] = (short)((((b7&0x0F)<<8 | b8) << 20) >> 20);
+		}
+		if(odd == 1) {
+			int b0 = bytes[p]&0xFF;
+			int b1 = bytes[p+1]&0xFF;
+			int b2 = bytes[p+2]&0xFF;
+			int b3 = bytes[p+3]&0xFF;
+			int b4 = bytes[p+4]&0xFF;
+			y[s] = (short)(((b0<<4 | b1>>>4) << 20) >> 20);
+			x[s] = (short)((((b1&0x0F)<<8 | b2) << 20) >> 20);
+			z[s] = (short)(((b3<<4 | b4>>>4) << 20) >> 20);
+		}
+		block.setSize(count);
+		return count;
+	}
+	
+	/*
+	 * Unpacks 16-bit activity samples (ACTIVITY2 log record payloads of GT9X Link devices) into the x, y
+	 * and z arrays of a block. Samples are little-endian signed values in XYZ order, 6 bytes each. A
+	 * sample left over after the last full pair is decoded as well, pass a multiple of
+	 * ACTIVITY2_PAIR_SIZE to only decode full pairs.
+	 * Returns the number of samples decoded, which is also set as the size of the block.
+	 */
+	public static int unpackActivity2(final byte[] bytes, final int offset, final int length, final AccelSampleBlock block) {
+		int count = length / ACTIVITY2_SAMPLE_SIZE;
+		block.ensureCapacity(count);
+		short[] x = block.x();
+		short[] y = block.y();
+		short[] z = block.z();
+		
+		int p = offset;
+		for(int s = 0; s < count; s++, p += ACTIVITY2_SAMPLE_SIZE) {
+			x[s] = (short)((bytes[p]&0xFF) | bytes[p+1]<<8);
+			y[s] = (short)((bytes[p+2]&0xFF) | bytes[p+3]<<8);
+			z[s] = (short)((bytes[p+4]&0xFF) | bytes[p+5]<<8);
+		}
+		block.setSize(count);
+		return count;
+	}
+}
@@ -0,0 +1,179 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ *  - Albinali, Fahd
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.utils;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.qmedic.data.converter.gt3x.iface.ConverterMetricsMXBean;
+import com.qmedic.data.converter.gt3x.model.ConversionMetrics;
+
+/*
+ * Totals of all the conversions of this JVM (every GT3XFile.convertToMHealth()), exposed as an MXBean
+ * for services that convert files continuously. Registered with the platform MBean server the first
+ * time it is used.
+ */
+public class ConverterMetrics implements ConverterMetricsMXBean {
+
+	public static final String OBJECT_NAME = "com.qmedic.data.converter.gt3x:type=ConverterMetrics";
+	
+	private static ConverterMetrics _instance = null;
+	
+	private ConversionMetrics _totals = new ConversionMetrics();
+	private long _started = 0;
+	private long _succeeded = 0;
+	private long _failed = 0;
+	private long _elapsedNanos = 0;
+	private String _lastInputFile = null;
+	private long _lastElapsedNanos = 0;
+	
+	private ConverterMetrics() {}
+	
+	public static synchronized ConverterMetrics getInstance() {
+		if(_instance == null) {
+			_instance = new ConverterMetrics();
+			try {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				ObjectName name = new ObjectName(OBJECT_NAME);
+				if(!server.isRegistered(name)) {
+					server.registerMBean(_instance, name);
+				}
+			} catch (JMException e) {
+				// Still collected, only not visible through JMX (e.g. registered by another class loader)
+			} catch (SecurityException e) {
+			}
+		}
+		return _instance;
+	}
+	
+	public synchronized void conversionStarted() {
+		_started++;
+	}
+	
+	public synchronized void conversionFinished(final String inputFileFullPath, final ConversionMetrics metrics, final boolean succeeded) {
+		if(succeeded) {
+			_succeeded++;
+		} else {
+			_failed++;
+		}
+		_totals.add(metrics);
+		_elapsedNanos += metrics.getElapsedNanos();
+		_lastInputFile = inputFileFullPath;
+		_lastElapsedNanos = metrics.getElapsedNanos();
+	}
+	
+	public synchronized long getConversionsStarted() {
+		return _started;
+	}
+	
+	public synchronized long getConversionsSucceeded() {
+		return _succeeded;
+	}
+	
+	public synchronized long getConversionsFailed() {
+		return _failed;
+	}
+	
+	public synchronized long getConversionsInProgress() {
+		return _started - _succeeded - _failed;
+	}
+	
+	public synchronized long getBytesInflated() {
+		return _totals.getBytesInflated();
+	}
+	
+	public synchronized long getRecordsParsed() {
+		return _totals.getRecordsParsed();
+	}
+	
+	public synchronized Map<String,Long> getRecordCounts() {
+		return _totals.getRecordCounts();
+	}
+	
+	public synchronized long getChecksumFailures() {
+		return _totals.getChecksumFailures();
+	}
+	
+	public synchronized long getSamplesDecoded() {
+		return _totals.getSamplesDecoded();
+	}
+	
+	public synchronized long getGapSamplesFilled() {
+		return _totals.getGapSamplesFilled();
+	}
+	
+	public synchronized long getRowsWritten() {
+		return _totals.getRowsWritten();
+	}
+	
+	public synchronized long getBytesWritten() {
+		return _totals.getBytesWritten();
+	}
+	
+	public synchronized long getFilesCreated() {
+		return _totals.getFilesCreated();
+	}
+	
+	/*
+	 * Sum of the wall times of the finished conversions
+	 */
+	public synchronized long getElapsedMillis() {
+		return _elapsedNanos / 1000000;
+	}
+	
+	public synchronized Map<String,Long> getStageMillis() {
+		return _totals.getStageMillis();
+	}
+	
+	public synchronized String getLastInputFile() {
+		return _lastInputFile;
+	}
+	
+	public synchronized long getLastElapsedMillis() {
+		return _lastElapsedNanos / 1000000;
+	}
+	
+	/*
+	 * Clears the totals, conversions in progress are still counted when they finish
+	 */
+	public synchronized void reset() {
+		long inProgress = getConversionsInProgress();
+		_totals = new ConversionMetrics();
+		_started = inProgress;
+		_succeeded = 0;
+		_failed = 0;
+		_elapsedNanos = 0;
+		_lastInputFile = null;
+		_lastElapsedNanos = 0;
+	}
+}
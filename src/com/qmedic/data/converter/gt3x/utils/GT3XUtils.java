@@ -27,6 +27,8 @@
 
 package com.qmedic.data.converter.gt3x.utils;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.TimeZone;
@@ -126,8 +128,10 @@ public class GT3XUtils {
 		chkSum ^= (byte)((record.getTimestamp()>>>24) & 0xFF);
 		chkSum ^= (byte)(record.getPayloadSize() & 0xFF);
 		chkSum ^= (byte)((record.getPayloadSize()>>>8) & 0xFF);
-		for(int j=0; j < record.getPayload().length; j++) {
-			chkSum ^= record.getPayload()[j];
+		byte[] payload = record.getPayloadBuffer();
+		int end = record.getPayloadOffset() + record.getPayloadSize();
+		for(int j=record.getPayloadOffset(); j < end; j++) {
+			chkSum ^= payload[j];
 		}
 		return (byte)~chkSum;
 	}
@@ -184,5 +188,18 @@ public class GT3XUtils {
 		Date date = new Date((ticks - TICKS_AT_EPOCH) / TICKS_PER_MILLISECOND);
 		return date.getTime();
 	}
-
+	
+	/*
+	 * Closes a file or stream after a failure, ignoring the exception of an already failed or
+	 * stopped one (the first failure is the one reported)
+	 */
+	public static void closeQuietly(final Closeable closeable) {
+		if(closeable != null) {
+			try {
+				closeable.close();
+			} catch(IOException e) {
+				// Already failed or stopped
+			}
+		}
+	}
 }
@@ -43,6 +43,8 @@ public class MHealthUtils {
 	private SimpleDateFormat _sdfFile;
 	private SimpleDateFormat _sdfFileTz;
 	private SimpleDateFormat _sdfData;
+	private TimestampFormatter _timestampFormatterData;
+	private boolean _binaryOutput;
 	
 	public MHealthUtils(final GT3XParserOutputDataType outputDataType) {
 		this._sdfFile = new SimpleDateFormat(MHEALTH_TIMESTAMP_FILE_FORMAT);
@@ -53,11 +55,20 @@ public class MHealthUtils {
 		String outputDataFormat = (outputDataType == GT3XParserOutputDataType.ACTIGRAPH) ? ACTIGRAPH_TIMESTAMP_DATA_FORMAT : MHEALTH_TIMESTAMP_DATA_FORMAT;
 		this._sdfData = new SimpleDateFormat(outputDataFormat);
 		_sdfData.setTimeZone(TimeZone.getTimeZone("UTC")); // Data is in UTC
+		this._timestampFormatterData = TimestampFormatter.forOutputDataType(outputDataType);
+		this._binaryOutput = (outputDataType == GT3XParserOutputDataType.BINARY);
 	}
 
 	public SimpleDateFormat dataSimpleDateFormat() {
 		return this._sdfData;
 	}
+	
+	/*
+	 * Faster, thread-safe equivalent of dataSimpleDateFormat() for the data rows
+	 */
+	public TimestampFormatter dataTimestampFormatter() {
+		return this._timestampFormatterData;
+	}
 
 	/*
 	 * Helper method to find timezone offset
@@ -82,27 +93,39 @@ public class MHealthUtils {
 		sb.append(_sdfFile.format(new Date(timestamp)));
 		sb.append('-');
 		sb.append(timezoneOffset);
-		sb.append(".sensor.csv");
+		sb.append(_binaryOutput ? ".sensor.bin" : ".sensor.csv");
 		return sb.toString();
 	}
 	
 	/*
 	 * Helper method to create ActivityCount mHealth filename for its AccelerationCalibrated counterpart
 	 * Replaces "-AccelerationCalibrated" by "-ActivityCount" in the first token,
-	 * and adds "-ActivityCount" to the second token if it doesn't exist
+	 * and adds "-ActivityCount" to the second token if it doesn't exist.
+	 * Activity counts are always CSV, the "bin" extension of BINARY output files is replaced.
 	 */
 	public String getActivityCountMHealthFileName(final String accelerationCalibratedFileName) {
+		return getSensorMHealthFileName(accelerationCalibratedFileName, "ActivityCount");
+	}
+	
+	/*
+	 * Same as getActivityCountMHealthFileName() for the data type "dataType" (e.g. "Battery")
+	 */
+	public String getSensorMHealthFileName(final String accelerationCalibratedFileName, final String dataType) {
 		StringBuilder sb = new StringBuilder();
 		String[] tokens = accelerationCalibratedFileName.split("\\.");
 		if(tokens.length > 2) {
 			for(int i = 0; i<tokens.length; i++) {
 				sb.append((i==0) ? "" : '.');
 				if(i==0 && tokens[i].contains("-AccelerationCalibrated-")) {
-					sb.append(tokens[i].replace("-AccelerationCalibrated-", "-ActivityCount-"));	
+					sb.append(tokens[i].replace("-AccelerationCalibrated-", "-"+dataType+"-"));	
 				} else {
 					sb.append(tokens[i]);
 				}
-				sb.append((i==1 && !tokens[i].contains("ActivityCount")) ? "-ActivityCount" : "");
+				sb.append((i==1 && !tokens[i].contains(dataType)) ? "-"+dataType : "");
+			}
+			if(accelerationCalibratedFileName.endsWith(".sensor.bin")) {
+				sb.setLength(sb.length() - 3);
+				sb.append("csv");
 			}
 		}
 		return sb.toString();
@@ -0,0 +1,219 @@
+/******************************************************************************************
+ * 
+ * Copyright (c) 2016 EveryFit, Inc.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * 
+ * Authors:
+ *  - Billy, Stanis Laus
+ * 
+ ******************************************************************************************/
+
+package com.qmedic.data.converter.gt3x.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+import com.qmedic.data.converter.gt3x.enums.GT3XParserOutputDataType;
+
+/*
+ * Formats data timestamps (UTC, milliseconds) as MHealthUtils.MHEALTH_TIMESTAMP_DATA_FORMAT or
+ * MHealthUtils.ACTIGRAPH_TIMESTAMP_DATA_FORMAT, straight into a byte buffer.
+ * The rendered "date time." prefix of the last second is cached, so rows that fall in the same
+ * second only get their milliseconds written. When the second changes within the same day only
+ * the time of day is rendered again. The output is the same as SimpleDateFormat's.
+ * 
+ * Instances are thread-safe: the cached second is immutable and published through a volatile
+ * field, so converters running in parallel can share the MHEALTH and ACTIGRAPH instances.
+ */
+public class TimestampFormatter {
+
+	public static final TimestampFormatter MHEALTH = new TimestampFormatter(GT3XParserOutputDataType.MHEALTH);
+	public static final TimestampFormatter ACTIGRAPH = new TimestampFormatter(GT3XParserOutputDataType.ACTIGRAPH);
+	
+	public static final int MAX_LENGTH = 64; // bytes, more than enough for any timestamp the fallback could produce
+	private static final int TIME_LENGTH = 9; // "HH:mm:ss."
+	private static final int MIN_YEAR = 1900; // SimpleDateFormat uses the Julian calendar before 1582
+	private static final int MAX_YEAR = 9999; // 4 digit years
+	
+	private final boolean _actigraphFormat;
+	private final String _pattern;
+	private volatile Second _cached = null;
+	
+	/*
+	 * The rendered prefix of one second, never modified once published
+	 */
+	private static final class Second {
+		final long second;
+		final long day;
+		final byte[] prefix;
+		
+		Second(final long second, final long day, final byte[] prefix) {
+			this.second = second;
+			this.day = day;
+			this.prefix = prefix;
+		}
+	}
+	
+	private TimestampFormatter(final GT3XParserOutputDataType outputDataType) {
+		this._actigraphFormat = (outputDataType == GT3XParserOutputDataType.ACTIGRAPH);
+		this._pattern = _actigraphFormat ? MHealthUtils.ACTIGRAPH_TIMESTAMP_DATA_FORMAT : MHealthUtils.MHEALTH_TIMESTAMP_DATA_FORMAT;
+	}
+	
+	public static TimestampFormatter forOutputDataType(final GT3XParserOutputDataType outputDataType) {
+		return (outputDataType == GT3XParserOutputDataType.ACTIGRAPH) ? ACTIGRAPH : MHEALTH;
+	}
+	
+	/*
+	 * Same format with a cache of its own, for a thread that formats a different stretch of time
+	 * than the other users of this instance (they would keep evicting each other's cached second)
+	 */
+	public TimestampFormatter copy() {
+		return new TimestampFormatter(_actigraphFormat ? GT3XParserOutputDataType.ACTIGRAPH : GT3XParserOutputDataType.MHEALTH);
+	}
+	
+	/*
+	 * Writes the formatted timestamp to dest (which needs MAX_LENGTH bytes of room) and returns
+	 * the offset following it
+	 */
+	public int format(final long millis, final byte[] dest, int offset) {
+		long second = Math.floorDiv(millis, 1000L);
+		Second cached = _cached;
+		if(cached == null || cached.second != second) {
+			cached = render(second, cached);
+			if(cached == null) {
+				return formatFallback(millis, dest, offset);
+			}
+			_cached = cached;
+		}
+		byte[] prefix = cached.prefix;
+		System.arraycopy(prefix, 0, dest, offset, prefix.length);
+		offset += prefix.length;
+		int ms = (int)(millis - second * 1000L);
+		dest[offset++] = (byte)('0' + ms / 100);
+		dest[offset++] = (byte)('0' + ms / 10 % 10);
+		dest[offset++] = (byte)('0' + ms % 10);
+		return offset;
+	}
+	
+	public String format(final long millis) {
+		byte[] formatted = new byte[MAX_LENGTH];
+		int length = format(millis, formatted, 0);
+		return new String(formatted, 0, length, StandardCharsets.US_ASCII);
+	}
+	
+	/*
+	 * Renders the prefix of a second, reusing the date of the previous one if it is on the same day.
+	 * Returns null if the date is out of the range handled here.
+	 */
+	private Second render(final long second, final Second previous) {
+		long day = Math.floorDiv(second, 86400L);
+		int secondOfDay = (int)(second - day * 86400L);
+		byte[] prefix;
+		if(previous != null && previous.day == day) {
+			prefix = previous.prefix.clone();
+		} else {
+			prefix = renderDate(day);
+			if(prefix == null) {
+				return null;
+			}
+		}
+		int p = prefix.length - TIME_LENGTH;
+		p = write2Digits(prefix, p, secondOfDay / 3600);
+		prefix[p++] = ':';
+		p = write2Digits(prefix, p, secondOfDay / 60 % 60);
+		prefix[p++] = ':';
+		p = write2Digits(prefix, p, secondOfDay % 60);
+		prefix[p] = '.';
+		return new Second(second, day, prefix);
+	}
+	
+	/*
+	 * "yyyy-MM-dd " or "M/d/yyyy " followed by room for the time of day
+	 */
+	private byte[] renderDate(final long epochDay) {
+		// Days since 1970-01-01 to proleptic Gregorian year/month/day
+		long z = epochDay + 719468;
+		long era = Math.floorDiv(z, 146097L);
+		long doe = z - era * 146097;
+		long yoe = (doe - doe/1460 + doe/36524 - doe/146096) / 365;
+		long doy = doe - (365*yoe + yoe/4 - yoe/100);
+		long mp = (5*doy + 2) / 153;
+		int day = (int)(doy - (153*mp + 2)/5 + 1);
+		int month = (int)(mp < 10 ? mp + 3 : mp - 9);
+		long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+		if(year < MIN_YEAR || year > MAX_YEAR) {
+			return null;
+		}
+		
+		byte[] prefix;
+		int p = 0;
+		if(_actigraphFormat) {
+			prefix = new byte[(month < 10 ? 1 : 2) + 1 + (day < 10 ? 1 : 2) + 1 + 4 + 1 + TIME_LENGTH];
+			p = writeNumber(prefix, p, month);
+			prefix[p++] = '/';
+			p = writeNumber(prefix, p, day);
+			prefix[p++] = '/';
+			p = write4Digits(prefix, p, (int)year);
+		} else {
+			prefix = new byte[4 + 1 + 2 + 1 + 2 + 1 + TIME_LENGTH];
+			p = write4Digits(prefix, p, (int)year);
+			prefix[p++] = '-';
+			p = write2Digits(prefix, p, month);
+			prefix[p++] = '-';
+			p = write2Digits(prefix, p, day);
+		}
+		prefix[p] = ' ';
+		return prefix;
+	}
+	
+	private int formatFallback(final long millis, final byte[] dest, int offset) {
+		SimpleDateFormat sdf = new SimpleDateFormat(_pattern);
+		sdf.setTimeZone(TimeZone.getTimeZone("UTC")); // Data is in UTC
+		String formatted = sdf.format(millis);
+		for(int i = 0; i < formatted.length() && i < MAX_LENGTH; i++) {
+			dest[offset++] = (byte)formatted.charAt(i);
+		}
+		return offset;
+	}
+	
+	private static int writeNumber(final byte[] dest, int offset, final int value) {
+		return value < 10 ? writeDigit(dest, offset, value) : write2Digits(dest, offset, value);
+	}
+	
+	private static int writeDigit(final byte[] dest, final int offset, final int value) {
+		dest[offset] = (byte)('0' + value);
+		return offset + 1;
+	}
+	
+	private static int write2Digits(final byte[] dest, final int offset, final int value) {
+		dest[offset] = (byte)('0' + value / 10);
+		dest[offset+1] = (byte)('0' + value % 10);
+		return offset + 2;
+	}
+	
+	private static int write4Digits(final byte[] dest, final int offset, final int value) {
+		dest[offset] = (byte)('0' + value / 1000);
+		dest[offset+1] = (byte)('0' + value / 100 % 10);
+		dest[offset+2] = (byte)('0' + value / 10 % 10);
+		dest[offset+3] = (byte)('0' + value % 10);
+		return offset + 4;
+	}
+}
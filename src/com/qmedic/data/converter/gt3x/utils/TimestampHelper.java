@@ -48,6 +48,17 @@ public class TimestampHelper {
         Reset();
     }
 
+    /*
+     * Copy of "other", in the same state (the next tick is the same)
+     */
+    public TimestampHelper(TimestampHelper other)
+    {
+        _quotient = other._quotient;
+        _numerator = other._numerator;
+        _denominator = other._denominator;
+        _count = other._count;
+    }
+
     private int GreatestCommonDivisor(int a, int b)
     {
         while (0 != a)
@@ -70,8 +81,34 @@ public class TimestampHelper {
         return tick;
     }
 
+    /*
+     * Sum of the next "count" ticks, as if Next() was called "count" times
+     */
+    public long Skip(long count)
+    {
+        long cycles = count / _denominator;
+        long total = cycles * ((long)_quotient * _denominator + _numerator); // a cycle from any tick
+        for (long i = cycles * _denominator; i < count; i++)
+            total += Next();
+
+        return total;
+    }
+
     public void Reset()
     {
         _count = 0;
     }
+
+    /*
+     * Ticks since the last reset, where the helper is in its cycle
+     */
+    public int GetCount()
+    {
+        return _count;
+    }
+
+    public void SetCount(int count)
+    {
+        _count = count % _denominator;
+    }
 }